@@ -23,10 +23,7 @@ import android.content.ContentResolver;
 import android.content.Context;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
-import android.graphics.ImageFormat;
 import android.graphics.Matrix;
-import android.graphics.Rect;
-import android.graphics.YuvImage;
 import android.media.Image;
 import android.media.Image.Plane;
 import android.net.Uri;
@@ -38,7 +35,6 @@ import androidx.annotation.RequiresApi;
 import androidx.camera.core.ExperimentalGetImage;
 import androidx.camera.core.ImageProxy;
 import androidx.exifinterface.media.ExifInterface;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.ByteBuffer;
@@ -47,44 +43,29 @@ import java.nio.ByteBuffer;
 public final class BitmapUtils {
   private static final String TAG = "BitmapUtils";
 
-  /** Converts NV21 format byte buffer to bitmap. */
+  /**
+   * Converts NV21 format byte buffer to bitmap with the given converter, which reuses its buffers
+   * across calls.
+   */
   @Nullable
-  public static Bitmap getBitmap(ByteBuffer data, FrameMetadata metadata) {
-    data.rewind();
-    byte[] imageInBuffer = new byte[data.limit()];
-    data.get(imageInBuffer, 0, imageInBuffer.length);
-    try {
-      YuvImage image =
-          new YuvImage(
-              imageInBuffer, ImageFormat.NV21, metadata.getWidth(), metadata.getHeight(), null);
-      ByteArrayOutputStream stream = new ByteArrayOutputStream();
-      image.compressToJpeg(new Rect(0, 0, metadata.getWidth(), metadata.getHeight()), 80, stream);
-
-      Bitmap bmp = BitmapFactory.decodeByteArray(stream.toByteArray(), 0, stream.size());
-
-      stream.close();
-      return rotateBitmap(bmp, metadata.getRotation(), false, false);
-    } catch (Exception e) {
-      Log.e("VisionProcessorBase", "Error: " + e.getMessage());
-    }
-    return null;
+  public static Bitmap getBitmap(
+      ByteBuffer data, FrameMetadata metadata, PreviewBitmapConverter converter) {
+    return converter.convert(
+        data, metadata.getWidth(), metadata.getHeight(), metadata.getRotation());
   }
 
-  /** Converts a YUV_420_888 image from CameraX API to a bitmap. */
+  /** Converts a YUV_420_888 image from CameraX API to a bitmap with the given converter. */
   @RequiresApi(VERSION_CODES.LOLLIPOP)
   @Nullable
   @ExperimentalGetImage
-  public static Bitmap getBitmap(ImageProxy image) {
-    FrameMetadata frameMetadata =
-        new FrameMetadata.Builder()
-            .setWidth(image.getWidth())
-            .setHeight(image.getHeight())
-            .setRotation(image.getImageInfo().getRotationDegrees())
-            .build();
-
+  public static Bitmap getBitmap(ImageProxy image, PreviewBitmapConverter converter) {
     ByteBuffer nv21Buffer =
         yuv420ThreePlanesToNV21(image.getImage().getPlanes(), image.getWidth(), image.getHeight());
-    return getBitmap(nv21Buffer, frameMetadata);
+    return converter.convert(
+        nv21Buffer,
+        image.getWidth(),
+        image.getHeight(),
+        image.getImageInfo().getRotationDegrees());
   }
 
   /** Rotates a bitmap if it is converted from a bytebuffer. */
@@ -0,0 +1,86 @@
+/*
+ * Copyright 2020 Google LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.mlkit.vision.automl.demo;
+
+import android.graphics.Bitmap;
+import java.nio.ByteBuffer;
+
+/**
+ * Converts NV21 camera frames to upright preview bitmaps directly, without encoding them, reusing
+ * its pixel buffer and bitmaps across frames. Not thread-safe.
+ *
+ * <p>Bitmaps are handed out in turn from a small ring, so a returned bitmap is only overwritten
+ * once as many further frames have been converted as the ring holds. It must not be recycled by
+ * the caller.
+ */
+public class PreviewBitmapConverter {
+  // Enough for one frame on screen while the next one is converted.
+  private static final int DEFAULT_NUM_BITMAPS = 2;
+
+  private final Bitmap[] bitmaps;
+  private int nextBitmap;
+  private int[] argb = new int[0];
+  // Only needed for frames that are not backed by an array.
+  private byte[] nv21 = new byte[0];
+
+  public PreviewBitmapConverter() {
+    this(DEFAULT_NUM_BITMAPS);
+  }
+
+  public PreviewBitmapConverter(int numBitmaps) {
+    bitmaps = new Bitmap[numBitmaps];
+  }
+
+  /** Converts an NV21 frame, rotating it clockwise by 0, 90, 180 or 270 degrees. */
+  public Bitmap convert(ByteBuffer data, int width, int height, int rotationDegrees) {
+    byte[] frame;
+    if (data.hasArray() && data.arrayOffset() == 0) {
+      frame = data.array();
+    } else {
+      if (nv21.length < data.limit()) {
+        nv21 = new byte[data.limit()];
+      }
+      data.rewind();
+      data.get(nv21, 0, data.limit());
+      frame = nv21;
+    }
+    return convert(frame, width, height, rotationDegrees);
+  }
+
+  /** Converts an NV21 frame, rotating it clockwise by 0, 90, 180 or 270 degrees. */
+  public Bitmap convert(byte[] frame, int width, int height, int rotationDegrees) {
+    if (argb.length < width * height) {
+      argb = new int[width * height];
+    }
+    YuvUtils.nv21ToArgb(frame, width, height, rotationDegrees, /* flipX= */ false, argb);
+
+    boolean isRotated = rotationDegrees == 90 || rotationDegrees == 270;
+    int bitmapWidth = isRotated ? height : width;
+    int bitmapHeight = isRotated ? width : height;
+    Bitmap bitmap = bitmaps[nextBitmap];
+    if (bitmap == null
+        || bitmap.getWidth() != bitmapWidth
+        || bitmap.getHeight() != bitmapHeight) {
+      // The old bitmap may still be on screen, so it is left to the garbage collector.
+      bitmap = Bitmap.createBitmap(bitmapWidth, bitmapHeight, Bitmap.Config.ARGB_8888);
+      bitmaps[nextBitmap] = bitmap;
+    }
+    nextBitmap = (nextBitmap + 1) % bitmaps.length;
+    bitmap.setPixels(argb, 0, bitmapWidth, 0, 0, bitmapWidth, bitmapHeight);
+    return bitmap;
+  }
+}
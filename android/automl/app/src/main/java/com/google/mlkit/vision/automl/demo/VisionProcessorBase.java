@@ -53,6 +53,8 @@ public abstract class VisionProcessorBase<T> implements VisionImageProcessor {
   private final ActivityManager activityManager;
   private final Timer fpsTimer = new Timer();
   private final ScopedExecutor executor;
+  // Converts frames to preview bitmaps, one frame at a time.
+  private final PreviewBitmapConverter bitmapConverter = new PreviewBitmapConverter();
   private final Toast toast;
 
   // Whether this processor is already shut down
@@ -135,7 +137,7 @@ public abstract class VisionProcessorBase<T> implements VisionImageProcessor {
     Bitmap bitmap =
         PreferenceUtils.isCameraLiveViewportEnabled(graphicOverlay.getContext())
             ? null
-            : BitmapUtils.getBitmap(data, frameMetadata);
+            : BitmapUtils.getBitmap(data, frameMetadata, bitmapConverter);
 
     requestDetectInImage(
             InputImage.fromByteBuffer(
@@ -162,7 +164,7 @@ public abstract class VisionProcessorBase<T> implements VisionImageProcessor {
 
     Bitmap bitmap = null;
     if (!PreferenceUtils.isCameraLiveViewportEnabled(graphicOverlay.getContext())) {
-      bitmap = BitmapUtils.getBitmap(image);
+      bitmap = BitmapUtils.getBitmap(image, bitmapConverter);
     }
 
     requestDetectInImage(
@@ -0,0 +1,120 @@
+/*
+ * Copyright 2020 Google LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.mlkit.vision.automl.demo;
+
+/** Conversion of NV21 frames to ARGB pixels, for {@link PreviewBitmapConverter}. */
+public class YuvUtils {
+
+  private YuvUtils() {}
+
+  /**
+   * Converts an NV21 frame to ARGB pixels, rotating it clockwise and then mirroring it along the X
+   * axis in the same pass, as {@link android.graphics.Matrix#postRotate} followed by {@link
+   * android.graphics.Matrix#postScale} with -1 would.
+   *
+   * <p>Colors are converted with the BT.601 limited range coefficients cameras use, in fixed point.
+   * The rotated frame is written to {@code argb} row by row, so it is {@code height} pixels wide if
+   * rotated by 90 or 270 degrees and {@code width} pixels wide otherwise.
+   *
+   * @param rotationDegrees 0, 90, 180 or 270
+   * @param argb at least {@code width * height} entries
+   */
+  static void nv21ToArgb(
+      byte[] nv21, int width, int height, int rotationDegrees, boolean flipX, int[] argb) {
+    // The rotated and mirrored position is (ax * x + bx * y + cx, ay * x + by * y + cy).
+    int ax = 1;
+    int bx = 0;
+    int cx = 0;
+    int ay = 0;
+    int by = 1;
+    int cy = 0;
+    int outWidth = width;
+    switch (rotationDegrees) {
+      case 0:
+        break;
+      case 90:
+        ax = 0;
+        bx = -1;
+        cx = height - 1;
+        ay = 1;
+        by = 0;
+        outWidth = height;
+        break;
+      case 180:
+        ax = -1;
+        cx = width - 1;
+        by = -1;
+        cy = height - 1;
+        break;
+      case 270:
+        ax = 0;
+        bx = 1;
+        ay = -1;
+        by = 0;
+        cy = width - 1;
+        outWidth = height;
+        break;
+      default:
+        throw new IllegalArgumentException("Unsupported rotation " + rotationDegrees);
+    }
+    if (flipX) {
+      ax = -ax;
+      bx = -bx;
+      cx = outWidth - 1 - cx;
+    }
+    // Steps through the output for each input column and row.
+    int colStep = ay * outWidth + ax;
+    int rowStep = by * outWidth + bx;
+
+    int imageSize = width * height;
+    int rowStart = cy * outWidth + cx;
+    for (int y = 0; y < height; y++, rowStart += rowStep) {
+      int yIndex = y * width;
+      int vuIndex = imageSize + (y >> 1) * width;
+      int outIndex = rowStart;
+      // Each V and U pair is shared by two neighboring pixels.
+      for (int x = 0; x < width; x += 2, outIndex += 2 * colStep) {
+        int v = (nv21[vuIndex++] & 0xff) - 128;
+        int u = (nv21[vuIndex++] & 0xff) - 128;
+        int red = 1634 * v;
+        int green = -833 * v - 400 * u;
+        int blue = 2066 * u;
+        argb[outIndex] = toArgb(nv21[yIndex + x], red, green, blue);
+        if (x + 1 < width) {
+          argb[outIndex + colStep] = toArgb(nv21[yIndex + x + 1], red, green, blue);
+        }
+      }
+    }
+  }
+
+  // Adds the chroma terms, in fixed point with 10 fractional bits, to the luma of a pixel.
+  private static int toArgb(byte luma, int red, int green, int blue) {
+    int y = (luma & 0xff) - 16;
+    y = 1192 * (y & ~(y >> 31));
+    int r = clampColor(y + red);
+    int g = clampColor(y + green);
+    int b = clampColor(y + blue);
+    return 0xff000000 | ((r << 6) & 0xff0000) | ((g >> 2) & 0xff00) | (b >> 10);
+  }
+
+  // Clamps a color in fixed point with 10 fractional bits to [0, 255]. Without branches, as noisy
+  // frames would make them unpredictable.
+  private static int clampColor(int value) {
+    value &= ~(value >> 31);
+    return (value | ((262143 - value) >> 31)) & 262143;
+  }
+}
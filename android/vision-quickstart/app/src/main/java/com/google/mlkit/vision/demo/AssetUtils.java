@@ -0,0 +1,48 @@
+/*
+ * Copyright 2020 Google LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.mlkit.vision.demo;
+
+import android.content.Context;
+import android.content.res.AssetFileDescriptor;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/** Utils functions for reading app assets. */
+public class AssetUtils {
+  private AssetUtils() {}
+
+  /**
+   * Memory-maps an asset straight from the APK, read-only. The asset must be stored uncompressed,
+   * see {@code aaptOptions.noCompress} in the app's build.gradle. The mapping stays valid after
+   * this returns, for as long as the buffer is referenced.
+   *
+   * @throws IOException if the asset is missing or compressed
+   */
+  public static MappedByteBuffer mapAsset(Context context, String assetFile) throws IOException {
+    try (AssetFileDescriptor fileDescriptor = context.getAssets().openFd(assetFile);
+        FileInputStream inputStream = fileDescriptor.createInputStream()) {
+      return inputStream
+          .getChannel()
+          .map(
+              FileChannel.MapMode.READ_ONLY,
+              fileDescriptor.getStartOffset(),
+              fileDescriptor.getDeclaredLength());
+    }
+  }
+}
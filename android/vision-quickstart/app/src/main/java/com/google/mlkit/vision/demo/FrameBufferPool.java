@@ -0,0 +1,153 @@
+/*
+ * Copyright 2020 Google LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.mlkit.vision.demo;
+
+import android.util.Log;
+import androidx.annotation.GuardedBy;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Recycles frame buffers of the sizes a camera delivers, so that packing frames allocates nothing
+ * once every size in use has been seen. Thread-safe.
+ *
+ * <p>Buffers are acquired for a frame and released once it has been processed. When leak detection
+ * is on, typically in debug builds, the pool remembers where each buffer was acquired and logs it
+ * if the buffer is garbage collected without having been released, and it throws on buffers
+ * released twice or not acquired from it.
+ */
+public class FrameBufferPool {
+  private static final String TAG = "FrameBufferPool";
+  // Enough for the frames in flight of a pipeline, more are left to the garbage collector.
+  private static final int DEFAULT_MAX_FREE_BUFFERS_PER_SIZE = 4;
+
+  private final int maxFreeBuffersPerSize;
+  private final boolean detectLeaks;
+
+  @GuardedBy("this")
+  private final Map<Integer, ArrayDeque<byte[]>> freeBuffers = new HashMap<>();
+
+  // Only used when detecting leaks.
+  @GuardedBy("this")
+  private final List<AcquiredBuffer> acquiredBuffers = new ArrayList<>();
+
+  private final ReferenceQueue<byte[]> collectedBuffers = new ReferenceQueue<>();
+
+  @GuardedBy("this")
+  private long hitCount;
+
+  @GuardedBy("this")
+  private long missCount;
+
+  @GuardedBy("this")
+  private long leakCount;
+
+  public FrameBufferPool(boolean detectLeaks) {
+    this(DEFAULT_MAX_FREE_BUFFERS_PER_SIZE, detectLeaks);
+  }
+
+  public FrameBufferPool(int maxFreeBuffersPerSize, boolean detectLeaks) {
+    this.maxFreeBuffersPerSize = maxFreeBuffersPerSize;
+    this.detectLeaks = detectLeaks;
+  }
+
+  /** Returns a buffer of exactly the given size, recycled if one is free. Its content is stale. */
+  public synchronized byte[] acquire(int size) {
+    if (detectLeaks) {
+      reportLeaks();
+    }
+    ArrayDeque<byte[]> buffers = freeBuffers.get(size);
+    byte[] buffer = buffers != null ? buffers.pollLast() : null;
+    if (buffer != null) {
+      hitCount++;
+    } else {
+      missCount++;
+      buffer = new byte[size];
+    }
+    if (detectLeaks) {
+      acquiredBuffers.add(new AcquiredBuffer(buffer, collectedBuffers));
+    }
+    return buffer;
+  }
+
+  /** Returns a buffer acquired from this pool, which must not be used afterwards. */
+  public synchronized void release(byte[] buffer) {
+    if (detectLeaks) {
+      untrack(buffer);
+    }
+    ArrayDeque<byte[]> buffers = freeBuffers.get(buffer.length);
+    if (buffers == null) {
+      buffers = new ArrayDeque<>();
+      freeBuffers.put(buffer.length, buffers);
+    }
+    if (buffers.size() < maxFreeBuffersPerSize) {
+      buffers.addLast(buffer);
+    }
+  }
+
+  /** Returns how many acquired buffers were recycled. */
+  public synchronized long getHitCount() {
+    return hitCount;
+  }
+
+  /** Returns how many acquired buffers had to be allocated. */
+  public synchronized long getMissCount() {
+    return missCount;
+  }
+
+  /** Returns how many buffers were collected unreleased, only counted with leak detection. */
+  public synchronized long getLeakCount() {
+    return leakCount;
+  }
+
+  @GuardedBy("this")
+  private void untrack(byte[] buffer) {
+    for (int i = 0; i < acquiredBuffers.size(); i++) {
+      AcquiredBuffer acquiredBuffer = acquiredBuffers.get(i);
+      if (acquiredBuffer.get() == buffer) {
+        // Cleared references are not enqueued, so released buffers are never reported.
+        acquiredBuffer.clear();
+        acquiredBuffers.remove(i);
+        return;
+      }
+    }
+    throw new IllegalStateException("Buffer released twice or not acquired from this pool");
+  }
+
+  @GuardedBy("this")
+  private void reportLeaks() {
+    AcquiredBuffer leakedBuffer;
+    while ((leakedBuffer = (AcquiredBuffer) collectedBuffers.poll()) != null) {
+      acquiredBuffers.remove(leakedBuffer);
+      leakCount++;
+      Log.e(TAG, "Frame buffer was never released, acquired at:", leakedBuffer.acquisitionSite);
+    }
+  }
+
+  private static class AcquiredBuffer extends WeakReference<byte[]> {
+    final Throwable acquisitionSite = new Throwable();
+
+    AcquiredBuffer(byte[] buffer, ReferenceQueue<byte[]> queue) {
+      super(buffer, queue);
+    }
+  }
+}
@@ -0,0 +1,361 @@
+/*
+ * Copyright 2020 Google LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.mlkit.vision.demo;
+
+import android.media.Image;
+import android.media.Image.Plane;
+import java.nio.ByteBuffer;
+
+/**
+ * Conversions of YUV_420_888 image planes to NV21, and of NV21 to ARGB, for {@link BitmapUtils}.
+ *
+ * <p>Apart from {@link Plane} they only depend on the JDK, so that they can be benchmarked off
+ * device, see the benchmark module. Planes can also be unpacked from a buffer and its strides,
+ * which unit tests do as they cannot create a {@link Plane}.
+ */
+public class YuvUtils {
+  // Rows of planes are copied through it, per thread as frames are packed on camera threads.
+  private static final ThreadLocal<byte[]> scratchRow =
+      new ThreadLocal<byte[]>() {
+        @Override
+        protected byte[] initialValue() {
+          return new byte[0];
+        }
+      };
+
+  private YuvUtils() {}
+
+  /**
+   * Converts YUV_420_888 to NV21 bytebuffer.
+   *
+   * <p>The NV21 format consists of a single byte array containing the Y, U and V values. For an
+   * image of size S, the first S positions of the array contain all the Y values. The remaining
+   * positions contain interleaved V and U values. U and V are subsampled by a factor of 2 in both
+   * dimensions, so there are S/4 U values and S/4 V values. In summary, the NV21 array will contain
+   * S Y values followed by S/4 VU values: YYYYYYYYYYYYYY(...)YVUVUVUVU(...)VU
+   *
+   * <p>YUV_420_888 is a generic format that can describe any YUV image where U and V are subsampled
+   * by a factor of 2 in both dimensions. {@link Image#getPlanes} returns an array with the Y, U and
+   * V planes. The Y plane is guaranteed not to be interleaved, so we can just copy its values into
+   * the first part of the NV21 array. The U and V planes may already have the representation in the
+   * NV21 format. This happens if the planes share the same buffer, the V buffer is one position
+   * before the U buffer and the planes have a pixelStride of 2. If this is case, we can just copy
+   * them to the NV21 array.
+   */
+  static ByteBuffer yuv420ThreePlanesToNV21(
+      Plane[] yuv420888planes, int width, int height) {
+    byte[] out = new byte[getNv21Size(width, height)];
+    yuv420ThreePlanesToNV21(yuv420888planes, width, height, out);
+    return ByteBuffer.wrap(out);
+  }
+
+  /**
+   * Converts YUV_420_888 to NV21 like {@link #yuv420ThreePlanesToNV21(Plane[], int, int)}, into
+   * the given array of at least {@link #getNv21Size} bytes, e.g. one from a {@link
+   * FrameBufferPool}.
+   */
+  static void yuv420ThreePlanesToNV21(
+      Plane[] yuv420888planes, int width, int height, byte[] out) {
+    int imageSize = width * height;
+
+    if (areUVPlanesNV21(yuv420888planes, width, height)) {
+      // Copy the Y values.
+      yuv420888planes[0].getBuffer().get(out, 0, imageSize);
+
+      ByteBuffer uBuffer = yuv420888planes[1].getBuffer();
+      ByteBuffer vBuffer = yuv420888planes[2].getBuffer();
+      // Get the first V value from the V buffer, since the U buffer does not contain it.
+      vBuffer.get(out, imageSize, 1);
+      // Copy the first U value and the remaining VU values from the U buffer.
+      uBuffer.get(out, imageSize + 1, 2 * imageSize / 4 - 1);
+    } else {
+      // Fallback to copying the UV values one by one, which is slower but also works.
+      // Unpack Y.
+      unpackPlane(yuv420888planes[0], width, height, out, 0, 1);
+      // Unpack U.
+      unpackPlane(yuv420888planes[1], width, height, out, imageSize + 1, 2);
+      // Unpack V.
+      unpackPlane(yuv420888planes[2], width, height, out, imageSize, 2);
+    }
+  }
+
+  /** Returns the size in bytes of an NV21 frame. */
+  static int getNv21Size(int width, int height) {
+    int imageSize = width * height;
+    return imageSize + 2 * (imageSize / 4);
+  }
+
+  /** Checks if the UV plane buffers of a YUV_420_888 image are in the NV21 format. */
+  static boolean areUVPlanesNV21(Plane[] planes, int width, int height) {
+    int imageSize = width * height;
+
+    ByteBuffer uBuffer = planes[1].getBuffer();
+    ByteBuffer vBuffer = planes[2].getBuffer();
+
+    // Backup buffer properties.
+    int vBufferPosition = vBuffer.position();
+    int uBufferLimit = uBuffer.limit();
+
+    // Advance the V buffer by 1 byte, since the U buffer will not contain the first V value.
+    vBuffer.position(vBufferPosition + 1);
+    // Chop off the last byte of the U buffer, since the V buffer will not contain the last U value.
+    uBuffer.limit(uBufferLimit - 1);
+
+    // Check that the buffers are equal and have the expected number of elements.
+    boolean areNV21 =
+        (vBuffer.remaining() == (2 * imageSize / 4 - 2)) && (vBuffer.compareTo(uBuffer) == 0);
+
+    // Restore buffers to their initial state.
+    vBuffer.position(vBufferPosition);
+    uBuffer.limit(uBufferLimit);
+
+    return areNV21;
+  }
+
+  /**
+   * Unpack an image plane into a byte array.
+   *
+   * <p>The input plane data will be copied in 'out', starting at 'offset' and every pixel will be
+   * spaced by 'pixelStride'. Note that there is no row padding on the output.
+   *
+   * <p>Planes with the pixel strides cameras use, 1 for separate planes and 2 for interleaved ones,
+   * are read a row at a time with bulk copies, whatever their row padding. Others fall back to
+   * {@link #unpackPlanePerByte}.
+   */
+  static void unpackPlane(
+      Plane plane, int width, int height, byte[] out, int offset, int pixelStride) {
+    unpackPlane(
+        plane.getBuffer(),
+        plane.getRowStride(),
+        plane.getPixelStride(),
+        width,
+        height,
+        out,
+        offset,
+        pixelStride);
+  }
+
+  /** Unpacks the buffer of an image plane with the given strides, see {@link #unpackPlane}. */
+  static void unpackPlane(
+      ByteBuffer buffer,
+      int rowStride,
+      int inputPixelStride,
+      int width,
+      int height,
+      byte[] out,
+      int offset,
+      int pixelStride) {
+    if (inputPixelStride != 1 && inputPixelStride != 2) {
+      unpackPlanePerByte(
+          buffer, rowStride, inputPixelStride, width, height, out, offset, pixelStride);
+      return;
+    }
+    buffer.rewind();
+
+    // Compute the size of the current plane.
+    // We assume that it has the aspect ratio as the original image.
+    int numRow = (buffer.limit() + rowStride - 1) / rowStride;
+    if (numRow == 0) {
+      return;
+    }
+    int scaleFactor = height / numRow;
+    int numCol = width / scaleFactor;
+
+    int outputPos = offset;
+    if (inputPixelStride == 1 && pixelStride == 1) {
+      // Rows are packed on both sides, so they are copied straight into the output.
+      for (int row = 0; row < numRow; row++) {
+        buffer.position(row * rowStride);
+        buffer.get(out, outputPos, numCol);
+        outputPos += numCol;
+      }
+      return;
+    }
+
+    // The bytes of a row up to its last pixel, which is all the last row of a plane may have.
+    int rowLength = (numCol - 1) * inputPixelStride + 1;
+    byte[] rowBuffer = scratchRow.get();
+    if (rowBuffer.length < rowLength) {
+      rowBuffer = new byte[rowLength];
+      scratchRow.set(rowBuffer);
+    }
+    for (int row = 0; row < numRow; row++) {
+      buffer.position(row * rowStride);
+      buffer.get(rowBuffer, 0, rowLength);
+      if (inputPixelStride == 1) {
+        for (int col = 0; col < numCol; col++) {
+          out[outputPos] = rowBuffer[col];
+          outputPos += pixelStride;
+        }
+      } else {
+        for (int inputPos = 0; inputPos < rowLength; inputPos += 2) {
+          out[outputPos] = rowBuffer[inputPos];
+          outputPos += pixelStride;
+        }
+      }
+    }
+  }
+
+  /**
+   * Unpacks an image plane like {@link #unpackPlane}, reading it a byte at a time, which works
+   * whatever its pixel stride.
+   */
+  static void unpackPlanePerByte(
+      Plane plane, int width, int height, byte[] out, int offset, int pixelStride) {
+    unpackPlanePerByte(
+        plane.getBuffer(),
+        plane.getRowStride(),
+        plane.getPixelStride(),
+        width,
+        height,
+        out,
+        offset,
+        pixelStride);
+  }
+
+  /** Unpacks the buffer of an image plane a byte at a time, see {@link #unpackPlanePerByte}. */
+  static void unpackPlanePerByte(
+      ByteBuffer buffer,
+      int rowStride,
+      int inputPixelStride,
+      int width,
+      int height,
+      byte[] out,
+      int offset,
+      int pixelStride) {
+    buffer.rewind();
+
+    // Compute the size of the current plane.
+    // We assume that it has the aspect ratio as the original image.
+    int numRow = (buffer.limit() + rowStride - 1) / rowStride;
+    if (numRow == 0) {
+      return;
+    }
+    int scaleFactor = height / numRow;
+    int numCol = width / scaleFactor;
+
+    // Extract the data in the output buffer.
+    int outputPos = offset;
+    int rowStart = 0;
+    for (int row = 0; row < numRow; row++) {
+      int inputPos = rowStart;
+      for (int col = 0; col < numCol; col++) {
+        out[outputPos] = buffer.get(inputPos);
+        outputPos += pixelStride;
+        inputPos += inputPixelStride;
+      }
+      rowStart += rowStride;
+    }
+  }
+
+  /**
+   * Converts an NV21 frame to ARGB pixels, rotating it clockwise and then mirroring it along the X
+   * axis in the same pass, as {@link android.graphics.Matrix#postRotate} followed by {@link
+   * android.graphics.Matrix#postScale} with -1 would.
+   *
+   * <p>Colors are converted with the BT.601 limited range coefficients cameras use, in fixed point.
+   * The rotated frame is written to {@code argb} row by row, so it is {@code height} pixels wide if
+   * rotated by 90 or 270 degrees and {@code width} pixels wide otherwise.
+   *
+   * @param rotationDegrees 0, 90, 180 or 270
+   * @param argb at least {@code width * height} entries
+   */
+  static void nv21ToArgb(
+      byte[] nv21, int width, int height, int rotationDegrees, boolean flipX, int[] argb) {
+    // The rotated and mirrored position is (ax * x + bx * y + cx, ay * x + by * y + cy).
+    int ax = 1;
+    int bx = 0;
+    int cx = 0;
+    int ay = 0;
+    int by = 1;
+    int cy = 0;
+    int outWidth = width;
+    switch (rotationDegrees) {
+      case 0:
+        break;
+      case 90:
+        ax = 0;
+        bx = -1;
+        cx = height - 1;
+        ay = 1;
+        by = 0;
+        outWidth = height;
+        break;
+      case 180:
+        ax = -1;
+        cx = width - 1;
+        by = -1;
+        cy = height - 1;
+        break;
+      case 270:
+        ax = 0;
+        bx = 1;
+        ay = -1;
+        by = 0;
+        cy = width - 1;
+        outWidth = height;
+        break;
+      default:
+        throw new IllegalArgumentException("Unsupported rotation " + rotationDegrees);
+    }
+    if (flipX) {
+      ax = -ax;
+      bx = -bx;
+      cx = outWidth - 1 - cx;
+    }
+    // Steps through the output for each input column and row.
+    int colStep = ay * outWidth + ax;
+    int rowStep = by * outWidth + bx;
+
+    int imageSize = width * height;
+    int rowStart = cy * outWidth + cx;
+    for (int y = 0; y < height; y++, rowStart += rowStep) {
+      int yIndex = y * width;
+      int vuIndex = imageSize + (y >> 1) * width;
+      int outIndex = rowStart;
+      // Each V and U pair is shared by two neighboring pixels.
+      for (int x = 0; x < width; x += 2, outIndex += 2 * colStep) {
+        int v = (nv21[vuIndex++] & 0xff) - 128;
+        int u = (nv21[vuIndex++] & 0xff) - 128;
+        int red = 1634 * v;
+        int green = -833 * v - 400 * u;
+        int blue = 2066 * u;
+        argb[outIndex] = toArgb(nv21[yIndex + x], red, green, blue);
+        if (x + 1 < width) {
+          argb[outIndex + colStep] = toArgb(nv21[yIndex + x + 1], red, green, blue);
+        }
+      }
+    }
+  }
+
+  // Adds the chroma terms, in fixed point with 10 fractional bits, to the luma of a pixel.
+  private static int toArgb(byte luma, int red, int green, int blue) {
+    int y = (luma & 0xff) - 16;
+    y = 1192 * (y & ~(y >> 31));
+    int r = clampColor(y + red);
+    int g = clampColor(y + green);
+    int b = clampColor(y + blue);
+    return 0xff000000 | ((r << 6) & 0xff0000) | ((g >> 2) & 0xff00) | (b >> 10);
+  }
+
+  // Clamps a color in fixed point with 10 fractional bits to [0, 255]. Without branches, as noisy
+  // frames would make them unpredictable.
+  private static int clampColor(int value) {
+    value &= ~(value >> 31);
+    return (value | ((262143 - value) >> 31)) & 262143;
+  }
+}
@@ -55,6 +55,8 @@ import com.google.mlkit.vision.demo.java.facedetector.FaceDetectorProcessor;
 import com.google.mlkit.vision.demo.java.labeldetector.LabelDetectorProcessor;
 import com.google.mlkit.vision.demo.java.objectdetector.ObjectDetectorProcessor;
 import com.google.mlkit.vision.demo.java.posedetector.PoseDetectorProcessor;
+import com.google.mlkit.vision.demo.java.posedetector.classification.PoseClassifierCache;
+import com.google.mlkit.vision.demo.java.posedetector.classification.PoseClassifierProcessor;
 import com.google.mlkit.vision.demo.java.segmenter.SegmenterProcessor;
 import com.google.mlkit.vision.demo.java.textdetector.TextRecognitionProcessor;
 import com.google.mlkit.vision.demo.preference.PreferenceUtils;
@@ -105,6 +107,9 @@ public final class CameraXLivePreviewActivity extends AppCompatActivity
   @Nullable private Preview previewUseCase;
   @Nullable private ImageAnalysis analysisUseCase;
   @Nullable private VisionImageProcessor imageProcessor;
+  // Held while pose classification is selected, so that the classifier starts loading right away
+  // and outlives the processors that are stopped and recreated on every rebind.
+  @Nullable private PoseClassifierCache.Reference poseClassifierReference;
   private boolean needUpdateGraphicOverlayImageSourceInfo;
 
   private String selectedModel = OBJECT_DETECTION;
@@ -250,6 +255,10 @@ public final class CameraXLivePreviewActivity extends AppCompatActivity
     if (imageProcessor != null) {
       imageProcessor.stop();
     }
+    if (poseClassifierReference != null) {
+      poseClassifierReference.release();
+      poseClassifierReference = null;
+    }
   }
 
   private void bindAllCameraUseCases() {
@@ -282,7 +291,20 @@ public final class CameraXLivePreviewActivity extends AppCompatActivity
     cameraProvider.bindToLifecycle(/* lifecycleOwner= */ this, cameraSelector, previewUseCase);
   }
 
+  private void updatePoseClassifierReference() {
+    boolean needsClassifier =
+        selectedModel.equals(POSE_DETECTION)
+            && PreferenceUtils.shouldPoseDetectionRunClassification(this);
+    if (needsClassifier && poseClassifierReference == null) {
+      poseClassifierReference = PoseClassifierProcessor.acquirePoseClassifier(this);
+    } else if (!needsClassifier && poseClassifierReference != null) {
+      poseClassifierReference.release();
+      poseClassifierReference = null;
+    }
+  }
+
   private void bindAnalysisUseCase() {
+    updatePoseClassifierReference();
     if (cameraProvider == null) {
       return;
     }
@@ -388,7 +410,7 @@ public final class CameraXLivePreviewActivity extends AppCompatActivity
           boolean visualizeZ = PreferenceUtils.shouldPoseDetectionVisualizeZ(this);
           boolean rescaleZ = PreferenceUtils.shouldPoseDetectionRescaleZForVisualization(this);
           boolean runClassification = PreferenceUtils.shouldPoseDetectionRunClassification(this);
-          imageProcessor =
+          PoseDetectorProcessor poseDetectorProcessor =
               new PoseDetectorProcessor(
                   this,
                   poseDetectorOptions,
@@ -397,7 +419,12 @@ public final class CameraXLivePreviewActivity extends AppCompatActivity
                   rescaleZ,
                   runClassification,
                   /* isStreamMode = */ true,
-                      true);
+                      true,
+                  poseClassifierReference);
+          if (PreferenceUtils.shouldPoseDetectionRecordLandmarks(this)) {
+            poseDetectorProcessor.startRecording(PoseDetectorProcessor.newRecordingFile(this));
+          }
+          imageProcessor = poseDetectorProcessor;
           break;
         case SELFIE_SEGMENTATION:
           imageProcessor = new SegmenterProcessor(this);
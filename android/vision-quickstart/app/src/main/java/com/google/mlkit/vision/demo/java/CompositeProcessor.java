@@ -0,0 +1,503 @@
+/*
+ * Copyright 2020 Google LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.mlkit.vision.demo.java;
+
+import android.content.Context;
+import android.os.SystemClock;
+import android.util.Log;
+import androidx.annotation.GuardedBy;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import com.google.android.gms.tasks.Task;
+import com.google.android.gms.tasks.TaskCompletionSource;
+import com.google.android.odml.image.MlImage;
+import com.google.mlkit.vision.common.InputImage;
+import com.google.mlkit.vision.demo.GraphicOverlay;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs several detectors on the same frames, e.g. selfie segmentation, pose and face detection,
+ * and shows all their results together.
+ *
+ * <p>Each frame is converted once, by this processor, and the same {@link InputImage} or {@link
+ * MlImage} is handed to all child detectors at once. Their results are joined as soon as every
+ * child has answered or has missed its timeout, and the children then draw into the same
+ * overlay pass in the order they were given, so e.g. a segmentation mask given first stays behind
+ * the poses. Each child has its own timeout, so a detector known to be slow can be waited for
+ * longer than the others. What is shown for a child that missed its timeout is up to the {@link
+ * SlowChildPolicy}. Such a child is given no new frames until its late detection completes, so a
+ * slow detector never queues up frames.
+ *
+ * <p>Only the detectors and the drawing of the children are used, and they are stopped along with
+ * this processor. The children are never given frames themselves, so they create no FPS timer,
+ * temperature monitor, frame buffers or preview converter of their own; this processor has the
+ * only ones.
+ */
+public class CompositeProcessor extends VisionProcessorBase<CompositeProcessor.Results> {
+
+  private static final String TAG = "CompositeProcessor";
+  private static final long DEFAULT_CHILD_TIMEOUT_MS = 100;
+  private static final long LOG_INTERVAL_MS = 1000;
+
+  /** What to show for a child that has no results for a frame by the timeout. */
+  public enum SlowChildPolicy {
+    /** Nothing, until it catches up. */
+    DROP,
+    /** Its latest results, from an earlier frame, if any. */
+    REUSE_LAST
+  }
+
+  /** Where the results of a child for a frame come from. */
+  public enum Status {
+    /** The child detected the frame in time. */
+    FRESH,
+    /** The child was too slow, and its latest results are shown instead. */
+    STALE,
+    /** The child was too slow and nothing is shown for it. */
+    MISSED,
+    /** The child failed to detect the frame. */
+    FAILED
+  }
+
+  private final List<Child<?>> children = new ArrayList<>();
+
+  // Shut down in stop(), so frames still being dispatched join at once instead.
+  @GuardedBy("this")
+  private final ScheduledExecutorService timeoutExecutor =
+      Executors.newSingleThreadScheduledExecutor();
+
+  // Only used on the main thread.
+  private long lastLogMs;
+
+  public CompositeProcessor(Context context, List<? extends VisionProcessorBase<?>> processors) {
+    this(context, processors, DEFAULT_CHILD_TIMEOUT_MS, SlowChildPolicy.REUSE_LAST);
+  }
+
+  /**
+   * @param processors the child detectors, in the order they draw their results
+   * @param childTimeoutMs how long to wait for each child before showing the others without it
+   * @param slowChildPolicy what to show for a child that misses the timeout
+   */
+  public CompositeProcessor(
+      Context context,
+      List<? extends VisionProcessorBase<?>> processors,
+      long childTimeoutMs,
+      SlowChildPolicy slowChildPolicy) {
+    this(
+        context,
+        processors,
+        Collections.nCopies(processors.size(), childTimeoutMs),
+        slowChildPolicy);
+  }
+
+  /**
+   * @param processors the child detectors, in the order they draw their results
+   * @param childTimeoutsMs how long to wait for each child, in the same order as the processors
+   * @param slowChildPolicy what to show for a child that misses its timeout
+   */
+  public CompositeProcessor(
+      Context context,
+      List<? extends VisionProcessorBase<?>> processors,
+      List<Long> childTimeoutsMs,
+      SlowChildPolicy slowChildPolicy) {
+    super(context);
+    if (processors.isEmpty()) {
+      throw new IllegalArgumentException("A composite processor needs at least one child");
+    }
+    if (childTimeoutsMs.size() != processors.size()) {
+      throw new IllegalArgumentException(
+          "Got " + childTimeoutsMs.size() + " timeouts for " + processors.size() + " children");
+    }
+    for (int i = 0; i < processors.size(); i++) {
+      children.add(newChild(processors.get(i), childTimeoutsMs.get(i), slowChildPolicy));
+    }
+  }
+
+  private static <T> Child<T> newChild(
+      VisionProcessorBase<T> processor, long timeoutMs, SlowChildPolicy slowChildPolicy) {
+    return new Child<>(processor, timeoutMs, slowChildPolicy);
+  }
+
+  @Override
+  public void stop() {
+    super.stop();
+    synchronized (this) {
+      timeoutExecutor.shutdown();
+    }
+    for (Child<?> child : children) {
+      child.processor.stop();
+    }
+  }
+
+  @Override
+  protected Task<Results> detectInImage(InputImage image) {
+    FrameJoin join = new FrameJoin();
+    for (int i = 0; i < children.size(); i++) {
+      children.get(i).dispatch(image, join, i);
+    }
+    return join.start();
+  }
+
+  @Override
+  protected Task<Results> detectInImage(MlImage image) {
+    FrameJoin join = new FrameJoin();
+    for (int i = 0; i < children.size(); i++) {
+      children.get(i).dispatch(image, join, i);
+    }
+    return join.start();
+  }
+
+  @Override
+  protected boolean isMlImageEnabled(Context context) {
+    // The frame is only converted once, so either all children take an MlImage or none does.
+    for (Child<?> child : children) {
+      if (!child.processor.isMlImageEnabled(context)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  @Override
+  Task<?> getFrameReleaseTask(Task<Results> detection) {
+    // Children that missed the timeout may still be reading the frame.
+    return detection.isSuccessful() ? detection.getResult().frameReleased : detection;
+  }
+
+  @Override
+  boolean readsFramesAfterDetection() {
+    return true;
+  }
+
+  @Override
+  protected void onSuccess(@NonNull Results results, @NonNull GraphicOverlay graphicOverlay) {
+    for (ChildResult<?> childResult : results.childResults) {
+      childResult.show(graphicOverlay);
+    }
+
+    long nowMs = SystemClock.elapsedRealtime();
+    if (nowMs - lastLogMs >= LOG_INTERVAL_MS) {
+      lastLogMs = nowMs;
+      for (Child<?> child : children) {
+        child.logStats();
+      }
+    }
+  }
+
+  @Override
+  protected void onFailure(@NonNull Exception e) {
+    Log.e(TAG, "Composite detection failed", e);
+  }
+
+  /** The results of all children for one frame. */
+  public static final class Results {
+    private final List<ChildResult<?>> childResults;
+    private final Task<Void> frameReleased;
+
+    private Results(List<ChildResult<?>> childResults, Task<Void> frameReleased) {
+      this.childResults = childResults;
+      this.frameReleased = frameReleased;
+    }
+
+    /** Returns the result of each child, in the order the children were given. */
+    public List<ChildResult<?>> getChildResults() {
+      return childResults;
+    }
+  }
+
+  /** The results of one child for a frame. */
+  public static final class ChildResult<T> {
+    private final Child<T> child;
+    private final Status status;
+    @Nullable private final T results;
+    @Nullable private final Exception exception;
+    private final long latencyMs;
+
+    private ChildResult(
+        Child<T> child,
+        Status status,
+        @Nullable T results,
+        @Nullable Exception exception,
+        long latencyMs) {
+      this.child = child;
+      this.status = status;
+      this.results = results;
+      this.exception = exception;
+      this.latencyMs = latencyMs;
+    }
+
+    public VisionProcessorBase<T> getProcessor() {
+      return child.processor;
+    }
+
+    public Status getStatus() {
+      return status;
+    }
+
+    /** Returns the detected results, null if the status is {@link Status#MISSED} or failed. */
+    @Nullable
+    public T getResults() {
+      return results;
+    }
+
+    /** Returns why the child failed, if the status is {@link Status#FAILED}. */
+    @Nullable
+    public Exception getException() {
+      return exception;
+    }
+
+    /**
+     * Returns the milliseconds from handing the frame to the child to its results. Stale results
+     * keep the latency of the frame they came from, and a child that missed the frame has the time
+     * it was waited for, 0 if it was still busy with an earlier frame.
+     */
+    public long getLatencyMs() {
+      return latencyMs;
+    }
+
+    private void show(GraphicOverlay graphicOverlay) {
+      child.addToStats(this);
+      if (results != null) {
+        child.processor.onSuccess(results, graphicOverlay);
+      } else if (exception != null) {
+        child.processor.onFailure(exception);
+      }
+    }
+  }
+
+  /** A child detector, with its latest results. */
+  private static final class Child<T> {
+    private final VisionProcessorBase<T> processor;
+    private final long timeoutMs;
+    private final SlowChildPolicy slowChildPolicy;
+
+    @GuardedBy("this")
+    @Nullable
+    private T lastResults;
+
+    @GuardedBy("this")
+    private long lastResultsStartMs = Long.MIN_VALUE;
+
+    @GuardedBy("this")
+    private long lastLatencyMs;
+
+    // Detections that missed their frame's timeout and are still running.
+    @GuardedBy("this")
+    private int numLateDetections;
+
+    // Used to log per child latency, on the main thread only.
+    private final LatencyStats latency = new LatencyStats();
+    private final int[] statusCounts = new int[Status.values().length];
+
+    Child(VisionProcessorBase<T> processor, long timeoutMs, SlowChildPolicy slowChildPolicy) {
+      this.processor = processor;
+      this.timeoutMs = timeoutMs;
+      this.slowChildPolicy = slowChildPolicy;
+    }
+
+    void dispatch(InputImage image, FrameJoin join, int index) {
+      if (isLate()) {
+        join.complete(index, getMissedResult(/* waitedMs= */ 0));
+        return;
+      }
+      start(processor.detectInImage(image), join, index);
+    }
+
+    void dispatch(MlImage image, FrameJoin join, int index) {
+      if (isLate()) {
+        join.complete(index, getMissedResult(/* waitedMs= */ 0));
+        return;
+      }
+      start(processor.detectInImage(image), join, index);
+    }
+
+    private void start(Task<T> detection, FrameJoin join, int index) {
+      long startMs = SystemClock.elapsedRealtime();
+      join.retainFrame();
+      // Completes on the detector's thread, so the join does not wait for the main thread.
+      detection.addOnCompleteListener(Runnable::run, task -> finish(task, startMs, join, index));
+    }
+
+    private void finish(Task<T> task, long startMs, FrameJoin join, int index) {
+      long latencyMs = SystemClock.elapsedRealtime() - startMs;
+      ChildResult<T> result;
+      if (task.isSuccessful()) {
+        T results = task.getResult();
+        synchronized (this) {
+          // Frames may complete out of order when pipelined.
+          if (startMs >= lastResultsStartMs) {
+            lastResults = results;
+            lastResultsStartMs = startMs;
+            lastLatencyMs = latencyMs;
+          }
+        }
+        result = new ChildResult<>(this, Status.FRESH, results, null, latencyMs);
+      } else {
+        Exception e = task.getException();
+        if (e == null) {
+          e = new IllegalStateException(processor.getClass().getSimpleName() + " was canceled");
+        }
+        result = new ChildResult<>(this, Status.FAILED, null, e, latencyMs);
+      }
+      if (!join.complete(index, result)) {
+        synchronized (this) {
+          numLateDetections--;
+        }
+      }
+      join.releaseFrame();
+    }
+
+    synchronized boolean isLate() {
+      return numLateDetections > 0;
+    }
+
+    synchronized void markLate() {
+      numLateDetections++;
+    }
+
+    synchronized ChildResult<T> getMissedResult(long waitedMs) {
+      if (slowChildPolicy == SlowChildPolicy.REUSE_LAST && lastResults != null) {
+        return new ChildResult<>(this, Status.STALE, lastResults, null, lastLatencyMs);
+      }
+      return new ChildResult<>(this, Status.MISSED, null, null, waitedMs);
+    }
+
+    void addToStats(ChildResult<T> result) {
+      statusCounts[result.status.ordinal()]++;
+      if (result.status == Status.FRESH) {
+        latency.add(result.latencyMs);
+      }
+    }
+
+    void logStats() {
+      StringBuilder stats = new StringBuilder(processor.getClass().getSimpleName()).append(':');
+      for (Status status : Status.values()) {
+        stats
+            .append(' ')
+            .append(status.name().toLowerCase(Locale.US))
+            .append('=')
+            .append(statusCounts[status.ordinal()]);
+      }
+      Log.d(TAG, stats.append(", latency: ").append(latency).toString());
+      Arrays.fill(statusCounts, 0);
+      latency.reset();
+    }
+  }
+
+  /** Collects the results of all children for one frame. */
+  private final class FrameJoin {
+    private final TaskCompletionSource<Results> joined = new TaskCompletionSource<>();
+    private final TaskCompletionSource<Void> frameReleased = new TaskCompletionSource<>();
+    private final long startMs = SystemClock.elapsedRealtime();
+
+    @GuardedBy("this")
+    private final ChildResult<?>[] childResults = new ChildResult<?>[children.size()];
+
+    @GuardedBy("this")
+    private int numPendingResults = children.size();
+
+    // Detections still reading the frame, plus one for dispatching it.
+    @GuardedBy("this")
+    private int numFrameReaders = 1;
+
+    /** Called once the frame is dispatched to all children. */
+    Task<Results> start() {
+      releaseFrame();
+      for (int i = 0; i < children.size(); i++) {
+        if (!hasResult(i)) {
+          scheduleExpiry(i);
+        }
+      }
+      return joined.getTask();
+    }
+
+    private void scheduleExpiry(int index) {
+      long timeoutMs = children.get(index).timeoutMs;
+      // Checked under the lock stop() shuts the executor down with, as it would reject the task.
+      synchronized (CompositeProcessor.this) {
+        if (!timeoutExecutor.isShutdown()) {
+          timeoutExecutor.schedule(() -> expire(index), timeoutMs, TimeUnit.MILLISECONDS);
+          return;
+        }
+      }
+      // Stopped while the frame was being dispatched, so do not wait for the child.
+      expire(index);
+    }
+
+    private synchronized boolean hasResult(int index) {
+      return childResults[index] != null;
+    }
+
+    synchronized void retainFrame() {
+      numFrameReaders++;
+    }
+
+    void releaseFrame() {
+      synchronized (this) {
+        if (--numFrameReaders > 0) {
+          return;
+        }
+      }
+      frameReleased.setResult(null);
+    }
+
+    /** Sets the result of a child, returning false if its timeout already passed without it. */
+    boolean complete(int index, ChildResult<?> result) {
+      synchronized (this) {
+        if (childResults[index] != null) {
+          return false;
+        }
+        childResults[index] = result;
+        if (--numPendingResults > 0) {
+          return true;
+        }
+      }
+      join();
+      return true;
+    }
+
+    private void expire(int index) {
+      synchronized (this) {
+        if (childResults[index] != null) {
+          return;
+        }
+        Child<?> child = children.get(index);
+        child.markLate();
+        childResults[index] = child.getMissedResult(SystemClock.elapsedRealtime() - startMs);
+        if (--numPendingResults > 0) {
+          return;
+        }
+      }
+      join();
+    }
+
+    private void join() {
+      List<ChildResult<?>> results;
+      synchronized (this) {
+        results = Collections.unmodifiableList(Arrays.asList(childResults));
+      }
+      joined.setResult(new Results(results, frameReleased.getTask()));
+    }
+  }
+}
@@ -22,6 +22,7 @@ import android.graphics.drawable.Drawable;
 import android.os.Bundle;
 
 import androidx.annotation.Dimension;
+import androidx.annotation.Nullable;
 import androidx.appcompat.app.AppCompatActivity;
 
 import android.util.Log;
@@ -38,6 +39,7 @@ import android.widget.Toast;
 import android.widget.ToggleButton;
 import com.google.android.gms.common.annotation.KeepName;
 import com.google.mlkit.common.model.LocalModel;
+import com.google.mlkit.vision.demo.AssetUtils;
 import com.google.mlkit.vision.demo.CameraSource;
 import com.google.mlkit.vision.demo.CameraSourcePreview;
 import com.google.mlkit.vision.demo.GraphicOverlay;
@@ -47,6 +49,12 @@ import com.google.mlkit.vision.demo.java.facedetector.FaceDetectorProcessor;
 import com.google.mlkit.vision.demo.java.labeldetector.LabelDetectorProcessor;
 import com.google.mlkit.vision.demo.java.objectdetector.ObjectDetectorProcessor;
 import com.google.mlkit.vision.demo.java.posedetector.PoseDetectorProcessor;
+import com.google.mlkit.vision.demo.java.posedetector.choreography.Choreography;
+import com.google.mlkit.vision.demo.java.posedetector.choreography.ChoreographyBundle;
+import com.google.mlkit.vision.demo.java.posedetector.choreography.ChoreographyCompiler;
+import com.google.mlkit.vision.demo.java.posedetector.choreography.ChoreographyScorer;
+import com.google.mlkit.vision.demo.java.posedetector.classification.PoseClassifierCache;
+import com.google.mlkit.vision.demo.java.posedetector.classification.PoseClassifierProcessor;
 import com.google.mlkit.vision.demo.java.segmenter.SegmenterProcessor;
 import com.google.mlkit.vision.demo.java.textdetector.TextRecognitionProcessor;
 import com.google.mlkit.vision.demo.preference.PreferenceUtils;
@@ -62,9 +70,11 @@ import com.google.mlkit.vision.text.japanese.JapaneseTextRecognizerOptions;
 import com.google.mlkit.vision.text.korean.KoreanTextRecognizerOptions;
 import com.google.mlkit.vision.text.latin.TextRecognizerOptions;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Random;
 import java.util.Timer;
 import java.util.TimerTask;
 
@@ -83,6 +93,7 @@ public final class LivePreviewActivity extends AppCompatActivity
   private static final String CUSTOM_AUTOML_LABELING = "Custom AutoML Image Labeling (Flower)";
   private static final String POSE_DETECTION = "Pose Detection";
   private static final String SELFIE_SEGMENTATION = "Selfie Segmentation";
+  private static final String SEGMENTATION_POSE_FACE = "Segmentation, Pose and Face Detection";
   private static final String TEXT_RECOGNITION_LATIN = "Text Recognition Latin";
   private static final String TEXT_RECOGNITION_CHINESE = "Text Recognition Chinese (Beta)";
   private static final String TEXT_RECOGNITION_DEVANAGARI = "Text Recognition Devanagari (Beta)";
@@ -90,6 +101,10 @@ public final class LivePreviewActivity extends AppCompatActivity
   private static final String TEXT_RECOGNITION_KOREAN = "Text Recognition Korean (Beta)";
 
   private static final String TAG = "LivePreviewActivity";
+  // Target poses of the stage game, with beats aligned to STAGE_DURATION, and their precompiled
+  // bundle, see ChoreographyCompiler.
+  private static final String CHOREOGRAPHY_FILE = "choreography/stage_choreography.csv";
+  private static final String CHOREOGRAPHY_BUNDLE_FILE = "choreography/stage_choreography.bin";
 
   private CameraSource cameraSource = null;
   private CameraSourcePreview preview;
@@ -98,6 +113,9 @@ public final class LivePreviewActivity extends AppCompatActivity
 
 
   PoseDetectorProcessor poseDetectorProcessor;
+  // Held while pose classification is selected, so that the classifier starts loading right away
+  // and is reused by every PoseDetectorProcessor created meanwhile.
+  @Nullable private PoseClassifierCache.Reference poseClassifierReference;
 
   boolean start = false;
   final int NUM_STAGE = 3;
@@ -123,6 +141,9 @@ public final class LivePreviewActivity extends AppCompatActivity
   long STAGE_DURATION = 7559;
   long TOTAL_PLAY_TIME = NUM_STAGE*STAGE_DURATION + ANALYZE_STAGE_TIME;
 
+  // Loaded when the game starts, on the game thread.
+  @Nullable private Choreography choreography;
+
   @Override
   protected void onCreate(Bundle savedInstanceState) {
     super.onCreate(savedInstanceState);
@@ -143,6 +164,7 @@ public final class LivePreviewActivity extends AppCompatActivity
     List<String> options = new ArrayList<>();
     options.add(POSE_DETECTION);
     options.add(OBJECT_DETECTION);
+    options.add(SEGMENTATION_POSE_FACE);
 
 //    Spinner spinner = findViewById(R.id.spinner);
 //    // Creating adapter for spinner
@@ -265,14 +287,15 @@ public final class LivePreviewActivity extends AppCompatActivity
           timer.schedule(new TimerTask() {
             @Override
             public void run() {
+              loadChoreography();
               show321();
 
               if (SHOW_PAST_PROGRESS) {
-                showHitMiss();
+                startScoring();
                 progressAnimation();
                 showFinalScore();
               } else {
-                showHitMiss();
+                startScoring();
                 try {
                   Thread.sleep(NUM_STAGE * STAGE_DURATION);
                 } catch (InterruptedException e) {
@@ -318,32 +341,72 @@ public final class LivePreviewActivity extends AppCompatActivity
     });
   }
 
-  public void showHitMiss() {
-    new Thread(new Runnable() {
-      @Override
-      public void run() {
-        Random random = new Random();
-        while (curr_stage < NUM_STAGE) {
-          runOnUiThread(new Runnable() {
-            @Override
-            public void run() {
-              if (random.nextInt(100) < 70) {
-                hitMissText.setText("Hit!");
-                hitMissText.setTextColor(Color.parseColor("#00FF59"));
-              } else {
-                hitMissText.setText("Miss!");
-                hitMissText.setTextColor(Color.parseColor("#F92C10"));
-              }
-            }
-          });
-          try {
-            Thread.sleep(1000);
-          } catch (InterruptedException e) {
-            e.printStackTrace();
-          }
-        }
+  private void loadChoreography() {
+    if (choreography != null) {
+      return;
+    }
+    try {
+      choreography = loadChoreographyBundle();
+    } catch (IOException e) {
+      Log.w(TAG, "Could not load choreography bundle, falling back to csv.\n" + e);
+      try (Reader csv = new InputStreamReader(getAssets().open(CHOREOGRAPHY_FILE))) {
+        choreography = ChoreographyCompiler.compile(csv, NUM_STAGE, (int) STAGE_DURATION);
+      } catch (IOException csvException) {
+        Log.e(TAG, "Could not load choreography, the game is not scored", csvException);
       }
-    }).start();
+    }
+  }
+
+  // Memory-maps the bundle straight from the uncompressed asset.
+  private Choreography loadChoreographyBundle() throws IOException {
+    Choreography bundle =
+        ChoreographyBundle.read(AssetUtils.mapAsset(this, CHOREOGRAPHY_BUNDLE_FILE));
+    if (bundle.getNumStages() != NUM_STAGE
+        || bundle.getDurationMs() != NUM_STAGE * STAGE_DURATION) {
+      throw new IOException("Choreography bundle does not match the stages of the game");
+    }
+    return bundle;
+  }
+
+  // Scores the live poses against the choreography, showing the results as they come in.
+  public void startScoring() {
+    runOnUiThread(
+        () -> {
+          for (TextView scoreText : scoreTexts) {
+            scoreText.setText("");
+          }
+        });
+    if (choreography == null || poseDetectorProcessor == null) {
+      return;
+    }
+    poseDetectorProcessor.startChoreography(
+        new ChoreographyScorer(
+            choreography,
+            new ChoreographyScorer.Listener() {
+              @Override
+              public void onBeatScored(int beat, boolean hit, int score) {
+                runOnUiThread(() -> showHitMiss(hit));
+              }
+
+              @Override
+              public void onStageScored(int stage, int score) {
+                runOnUiThread(() -> scoreTexts[stage].setText(String.valueOf(score)));
+              }
+            }));
+  }
+
+  public void showHitMiss(boolean hit) {
+    // Beats that end with the last stage are scored once the results are being shown.
+    if (curr_stage >= NUM_STAGE) {
+      return;
+    }
+    if (hit) {
+      hitMissText.setText("Hit!");
+      hitMissText.setTextColor(Color.parseColor("#00FF59"));
+    } else {
+      hitMissText.setText("Miss!");
+      hitMissText.setTextColor(Color.parseColor("#F92C10"));
+    }
   }
 
   public void showLoading() {
@@ -357,12 +420,19 @@ public final class LivePreviewActivity extends AppCompatActivity
   }
 
   public void showFinalScore() {
-    runOnUiThread(new Runnable() {
-      @Override
-      public void run() {
-        finalResultText.setText("Great job!\nTotal score: 85");
-      }
-    });
+    if (choreography == null || poseDetectorProcessor == null) {
+      runOnUiThread(() -> finalResultText.setText("Great job!"));
+      return;
+    }
+    poseDetectorProcessor
+        .finishChoreography()
+        .addOnSuccessListener(
+            finalScore -> finalResultText.setText("Great job!\nTotal score: " + finalScore))
+        .addOnFailureListener(
+            e -> {
+              Log.e(TAG, "Could not score the game", e);
+              finalResultText.setText("Great job!");
+            });
   }
 
   public void markCurrentProgress(int stage) {
@@ -517,7 +587,20 @@ public final class LivePreviewActivity extends AppCompatActivity
     startCameraSource();
   }
 
+  private void updatePoseClassifierReference(String model) {
+    boolean needsClassifier =
+        (model.equals(POSE_DETECTION) || model.equals(SEGMENTATION_POSE_FACE))
+            && PreferenceUtils.shouldPoseDetectionRunClassification(this);
+    if (needsClassifier && poseClassifierReference == null) {
+      poseClassifierReference = PoseClassifierProcessor.acquirePoseClassifier(this);
+    } else if (!needsClassifier && poseClassifierReference != null) {
+      poseClassifierReference.release();
+      poseClassifierReference = null;
+    }
+  }
+
   private void createCameraSource(String model) {
+    updatePoseClassifierReference(model);
     // If there's no existing cameraSource, create one.
     if (cameraSource == null) {
       cameraSource = new CameraSource(this, graphicOverlay);
@@ -619,28 +702,23 @@ public final class LivePreviewActivity extends AppCompatActivity
               new LabelDetectorProcessor(this, customAutoMLLabelOptions));
           break;
         case POSE_DETECTION:
-          PoseDetectorOptionsBase poseDetectorOptions =
-              PreferenceUtils.getPoseDetectorOptionsForLivePreview(this);
-          Log.i(TAG, "Using Pose Detector with options " + poseDetectorOptions);
-          boolean shouldShowInFrameLikelihood =
-              PreferenceUtils.shouldShowPoseDetectionInFrameLikelihoodLivePreview(this);
-          boolean visualizeZ = PreferenceUtils.shouldPoseDetectionVisualizeZ(this);
-          boolean rescaleZ = PreferenceUtils.shouldPoseDetectionRescaleZForVisualization(this);
-          boolean runClassification = PreferenceUtils.shouldPoseDetectionRunClassification(this);
-          poseDetectorProcessor = new PoseDetectorProcessor(
-                  this,
-                  poseDetectorOptions,
-                  shouldShowInFrameLikelihood,
-                  visualizeZ,
-                  rescaleZ,
-                  runClassification,
-                  /* isStreamMode = */ true,
-                  DRAW_JOINTS);
+          poseDetectorProcessor = createPoseDetectorProcessor();
           cameraSource.setMachineLearningFrameProcessor(poseDetectorProcessor);
           break;
         case SELFIE_SEGMENTATION:
           cameraSource.setMachineLearningFrameProcessor(new SegmenterProcessor(this));
           break;
+        case SEGMENTATION_POSE_FACE:
+          // The mask is drawn first, so that poses and faces stay visible on top of it.
+          poseDetectorProcessor = createPoseDetectorProcessor();
+          cameraSource.setMachineLearningFrameProcessor(
+              new CompositeProcessor(
+                  this,
+                  Arrays.asList(
+                      new SegmenterProcessor(this),
+                      poseDetectorProcessor,
+                      new FaceDetectorProcessor(this))));
+          break;
         default:
           Log.e(TAG, "Unknown model: " + model);
       }
@@ -654,6 +732,32 @@ public final class LivePreviewActivity extends AppCompatActivity
     }
   }
 
+  private PoseDetectorProcessor createPoseDetectorProcessor() {
+    PoseDetectorOptionsBase poseDetectorOptions =
+        PreferenceUtils.getPoseDetectorOptionsForLivePreview(this);
+    Log.i(TAG, "Using Pose Detector with options " + poseDetectorOptions);
+    boolean shouldShowInFrameLikelihood =
+        PreferenceUtils.shouldShowPoseDetectionInFrameLikelihoodLivePreview(this);
+    boolean visualizeZ = PreferenceUtils.shouldPoseDetectionVisualizeZ(this);
+    boolean rescaleZ = PreferenceUtils.shouldPoseDetectionRescaleZForVisualization(this);
+    boolean runClassification = PreferenceUtils.shouldPoseDetectionRunClassification(this);
+    PoseDetectorProcessor processor =
+        new PoseDetectorProcessor(
+            this,
+            poseDetectorOptions,
+            shouldShowInFrameLikelihood,
+            visualizeZ,
+            rescaleZ,
+            runClassification,
+            /* isStreamMode = */ true,
+            DRAW_JOINTS,
+            poseClassifierReference);
+    if (PreferenceUtils.shouldPoseDetectionRecordLandmarks(this)) {
+      processor.startRecording(PoseDetectorProcessor.newRecordingFile(this));
+    }
+    return processor;
+  }
+
   /**
    * Starts or restarts the camera source, if it exists. If the camera source doesn't exist yet
    * (e.g., because onResume was called before the camera source was created), this will be called
@@ -699,5 +803,9 @@ public final class LivePreviewActivity extends AppCompatActivity
     if (cameraSource != null) {
       cameraSource.release();
     }
+    if (poseClassifierReference != null) {
+      poseClassifierReference.release();
+      poseClassifierReference = null;
+    }
   }
 }
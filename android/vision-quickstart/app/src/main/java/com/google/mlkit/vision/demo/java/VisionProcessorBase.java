@@ -16,9 +16,6 @@
 
 package com.google.mlkit.vision.demo.java;
 
-import static java.lang.Math.max;
-import static java.lang.Math.min;
-
 import android.app.ActivityManager;
 import android.app.ActivityManager.MemoryInfo;
 import android.content.Context;
@@ -43,10 +40,13 @@ import com.google.android.odml.image.MlImage;
 import com.google.mlkit.common.MlKitException;
 import com.google.mlkit.vision.common.InputImage;
 import com.google.mlkit.vision.demo.BitmapUtils;
+import com.google.mlkit.vision.demo.BuildConfig;
 import com.google.mlkit.vision.demo.CameraImageGraphic;
+import com.google.mlkit.vision.demo.FrameBufferPool;
 import com.google.mlkit.vision.demo.FrameMetadata;
 import com.google.mlkit.vision.demo.GraphicOverlay;
 import com.google.mlkit.vision.demo.InferenceInfoGraphic;
+import com.google.mlkit.vision.demo.PreviewBitmapConverter;
 import com.google.mlkit.vision.demo.ScopedExecutor;
 import com.google.mlkit.vision.demo.TemperatureMonitor;
 import com.google.mlkit.vision.demo.VisionImageProcessor;
@@ -54,6 +54,7 @@ import com.google.mlkit.vision.demo.preference.PreferenceUtils;
 import java.nio.ByteBuffer;
 import java.util.Timer;
 import java.util.TimerTask;
+import java.util.concurrent.Executor;
 
 /**
  * Abstract base class for vision frame processors. Subclasses need to implement {@link
@@ -68,21 +69,33 @@ public abstract class VisionProcessorBase<T> implements VisionImageProcessor {
   private static final String TAG = "VisionProcessorBase";
 
   private final ActivityManager activityManager;
-  private final Timer fpsTimer = new Timer();
+  private final Context applicationContext;
   private final ScopedExecutor executor;
-  private final TemperatureMonitor temperatureMonitor;
+  // Camera1 frames that may be detected at once. With 1 the next frame is only started once the
+  // results of the previous one are shown.
+  private final int maxFramesInFlight;
+
+  // Created with the first frame, so that processors whose detector is only run by another
+  // processor, e.g. a CompositeProcessor, do not create them.
+  @GuardedBy("this")
+  @Nullable
+  private FrameResources frameResources;
 
   // Whether this processor is already shut down
   private boolean isShutdown;
 
   // Used to calculate latency, running in the same thread, no sync needed.
   private int numRuns = 0;
-  private long totalFrameMs = 0;
-  private long maxFrameMs = 0;
-  private long minFrameMs = Long.MAX_VALUE;
-  private long totalDetectorMs = 0;
-  private long maxDetectorMs = 0;
-  private long minDetectorMs = Long.MAX_VALUE;
+  private final LatencyStats frameLatency = new LatencyStats();
+  private final LatencyStats queueLatency = new LatencyStats();
+  private final LatencyStats conversionLatency = new LatencyStats();
+  private final LatencyStats detectorLatency = new LatencyStats();
+  // Adding the graphics of a frame to the overlay and posting its redraw, but not the drawing
+  // itself, which happens later in GraphicOverlay.onDraw on the main thread.
+  private final LatencyStats postLatency = new LatencyStats();
+  // Results of frames older than the last shown one are dropped, so results are shown in order.
+  private long lastShownSequenceNumber = -1;
+  private int numStaleResults = 0;
 
   // Frame count that have been processed so far in an one second interval to calculate FPS.
   private int frameProcessedInOneSecondInterval = 0;
@@ -94,6 +107,25 @@ public abstract class VisionProcessorBase<T> implements VisionImageProcessor {
 
   @GuardedBy("this")
   private FrameMetadata latestImageMetaData;
+
+  @GuardedBy("this")
+  private long latestImageArrivalMs;
+
+  // The pooled copy backing the latest image when pipelined, null otherwise.
+  @GuardedBy("this")
+  @Nullable
+  private byte[] latestImageBuffer;
+
+  @GuardedBy("this")
+  private int numDroppedFrames;
+
+  @GuardedBy("this")
+  private long nextSequenceNumber;
+
+  // Frames started and not yet done when pipelined.
+  @GuardedBy("this")
+  private int numFramesInFlight;
+
   // To keep the images and metadata in process.
   @GuardedBy("this")
   private ByteBuffer processingImage;
@@ -103,18 +135,20 @@ public abstract class VisionProcessorBase<T> implements VisionImageProcessor {
 
   protected VisionProcessorBase(Context context) {
     activityManager = (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
+    applicationContext = context.getApplicationContext();
     executor = new ScopedExecutor(TaskExecutors.MAIN_THREAD);
-    fpsTimer.scheduleAtFixedRate(
-        new TimerTask() {
-          @Override
-          public void run() {
-            framesPerSecond = frameProcessedInOneSecondInterval;
-            frameProcessedInOneSecondInterval = 0;
-          }
-        },
-        /* delay= */ 0,
-        /* period= */ 1000);
-    temperatureMonitor = new TemperatureMonitor(context);
+    maxFramesInFlight = PreferenceUtils.getMaxFramesInFlight(context);
+  }
+
+  private synchronized FrameResources getFrameResources() {
+    if (frameResources == null) {
+      frameResources = new FrameResources();
+      if (isShutdown) {
+        // A frame raced with stop(); it may still finish, but nothing keeps running.
+        frameResources.stop();
+      }
+    }
+    return frameResources;
   }
 
   // -----------------Code for processing single still image----------------------------------------
@@ -129,7 +163,9 @@ public abstract class VisionProcessorBase<T> implements VisionImageProcessor {
           graphicOverlay,
           /* originalCameraImage= */ null,
           /* shouldShowFps= */ false,
-          frameStartMs);
+          frameStartMs,
+          frameStartMs,
+          newSequenceNumber());
       mlImage.close();
 
       return;
@@ -140,17 +176,29 @@ public abstract class VisionProcessorBase<T> implements VisionImageProcessor {
         graphicOverlay,
         /* originalCameraImage= */ null,
         /* shouldShowFps= */ false,
-        frameStartMs);
+        frameStartMs,
+        frameStartMs,
+        newSequenceNumber());
   }
 
   // -----------------Code for processing live preview frame from Camera1 API-----------------------
   @Override
-  public synchronized void processByteBuffer(
+  public void processByteBuffer(
       ByteBuffer data, final FrameMetadata frameMetadata, final GraphicOverlay graphicOverlay) {
-    latestImage = data;
-    latestImageMetaData = frameMetadata;
-    if (processingImage == null && processingMetaData == null) {
-      processLatestImage(graphicOverlay);
+    if (maxFramesInFlight > 1 || readsFramesAfterDetection()) {
+      enqueueFrame(data, frameMetadata, graphicOverlay);
+      return;
+    }
+    synchronized (this) {
+      if (latestImage != null) {
+        numDroppedFrames++;
+      }
+      latestImage = data;
+      latestImageMetaData = frameMetadata;
+      latestImageArrivalMs = SystemClock.elapsedRealtime();
+      if (processingImage == null && processingMetaData == null) {
+        processLatestImage(graphicOverlay);
+      }
     }
   }
 
@@ -160,20 +208,104 @@ public abstract class VisionProcessorBase<T> implements VisionImageProcessor {
     latestImage = null;
     latestImageMetaData = null;
     if (processingImage != null && processingMetaData != null && !isShutdown) {
-      processImage(processingImage, processingMetaData, graphicOverlay);
+      processImage(
+              processingImage,
+              processingMetaData,
+              graphicOverlay,
+              latestImageArrivalMs,
+              newSequenceNumber())
+          .addOnSuccessListener(executor, results -> processLatestImage(graphicOverlay));
     }
   }
 
-  private void processImage(
+  // Pipelined mode: keeps up to maxFramesInFlight frames in detection, with only the latest frame
+  // waiting for a free slot, so that the detector stays busy without queueing up stale frames. The
+  // lock is only held to hand frames over, frames are converted and detected outside of it.
+  private void enqueueFrame(
       ByteBuffer data, final FrameMetadata frameMetadata, final GraphicOverlay graphicOverlay) {
+    if (isShutdown) {
+      return;
+    }
+    // The camera reuses its buffer as soon as this returns, so the frame is copied.
+    int size = data.limit();
+    FrameBufferPool nv21BufferPool = getFrameResources().nv21BufferPool;
+    byte[] buffer = nv21BufferPool.acquire(size);
+    data.rewind();
+    data.get(buffer, 0, size);
+    synchronized (this) {
+      if (latestImageBuffer != null) {
+        nv21BufferPool.release(latestImageBuffer);
+        numDroppedFrames++;
+      }
+      latestImage = ByteBuffer.wrap(buffer);
+      latestImageMetaData = frameMetadata;
+      latestImageArrivalMs = SystemClock.elapsedRealtime();
+      latestImageBuffer = buffer;
+    }
+    startLatestFrame(graphicOverlay);
+  }
+
+  private void startLatestFrame(final GraphicOverlay graphicOverlay) {
+    byte[] buffer;
+    ByteBuffer data;
+    FrameMetadata frameMetadata;
+    long arrivalMs;
+    long sequenceNumber;
+    synchronized (this) {
+      if (latestImageBuffer == null || numFramesInFlight >= maxFramesInFlight || isShutdown) {
+        return;
+      }
+      buffer = latestImageBuffer;
+      data = latestImage;
+      frameMetadata = latestImageMetaData;
+      arrivalMs = latestImageArrivalMs;
+      sequenceNumber = nextSequenceNumber++;
+      latestImage = null;
+      latestImageMetaData = null;
+      latestImageBuffer = null;
+      numFramesInFlight++;
+    }
+    Task<T> task = processImage(data, frameMetadata, graphicOverlay, arrivalMs, sequenceNumber);
+    // The slot is freed right away on the detector's thread rather than after the results are
+    // shown, so the next frame does not wait for the main thread. The copy is kept for as long as
+    // the frame is read.
+    task.addOnCompleteListener(Runnable::run, completed -> finishFrame(graphicOverlay));
+    addOnFrameReleasedListener(
+        task, Runnable::run, () -> getFrameResources().nv21BufferPool.release(buffer));
+  }
+
+  private void finishFrame(final GraphicOverlay graphicOverlay) {
+    synchronized (this) {
+      numFramesInFlight--;
+    }
+    startLatestFrame(graphicOverlay);
+  }
+
+  private synchronized long newSequenceNumber() {
+    return nextSequenceNumber++;
+  }
+
+  private synchronized int getNumDroppedFrames() {
+    return numDroppedFrames;
+  }
+
+  private Task<T> processImage(
+      ByteBuffer data,
+      final FrameMetadata frameMetadata,
+      final GraphicOverlay graphicOverlay,
+      long arrivalMs,
+      long sequenceNumber) {
     long frameStartMs = SystemClock.elapsedRealtime();
 
     // If live viewport is on (that is the underneath surface view takes care of the camera preview
     // drawing), skip the unnecessary bitmap creation that used for the manual preview drawing.
-    Bitmap bitmap =
-        PreferenceUtils.isCameraLiveViewportEnabled(graphicOverlay.getContext())
-            ? null
-            : BitmapUtils.getBitmap(data, frameMetadata);
+    Bitmap bitmap = null;
+    if (!PreferenceUtils.isCameraLiveViewportEnabled(graphicOverlay.getContext())) {
+      PreviewBitmapConverter bitmapConverter = getFrameResources().bitmapConverter;
+      synchronized (bitmapConverter) {
+        bitmap = BitmapUtils.getBitmap(data, frameMetadata, bitmapConverter);
+      }
+    }
 
     if (isMlImageEnabled(graphicOverlay.getContext())) {
       MlImage mlImage =
@@ -185,26 +317,34 @@ public abstract class VisionProcessorBase<T> implements VisionImageProcessor {
               .setRotation(frameMetadata.getRotation())
               .build();
 
-      requestDetectInImage(mlImage, graphicOverlay, bitmap, /* shouldShowFps= */ true, frameStartMs)
-          .addOnSuccessListener(executor, results -> processLatestImage(graphicOverlay));
+      Task<T> task =
+          requestDetectInImage(
+              mlImage,
+              graphicOverlay,
+              bitmap,
+              /* shouldShowFps= */ true,
+              arrivalMs,
+              frameStartMs,
+              sequenceNumber);
 
       // This is optional. Java Garbage collection can also close it eventually.
       mlImage.close();
-      return;
+      return task;
     }
 
-    requestDetectInImage(
-            InputImage.fromByteBuffer(
-                data,
-                frameMetadata.getWidth(),
-                frameMetadata.getHeight(),
-                frameMetadata.getRotation(),
-                InputImage.IMAGE_FORMAT_NV21),
-            graphicOverlay,
-            bitmap,
-            /* shouldShowFps= */ true,
-            frameStartMs)
-        .addOnSuccessListener(executor, results -> processLatestImage(graphicOverlay));
+    return requestDetectInImage(
+        InputImage.fromByteBuffer(
+            data,
+            frameMetadata.getWidth(),
+            frameMetadata.getHeight(),
+            frameMetadata.getRotation(),
+            InputImage.IMAGE_FORMAT_NV21),
+        graphicOverlay,
+        bitmap,
+        /* shouldShowFps= */ true,
+        arrivalMs,
+        frameStartMs,
+        sequenceNumber);
   }
 
   // -----------------Code for processing live preview frame from CameraX API-----------------------
@@ -218,10 +358,15 @@ public abstract class VisionProcessorBase<T> implements VisionImageProcessor {
       return;
     }
 
-    Bitmap bitmap = null;
-    if (!PreferenceUtils.isCameraLiveViewportEnabled(graphicOverlay.getContext())) {
-      bitmap = BitmapUtils.getBitmap(image);
-    }
+    FrameResources frameResources = getFrameResources();
+    byte[] nv21Buffer =
+        PreferenceUtils.isCameraLiveViewportEnabled(graphicOverlay.getContext())
+            ? null
+            : frameResources.nv21BufferPool.acquire(BitmapUtils.getNv21Size(image));
+    Bitmap bitmap =
+        nv21Buffer == null
+            ? null
+            : BitmapUtils.getBitmap(image, nv21Buffer, frameResources.bitmapConverter);
 
     if (isMlImageEnabled(graphicOverlay.getContext())) {
       MlImage mlImage =
@@ -229,42 +374,74 @@ public abstract class VisionProcessorBase<T> implements VisionImageProcessor {
               .setRotation(image.getImageInfo().getRotationDegrees())
               .build();
 
-      requestDetectInImage(
+      Task<T> task =
+          requestDetectInImage(
               mlImage,
               graphicOverlay,
               /* originalCameraImage= */ bitmap,
               /* shouldShowFps= */ true,
-              frameStartMs)
-          // When the image is from CameraX analysis use case, must call image.close() on received
-          // images when finished using them. Otherwise, new images may not be received or the
-          // camera may stall.
-          // Currently MlImage doesn't support ImageProxy directly, so we still need to call
-          // ImageProxy.close() here.
-          .addOnCompleteListener(results -> image.close());
+              frameStartMs,
+              frameStartMs,
+              newSequenceNumber());
+      // When the image is from CameraX analysis use case, must call image.close() on received
+      // images when finished using them. Otherwise, new images may not be received or the camera
+      // may stall.
+      // Currently MlImage doesn't support ImageProxy directly, so we still need to call
+      // ImageProxy.close() here.
+      addOnFrameReleasedListener(
+          task, TaskExecutors.MAIN_THREAD, () -> closeFrame(image, nv21Buffer));
       return;
     }
 
-    requestDetectInImage(
+    Task<T> task =
+        requestDetectInImage(
             InputImage.fromMediaImage(image.getImage(), image.getImageInfo().getRotationDegrees()),
             graphicOverlay,
             /* originalCameraImage= */ bitmap,
             /* shouldShowFps= */ true,
-            frameStartMs)
-        // When the image is from CameraX analysis use case, must call image.close() on received
-        // images when finished using them. Otherwise, new images may not be received or the camera
-        // may stall.
-        .addOnCompleteListener(results -> image.close());
+            frameStartMs,
+            frameStartMs,
+            newSequenceNumber());
+    // When the image is from CameraX analysis use case, must call image.close() on received
+    // images when finished using them. Otherwise, new images may not be received or the camera
+    // may stall.
+    addOnFrameReleasedListener(
+        task, TaskExecutors.MAIN_THREAD, () -> closeFrame(image, nv21Buffer));
+  }
+
+  private void closeFrame(ImageProxy image, @Nullable byte[] nv21Buffer) {
+    image.close();
+    if (nv21Buffer != null) {
+      getFrameResources().nv21BufferPool.release(nv21Buffer);
+    }
   }
 
   // -----------------Common processing logic-------------------------------------------------------
+  // Runs the listener once the detector no longer reads the frame of the given detection.
+  private void addOnFrameReleasedListener(Task<T> detection, Executor executor, Runnable listener) {
+    detection.addOnCompleteListener(
+        executor,
+        completed ->
+            getFrameReleaseTask(completed)
+                .addOnCompleteListener(executor, released -> listener.run()));
+  }
+
   private Task<T> requestDetectInImage(
       final InputImage image,
       final GraphicOverlay graphicOverlay,
       @Nullable final Bitmap originalCameraImage,
       boolean shouldShowFps,
-      long frameStartMs) {
+      long arrivalMs,
+      long frameStartMs,
+      long sequenceNumber) {
     return setUpListener(
-        detectInImage(image), graphicOverlay, originalCameraImage, shouldShowFps, frameStartMs);
+        detectInImage(image),
+        graphicOverlay,
+        originalCameraImage,
+        shouldShowFps,
+        arrivalMs,
+        frameStartMs,
+        sequenceNumber);
   }
 
   private Task<T> requestDetectInImage(
@@ -272,9 +449,17 @@ public abstract class VisionProcessorBase<T> implements VisionImageProcessor {
       final GraphicOverlay graphicOverlay,
       @Nullable final Bitmap originalCameraImage,
       boolean shouldShowFps,
-      long frameStartMs) {
+      long arrivalMs,
+      long frameStartMs,
+      long sequenceNumber) {
     return setUpListener(
-        detectInImage(image), graphicOverlay, originalCameraImage, shouldShowFps, frameStartMs);
+        detectInImage(image),
+        graphicOverlay,
+        originalCameraImage,
+        shouldShowFps,
+        arrivalMs,
+        frameStartMs,
+        sequenceNumber);
   }
 
   private Task<T> setUpListener(
@@ -282,11 +467,19 @@ public abstract class VisionProcessorBase<T> implements VisionImageProcessor {
       final GraphicOverlay graphicOverlay,
       @Nullable final Bitmap originalCameraImage,
       boolean shouldShowFps,
-      long frameStartMs) {
+      long arrivalMs,
+      long frameStartMs,
+      long sequenceNumber) {
     final long detectorStartMs = SystemClock.elapsedRealtime();
     return task.addOnSuccessListener(
             executor,
             results -> {
+              if (sequenceNumber < lastShownSequenceNumber) {
+                // A later frame overtook this one while pipelined.
+                numStaleResults++;
+                return;
+              }
+              lastShownSequenceNumber = sequenceNumber;
               long endMs = SystemClock.elapsedRealtime();
               long currentFrameLatencyMs = endMs - frameStartMs;
               long currentDetectorLatencyMs = endMs - detectorStartMs;
@@ -295,40 +488,46 @@ public abstract class VisionProcessorBase<T> implements VisionImageProcessor {
               }
               numRuns++;
               frameProcessedInOneSecondInterval++;
-              totalFrameMs += currentFrameLatencyMs;
-              maxFrameMs = max(currentFrameLatencyMs, maxFrameMs);
-              minFrameMs = min(currentFrameLatencyMs, minFrameMs);
-              totalDetectorMs += currentDetectorLatencyMs;
-              maxDetectorMs = max(currentDetectorLatencyMs, maxDetectorMs);
-              minDetectorMs = min(currentDetectorLatencyMs, minDetectorMs);
+              frameLatency.add(currentFrameLatencyMs);
+              queueLatency.add(frameStartMs - arrivalMs);
+              conversionLatency.add(detectorStartMs - frameStartMs);
+              detectorLatency.add(currentDetectorLatencyMs);
 
               // Only log inference info once per second. When frameProcessedInOneSecondInterval is
               // equal to 1, it means this is the first frame processed during the current second.
               if (frameProcessedInOneSecondInterval == 1) {
                 Log.d(TAG, "Num of Runs: " + numRuns);
+                Log.d(TAG, "Frame latency: " + frameLatency);
+                Log.d(TAG, "Queue latency: " + queueLatency);
+                Log.d(TAG, "Conversion latency: " + conversionLatency);
+                Log.d(TAG, "Detector latency: " + detectorLatency);
+                Log.d(TAG, "Post latency: " + postLatency);
                 Log.d(
                     TAG,
-                    "Frame latency: max="
-                        + maxFrameMs
-                        + ", min="
-                        + minFrameMs
-                        + ", avg="
-                        + totalFrameMs / numRuns);
-                Log.d(
-                    TAG,
-                    "Detector latency: max="
-                        + maxDetectorMs
-                        + ", min="
-                        + minDetectorMs
-                        + ", avg="
-                        + totalDetectorMs / numRuns);
+                    "Frames in flight: max="
+                        + maxFramesInFlight
+                        + ", dropped="
+                        + getNumDroppedFrames()
+                        + ", stale results="
+                        + numStaleResults);
                 MemoryInfo mi = new MemoryInfo();
                 activityManager.getMemoryInfo(mi);
                 long availableMegs = mi.availMem / 0x100000L;
                 Log.d(TAG, "Memory available in system: " + availableMegs + " MB");
-                temperatureMonitor.logTemperature();
+                FrameResources frameResources = getFrameResources();
+                FrameBufferPool nv21BufferPool = frameResources.nv21BufferPool;
+                Log.d(
+                    TAG,
+                    "NV21 buffer pool: hits="
+                        + nv21BufferPool.getHitCount()
+                        + ", misses="
+                        + nv21BufferPool.getMissCount()
+                        + ", leaks="
+                        + nv21BufferPool.getLeakCount());
+                frameResources.temperatureMonitor.logTemperature();
               }
 
+              long postStartMs = SystemClock.elapsedRealtime();
               graphicOverlay.clear();
               if (originalCameraImage != null) {
                 graphicOverlay.add(new CameraImageGraphic(graphicOverlay, originalCameraImage));
@@ -344,6 +543,7 @@ public abstract class VisionProcessorBase<T> implements VisionImageProcessor {
                         shouldShowFps ? framesPerSecond : null));
               }
               graphicOverlay.postInvalidate();
+              postLatency.add(SystemClock.elapsedRealtime() - postStartMs);
             })
         .addOnFailureListener(
             executor,
@@ -365,20 +565,34 @@ public abstract class VisionProcessorBase<T> implements VisionImageProcessor {
   @Override
   public void stop() {
     executor.shutdown();
-    isShutdown = true;
+    FrameResources stoppedFrameResources;
+    synchronized (this) {
+      isShutdown = true;
+      stoppedFrameResources = frameResources;
+    }
+    releaseLatestImageBuffer();
     resetLatencyStats();
-    fpsTimer.cancel();
-    temperatureMonitor.stop();
+    if (stoppedFrameResources != null) {
+      stoppedFrameResources.stop();
+    }
+  }
+
+  private synchronized void releaseLatestImageBuffer() {
+    if (latestImageBuffer != null) {
+      getFrameResources().nv21BufferPool.release(latestImageBuffer);
+      latestImage = null;
+      latestImageMetaData = null;
+      latestImageBuffer = null;
+    }
   }
 
   private void resetLatencyStats() {
     numRuns = 0;
-    totalFrameMs = 0;
-    maxFrameMs = 0;
-    minFrameMs = Long.MAX_VALUE;
-    totalDetectorMs = 0;
-    maxDetectorMs = 0;
-    minDetectorMs = Long.MAX_VALUE;
+    frameLatency.reset();
+    queueLatency.reset();
+    conversionLatency.reset();
+    detectorLatency.reset();
+    postLatency.reset();
   }
 
   protected abstract Task<T> detectInImage(InputImage image);
@@ -397,4 +611,81 @@ public abstract class VisionProcessorBase<T> implements VisionImageProcessor {
   protected boolean isMlImageEnabled(Context context) {
     return false;
   }
+
+  /**
+   * Returns a task that completes once the frame of a completed detection is no longer read, which
+   * is the detection itself unless work on the frame outlives it.
+   */
+  Task<?> getFrameReleaseTask(Task<T> detection) {
+    return detection;
+  }
+
+  /**
+   * Whether frames may be read after their detection completes, in which case Camera1 frames are
+   * always copied, as the camera reuses its buffer once {@link #processByteBuffer} returns.
+   */
+  boolean readsFramesAfterDetection() {
+    return false;
+  }
+
+  /** What processing frames takes besides the detector, created once per processor. */
+  private final class FrameResources {
+    private final Timer fpsTimer = new Timer();
+    private final TemperatureMonitor temperatureMonitor;
+    // Buffers CameraX frames are packed into for conversion, and Camera1 frames are copied into
+    // when pipelined, held until the frame is done.
+    private final FrameBufferPool nv21BufferPool = new FrameBufferPool(BuildConfig.DEBUG);
+    // Converts frames to preview bitmaps. Camera1 frames are converted holding its lock, as
+    // pipelined frames may be started on the camera and the detector thread at once.
+    private final PreviewBitmapConverter bitmapConverter;
+
+    FrameResources() {
+      fpsTimer.scheduleAtFixedRate(
+          new TimerTask() {
+            @Override
+            public void run() {
+              framesPerSecond = frameProcessedInOneSecondInterval;
+              frameProcessedInOneSecondInterval = 0;
+            }
+          },
+          /* delay= */ 0,
+          /* period= */ 1000);
+      temperatureMonitor = new TemperatureMonitor(applicationContext);
+      // One bitmap per frame in flight, plus the one on screen and one whose results are on their
+      // way to the screen.
+      bitmapConverter = new PreviewBitmapConverter(maxFramesInFlight + 2);
+    }
+
+    void stop() {
+      fpsTimer.cancel();
+      temperatureMonitor.stop();
+    }
+  }
+
+  /** Latency of one processing stage over the runs so far, in milliseconds. */
+  static class LatencyStats {
+    private int count;
+    private long totalMs;
+    private long maxMs;
+    private long minMs = Long.MAX_VALUE;
+
+    void add(long ms) {
+      count++;
+      totalMs += ms;
+      maxMs = Math.max(ms, maxMs);
+      minMs = Math.min(ms, minMs);
+    }
+
+    void reset() {
+      count = 0;
+      totalMs = 0;
+      maxMs = 0;
+      minMs = Long.MAX_VALUE;
+    }
+
+    @Override
+    public String toString() {
+      return "max=" + maxMs + ", min=" + minMs + ", avg=" + (count > 0 ? totalMs / count : 0);
+    }
+  }
 }
@@ -17,22 +17,35 @@
 package com.google.mlkit.vision.demo.java.posedetector;
 
 import android.content.Context;
+import android.os.SystemClock;
 import android.util.Log;
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 import com.google.android.gms.tasks.Task;
+import com.google.android.gms.tasks.Tasks;
 import com.google.android.odml.image.MlImage;
 import com.google.mlkit.vision.common.InputImage;
 import com.google.mlkit.vision.demo.GraphicOverlay;
 import com.google.mlkit.vision.demo.java.VisionProcessorBase;
+import com.google.mlkit.vision.demo.java.posedetector.choreography.ChoreographyScorer;
+import com.google.mlkit.vision.demo.java.posedetector.classification.PoseClassifierCache;
 import com.google.mlkit.vision.demo.java.posedetector.classification.PoseClassifierProcessor;
+import com.google.mlkit.vision.demo.java.posedetector.classification.PoseFrame;
+import com.google.mlkit.vision.demo.java.posedetector.classification.PoseRecording;
 import com.google.mlkit.vision.pose.Pose;
 import com.google.mlkit.vision.pose.PoseDetection;
 import com.google.mlkit.vision.pose.PoseDetector;
 import com.google.mlkit.vision.pose.PoseDetectorOptionsBase;
 import com.google.mlkit.vision.pose.PoseLandmark;
 
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Date;
 import java.util.List;
+import java.util.Locale;
 import java.util.concurrent.Executor;
 import java.util.concurrent.Executors;
 
@@ -49,8 +62,16 @@ public class PoseDetectorProcessor
   private final boolean runClassification;
   private final boolean isStreamMode;
   private final boolean drawJoints;
-  private final Context context;
   private final Executor classificationExecutor;
+  // Shared classifier, only set when running classification.
+  @Nullable private final PoseClassifierCache.Reference poseClassifierReference;
+  // Only accessed on the classification executor, which runs one task at a time.
+  @Nullable private PoseRecording.Writer recordingWriter;
+  @Nullable private ChoreographyScorer choreographyScorer;
+  // Refilled with every pose that is recorded or scored, neither of which keeps it.
+  private final PoseFrame recordedFrame = PoseFrame.newReusable();
+  // Set once the shared classifier failed to load, after which frames are not classified.
+  private boolean poseClassifierFailed;
 
   public int distance = 1; // -1: too close, 0: good, 1: too far
 
@@ -83,6 +104,33 @@ public class PoseDetectorProcessor
       boolean runClassification,
       boolean isStreamMode,
       boolean drawJoints) {
+    this(
+        context,
+        options,
+        showInFrameLikelihood,
+        visualizeZ,
+        rescaleZForVisualization,
+        runClassification,
+        isStreamMode,
+        drawJoints,
+        /* poseClassifierReference= */ null);
+  }
+
+  /**
+   * Creates a processor that classifies with the given shared classifier, which it keeps its own
+   * reference to. If none is given, one is acquired here. Frames are not classified until the
+   * classifier has loaded, rather than waiting for it.
+   */
+  public PoseDetectorProcessor(
+      Context context,
+      PoseDetectorOptionsBase options,
+      boolean showInFrameLikelihood,
+      boolean visualizeZ,
+      boolean rescaleZForVisualization,
+      boolean runClassification,
+      boolean isStreamMode,
+      boolean drawJoints,
+      @Nullable PoseClassifierCache.Reference poseClassifierReference) {
     super(context);
     this.showInFrameLikelihood = showInFrameLikelihood;
     this.visualizeZ = visualizeZ;
@@ -91,52 +139,156 @@ public class PoseDetectorProcessor
     this.runClassification = runClassification;
     this.isStreamMode = isStreamMode;
     this.drawJoints = drawJoints;
-    this.context = context;
     classificationExecutor = Executors.newSingleThreadExecutor();
+    if (!runClassification) {
+      this.poseClassifierReference = null;
+    } else if (poseClassifierReference != null) {
+      this.poseClassifierReference = poseClassifierReference.retain();
+    } else {
+      this.poseClassifierReference = PoseClassifierProcessor.acquirePoseClassifier(context);
+    }
   }
 
   @Override
   public void stop() {
     super.stop();
     detector.close();
+    classificationExecutor.execute(
+        () -> {
+          closeRecording();
+          choreographyScorer = null;
+          if (poseClassifierProcessor != null) {
+            poseClassifierProcessor.release();
+          }
+          // Only released after the frames queued before, which may still need the classifier.
+          if (poseClassifierReference != null) {
+            poseClassifierReference.release();
+          }
+        });
+  }
+
+  /** Returns a new file in the app's external files directory to record poses to. */
+  public static File newRecordingFile(Context context) {
+    File directory = context.getExternalFilesDir(null);
+    if (directory == null) {
+      directory = context.getFilesDir();
+    }
+    String timestamp = new SimpleDateFormat("yyyyMMdd_HHmmss", Locale.US).format(new Date());
+    return new File(directory, "poses_" + timestamp + ".plr");
+  }
+
+  /**
+   * Records every following frame to the given file until the processor is stopped, see {@link
+   * PoseRecording}. The file is written on the classification thread.
+   */
+  public void startRecording(File file) {
+    classificationExecutor.execute(
+        () -> {
+          closeRecording();
+          try {
+            recordingWriter = new PoseRecording.Writer(new FileOutputStream(file));
+            Log.i(TAG, "Recording poses to " + file);
+          } catch (IOException e) {
+            Log.e(TAG, "Could not start recording poses", e);
+          }
+        });
+  }
+
+  /**
+   * Scores every following frame with the given scorer, whose choreography starts now. Scoring runs
+   * on the classification thread, which is where the scorer calls its listener.
+   */
+  public void startChoreography(ChoreographyScorer scorer) {
+    long startTimeMs = SystemClock.elapsedRealtime();
+    classificationExecutor.execute(
+        () -> {
+          scorer.start(startTimeMs);
+          choreographyScorer = scorer;
+        });
+  }
+
+  /**
+   * Stops scoring once the frames queued so far are scored, scores the beats left and returns the
+   * final score. Fails if no choreography was started.
+   */
+  public Task<Integer> finishChoreography() {
+    return Tasks.call(
+        classificationExecutor,
+        () -> {
+          if (choreographyScorer == null) {
+            throw new IllegalStateException("No choreography was started");
+          }
+          int finalScore = choreographyScorer.finish();
+          choreographyScorer = null;
+          return finalScore;
+        });
+  }
+
+  private void closeRecording() {
+    if (recordingWriter == null) {
+      return;
+    }
+    try {
+      recordingWriter.close();
+    } catch (IOException e) {
+      Log.e(TAG, "Could not finish recording poses", e);
+    }
+    recordingWriter = null;
   }
 
   @Override
   protected Task<PoseWithClassification> detectInImage(InputImage image) {
     return detector
         .process(image)
-        .continueWith(
-            classificationExecutor,
-            task -> {
-              Pose pose = task.getResult();
-              List<String> classificationResult = new ArrayList<>();
-              if (runClassification) {
-                if (poseClassifierProcessor == null) {
-                  poseClassifierProcessor = new PoseClassifierProcessor(context, isStreamMode);
-                }
-                classificationResult = poseClassifierProcessor.getPoseResult(pose);
-              }
-              return new PoseWithClassification(pose, classificationResult);
-            });
+        .continueWith(classificationExecutor, task -> classify(task.getResult()));
   }
 
   @Override
   protected Task<PoseWithClassification> detectInImage(MlImage image) {
     return detector
         .process(image)
-        .continueWith(
-            classificationExecutor,
-            task -> {
-              Pose pose = task.getResult();
-              List<String> classificationResult = new ArrayList<>();
-              if (runClassification) {
-                if (poseClassifierProcessor == null) {
-                  poseClassifierProcessor = new PoseClassifierProcessor(context, isStreamMode);
-                }
-                classificationResult = poseClassifierProcessor.getPoseResult(pose);
-              }
-              return new PoseWithClassification(pose, classificationResult);
-            });
+        .continueWith(classificationExecutor, task -> classify(task.getResult()));
+  }
+
+  // Runs on the classification executor.
+  private PoseWithClassification classify(Pose pose) {
+    List<String> classificationResult = new ArrayList<>();
+    // Smoothing runs on the same timestamp that is recorded, so replays classify the same way.
+    long timestampMs = SystemClock.elapsedRealtime();
+    if (recordingWriter != null || choreographyScorer != null) {
+      recordedFrame.setPose(pose, timestampMs);
+      if (recordingWriter != null) {
+        try {
+          recordingWriter.write(recordedFrame);
+        } catch (IOException e) {
+          Log.e(TAG, "Could not record pose, stopping recording", e);
+          closeRecording();
+        }
+      }
+      if (choreographyScorer != null) {
+        choreographyScorer.addFrame(recordedFrame);
+      }
+    }
+    if (runClassification && isPoseClassifierReady()) {
+      classificationResult = poseClassifierProcessor.getPoseResult(pose, timestampMs);
+    }
+    return new PoseWithClassification(pose, classificationResult);
+  }
+
+  // Creates the classifier processor once the shared classifier has loaded, without waiting for it.
+  private boolean isPoseClassifierReady() {
+    if (poseClassifierProcessor == null
+        && !poseClassifierFailed
+        && poseClassifierReference.isLoaded()) {
+      try {
+        poseClassifierProcessor =
+            new PoseClassifierProcessor(poseClassifierReference.newPoseClassifier(), isStreamMode);
+      } catch (IllegalStateException e) {
+        Log.e(TAG, "Could not load pose classifier, poses will not be classified", e);
+        poseClassifierFailed = true;
+      }
+    }
+    return poseClassifierProcessor != null;
   }
 
   @Override
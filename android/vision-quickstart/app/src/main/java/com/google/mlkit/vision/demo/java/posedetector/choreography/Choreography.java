@@ -0,0 +1,183 @@
+/*
+ * Copyright 2020 Google LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.mlkit.vision.demo.java.posedetector.choreography;
+
+import static com.google.mlkit.vision.demo.java.posedetector.classification.PoseEmbedding.EMBEDDING_SIZE;
+
+import java.util.List;
+
+/**
+ * A reference choreography: a sequence of beats, each with a target pose to strike, split into
+ * consecutive stages.
+ *
+ * <p>Every beat starts at a time within its stage and lasts until the next beat or the end of the
+ * stage. Target poses are kept as {@link
+ * com.google.mlkit.vision.demo.java.posedetector.classification.PoseEmbedding} embeddings, so that
+ * live poses can be compared with them the way {@link
+ * com.google.mlkit.vision.demo.java.posedetector.classification.PoseClassifier} compares poses with
+ * its samples. Choreographies are authored as csv and compiled into a {@link ChoreographyBundle}
+ * by {@link ChoreographyCompiler}.
+ */
+public class Choreography {
+  // Per stage: start from the start of the choreography, duration and first beat.
+  private final int[] stageStartMs;
+  private final int[] stageDurationMs;
+  private final int[] stageFirstBeats;
+  // Per beat, in order of time: start from the start of the choreography, stage and class id.
+  private final int[] beatStartMs;
+  private final int[] beatStages;
+  private final int[] beatClassIds;
+  private final List<String> classNames;
+  // Target embeddings, EMBEDDING_SIZE entries per beat.
+  private final float[] targetX;
+  private final float[] targetY;
+  private final float[] targetZ;
+
+  /**
+   * Creates a choreography from its tables, which it keeps.
+   *
+   * @throws IllegalArgumentException if stages do not follow each other, a stage has no beats or
+   *     beats are out of order or outside their stage.
+   */
+  Choreography(
+      int[] stageStartMs,
+      int[] stageDurationMs,
+      int[] stageFirstBeats,
+      int[] beatStartMs,
+      int[] beatClassIds,
+      List<String> classNames,
+      float[] targetX,
+      float[] targetY,
+      float[] targetZ) {
+    int numStages = stageStartMs.length;
+    int numBeats = beatStartMs.length;
+    if (numStages == 0
+        || stageDurationMs.length != numStages
+        || stageFirstBeats.length != numStages
+        || beatClassIds.length != numBeats
+        || targetX.length != numBeats * EMBEDDING_SIZE
+        || targetY.length != numBeats * EMBEDDING_SIZE
+        || targetZ.length != numBeats * EMBEDDING_SIZE) {
+      throw new IllegalArgumentException("Choreography tables do not match");
+    }
+    beatStages = new int[numBeats];
+    int expectedStartMs = 0;
+    int expectedFirstBeat = 0;
+    for (int stage = 0; stage < numStages; stage++) {
+      int firstBeat = stageFirstBeats[stage];
+      int endBeat = stage + 1 < numStages ? stageFirstBeats[stage + 1] : numBeats;
+      int stageEndMs = stageStartMs[stage] + stageDurationMs[stage];
+      if (stageStartMs[stage] != expectedStartMs
+          || stageDurationMs[stage] <= 0
+          || firstBeat != expectedFirstBeat
+          || endBeat <= firstBeat
+          || endBeat > numBeats) {
+        throw new IllegalArgumentException("Invalid stage " + stage);
+      }
+      for (int beat = firstBeat; beat < endBeat; beat++) {
+        int minStartMs = beat == firstBeat ? stageStartMs[stage] : beatStartMs[beat - 1] + 1;
+        if (beatStartMs[beat] < minStartMs || beatStartMs[beat] >= stageEndMs) {
+          throw new IllegalArgumentException("Beat " + beat + " is out of order");
+        }
+        if (beatClassIds[beat] < 0 || beatClassIds[beat] >= classNames.size()) {
+          throw new IllegalArgumentException("Invalid class of beat " + beat);
+        }
+        beatStages[beat] = stage;
+      }
+      expectedStartMs = stageEndMs;
+      expectedFirstBeat = endBeat;
+    }
+    this.stageStartMs = stageStartMs;
+    this.stageDurationMs = stageDurationMs;
+    this.stageFirstBeats = stageFirstBeats;
+    this.beatStartMs = beatStartMs;
+    this.beatClassIds = beatClassIds;
+    this.classNames = classNames;
+    this.targetX = targetX;
+    this.targetY = targetY;
+    this.targetZ = targetZ;
+  }
+
+  public int getNumStages() {
+    return stageStartMs.length;
+  }
+
+  /** Returns the start of the stage, from the start of the choreography. */
+  public long getStageStartMs(int stage) {
+    return stageStartMs[stage];
+  }
+
+  public long getStageDurationMs(int stage) {
+    return stageDurationMs[stage];
+  }
+
+  public int getStageFirstBeat(int stage) {
+    return stageFirstBeats[stage];
+  }
+
+  public long getDurationMs() {
+    int lastStage = stageStartMs.length - 1;
+    return stageStartMs[lastStage] + stageDurationMs[lastStage];
+  }
+
+  public int getNumBeats() {
+    return beatStartMs.length;
+  }
+
+  public int getBeatStage(int beat) {
+    return beatStages[beat];
+  }
+
+  /** Returns the start of the beat, from the start of the choreography. */
+  public long getBeatStartMs(int beat) {
+    return beatStartMs[beat];
+  }
+
+  /** Returns the end of the beat, which is the start of the next one or the end of its stage. */
+  public long getBeatEndMs(int beat) {
+    int stage = beatStages[beat];
+    if (beat + 1 < beatStartMs.length && beatStages[beat + 1] == stage) {
+      return beatStartMs[beat + 1];
+    }
+    return stageStartMs[stage] + stageDurationMs[stage];
+  }
+
+  public int getBeatClassId(int beat) {
+    return beatClassIds[beat];
+  }
+
+  /** Returns the class of the target pose of the beat, as given in the choreography. */
+  public String getBeatClassName(int beat) {
+    return classNames.get(beatClassIds[beat]);
+  }
+
+  public List<String> getClassNames() {
+    return classNames;
+  }
+
+  float[] getTargetX() {
+    return targetX;
+  }
+
+  float[] getTargetY() {
+    return targetY;
+  }
+
+  float[] getTargetZ() {
+    return targetZ;
+  }
+}
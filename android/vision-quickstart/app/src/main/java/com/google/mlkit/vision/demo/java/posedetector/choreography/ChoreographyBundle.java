@@ -0,0 +1,207 @@
+/*
+ * Copyright 2020 Google LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.mlkit.vision.demo.java.posedetector.choreography;
+
+import static com.google.mlkit.vision.demo.java.posedetector.classification.PoseEmbedding.EMBEDDING_SIZE;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Reads and writes precompiled choreography bundles, see {@link ChoreographyCompiler}.
+ *
+ * <p>A bundle holds the timing of every beat and its normalized target embedding, so loading it
+ * requires neither csv parsing nor embedding computation. Layout, all little endian:
+ *
+ * <pre>
+ *   Header (28 bytes):
+ *     int magic ("PCB1"), int version, int numStages, int numBeats, int embeddingSize,
+ *     int numClasses, int checksum (CRC32 of everything following the header)
+ *   Stage table: int[numStages] start times in ms, then durations in ms, then first beats
+ *   int[numBeats] beat start times in ms, from the start of the choreography
+ *   int[numBeats] class ids
+ *   Class dictionary: numClasses x (short byteLength, UTF-8 bytes), zero padded to 4 bytes
+ *   float[numBeats * embeddingSize] X components, then Y components, then Z components
+ * </pre>
+ */
+public class ChoreographyBundle {
+  private static final int MAGIC = 0x31424350; // "PCB1" when read as little endian bytes.
+  private static final int VERSION = 1;
+  private static final int HEADER_SIZE = 28;
+  private static final int CHECKSUM_CHUNK_SIZE = 8192;
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+  private ChoreographyBundle() {}
+
+  /**
+   * Reads a bundle, typically memory-mapped, into a {@link Choreography}.
+   *
+   * <p>Tables are bulk-copied into the choreography's arrays; no per-beat objects are created.
+   *
+   * @throws IOException if the bundle is malformed, of another version or fails its checksum.
+   */
+  public static Choreography read(ByteBuffer buffer) throws IOException {
+    buffer = buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+    if (buffer.remaining() < HEADER_SIZE || buffer.getInt() != MAGIC) {
+      throw new IOException("Not a choreography bundle");
+    }
+    int version = buffer.getInt();
+    if (version != VERSION) {
+      throw new IOException("Unsupported choreography bundle version " + version);
+    }
+    int numStages = buffer.getInt();
+    int numBeats = buffer.getInt();
+    int embeddingSize = buffer.getInt();
+    int numClasses = buffer.getInt();
+    int checksum = buffer.getInt();
+    if (embeddingSize != EMBEDDING_SIZE) {
+      throw new IOException("Choreography bundle has embedding size " + embeddingSize);
+    }
+    if (checksum != computeChecksum(buffer.slice())) {
+      throw new IOException("Choreography bundle checksum mismatch");
+    }
+
+    try {
+      int[] stageStartMs = readInts(buffer, numStages);
+      int[] stageDurationMs = readInts(buffer, numStages);
+      int[] stageFirstBeats = readInts(buffer, numStages);
+      int[] beatStartMs = readInts(buffer, numBeats);
+      int[] beatClassIds = readInts(buffer, numBeats);
+
+      List<String> classNames = new ArrayList<>(numClasses);
+      int dictionaryStart = buffer.position();
+      for (int i = 0; i < numClasses; i++) {
+        byte[] name = new byte[buffer.getShort()];
+        buffer.get(name);
+        classNames.add(new String(name, UTF_8));
+      }
+      buffer.position(dictionaryStart + align(buffer.position() - dictionaryStart));
+
+      float[][] components = new float[3][numBeats * embeddingSize];
+      for (float[] component : components) {
+        buffer.asFloatBuffer().get(component);
+        buffer.position(buffer.position() + component.length * 4);
+      }
+      return new Choreography(
+          stageStartMs,
+          stageDurationMs,
+          stageFirstBeats,
+          beatStartMs,
+          beatClassIds,
+          classNames,
+          components[0],
+          components[1],
+          components[2]);
+    } catch (RuntimeException e) {
+      // Buffer underflows, negative sizes and inconsistent tables from a corrupted payload.
+      throw new IOException("Malformed choreography bundle", e);
+    }
+  }
+
+  /** Writes the given choreography as a bundle. */
+  public static void write(Choreography choreography, OutputStream out) throws IOException {
+    int numStages = choreography.getNumStages();
+    int numBeats = choreography.getNumBeats();
+    List<String> classNames = choreography.getClassNames();
+    int numClasses = classNames.size();
+
+    int dictionarySize = 0;
+    byte[][] encodedClassNames = new byte[numClasses][];
+    for (int i = 0; i < numClasses; i++) {
+      encodedClassNames[i] = classNames.get(i).getBytes(UTF_8);
+      dictionarySize += 2 + encodedClassNames[i].length;
+    }
+    ByteBuffer payload =
+        ByteBuffer.allocate(
+                numStages * 3 * 4
+                    + numBeats * 2 * 4
+                    + align(dictionarySize)
+                    + numBeats * 3 * EMBEDDING_SIZE * 4)
+            .order(ByteOrder.LITTLE_ENDIAN);
+    for (int stage = 0; stage < numStages; stage++) {
+      payload.putInt((int) choreography.getStageStartMs(stage));
+    }
+    for (int stage = 0; stage < numStages; stage++) {
+      payload.putInt((int) choreography.getStageDurationMs(stage));
+    }
+    for (int stage = 0; stage < numStages; stage++) {
+      payload.putInt(choreography.getStageFirstBeat(stage));
+    }
+    for (int beat = 0; beat < numBeats; beat++) {
+      payload.putInt((int) choreography.getBeatStartMs(beat));
+    }
+    for (int beat = 0; beat < numBeats; beat++) {
+      payload.putInt(choreography.getBeatClassId(beat));
+    }
+    int dictionaryStart = payload.position();
+    for (byte[] className : encodedClassNames) {
+      payload.putShort((short) className.length);
+      payload.put(className);
+    }
+    payload.position(dictionaryStart + align(dictionarySize));
+    for (float value : choreography.getTargetX()) {
+      payload.putFloat(value);
+    }
+    for (float value : choreography.getTargetY()) {
+      payload.putFloat(value);
+    }
+    for (float value : choreography.getTargetZ()) {
+      payload.putFloat(value);
+    }
+    payload.flip();
+
+    ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+    header.putInt(MAGIC);
+    header.putInt(VERSION);
+    header.putInt(numStages);
+    header.putInt(numBeats);
+    header.putInt(EMBEDDING_SIZE);
+    header.putInt(numClasses);
+    header.putInt(computeChecksum(payload.duplicate()));
+    out.write(header.array());
+    out.write(payload.array(), 0, payload.limit());
+  }
+
+  private static int[] readInts(ByteBuffer buffer, int count) {
+    int[] values = new int[count];
+    buffer.asIntBuffer().get(values);
+    buffer.position(buffer.position() + count * 4);
+    return values;
+  }
+
+  private static int align(int size) {
+    return (size + 3) & ~3;
+  }
+
+  // CRC32.update(ByteBuffer) needs API level 26, so copy through a small chunk instead.
+  private static int computeChecksum(ByteBuffer buffer) {
+    CRC32 crc = new CRC32();
+    byte[] chunk = new byte[CHECKSUM_CHUNK_SIZE];
+    while (buffer.hasRemaining()) {
+      int length = Math.min(chunk.length, buffer.remaining());
+      buffer.get(chunk, 0, length);
+      crc.update(chunk, 0, length);
+    }
+    return (int) crc.getValue();
+  }
+}
@@ -0,0 +1,249 @@
+/*
+ * Copyright 2020 Google LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.mlkit.vision.demo.java.posedetector.choreography;
+
+import static com.google.mlkit.vision.demo.java.posedetector.classification.PoseEmbedding.EMBEDDING_SIZE;
+import static com.google.mlkit.vision.demo.java.posedetector.classification.PoseEmbedding.NUM_LANDMARKS;
+
+import com.google.mlkit.vision.demo.java.posedetector.classification.PoseEmbedding;
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Offline tool that compiles a choreography csv file into a {@link ChoreographyBundle}.
+ *
+ * <p>Each line holds the target pose of one beat, in order of time, in the format of the pose
+ * samples file: {@code name,class,X1,Y1,Z1,X2,Y2,Z2...}. Beats are then spread evenly over the
+ * stages, which need the same number of beats each. Lines may instead be prefixed with the stage
+ * and the start of the beat within it, {@code stage,beatMs,name,class,X1,Y1,Z1...}, in which case
+ * every stage needs at least one beat. Lines starting with {@code #} are ignored. The tool only
+ * depends on the JDK, so it can be run on a desktop JVM with the compiled app classes on the class
+ * path:
+ *
+ * <pre>
+ *   java -cp app/build/intermediates/javac/debug/classes \
+ *       com.google.mlkit.vision.demo.java.posedetector.choreography.ChoreographyCompiler \
+ *       app/src/main/assets/choreography/stage_choreography.csv \
+ *       app/src/main/assets/choreography/stage_choreography.bin 3 7559
+ * </pre>
+ */
+public class ChoreographyCompiler {
+  private static final String SEPARATOR = ",";
+  private static final String COMMENT_PREFIX = "#";
+  private static final int NUM_DIMS = 3;
+  private static final int SAMPLE_TOKENS = NUM_LANDMARKS * NUM_DIMS + 2;
+  private static final int TIMED_SAMPLE_TOKENS = SAMPLE_TOKENS + 2;
+
+  private ChoreographyCompiler() {}
+
+  public static void main(String[] args) throws IOException {
+    int numStages = 0;
+    int stageDurationMs = 0;
+    try {
+      if (args.length == 4) {
+        numStages = Integer.parseInt(args[2]);
+        stageDurationMs = Integer.parseInt(args[3]);
+      }
+    } catch (NumberFormatException e) {
+      numStages = 0;
+    }
+    if (numStages <= 0 || stageDurationMs <= 0) {
+      System.err.println(
+          "Usage: ChoreographyCompiler <choreography.csv> <choreography.bin> <numStages>"
+              + " <stageDurationMs>");
+      System.exit(1);
+    }
+    Choreography choreography;
+    try (Reader csv =
+        new InputStreamReader(new FileInputStream(args[0]), Charset.forName("UTF-8"))) {
+      choreography = compile(csv, numStages, stageDurationMs);
+    }
+    try (OutputStream out = new FileOutputStream(args[1])) {
+      ChoreographyBundle.write(choreography, out);
+    }
+    System.out.println(
+        "Compiled "
+            + choreography.getNumBeats()
+            + " beats in "
+            + choreography.getNumStages()
+            + " stages to "
+            + args[1]);
+  }
+
+  /**
+   * Parses a choreography of the given stages from csv and computes the embeddings of its target
+   * poses.
+   *
+   * @throws IOException if a line is malformed or beats are out of order.
+   */
+  public static Choreography compile(Reader csv, int numStages, int stageDurationMs)
+      throws IOException {
+    if (numStages <= 0 || stageDurationMs <= 0 || numStages > Integer.MAX_VALUE / stageDurationMs) {
+      throw new IllegalArgumentException("Invalid stages");
+    }
+    BufferedReader reader = new BufferedReader(csv);
+    List<String> classNames = new ArrayList<>();
+    Map<String, Integer> classIdsByName = new HashMap<>();
+    // Per beat: stage and start within it, or -1 for beats to be spread evenly.
+    int[] stages = new int[64];
+    int[] beatMs = new int[64];
+    int[] classIds = new int[64];
+    float[] x = new float[64 * EMBEDDING_SIZE];
+    float[] y = new float[64 * EMBEDDING_SIZE];
+    float[] z = new float[64 * EMBEDDING_SIZE];
+    float[] landmarkX = new float[NUM_LANDMARKS];
+    float[] landmarkY = new float[NUM_LANDMARKS];
+    float[] landmarkZ = new float[NUM_LANDMARKS];
+    float[] embeddingX = new float[EMBEDDING_SIZE];
+    float[] embeddingY = new float[EMBEDDING_SIZE];
+    float[] embeddingZ = new float[EMBEDDING_SIZE];
+
+    int numBeats = 0;
+    int numTimedBeats = 0;
+    int lineNumber = 0;
+    for (String csvLine = reader.readLine(); csvLine != null; csvLine = reader.readLine()) {
+      lineNumber++;
+      if (csvLine.isEmpty() || csvLine.startsWith(COMMENT_PREFIX)) {
+        continue;
+      }
+      String[] tokens = csvLine.split(SEPARATOR, -1);
+      int first;
+      if (tokens.length == SAMPLE_TOKENS) {
+        first = 0;
+      } else if (tokens.length == TIMED_SAMPLE_TOKENS) {
+        first = 2;
+      } else {
+        throw new IOException("Invalid number of tokens on line " + lineNumber);
+      }
+
+      if (numBeats == classIds.length) {
+        stages = Arrays.copyOf(stages, numBeats * 2);
+        beatMs = Arrays.copyOf(beatMs, numBeats * 2);
+        classIds = Arrays.copyOf(classIds, numBeats * 2);
+        x = Arrays.copyOf(x, numBeats * 2 * EMBEDDING_SIZE);
+        y = Arrays.copyOf(y, numBeats * 2 * EMBEDDING_SIZE);
+        z = Arrays.copyOf(z, numBeats * 2 * EMBEDDING_SIZE);
+      }
+      try {
+        stages[numBeats] = first == 0 ? -1 : Integer.parseInt(tokens[0]);
+        beatMs[numBeats] = first == 0 ? -1 : Integer.parseInt(tokens[1]);
+        for (int i = 0; i < NUM_LANDMARKS; i++) {
+          landmarkX[i] = Float.parseFloat(tokens[first + 2 + i * NUM_DIMS]);
+          landmarkY[i] = Float.parseFloat(tokens[first + 3 + i * NUM_DIMS]);
+          landmarkZ[i] = Float.parseFloat(tokens[first + 4 + i * NUM_DIMS]);
+        }
+      } catch (NumberFormatException e) {
+        throw new IOException("Invalid number on line " + lineNumber, e);
+      }
+      if (first != 0
+          && (stages[numBeats] < 0
+              || stages[numBeats] >= numStages
+              || beatMs[numBeats] < 0
+              || beatMs[numBeats] >= stageDurationMs)) {
+        throw new IOException("Beat on line " + lineNumber + " is out of its stage");
+      }
+
+      Integer classId = classIdsByName.get(tokens[first + 1]);
+      if (classId == null) {
+        classId = classNames.size();
+        classIdsByName.put(tokens[first + 1], classId);
+        classNames.add(tokens[first + 1]);
+      }
+      classIds[numBeats] = classId;
+      PoseEmbedding.getPoseEmbedding(
+          landmarkX, landmarkY, landmarkZ, embeddingX, embeddingY, embeddingZ);
+      System.arraycopy(embeddingX, 0, x, numBeats * EMBEDDING_SIZE, EMBEDDING_SIZE);
+      System.arraycopy(embeddingY, 0, y, numBeats * EMBEDDING_SIZE, EMBEDDING_SIZE);
+      System.arraycopy(embeddingZ, 0, z, numBeats * EMBEDDING_SIZE, EMBEDDING_SIZE);
+      if (first != 0) {
+        numTimedBeats++;
+      }
+      numBeats++;
+    }
+
+    if (numTimedBeats == 0) {
+      spreadBeats(numBeats, numStages, stageDurationMs, stages, beatMs);
+    } else if (numTimedBeats != numBeats) {
+      throw new IOException("Either all beats or none have to be timed");
+    }
+
+    int[] stageStartMs = new int[numStages];
+    int[] stageDurations = new int[numStages];
+    int[] stageFirstBeats = new int[numStages];
+    int[] beatStartMs = new int[numBeats];
+    int beat = 0;
+    for (int stage = 0; stage < numStages; stage++) {
+      stageStartMs[stage] = stage * stageDurationMs;
+      stageDurations[stage] = stageDurationMs;
+      stageFirstBeats[stage] = beat;
+      for (; beat < numBeats && stages[beat] == stage; beat++) {
+        beatStartMs[beat] = stageStartMs[stage] + beatMs[beat];
+      }
+      if (beat == stageFirstBeats[stage]) {
+        throw new IOException("Stage " + stage + " has no beats, or beats are out of order");
+      }
+    }
+    if (beat < numBeats) {
+      throw new IOException("Beat " + beat + " is out of order");
+    }
+    try {
+      return new Choreography(
+          stageStartMs,
+          stageDurations,
+          stageFirstBeats,
+          beatStartMs,
+          Arrays.copyOf(classIds, numBeats),
+          classNames,
+          Arrays.copyOf(x, numBeats * EMBEDDING_SIZE),
+          Arrays.copyOf(y, numBeats * EMBEDDING_SIZE),
+          Arrays.copyOf(z, numBeats * EMBEDDING_SIZE));
+    } catch (IllegalArgumentException e) {
+      throw new IOException(e.getMessage(), e);
+    }
+  }
+
+  // Gives every stage the same number of consecutive beats, at even intervals from its start,
+  // rounded to the nearest millisecond.
+  private static void spreadBeats(
+      int numBeats, int numStages, int stageDurationMs, int[] stages, int[] beatMs)
+      throws IOException {
+    if (numBeats == 0 || numBeats % numStages != 0) {
+      throw new IOException(
+          numBeats + " beats can not be spread evenly over " + numStages + " stages");
+    }
+    int beatsPerStage = numBeats / numStages;
+    if (beatsPerStage > stageDurationMs) {
+      throw new IOException("Stages are too short for " + beatsPerStage + " beats");
+    }
+    for (int beat = 0; beat < numBeats; beat++) {
+      stages[beat] = beat / beatsPerStage;
+      beatMs[beat] =
+          (int) Math.round((double) (beat % beatsPerStage) * stageDurationMs / beatsPerStage);
+    }
+  }
+}
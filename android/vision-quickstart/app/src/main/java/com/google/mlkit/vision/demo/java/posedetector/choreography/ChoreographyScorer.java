@@ -0,0 +1,134 @@
+/*
+ * Copyright 2020 Google LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.mlkit.vision.demo.java.posedetector.choreography;
+
+import static com.google.mlkit.vision.demo.java.posedetector.classification.PoseEmbedding.EMBEDDING_SIZE;
+import static java.lang.Math.min;
+
+import com.google.mlkit.vision.demo.java.posedetector.classification.PoseFrame;
+
+/**
+ * Scores a live performance of a {@link Choreography}, frame by frame.
+ *
+ * <p>Every pose is compared with the target pose of the beat active at its timestamp, by the mean
+ * weighted distance of their embeddings that {@link
+ * com.google.mlkit.vision.demo.java.posedetector.classification.PoseClassifier} ranks samples by,
+ * mirrored or not. A beat scores by the closest pose seen during it: 100 up to {@link
+ * #PERFECT_DISTANCE}, falling linearly to 0 at {@link #MISS_DISTANCE}, and is a hit up to {@link
+ * #HIT_DISTANCE}. A stage scores the mean of its beats and the performance the mean of its stages.
+ * Beats are scored, and reported to the {@link Listener}, once a frame past their end arrives.
+ *
+ * <p>A frame costs one embedding and one distance, and allocates nothing. Not thread-safe: frames
+ * have to be added on one thread, in the order of their timestamps, which is also where the
+ * listener is called.
+ */
+public class ChoreographyScorer {
+  // Distances between embeddings, in the units of PoseEmbedding. Picked on the squat samples of
+  // the pose samples file, where poses of the same class are mostly below HIT_DISTANCE apart.
+  public static final float PERFECT_DISTANCE = 8f;
+  public static final float HIT_DISTANCE = 16f;
+  public static final float MISS_DISTANCE = 28f;
+  private static final long NOT_STARTED = Long.MIN_VALUE;
+
+  /** Receives scores as they are known. */
+  public interface Listener {
+    void onBeatScored(int beat, boolean hit, int score);
+
+    void onStageScored(int stage, int score);
+  }
+
+  private final Choreography choreography;
+  private final Listener listener;
+
+  private long startTimeMs = NOT_STARTED;
+  // First beat that has not been scored yet.
+  private int nextBeat;
+  // Closest distance to the target of the next beat so far.
+  private float bestDistance = Float.MAX_VALUE;
+  private int stageScoreSum;
+  private int numStageBeats;
+  private int finalScoreSum;
+
+  private final PoseEmbedder embedder = new PoseEmbedder();
+
+  public ChoreographyScorer(Choreography choreography, Listener listener) {
+    this.choreography = choreography;
+    this.listener = listener;
+  }
+
+  /** Starts the choreography at the given time, in milliseconds of the frame timestamps. */
+  public void start(long startTimeMs) {
+    this.startTimeMs = startTimeMs;
+  }
+
+  /** Scores a frame, scoring the beats that ended before it first. */
+  public void addFrame(PoseFrame frame) {
+    if (startTimeMs == NOT_STARTED) {
+      return;
+    }
+    long timeMs = frame.getTimestampMs() - startTimeMs;
+    scoreBeatsUntil(timeMs);
+    if (!frame.hasPose()
+        || nextBeat == choreography.getNumBeats()
+        || timeMs < choreography.getBeatStartMs(nextBeat)) {
+      return;
+    }
+    embedder.embed(frame);
+    bestDistance =
+        min(
+            bestDistance,
+            embedder.getDistance(
+                choreography.getTargetX(),
+                choreography.getTargetY(),
+                choreography.getTargetZ(),
+                nextBeat * EMBEDDING_SIZE));
+  }
+
+  /**
+   * Scores the beats left, however many frames they saw, and returns the final score in [0, 100].
+   */
+  public int finish() {
+    scoreBeatsUntil(Long.MAX_VALUE);
+    return Math.round((float) finalScoreSum / choreography.getNumStages());
+  }
+
+  private void scoreBeatsUntil(long timeMs) {
+    while (nextBeat < choreography.getNumBeats() && choreography.getBeatEndMs(nextBeat) <= timeMs) {
+      int beat = nextBeat++;
+      boolean hit = bestDistance <= HIT_DISTANCE;
+      int score = getScore(bestDistance);
+      bestDistance = Float.MAX_VALUE;
+      listener.onBeatScored(beat, hit, score);
+
+      int stage = choreography.getBeatStage(beat);
+      stageScoreSum += score;
+      numStageBeats++;
+      if (nextBeat == choreography.getNumBeats() || choreography.getBeatStage(nextBeat) != stage) {
+        int stageScore = Math.round((float) stageScoreSum / numStageBeats);
+        stageScoreSum = 0;
+        numStageBeats = 0;
+        finalScoreSum += stageScore;
+        listener.onStageScored(stage, stageScore);
+      }
+    }
+  }
+
+  private static int getScore(float distance) {
+    float score = (MISS_DISTANCE - distance) / (MISS_DISTANCE - PERFECT_DISTANCE);
+    return Math.round(100 * Math.max(0, Math.min(1, score)));
+  }
+}
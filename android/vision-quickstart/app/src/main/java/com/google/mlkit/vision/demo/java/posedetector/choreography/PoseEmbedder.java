@@ -0,0 +1,78 @@
+/*
+ * Copyright 2020 Google LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.mlkit.vision.demo.java.posedetector.choreography;
+
+import static com.google.mlkit.vision.demo.java.posedetector.classification.PoseEmbedding.EMBEDDING_SIZE;
+import static com.google.mlkit.vision.demo.java.posedetector.classification.PoseEmbedding.NUM_LANDMARKS;
+import static java.lang.Math.abs;
+import static java.lang.Math.min;
+
+import com.google.mlkit.vision.demo.java.posedetector.classification.PoseEmbedding;
+import com.google.mlkit.vision.demo.java.posedetector.classification.PoseFrame;
+
+/**
+ * Embeds live poses and measures their distance to reference embeddings, by the mean weighted
+ * distance, mirrored or not, that {@link
+ * com.google.mlkit.vision.demo.java.posedetector.classification.PoseClassifier} ranks samples by.
+ * Allocates nothing after construction. Not thread-safe.
+ */
+final class PoseEmbedder {
+  private static final float Z_WEIGHT = 0.2f;
+  private static final int MEAN_DIVISOR = EMBEDDING_SIZE * 2;
+
+  private final float[] landmarkX = new float[NUM_LANDMARKS];
+  private final float[] landmarkY = new float[NUM_LANDMARKS];
+  private final float[] landmarkZ = new float[NUM_LANDMARKS];
+  private final float[] embeddingX = new float[EMBEDDING_SIZE];
+  private final float[] embeddingY = new float[EMBEDDING_SIZE];
+  private final float[] embeddingZ = new float[EMBEDDING_SIZE];
+
+  /** Embeds the pose of the frame, which has to have one. */
+  void embed(PoseFrame frame) {
+    float[] landmarks = frame.getLandmarks();
+    for (int i = 0; i < NUM_LANDMARKS; i++) {
+      landmarkX[i] = landmarks[i * 3];
+      landmarkY[i] = landmarks[i * 3 + 1];
+      landmarkZ[i] = landmarks[i * 3 + 2];
+    }
+    PoseEmbedding.getPoseEmbedding(
+        landmarkX, landmarkY, landmarkZ, embeddingX, embeddingY, embeddingZ);
+  }
+
+  /** Copies the embedding of the last embedded pose to the given offset of the arrays. */
+  void copyEmbedding(float[] x, float[] y, float[] z, int offset) {
+    System.arraycopy(embeddingX, 0, x, offset, EMBEDDING_SIZE);
+    System.arraycopy(embeddingY, 0, y, offset, EMBEDDING_SIZE);
+    System.arraycopy(embeddingZ, 0, z, offset, EMBEDDING_SIZE);
+  }
+
+  /**
+   * Returns the distance of the last embedded pose to the reference embedding that starts at the
+   * given offset of the arrays.
+   */
+  float getDistance(float[] referenceX, float[] referenceY, float[] referenceZ, int offset) {
+    float originalSum = 0;
+    float mirroredSum = 0;
+    for (int i = 0; i < EMBEDDING_SIZE; i++) {
+      float dy = abs(referenceY[offset + i] - embeddingY[i]);
+      float dz = abs(referenceZ[offset + i] - embeddingZ[i]) * Z_WEIGHT;
+      originalSum += abs(referenceX[offset + i] - embeddingX[i]) + dy + dz;
+      mirroredSum += abs(referenceX[offset + i] + embeddingX[i]) + dy + dz;
+    }
+    return min(originalSum, mirroredSum) / MEAN_DIVISOR;
+  }
+}
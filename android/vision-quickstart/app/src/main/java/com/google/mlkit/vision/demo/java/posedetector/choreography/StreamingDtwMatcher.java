@@ -0,0 +1,219 @@
+/*
+ * Copyright 2020 Google LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.mlkit.vision.demo.java.posedetector.choreography;
+
+import static com.google.mlkit.vision.demo.java.posedetector.classification.PoseEmbedding.EMBEDDING_SIZE;
+import static java.lang.Math.max;
+import static java.lang.Math.min;
+
+import com.google.mlkit.vision.demo.java.posedetector.classification.PoseFrame;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Aligns live poses with a reference sequence of poses as they come in, by dynamic time warping,
+ * so that a performance a little ahead of or behind the reference is not punished for it.
+ *
+ * <p>Every live pose is matched against the reference poses within {@code bandRadius} of the one
+ * at the same time since the start, a Sakoe-Chiba band. The cumulative cost of the cheapest warping
+ * path to each of them follows from the costs of the previous live pose, and only those two rows of
+ * the band are kept, so every frame takes the same time and memory. Steps of a path go to the next
+ * live pose, the next reference pose or both, and distances between poses are those {@link
+ * ChoreographyScorer} compares poses by. The live pose is matched with the reference pose whose
+ * path has the lowest mean distance per step, see {@link #getMeanCost}. Paths may start at any
+ * reference pose in the band of the first live pose. If no path reaches the band, e.g. after a long
+ * gap in the live poses, alignment starts over.
+ *
+ * <p>Not thread-safe: frames have to be added on one thread, in the order of their timestamps.
+ */
+public class StreamingDtwMatcher {
+  private static final long NOT_STARTED = Long.MIN_VALUE;
+
+  private final int numReference;
+  // Times of the reference poses since the first, and their embeddings, EMBEDDING_SIZE per pose.
+  private final long[] referenceTimesMs;
+  private final float[] referenceX;
+  private final float[] referenceY;
+  private final float[] referenceZ;
+  private final int bandRadius;
+  private final PoseEmbedder embedder = new PoseEmbedder();
+
+  // Costs and lengths of the cheapest paths to the band of the current and the previous live pose,
+  // with the reference index that each band starts at. The previous band is empty before the
+  // first pose.
+  private float[] costs;
+  private int[] lengths;
+  private float[] previousCosts;
+  private int[] previousLengths;
+  private int bandStart;
+  private int previousBandStart;
+  private int previousBandSize;
+  private final float[] distances;
+
+  private long startTimeMs = NOT_STARTED;
+  // Reference pose at the time of the latest live pose.
+  private int centerIndex;
+  private int matchedIndex = -1;
+  private float cost;
+  private int pathLength;
+
+  /**
+   * Creates a matcher against the poses of the given frames, e.g. a {@link
+   * com.google.mlkit.vision.demo.java.posedetector.classification.PoseRecording}, skipping frames
+   * without one.
+   *
+   * @param bandRadius how many reference poses before and after the one at the same time a live
+   *     pose can be matched with
+   */
+  public StreamingDtwMatcher(List<PoseFrame> reference, int bandRadius) {
+    List<PoseFrame> poses = new ArrayList<>();
+    for (PoseFrame frame : reference) {
+      if (frame.hasPose()) {
+        poses.add(frame);
+      }
+    }
+    if (poses.isEmpty() || bandRadius < 0) {
+      throw new IllegalArgumentException("Reference needs poses and a band radius of at least 0");
+    }
+    numReference = poses.size();
+    this.bandRadius = bandRadius;
+    referenceTimesMs = new long[numReference];
+    referenceX = new float[numReference * EMBEDDING_SIZE];
+    referenceY = new float[numReference * EMBEDDING_SIZE];
+    referenceZ = new float[numReference * EMBEDDING_SIZE];
+    for (int i = 0; i < numReference; i++) {
+      referenceTimesMs[i] = poses.get(i).getTimestampMs() - poses.get(0).getTimestampMs();
+      embedder.embed(poses.get(i));
+      embedder.copyEmbedding(referenceX, referenceY, referenceZ, i * EMBEDDING_SIZE);
+    }
+    int bandSize = 2 * bandRadius + 1;
+    costs = new float[bandSize];
+    lengths = new int[bandSize];
+    previousCosts = new float[bandSize];
+    previousLengths = new int[bandSize];
+    distances = new float[bandSize];
+  }
+
+  /** Starts matching from the first reference pose at the given time, forgetting earlier poses. */
+  public void start(long startTimeMs) {
+    this.startTimeMs = startTimeMs;
+    centerIndex = 0;
+    previousBandSize = 0;
+    matchedIndex = -1;
+    cost = 0;
+    pathLength = 0;
+  }
+
+  /** Aligns the pose of the frame, if it has one, and returns whether it did. */
+  public boolean addFrame(PoseFrame frame) {
+    if (startTimeMs == NOT_STARTED || !frame.hasPose()) {
+      return false;
+    }
+    long timeMs = frame.getTimestampMs() - startTimeMs;
+    // Frames come in order, so the center only moves forward, by a frame or two at a time.
+    while (centerIndex + 1 < numReference && referenceTimesMs[centerIndex + 1] <= timeMs) {
+      centerIndex++;
+    }
+    bandStart = max(0, centerIndex - bandRadius);
+    int bandEnd = min(numReference, centerIndex + bandRadius + 1);
+    int bandSize = bandEnd - bandStart;
+
+    embedder.embed(frame);
+    boolean reachable = false;
+    for (int i = 0; i < bandSize; i++) {
+      int index = bandStart + i;
+      distances[i] =
+          embedder.getDistance(referenceX, referenceY, referenceZ, index * EMBEDDING_SIZE);
+      // Cheapest predecessor: the previous live pose at this or the previous reference pose, or
+      // this live pose at the previous reference pose.
+      float bestCost = Float.POSITIVE_INFINITY;
+      int bestLength = 0;
+      for (int previous = index - 1; previous <= index; previous++) {
+        int j = previous - previousBandStart;
+        if (j >= 0 && j < previousBandSize && previousCosts[j] < bestCost) {
+          bestCost = previousCosts[j];
+          bestLength = previousLengths[j];
+        }
+      }
+      if (i > 0 && costs[i - 1] < bestCost) {
+        bestCost = costs[i - 1];
+        bestLength = lengths[i - 1];
+      }
+      costs[i] = distances[i] + bestCost;
+      lengths[i] = bestLength + 1;
+      reachable |= bestCost != Float.POSITIVE_INFINITY;
+    }
+    if (!reachable) {
+      // First pose, or no path reaches the band: every reference pose in it may start a path.
+      for (int i = 0; i < bandSize; i++) {
+        costs[i] = distances[i];
+        lengths[i] = 1;
+      }
+    }
+
+    // By the mean distance per step, as paths that took more reference steps to reach a pose have
+    // summed more distances on the way.
+    matchedIndex = bandStart;
+    float matchedMeanCost = costs[0] / lengths[0];
+    for (int i = 1; i < bandSize; i++) {
+      float meanCost = costs[i] / lengths[i];
+      if (meanCost < matchedMeanCost) {
+        matchedIndex = bandStart + i;
+        matchedMeanCost = meanCost;
+      }
+    }
+    cost = costs[matchedIndex - bandStart];
+    pathLength = lengths[matchedIndex - bandStart];
+
+    float[] swapCosts = previousCosts;
+    previousCosts = costs;
+    costs = swapCosts;
+    int[] swapLengths = previousLengths;
+    previousLengths = lengths;
+    lengths = swapLengths;
+    previousBandStart = bandStart;
+    previousBandSize = bandSize;
+    return true;
+  }
+
+  /** Returns the reference pose the latest live pose is matched with, or -1 before the first. */
+  public int getMatchedIndex() {
+    return matchedIndex;
+  }
+
+  /** Returns the time of the matched reference pose since the first one, or -1 before matching. */
+  public long getMatchedTimeMs() {
+    return matchedIndex < 0 ? -1 : referenceTimesMs[matchedIndex];
+  }
+
+  /** Returns the cumulative distance along the cheapest path to the matched reference pose. */
+  public float getCost() {
+    return cost;
+  }
+
+  /**
+   * Returns the mean distance per step of the cheapest path, comparable to the distances {@link
+   * ChoreographyScorer} scores by, or 0 before matching.
+   */
+  public float getMeanCost() {
+    return pathLength == 0 ? 0 : cost / pathLength;
+  }
+
+  public int getNumReferencePoses() {
+    return numReference;
+  }
+}
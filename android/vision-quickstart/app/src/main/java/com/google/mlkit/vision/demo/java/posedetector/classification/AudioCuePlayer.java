@@ -0,0 +1,290 @@
+/*
+ * Copyright 2020 Google LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.mlkit.vision.demo.java.posedetector.classification;
+
+import android.media.AudioAttributes;
+import android.media.AudioFormat;
+import android.media.AudioManager;
+import android.media.AudioTimestamp;
+import android.media.AudioTrack;
+import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.util.Log;
+import androidx.annotation.GuardedBy;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Plays a short beep with low latency, e.g. on every counted rep.
+ *
+ * <p>The beep is synthesized once and played through a single streaming {@link AudioTrack} that
+ * lives as long as the player, on a thread of its own. {@link #trigger} only hands the cue to that
+ * thread, so callers never wait for audio setup, and triggers that arrive while a cue is still
+ * pending are merged into it, so a burst of them cannot queue up. The track only plays while cues
+ * play out: it is started once a cue is written, and paused again once it has played the cue, so
+ * that it does not keep the audio path busy on an empty buffer between cues. Pausing keeps the
+ * buffer and the frame position, so the next cue only has to start it.
+ *
+ * <p>The latency from a trigger to the first frame of its cue being played is measured through
+ * {@link AudioTrack#getTimestamp}, where the device reports timestamps, see {@link
+ * #getLatencyStats}. The player holds one track, one thread and one cue buffer however long it
+ * runs, until it is released.
+ */
+public class AudioCuePlayer {
+  private static final String TAG = "AudioCuePlayer";
+
+  private static final int CUE_FREQUENCY_HZ = 1200;
+  private static final int CUE_DURATION_MS = 80;
+  private static final int CUE_FADE_MS = 5;
+  private static final float CUE_AMPLITUDE = 0.5f;
+  // Time after writing a cue by which it has surely started playing, so that its timestamp can be
+  // read. The track is paused no earlier than that.
+  private static final int TIMESTAMP_DELAY_MS = 200;
+  // Interval at which a track that is still playing a cue is checked again before pausing it.
+  private static final int DRAIN_POLL_MS = 20;
+  private static final long NO_TRIGGER = 0;
+
+  private final HandlerThread thread;
+  private final Handler handler;
+  private final Runnable playCue = this::playCue;
+  private final Runnable pauseIfDrained = this::pauseIfDrained;
+  // Time of the trigger that the pending cue is for, in System.nanoTime(), or NO_TRIGGER.
+  private final AtomicLong pendingTriggerNanos = new AtomicLong(NO_TRIGGER);
+  private volatile boolean released;
+
+  // Only accessed on the audio thread.
+  private AudioTrack track;
+  private short[] cue;
+  private int sampleRate;
+  private long numFramesWritten;
+  private final AudioTimestamp timestamp = new AudioTimestamp();
+
+  private final AtomicLong numTriggers = new AtomicLong();
+  // Written on the audio thread.
+  @GuardedBy("this")
+  private long numCues;
+
+  @GuardedBy("this")
+  private long numMeasured;
+
+  @GuardedBy("this")
+  private long totalLatencyNanos;
+
+  @GuardedBy("this")
+  private long maxLatencyNanos;
+
+  /** Starts the audio thread, which sets up the track without blocking the caller. */
+  public AudioCuePlayer() {
+    thread = new HandlerThread(TAG, Process.THREAD_PRIORITY_URGENT_AUDIO);
+    thread.start();
+    handler = new Handler(thread.getLooper());
+    handler.post(this::createTrack);
+  }
+
+  /** Plays the cue as soon as possible, unless one is still pending. Never blocks. */
+  public void trigger() {
+    if (released) {
+      return;
+    }
+    numTriggers.incrementAndGet();
+    if (pendingTriggerNanos.compareAndSet(NO_TRIGGER, System.nanoTime())) {
+      handler.post(playCue);
+    }
+  }
+
+  /** Stops the audio thread and releases the track. Later triggers are ignored. */
+  public void release() {
+    released = true;
+    handler.post(
+        () -> {
+          if (track != null) {
+            track.release();
+            track = null;
+          }
+          Log.i(TAG, getLatencyStats().toString());
+        });
+    thread.quitSafely();
+  }
+
+  public synchronized LatencyStats getLatencyStats() {
+    return new LatencyStats(
+        numTriggers.get(), numCues, numMeasured, totalLatencyNanos, maxLatencyNanos);
+  }
+
+  private void createTrack() {
+    sampleRate = AudioTrack.getNativeOutputSampleRate(AudioManager.STREAM_NOTIFICATION);
+    cue = synthesizeCue(sampleRate);
+    int minBufferSize =
+        AudioTrack.getMinBufferSize(
+            sampleRate, AudioFormat.CHANNEL_OUT_MONO, AudioFormat.ENCODING_PCM_16BIT);
+    AudioTrack.Builder builder =
+        new AudioTrack.Builder()
+            .setAudioAttributes(
+                new AudioAttributes.Builder()
+                    .setUsage(AudioAttributes.USAGE_ASSISTANCE_SONIFICATION)
+                    .setContentType(AudioAttributes.CONTENT_TYPE_SONIFICATION)
+                    .build())
+            .setAudioFormat(
+                new AudioFormat.Builder()
+                    .setSampleRate(sampleRate)
+                    .setEncoding(AudioFormat.ENCODING_PCM_16BIT)
+                    .setChannelMask(AudioFormat.CHANNEL_OUT_MONO)
+                    .build())
+            // Room for a whole cue, so that writing one never waits for playback.
+            .setBufferSizeInBytes(Math.max(minBufferSize, cue.length * 2))
+            .setTransferMode(AudioTrack.MODE_STREAM);
+    if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+      builder.setPerformanceMode(AudioTrack.PERFORMANCE_MODE_LOW_LATENCY);
+    }
+    try {
+      // Only started by the first cue.
+      track = builder.build();
+    } catch (UnsupportedOperationException | IllegalStateException e) {
+      Log.e(TAG, "Could not create audio track, cues are muted", e);
+      if (track != null) {
+        track.release();
+        track = null;
+      }
+    }
+  }
+
+  private void playCue() {
+    long triggerNanos = pendingTriggerNanos.getAndSet(NO_TRIGGER);
+    if (track == null) {
+      return;
+    }
+    long startFrame = numFramesWritten;
+    int numWritten = track.write(cue, 0, cue.length);
+    if (numWritten <= 0) {
+      Log.e(TAG, "Could not write audio cue: " + numWritten);
+      return;
+    }
+    numFramesWritten += numWritten;
+    if (track.getPlayState() != AudioTrack.PLAYSTATE_PLAYING) {
+      track.play();
+    }
+    synchronized (this) {
+      numCues++;
+    }
+    handler.postDelayed(() -> measureLatency(triggerNanos, startFrame), TIMESTAMP_DELAY_MS);
+    // Posted after the latency measurement, which needs the track to be playing.
+    handler.removeCallbacks(pauseIfDrained);
+    handler.postDelayed(pauseIfDrained, TIMESTAMP_DELAY_MS);
+  }
+
+  // Pauses the track once it has played everything written to it.
+  private void pauseIfDrained() {
+    if (track == null) {
+      return;
+    }
+    if (Integer.toUnsignedLong(track.getPlaybackHeadPosition()) < numFramesWritten) {
+      handler.postDelayed(pauseIfDrained, DRAIN_POLL_MS);
+      return;
+    }
+    track.pause();
+  }
+
+  // Finds when the frame the cue started at was played, from the latest timestamp of the track.
+  private void measureLatency(long triggerNanos, long startFrame) {
+    if (track == null || !track.getTimestamp(timestamp)) {
+      return;
+    }
+    long startNanos =
+        timestamp.nanoTime + (startFrame - timestamp.framePosition) * 1_000_000_000L / sampleRate;
+    long latencyNanos = startNanos - triggerNanos;
+    if (latencyNanos < 0) {
+      // The timestamp predates the cue, e.g. right after an underrun.
+      return;
+    }
+    synchronized (this) {
+      numMeasured++;
+      totalLatencyNanos += latencyNanos;
+      maxLatencyNanos = Math.max(maxLatencyNanos, latencyNanos);
+    }
+  }
+
+  // A sine beep, faded in and out to avoid clicks.
+  private static short[] synthesizeCue(int sampleRate) {
+    short[] samples = new short[sampleRate * CUE_DURATION_MS / 1000];
+    int fadeSamples = sampleRate * CUE_FADE_MS / 1000;
+    for (int i = 0; i < samples.length; i++) {
+      float fade = Math.min(1, Math.min(i, samples.length - 1 - i) / (float) fadeSamples);
+      double phase = 2 * Math.PI * CUE_FREQUENCY_HZ * i / sampleRate;
+      samples[i] = (short) (Short.MAX_VALUE * CUE_AMPLITUDE * fade * Math.sin(phase));
+    }
+    return samples;
+  }
+
+  /** Counts of triggers and cues, and the latency from trigger to sound of the measured cues. */
+  public static class LatencyStats {
+    private final long numTriggers;
+    private final long numCues;
+    private final long numMeasured;
+    private final long totalLatencyNanos;
+    private final long maxLatencyNanos;
+
+    LatencyStats(
+        long numTriggers,
+        long numCues,
+        long numMeasured,
+        long totalLatencyNanos,
+        long maxLatencyNanos) {
+      this.numTriggers = numTriggers;
+      this.numCues = numCues;
+      this.numMeasured = numMeasured;
+      this.totalLatencyNanos = totalLatencyNanos;
+      this.maxLatencyNanos = maxLatencyNanos;
+    }
+
+    /** Returns the number of triggers, including those merged into a pending cue. */
+    public long getNumTriggers() {
+      return numTriggers;
+    }
+
+    public long getNumCues() {
+      return numCues;
+    }
+
+    /** Returns the number of cues whose latency was measured. */
+    public long getNumMeasured() {
+      return numMeasured;
+    }
+
+    /** Returns the mean latency of the measured cues, or 0 if there are none. */
+    public float getMeanLatencyMs() {
+      return numMeasured == 0 ? 0 : totalLatencyNanos / 1e6f / numMeasured;
+    }
+
+    public float getMaxLatencyMs() {
+      return maxLatencyNanos / 1e6f;
+    }
+
+    @Override
+    public String toString() {
+      return String.format(
+          Locale.US,
+          "audio cues: %d triggers, %d played, latency mean %.1f ms, max %.1f ms over %d",
+          numTriggers,
+          numCues,
+          getMeanLatencyMs(),
+          getMaxLatencyMs(),
+          numMeasured);
+    }
+  }
+}
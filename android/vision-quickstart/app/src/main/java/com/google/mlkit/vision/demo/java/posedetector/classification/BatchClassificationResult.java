@@ -0,0 +1,117 @@
+/*
+ * Copyright 2020 Google LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.mlkit.vision.demo.java.posedetector.classification;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Per-frame classification results of a sequence of poses, as outputted by {@link
+ * PoseClassifier#classifyBatch}.
+ *
+ * <p>Confidences are stored by column: the confidences of one class for all frames are contiguous,
+ * at {@code classId * getNumFrames() + frame} of {@link #getConfidences}. A class that a frame's
+ * {@link ClassificationResult} would not contain has a confidence of 0.
+ */
+public class BatchClassificationResult {
+  private final List<String> classNames;
+  private final int numFrames;
+  private final float[] confidences;
+  private final boolean[] hasPose;
+
+  BatchClassificationResult(List<String> classNames, int numFrames) {
+    this.classNames = classNames;
+    this.numFrames = numFrames;
+    confidences = new float[classNames.size() * numFrames];
+    hasPose = new boolean[numFrames];
+  }
+
+  public int getNumFrames() {
+    return numFrames;
+  }
+
+  public int getNumClasses() {
+    return classNames.size();
+  }
+
+  public List<String> getClassNames() {
+    return classNames;
+  }
+
+  public String getClassName(int classId) {
+    return classNames.get(classId);
+  }
+
+  /** Returns whether the frame held a pose, as opposed to being marked empty. */
+  public boolean hasPose(int frame) {
+    return hasPose[frame];
+  }
+
+  public float getClassConfidence(int frame, int classId) {
+    return confidences[classId * numFrames + frame];
+  }
+
+  /** Returns the confidences of one class for all frames. */
+  public float[] getClassConfidences(int classId) {
+    return Arrays.copyOfRange(confidences, classId * numFrames, (classId + 1) * numFrames);
+  }
+
+  /** Returns the backing column-major confidences array, without copying it. */
+  public float[] getConfidences() {
+    return confidences;
+  }
+
+  /**
+   * Returns the id of the class with the highest confidence in the frame, the lowest id among ties,
+   * or -1 if no class has a confidence.
+   */
+  public int getMaxConfidenceClassId(int frame) {
+    int maxClassId = -1;
+    float maxConfidence = 0;
+    for (int classId = 0; classId < classNames.size(); classId++) {
+      float confidence = confidences[classId * numFrames + frame];
+      if (confidence > maxConfidence) {
+        maxClassId = classId;
+        maxConfidence = confidence;
+      }
+    }
+    return maxClassId;
+  }
+
+  /**
+   * Returns the frame's result as {@link PoseClassifier#classify} would have, e.g. to feed it to
+   * {@link EMASmoothing} or a {@link RepetitionCounter}.
+   */
+  public ClassificationResult getClassificationResult(int frame) {
+    ClassificationResult result = new ClassificationResult(classNames);
+    for (int classId = 0; classId < classNames.size(); classId++) {
+      float confidence = confidences[classId * numFrames + frame];
+      if (confidence > 0) {
+        result.putClassConfidence(classId, confidence);
+      }
+    }
+    return result;
+  }
+
+  void incrementClassConfidence(int frame, int classId) {
+    confidences[classId * numFrames + frame]++;
+  }
+
+  void setHasPose(int frame) {
+    hasPose[frame] = true;
+  }
+}
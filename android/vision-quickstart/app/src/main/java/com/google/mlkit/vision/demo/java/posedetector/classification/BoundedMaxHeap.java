@@ -0,0 +1,148 @@
+/*
+ * Copyright 2020 Google LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.mlkit.vision.demo.java.posedetector.classification;
+
+/**
+ * Keeps the K entries with the smallest distances seen so far, without allocating.
+ *
+ * <p>Entries are (index, distance) pairs held in parallel primitive arrays as a binary max-heap, so
+ * the worst retained entry is always at the root and can be compared against and replaced in
+ * O(log K). Entries are ordered by distance and then by index, so the retained set does not depend
+ * on the order in which entries are offered. This makes results from several heaps, e.g. one per
+ * thread, mergeable deterministically by offering all their entries to another heap.
+ */
+public class BoundedMaxHeap {
+  private final int capacity;
+  private final int[] indices;
+  private final float[] distances;
+  private int size;
+  private float bound = Float.MAX_VALUE;
+
+  public BoundedMaxHeap(int capacity) {
+    this.capacity = capacity;
+    indices = new int[capacity];
+    distances = new float[capacity];
+  }
+
+  /** Removes all entries and the bound, if any. */
+  public void clear() {
+    size = 0;
+    bound = Float.MAX_VALUE;
+  }
+
+  /**
+   * Rejects entries with a distance greater than {@code bound} from now on. Any known upper bound
+   * on the K-th smallest distance can be set this way to tighten {@link #worstDistance} before the
+   * heap fills up. It has to be set while the heap is empty.
+   */
+  public void setBound(float bound) {
+    this.bound = bound;
+  }
+
+  public int size() {
+    return size;
+  }
+
+  /** Returns the index of the entry at {@code position}, in heap order unless sorted. */
+  public int getIndex(int position) {
+    return indices[position];
+  }
+
+  /** Returns the distance of the entry at {@code position}, in heap order unless sorted. */
+  public float getDistance(int position) {
+    return distances[position];
+  }
+
+  /**
+   * Returns the distance a new entry has to beat to be retained, or the bound ({@link
+   * Float#MAX_VALUE} unless set) if there is still free room.
+   */
+  public float worstDistance() {
+    return size < capacity ? bound : distances[0];
+  }
+
+  /** Offers an entry and returns whether it was retained. */
+  public boolean offer(int index, float distance) {
+    if (distance > bound) {
+      return false;
+    }
+    if (size < capacity) {
+      siftUp(size++, index, distance);
+      return true;
+    }
+    if (capacity == 0 || !isBefore(index, distance, indices[0], distances[0])) {
+      return false;
+    }
+    siftDown(0, size, index, distance);
+    return true;
+  }
+
+  /**
+   * Sorts the entries by ascending distance, so that positions can be iterated nearest first. This
+   * breaks the heap order: {@link #clear} has to be called before offering entries again.
+   */
+  public void sort() {
+    for (int end = size - 1; end > 0; end--) {
+      int index = indices[end];
+      float distance = distances[end];
+      indices[end] = indices[0];
+      distances[end] = distances[0];
+      siftDown(0, end, index, distance);
+    }
+  }
+
+  private void siftUp(int position, int index, float distance) {
+    while (position > 0) {
+      int parent = (position - 1) / 2;
+      if (!isBefore(indices[parent], distances[parent], index, distance)) {
+        break;
+      }
+      indices[position] = indices[parent];
+      distances[position] = distances[parent];
+      position = parent;
+    }
+    indices[position] = index;
+    distances[position] = distance;
+  }
+
+  // Places the entry at position, moving larger children up, within the first heapSize positions.
+  private void siftDown(int position, int heapSize, int index, float distance) {
+    while (true) {
+      int child = 2 * position + 1;
+      if (child >= heapSize) {
+        break;
+      }
+      if (child + 1 < heapSize
+          && isBefore(indices[child], distances[child], indices[child + 1], distances[child + 1])) {
+        child++;
+      }
+      if (!isBefore(index, distance, indices[child], distances[child])) {
+        break;
+      }
+      indices[position] = indices[child];
+      distances[position] = distances[child];
+      position = child;
+    }
+    indices[position] = index;
+    distances[position] = distance;
+  }
+
+  private static boolean isBefore(int index, float distance, int otherIndex, float otherDistance) {
+    int comparison = Float.compare(distance, otherDistance);
+    return comparison < 0 || (comparison == 0 && index < otherIndex);
+  }
+}
@@ -16,46 +16,154 @@
 
 package com.google.mlkit.vision.demo.java.posedetector.classification;
 
-import java.util.HashMap;
-import java.util.Map;
+import androidx.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Set;
 
-import static java.util.Collections.max;
-
 /**
  * Represents Pose classification result as outputted by {@link PoseClassifier}. Can be manipulated.
+ *
+ * <p>Confidences are held in a dense array indexed by class id, where ids index a list of class
+ * names. That list is typically shared by all results of one producer, such as the classes of a
+ * {@link PoseSampleStore}, so results can be filled and read by id without any lookups or boxing.
+ * Shared lists must only ever be appended to. A result that is given a class name missing from its
+ * list switches to a private copy of the list first.
  */
 public class ClassificationResult {
-  // For an entry in this map, the key is the class name, and the value is how many times this class
-  // appears in the top K nearest neighbors. The value is in range [0, K] and could be a float after
-  // EMA smoothing. We use this number to represent the confidence of a pose being in this class.
-  private final Map<String, Float> classConfidences;
+  // For each class id, the confidence is how many times this class appears in the top K nearest
+  // neighbors. The value is in range [0, K] and could be a float after EMA smoothing. We use this
+  // number to represent the confidence of a pose being in this class.
+  private List<String> classNames;
+  private boolean ownsClassNames;
+  private int numClasses;
+  private float[] classConfidences;
+  // Whether a confidence was set for the class, as opposed to the class being absent.
+  private boolean[] hasClass;
 
   public ClassificationResult() {
-    classConfidences = new HashMap<>();
+    this(new ArrayList<>());
+    ownsClassNames = true;
+  }
+
+  /** Creates an empty result for classes whose ids index {@code classNames}. */
+  public ClassificationResult(List<String> classNames) {
+    this.classNames = classNames;
+    numClasses = classNames.size();
+    classConfidences = new float[numClasses];
+    hasClass = new boolean[numClasses];
+  }
+
+  /**
+   * Removes all confidences so the result can be refilled, covering any classes appended to a
+   * shared class name list since it was created.
+   */
+  public void clear() {
+    if (numClasses < classNames.size()) {
+      numClasses = classNames.size();
+      classConfidences = Arrays.copyOf(classConfidences, numClasses);
+      hasClass = Arrays.copyOf(hasClass, numClasses);
+    }
+    Arrays.fill(hasClass, false);
+  }
+
+  /** Returns the number of class ids this result covers. */
+  public int getNumClasses() {
+    return numClasses;
+  }
+
+  public String getClassName(int classId) {
+    return classNames.get(classId);
+  }
+
+  /** Returns whether a confidence was set for the given class id. */
+  public boolean hasClass(int classId) {
+    return classId < numClasses && hasClass[classId];
   }
 
   public Set<String> getAllClasses() {
-    return classConfidences.keySet();
+    Set<String> allClasses = new LinkedHashSet<>();
+    for (int classId = 0; classId < numClasses; classId++) {
+      if (hasClass[classId]) {
+        allClasses.add(classNames.get(classId));
+      }
+    }
+    return allClasses;
+  }
+
+  public float getClassConfidence(int classId) {
+    return hasClass(classId) ? classConfidences[classId] : 0;
   }
 
   public float getClassConfidence(String className) {
-    return classConfidences.containsKey(className) ? classConfidences.get(className) : 0;
+    int classId = findClassId(className);
+    return classId < 0 ? 0 : getClassConfidence(classId);
+  }
+
+  /**
+   * Returns the id of the class with the highest confidence, the lowest id among ties, or -1 if
+   * the result holds no class.
+   */
+  public int getMaxConfidenceClassId() {
+    int maxClassId = -1;
+    for (int classId = 0; classId < numClasses; classId++) {
+      if (hasClass[classId]
+          && (maxClassId < 0
+              || Float.compare(classConfidences[classId], classConfidences[maxClassId]) > 0)) {
+        maxClassId = classId;
+      }
+    }
+    return maxClassId;
   }
 
+  /** Returns the class with the highest confidence, or null if the result holds no class. */
+  @Nullable
   public String getMaxConfidenceClass() {
-    return max(
-        classConfidences.entrySet(),
-        (entry1, entry2) -> (int) (entry1.getValue() - entry2.getValue()))
-        .getKey();
+    int classId = getMaxConfidenceClassId();
+    return classId < 0 ? null : classNames.get(classId);
+  }
+
+  public void incrementClassConfidence(int classId) {
+    classConfidences[classId] = getClassConfidence(classId) + 1;
+    hasClass[classId] = true;
   }
 
   public void incrementClassConfidence(String className) {
-    classConfidences.put(className,
-        classConfidences.containsKey(className) ? classConfidences.get(className) + 1 : 1);
+    incrementClassConfidence(getOrAddClassId(className));
+  }
+
+  public void putClassConfidence(int classId, float confidence) {
+    classConfidences[classId] = confidence;
+    hasClass[classId] = true;
   }
 
   public void putClassConfidence(String className, float confidence) {
-    classConfidences.put(className, confidence);
+    putClassConfidence(getOrAddClassId(className), confidence);
+  }
+
+  private int findClassId(String className) {
+    for (int classId = 0; classId < numClasses; classId++) {
+      if (classNames.get(classId).equals(className)) {
+        return classId;
+      }
+    }
+    return -1;
+  }
+
+  private int getOrAddClassId(String className) {
+    int classId = findClassId(className);
+    if (classId >= 0) {
+      return classId;
+    }
+    if (!ownsClassNames) {
+      classNames = new ArrayList<>(classNames.subList(0, numClasses));
+      ownsClassNames = true;
+    }
+    classNames.add(className);
+    classConfidences = Arrays.copyOf(classConfidences, numClasses + 1);
+    hasClass = Arrays.copyOf(hasClass, numClasses + 1);
+    return numClasses++;
   }
 }
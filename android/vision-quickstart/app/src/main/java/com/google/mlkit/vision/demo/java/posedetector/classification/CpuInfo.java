@@ -0,0 +1,74 @@
+/*
+ * Copyright 2020 Google LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.mlkit.vision.demo.java.posedetector.classification;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.Locale;
+
+/** Detects how many CPU cores are worth running classification work on. */
+final class CpuInfo {
+  private static final String MAX_FREQUENCY_FILE =
+      "/sys/devices/system/cpu/cpu%d/cpufreq/cpuinfo_max_freq";
+
+  private static int numBigCores;
+
+  private CpuInfo() {}
+
+  /**
+   * Returns the number of cores outside of the slowest cluster on big.LITTLE devices, or the number
+   * of available cores if all cores are alike or their frequencies cannot be read.
+   */
+  static synchronized int getNumBigCores() {
+    if (numBigCores == 0) {
+      numBigCores = countBigCores();
+    }
+    return numBigCores;
+  }
+
+  private static int countBigCores() {
+    int numCores = Runtime.getRuntime().availableProcessors();
+    long[] maxFrequencies = new long[numCores];
+    long slowest = Long.MAX_VALUE;
+    for (int i = 0; i < numCores; i++) {
+      maxFrequencies[i] = readMaxFrequency(i);
+      if (maxFrequencies[i] <= 0) {
+        return numCores;
+      }
+      slowest = Math.min(slowest, maxFrequencies[i]);
+    }
+
+    int numFaster = 0;
+    for (long maxFrequency : maxFrequencies) {
+      if (maxFrequency > slowest) {
+        numFaster++;
+      }
+    }
+    return numFaster > 0 ? numFaster : numCores;
+  }
+
+  private static long readMaxFrequency(int core) {
+    String path = String.format(Locale.US, MAX_FREQUENCY_FILE, core);
+    try (BufferedReader reader = new BufferedReader(new FileReader(path))) {
+      String line = reader.readLine();
+      return line == null ? -1 : Long.parseLong(line.trim());
+    } catch (IOException | NumberFormatException e) {
+      return -1;
+    }
+  }
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright 2020 Google LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.mlkit.vision.demo.java.posedetector.classification;
+
+/**
+ * Weighted distances from a query pose to the samples of a store, in the representation the store
+ * keeps its embeddings in.
+ *
+ * <p>A query is a pair of embeddings, the pose and its flipped version. The bounded kernels compare
+ * a sample against both at once, one embedding entry at a time, and drop an orientation once its
+ * partial distance exceeds the bound. Partial max and sum distances never decrease, so a dropped
+ * orientation cannot come back. When a distance within the bound exists it is returned exactly as
+ * the full computation would; otherwise some value above the bound is returned.
+ *
+ * <p>Instances hold the current query, count evaluated and skipped embedding entries and are not
+ * thread-safe. Use {@link #newInstance} to get a kernel for another thread.
+ */
+abstract class DistanceKernel {
+  // Number of (sample, orientation, embedding entry) terms, and how many of them were skipped.
+  long maxDistanceTerms;
+  long maxDistanceSkippedTerms;
+  long meanDistanceTerms;
+  long meanDistanceSkippedTerms;
+
+  /** Returns a kernel over the same samples, with no query and its own counters. */
+  abstract DistanceKernel newInstance();
+
+  /** Sets the embeddings of the query pose and of its flipped version. */
+  abstract void setQuery(
+      float[] queryX,
+      float[] queryY,
+      float[] queryZ,
+      float[] flippedX,
+      float[] flippedY,
+      float[] flippedZ);
+
+  /** Returns the weighted max distance from the sample to the original or the flipped query. */
+  abstract float queryMaxDistance(int sample, boolean flipped);
+
+  /** Returns the weighted max distance between two samples. */
+  abstract float sampleMaxDistance(int sample, int otherSample);
+
+  /**
+   * Returns the min of the original and flipped weighted max distances to the sample, or a value
+   * greater than {@code bound} if both exceed it.
+   */
+  abstract float maxDistance(int sample, float bound);
+
+  /**
+   * Returns the min of the original and flipped weighted mean distances to the sample, or a value
+   * greater than {@code bound}, but not greater than that min, if both exceed it.
+   */
+  abstract float meanDistance(int sample, float bound);
+
+  /** Remembers the current query, to measure how far later queries moved from it. */
+  abstract void saveQuery();
+
+  /**
+   * Returns the weighted max distance between the current and the saved query, the larger of the
+   * original and flipped ones. The max distance from any sample to the query changed by at most
+   * this since the query was saved.
+   */
+  abstract float savedQueryMaxDistance();
+
+  /** Same as {@link #savedQueryMaxDistance}, for the weighted mean distance. */
+  abstract float savedQueryMeanDistance();
+
+  void addCounters(DistanceKernel other) {
+    maxDistanceTerms += other.maxDistanceTerms;
+    maxDistanceSkippedTerms += other.maxDistanceSkippedTerms;
+    meanDistanceTerms += other.meanDistanceTerms;
+    meanDistanceSkippedTerms += other.meanDistanceSkippedTerms;
+  }
+
+  void resetCounters() {
+    maxDistanceTerms = 0;
+    maxDistanceSkippedTerms = 0;
+    meanDistanceTerms = 0;
+    meanDistanceSkippedTerms = 0;
+  }
+}
@@ -17,25 +17,60 @@
 package com.google.mlkit.vision.demo.java.posedetector.classification;
 
 import android.os.SystemClock;
-import java.util.Deque;
-import java.util.HashSet;
-import java.util.Set;
-import java.util.concurrent.LinkedBlockingDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 /**
  * Runs EMA smoothing over a window with given stream of pose classification results.
+ *
+ * <p>For every class the smoothed confidence is the weighted average of its confidences over the
+ * last {@code windowSize} results, with weights 1, (1 - alpha), (1 - alpha)^2, ... from newest to
+ * oldest. Class names are interned to int ids and every class keeps a running weighted sum, which
+ * is aged by (1 - alpha) as each result enters and loses the term of the result leaving the window,
+ * so a frame costs O(classes) and allocates nothing once all classes have been seen.
+ *
+ * <p>Running sums drift from the sums the original per-class loop over the window computes, so they
+ * are re-summed in that loop's order every {@code windowSize} results. The aging also shrinks any
+ * error by (1 - alpha) per result, so smoothed confidences stay within {@link #TOLERANCE} of the
+ * original ones for confidences of up to 10, the votes of the nearest samples.
  */
 public class EMASmoothing {
+  /** Largest difference to the smoothed confidences of a full re-sum of the window. */
+  static final float TOLERANCE = 1e-5f;
+
   private static final int DEFAULT_WINDOW_SIZE = 10;
   private static final float DEFAULT_ALPHA = 0.2f;
 
   private static final long RESET_THRESHOLD_MS = 100;
 
   private final int windowSize;
-  private final float alpha;
-  // This is a window of {@link ClassificationResult}s as outputted by the {@link PoseClassifier}.
-  // We run smoothing over this window of size {@link windowSize}.
-  private final Deque<ClassificationResult> window;
+  // Weight of the result at each age, newest first, and the sum of the weights of a window
+  // holding n results, at index n.
+  private final float[] weights;
+  private final float[] weightSums;
+  // What running sums are aged by per result, and the weight the oldest result has once aged.
+  private final float decay;
+  private final float leavingWeight;
+
+  // Interned class names; ids index the arrays below. The list is shared with the result we
+  // return and is only ever appended to.
+  private final Map<String, Integer> classIds = new HashMap<>();
+  private final List<String> classNames = new ArrayList<>();
+  // Ring buffer of the confidences in the window, indexed by [slot][classId]. A NaN marks a class
+  // missing from that result, which is smoothed as 0 but does not make the class appear.
+  private float[][] window;
+  // Per class: number of results in the window it appears in, and its weighted sum.
+  private int[] appearances;
+  private float[] topSums;
+  // Slot of the newest result and number of results in the window.
+  private int newestSlot;
+  private int windowCount;
+  private int numResultsSinceResum;
+
+  private final ClassificationResult smoothedResult = new ClassificationResult(classNames);
 
   private long lastInputMs;
 
@@ -45,47 +80,132 @@ public class EMASmoothing {
 
   public EMASmoothing(int windowSize, float alpha) {
     this.windowSize = windowSize;
-    this.alpha = alpha;
-    this.window = new LinkedBlockingDeque<>(windowSize);
+    this.weights = new float[windowSize];
+    this.weightSums = new float[windowSize + 1];
+    float factor = 1;
+    for (int age = 0; age < windowSize; age++) {
+      weights[age] = factor;
+      weightSums[age + 1] = weightSums[age] + factor;
+      factor = (float) (factor * (1.0 - alpha));
+    }
+    this.decay = (float) (1.0 - alpha);
+    this.leavingWeight = weights[windowSize - 1] * decay;
+    this.window = new float[windowSize][0];
+    this.appearances = new int[0];
+    this.topSums = new float[0];
   }
 
   public ClassificationResult getSmoothedResult(ClassificationResult classificationResult) {
+    return getSmoothedResult(classificationResult, SystemClock.elapsedRealtime());
+  }
+
+  /**
+   * Smooths a result obtained at the given time, in milliseconds of a monotonic clock, rather than
+   * now. Replaying recorded results with their timestamps gives the same output as live.
+   *
+   * <p>The returned result is owned by this instance and overwritten by the next call.
+   */
+  public ClassificationResult getSmoothedResult(
+      ClassificationResult classificationResult, long timestampMs) {
     // Resets memory if the input is too far away from the previous one in time.
-    long nowMs = SystemClock.elapsedRealtime();
-    if (nowMs - lastInputMs > RESET_THRESHOLD_MS) {
-      window.clear();
+    if (timestampMs - lastInputMs > RESET_THRESHOLD_MS) {
+      reset();
     }
-    lastInputMs = nowMs;
-
-    // If we are at window size, remove the last (oldest) result.
-    if (window.size() == windowSize) {
-      window.pollLast();
+    lastInputMs = timestampMs;
+
+    // Age all sums by one result. If we are at window size, the last (oldest) result, which sits in
+    // the next slot, leaves the window.
+    int slot = (newestSlot + 1) % windowSize;
+    boolean isFull = windowCount == windowSize;
+    if (!isFull) {
+      windowCount++;
+    }
+    float[] entry = window[slot];
+    for (int classId = 0; classId < classNames.size(); classId++) {
+      float topSum = decay * topSums[classId];
+      float leaving = entry[classId];
+      if (isFull && !Float.isNaN(leaving)) {
+        topSum -= leavingWeight * leaving;
+        if (--appearances[classId] == 0) {
+          // Nothing of the class is left, so neither is any drift.
+          topSum = 0;
+        }
+      }
+      topSums[classId] = topSum;
+      entry[classId] = Float.NaN;
     }
-    // Insert at the beginning of the window.
-    window.addFirst(classificationResult);
 
-    Set<String> allClasses = new HashSet<>();
-    for (ClassificationResult result : window) {
-      allClasses.addAll(result.getAllClasses());
+    // Insert at the beginning of the window.
+    newestSlot = slot;
+    for (int i = 0; i < classificationResult.getNumClasses(); i++) {
+      if (classificationResult.hasClass(i)) {
+        int classId = internClass(classificationResult.getClassName(i));
+        float confidence = classificationResult.getClassConfidence(i);
+        window[slot][classId] = confidence;
+        appearances[classId]++;
+        topSums[classId] += confidence;
+      }
+    }
+    if (++numResultsSinceResum == windowSize) {
+      resum();
     }
 
-    ClassificationResult smoothedResult = new ClassificationResult();
+    smoothedResult.clear();
+    float bottomSum = weightSums[windowCount];
+    for (int classId = 0; classId < classNames.size(); classId++) {
+      if (appearances[classId] > 0) {
+        smoothedResult.putClassConfidence(classId, topSums[classId] / bottomSum);
+      }
+    }
+    return smoothedResult;
+  }
 
-    for (String className : allClasses) {
-      float factor = 1;
+  // Recomputes the running sums from the window, newest to oldest.
+  private void resum() {
+    numResultsSinceResum = 0;
+    for (int classId = 0; classId < classNames.size(); classId++) {
+      if (appearances[classId] == 0) {
+        continue;
+      }
       float topSum = 0;
-      float bottomSum = 0;
-      for (ClassificationResult result : window) {
-        float value = result.getClassConfidence(className);
+      for (int age = 0, i = newestSlot; age < windowCount; age++, i = previousSlot(i)) {
+        float value = window[i][classId];
+        topSum += weights[age] * (Float.isNaN(value) ? 0 : value);
+      }
+      topSums[classId] = topSum;
+    }
+  }
 
-        topSum += factor * value;
-        bottomSum += factor;
+  private int previousSlot(int slot) {
+    return slot == 0 ? windowSize - 1 : slot - 1;
+  }
+
+  private void reset() {
+    Arrays.fill(appearances, 0);
+    Arrays.fill(topSums, 0);
+    windowCount = 0;
+    numResultsSinceResum = 0;
+  }
 
-        factor = (float) (factor * (1.0 - alpha));
+  // Returns the id of the class, assigning the next free one if the class is new.
+  private int internClass(String className) {
+    Integer knownClassId = classIds.get(className);
+    if (knownClassId != null) {
+      return knownClassId;
+    }
+    int classId = classNames.size();
+    classIds.put(className, classId);
+    classNames.add(className);
+    if (classId == appearances.length) {
+      int capacity = Math.max(4, classId * 2);
+      appearances = Arrays.copyOf(appearances, capacity);
+      topSums = Arrays.copyOf(topSums, capacity);
+      for (int i = 0; i < windowSize; i++) {
+        int oldLength = window[i].length;
+        window[i] = Arrays.copyOf(window[i], capacity);
+        Arrays.fill(window[i], oldLength, capacity, Float.NaN);
       }
-      smoothedResult.putClassConfidence(className, topSum / bottomSum);
     }
-
-    return smoothedResult;
+    return classId;
   }
 }
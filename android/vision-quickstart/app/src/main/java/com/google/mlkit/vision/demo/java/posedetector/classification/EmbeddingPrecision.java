@@ -0,0 +1,45 @@
+/*
+ * Copyright 2020 Google LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.mlkit.vision.demo.java.posedetector.classification;
+
+/** Representation of the sample embeddings that {@link PoseClassifier} searches. */
+public enum EmbeddingPrecision {
+  /** Embeddings are searched as computed. */
+  FLOAT32(4, 0),
+  /** Embeddings are quantized to 16 bit integers, see {@link QuantizedPoseSampleStore}. */
+  INT16(2, Short.MAX_VALUE),
+  /** Embeddings are quantized to 8 bit integers, see {@link QuantizedPoseSampleStore}. */
+  INT8(1, Byte.MAX_VALUE);
+
+  private final int bytesPerValue;
+  private final int maxLevel;
+
+  EmbeddingPrecision(int bytesPerValue, int maxLevel) {
+    this.bytesPerValue = bytesPerValue;
+    this.maxLevel = maxLevel;
+  }
+
+  /** Returns the size of one embedding component. */
+  public int getBytesPerValue() {
+    return bytesPerValue;
+  }
+
+  /** Returns the largest quantization level, or 0 if values are not quantized. */
+  public int getMaxLevel() {
+    return maxLevel;
+  }
+}
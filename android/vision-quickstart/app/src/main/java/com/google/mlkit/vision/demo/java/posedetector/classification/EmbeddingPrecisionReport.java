@@ -0,0 +1,250 @@
+/*
+ * Copyright 2020 Google LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.mlkit.vision.demo.java.posedetector.classification;
+
+import static com.google.mlkit.vision.demo.java.posedetector.classification.PoseEmbedding.EMBEDDING_SIZE;
+import static com.google.mlkit.vision.demo.java.posedetector.classification.PoseEmbedding.NUM_LANDMARKS;
+
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Offline tool that compares classification with quantized sample embeddings against float
+ * classification on a pose samples csv file.
+ *
+ * <p>Samples are split into folds, and each fold is classified by a classifier built from the
+ * others, once per {@link EmbeddingPrecision}. For every precision the report lists the accuracy
+ * against the labels, how often the top class and all confidences match float classification, the
+ * size of the searched embeddings and the time per pose. Run it on a desktop JVM with the compiled
+ * app classes and their dependencies on the class path:
+ *
+ * <pre>
+ *   java -cp app/build/intermediates/javac/debug/classes:&lt;dependencies&gt; \
+ *       com.google.mlkit.vision.demo.java.posedetector.classification.EmbeddingPrecisionReport \
+ *       app/src/main/assets/pose/fitness_pose_samples.csv
+ * </pre>
+ */
+public class EmbeddingPrecisionReport {
+  private static final int NUM_FOLDS = 5;
+  private static final int NUM_TIMING_ROUNDS = 20;
+
+  private EmbeddingPrecisionReport() {}
+
+  public static void main(String[] args) throws IOException {
+    if (args.length != 1) {
+      System.err.println("Usage: EmbeddingPrecisionReport <samples.csv>");
+      System.exit(1);
+    }
+    List<String> labels = new ArrayList<>();
+    float[] landmarks = readLandmarks(args[0], labels);
+    PoseSampleStore sampleStore;
+    try (InputStreamReader csv =
+        new InputStreamReader(new FileInputStream(args[0]), Charset.forName("UTF-8"))) {
+      sampleStore = PoseSampleBundleCompiler.compile(csv);
+    }
+    if (sampleStore.size() != labels.size()) {
+      throw new IOException("Samples and landmarks are out of sync");
+    }
+
+    // All classifiers are warmed up before any is timed, so that each runs on the same JIT state.
+    PoseClassifier[] classifiers = new PoseClassifier[EmbeddingPrecision.values().length];
+    for (EmbeddingPrecision precision : EmbeddingPrecision.values()) {
+      classifiers[precision.ordinal()] = new PoseClassifier(sampleStore, precision);
+    }
+    for (int round = 0; round < NUM_TIMING_ROUNDS; round++) {
+      for (PoseClassifier classifier : classifiers) {
+        classifier.classifyBatch(landmarks);
+      }
+    }
+
+    int[][] floatTopClasses = new int[NUM_FOLDS][];
+    float[][] floatConfidences = new float[NUM_FOLDS][];
+    System.out.println(sampleStore.size() + " samples, " + NUM_FOLDS + " folds");
+    System.out.println(
+        String.format(
+            Locale.US,
+            "%-8s %9s %13s %15s %10s %9s",
+            "",
+            "accuracy",
+            "top class =",
+            "confidences =",
+            "bytes",
+            "us/pose"));
+    for (EmbeddingPrecision precision : EmbeddingPrecision.values()) {
+      int numCorrect = 0;
+      int numSameTopClass = 0;
+      int numSameConfidences = 0;
+      for (int fold = 0; fold < NUM_FOLDS; fold++) {
+        PoseClassifier classifier =
+            new PoseClassifier(getTrainingStore(sampleStore, fold), precision);
+        BatchClassificationResult result =
+            classifier.classifyBatch(getFoldLandmarks(landmarks, fold));
+        int[] topClasses = new int[result.getNumFrames()];
+        for (int frame = 0; frame < result.getNumFrames(); frame++) {
+          topClasses[frame] = result.getMaxConfidenceClassId(frame);
+        }
+        if (precision == EmbeddingPrecision.FLOAT32) {
+          floatTopClasses[fold] = topClasses;
+          floatConfidences[fold] = result.getConfidences().clone();
+        }
+
+        int frame = 0;
+        for (int sample = fold; sample < sampleStore.size(); sample += NUM_FOLDS) {
+          int topClass = topClasses[frame];
+          if (topClass >= 0 && result.getClassName(topClass).equals(labels.get(sample))) {
+            numCorrect++;
+          }
+          if (topClass == floatTopClasses[fold][frame]) {
+            numSameTopClass++;
+          }
+          if (hasSameConfidences(result, floatConfidences[fold], frame)) {
+            numSameConfidences++;
+          }
+          frame++;
+        }
+      }
+
+      double microsPerPose = timeClassification(classifiers[precision.ordinal()], landmarks);
+      int bytes = sampleStore.size() * EMBEDDING_SIZE * 3 * precision.getBytesPerValue();
+
+      System.out.println(
+          String.format(
+              Locale.US,
+              "%-8s %8.2f%% %12.2f%% %14.2f%% %10d %9.1f",
+              precision,
+              100.0 * numCorrect / sampleStore.size(),
+              100.0 * numSameTopClass / sampleStore.size(),
+              100.0 * numSameConfidences / sampleStore.size(),
+              bytes,
+              microsPerPose));
+    }
+  }
+
+  // Returns the time per pose, in microseconds, to classify all poses.
+  private static double timeClassification(PoseClassifier classifier, float[] landmarks) {
+    long start = System.nanoTime();
+    for (int round = 0; round < NUM_TIMING_ROUNDS; round++) {
+      classifier.classifyBatch(landmarks);
+    }
+    int numPoses = landmarks.length / PoseClassifier.BATCH_FRAME_SIZE;
+    return (System.nanoTime() - start) / 1000.0 / NUM_TIMING_ROUNDS / numPoses;
+  }
+
+  // Reads the landmarks of all valid csv rows, packed for PoseClassifier#classifyBatch.
+  private static float[] readLandmarks(String path, List<String> labels) throws IOException {
+    int frameSize = PoseClassifier.BATCH_FRAME_SIZE;
+    float[] landmarks = new float[64 * frameSize];
+    int numFrames = 0;
+    try (BufferedReader reader =
+        new BufferedReader(
+            new InputStreamReader(new FileInputStream(path), Charset.forName("UTF-8")))) {
+      for (String csvLine = reader.readLine(); csvLine != null; csvLine = reader.readLine()) {
+        // Same validation as PoseSampleBundleCompiler, so that rows line up with its samples.
+        String[] tokens = csvLine.split(",", -1);
+        if (tokens.length != NUM_LANDMARKS * 3 + 2) {
+          continue;
+        }
+        if ((numFrames + 1) * frameSize > landmarks.length) {
+          landmarks = Arrays.copyOf(landmarks, landmarks.length * 2);
+        }
+        try {
+          for (int i = 0; i < frameSize; i++) {
+            landmarks[numFrames * frameSize + i] = Float.parseFloat(tokens[2 + i]);
+          }
+        } catch (NumberFormatException e) {
+          continue;
+        }
+        labels.add(tokens[1]);
+        numFrames++;
+      }
+    }
+    return Arrays.copyOf(landmarks, numFrames * frameSize);
+  }
+
+  // Returns the samples outside of the fold, as a store with the same class ids.
+  private static PoseSampleStore getTrainingStore(PoseSampleStore sampleStore, int fold) {
+    int[] classIds = new int[sampleStore.size()];
+    float[] x = new float[sampleStore.size() * EMBEDDING_SIZE];
+    float[] y = new float[sampleStore.size() * EMBEDDING_SIZE];
+    float[] z = new float[sampleStore.size() * EMBEDDING_SIZE];
+    int numSamples = 0;
+    for (int sample = 0; sample < sampleStore.size(); sample++) {
+      if (sample % NUM_FOLDS == fold) {
+        continue;
+      }
+      classIds[numSamples] = sampleStore.getClassId(sample);
+      System.arraycopy(
+          sampleStore.getX(),
+          sample * EMBEDDING_SIZE,
+          x,
+          numSamples * EMBEDDING_SIZE,
+          EMBEDDING_SIZE);
+      System.arraycopy(
+          sampleStore.getY(),
+          sample * EMBEDDING_SIZE,
+          y,
+          numSamples * EMBEDDING_SIZE,
+          EMBEDDING_SIZE);
+      System.arraycopy(
+          sampleStore.getZ(),
+          sample * EMBEDDING_SIZE,
+          z,
+          numSamples * EMBEDDING_SIZE,
+          EMBEDDING_SIZE);
+      numSamples++;
+    }
+    return new PoseSampleStore(
+        Arrays.copyOf(x, numSamples * EMBEDDING_SIZE),
+        Arrays.copyOf(y, numSamples * EMBEDDING_SIZE),
+        Arrays.copyOf(z, numSamples * EMBEDDING_SIZE),
+        Arrays.copyOf(classIds, numSamples),
+        sampleStore.getClassNames());
+  }
+
+  private static float[] getFoldLandmarks(float[] landmarks, int fold) {
+    int frameSize = PoseClassifier.BATCH_FRAME_SIZE;
+    int numFrames = landmarks.length / frameSize;
+    int numFoldFrames = (numFrames - fold + NUM_FOLDS - 1) / NUM_FOLDS;
+    float[] foldLandmarks = new float[numFoldFrames * frameSize];
+    int offset = 0;
+    for (int frame = fold; frame < numFrames; frame += NUM_FOLDS) {
+      System.arraycopy(landmarks, frame * frameSize, foldLandmarks, offset, frameSize);
+      offset += frameSize;
+    }
+    return foldLandmarks;
+  }
+
+  private static boolean hasSameConfidences(
+      BatchClassificationResult result, float[] floatConfidences, int frame) {
+    for (int classId = 0; classId < result.getNumClasses(); classId++) {
+      if (result.getClassConfidence(frame, classId)
+          != floatConfidences[classId * result.getNumFrames() + frame]) {
+        return false;
+      }
+    }
+    return true;
+  }
+}
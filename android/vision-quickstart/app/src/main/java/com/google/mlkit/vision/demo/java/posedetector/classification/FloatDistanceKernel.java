@@ -0,0 +1,224 @@
+/*
+ * Copyright 2020 Google LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.mlkit.vision.demo.java.posedetector.classification;
+
+import static com.google.mlkit.vision.demo.java.posedetector.classification.PoseEmbedding.EMBEDDING_SIZE;
+import static java.lang.Math.abs;
+import static java.lang.Math.max;
+import static java.lang.Math.min;
+
+import com.google.mlkit.vision.common.PointF3D;
+
+/**
+ * Distance kernels over the float embeddings of a {@link PoseSampleStore}. Distances within the
+ * bound are bit-identical to those computed by the store.
+ */
+class FloatDistanceKernel extends DistanceKernel {
+  private static final int MEAN_DIVISOR = EMBEDDING_SIZE * 2;
+
+  private final PoseSampleStore sampleStore;
+  private final PointF3D axesWeights;
+  private final float weightX;
+  private final float weightY;
+  private final float weightZ;
+
+  private float[] queryX;
+  private float[] queryY;
+  private float[] queryZ;
+  private float[] flippedX;
+  private float[] flippedY;
+  private float[] flippedZ;
+  // Query saved by saveQuery(), as copies since the query arrays are not owned by the kernel.
+  private final float[] savedX = new float[EMBEDDING_SIZE];
+  private final float[] savedY = new float[EMBEDDING_SIZE];
+  private final float[] savedZ = new float[EMBEDDING_SIZE];
+
+  FloatDistanceKernel(PoseSampleStore sampleStore, PointF3D axesWeights) {
+    this.sampleStore = sampleStore;
+    this.axesWeights = axesWeights;
+    this.weightX = axesWeights.getX();
+    this.weightY = axesWeights.getY();
+    this.weightZ = axesWeights.getZ();
+  }
+
+  @Override
+  DistanceKernel newInstance() {
+    return new FloatDistanceKernel(sampleStore, axesWeights);
+  }
+
+  /** Keeps references to the given arrays, which must not change while the query is in use. */
+  @Override
+  void setQuery(
+      float[] queryX,
+      float[] queryY,
+      float[] queryZ,
+      float[] flippedX,
+      float[] flippedY,
+      float[] flippedZ) {
+    this.queryX = queryX;
+    this.queryY = queryY;
+    this.queryZ = queryZ;
+    this.flippedX = flippedX;
+    this.flippedY = flippedY;
+    this.flippedZ = flippedZ;
+  }
+
+  // Only the original query is saved: the flipped one only differs in the sign of X, so both
+  // orientations moved by the same distance.
+  @Override
+  void saveQuery() {
+    System.arraycopy(queryX, 0, savedX, 0, EMBEDDING_SIZE);
+    System.arraycopy(queryY, 0, savedY, 0, EMBEDDING_SIZE);
+    System.arraycopy(queryZ, 0, savedZ, 0, EMBEDDING_SIZE);
+  }
+
+  @Override
+  float savedQueryMaxDistance() {
+    float maxDistance = 0;
+    for (int i = 0; i < EMBEDDING_SIZE; i++) {
+      maxDistance =
+          max(
+              maxDistance,
+              max(
+                  max(
+                      abs((queryX[i] - savedX[i]) * weightX),
+                      abs((queryY[i] - savedY[i]) * weightY)),
+                  abs((queryZ[i] - savedZ[i]) * weightZ)));
+    }
+    return maxDistance;
+  }
+
+  @Override
+  float savedQueryMeanDistance() {
+    float sum = 0;
+    for (int i = 0; i < EMBEDDING_SIZE; i++) {
+      sum +=
+          abs((queryX[i] - savedX[i]) * weightX)
+              + abs((queryY[i] - savedY[i]) * weightY)
+              + abs((queryZ[i] - savedZ[i]) * weightZ);
+    }
+    return sum / MEAN_DIVISOR;
+  }
+
+  @Override
+  float queryMaxDistance(int sample, boolean flipped) {
+    return flipped
+        ? sampleStore.maxDistance(sample, flippedX, flippedY, flippedZ, axesWeights)
+        : sampleStore.maxDistance(sample, queryX, queryY, queryZ, axesWeights);
+  }
+
+  @Override
+  float sampleMaxDistance(int sample, int otherSample) {
+    return sampleStore.maxDistance(sample, otherSample, axesWeights);
+  }
+
+  @Override
+  float maxDistance(int sample, float bound) {
+    float[] x = sampleStore.getX();
+    float[] y = sampleStore.getY();
+    float[] z = sampleStore.getZ();
+    int offset = sample * EMBEDDING_SIZE;
+
+    float originalMax = 0;
+    float flippedMax = 0;
+    int originalEnd = EMBEDDING_SIZE;
+    int flippedEnd = EMBEDDING_SIZE;
+    for (int i = 0; i < EMBEDDING_SIZE; i++) {
+      float sampleX = x[offset + i];
+      float sampleY = y[offset + i];
+      float sampleZ = z[offset + i];
+      if (originalEnd == EMBEDDING_SIZE) {
+        originalMax =
+            max(
+                originalMax,
+                max(
+                    max(
+                        abs((sampleX - queryX[i]) * weightX),
+                        abs((sampleY - queryY[i]) * weightY)),
+                    abs((sampleZ - queryZ[i]) * weightZ)));
+        if (originalMax > bound) {
+          originalEnd = i + 1;
+        }
+      }
+      if (flippedEnd == EMBEDDING_SIZE) {
+        flippedMax =
+            max(
+                flippedMax,
+                max(
+                    max(
+                        abs((sampleX - flippedX[i]) * weightX),
+                        abs((sampleY - flippedY[i]) * weightY)),
+                    abs((sampleZ - flippedZ[i]) * weightZ)));
+        if (flippedMax > bound) {
+          flippedEnd = i + 1;
+        }
+      }
+      if (originalEnd < EMBEDDING_SIZE && flippedEnd < EMBEDDING_SIZE) {
+        break;
+      }
+    }
+
+    maxDistanceTerms += 2 * EMBEDDING_SIZE;
+    maxDistanceSkippedTerms += 2 * EMBEDDING_SIZE - originalEnd - flippedEnd;
+    return min(originalMax, flippedMax);
+  }
+
+  @Override
+  float meanDistance(int sample, float bound) {
+    float[] x = sampleStore.getX();
+    float[] y = sampleStore.getY();
+    float[] z = sampleStore.getZ();
+    int offset = sample * EMBEDDING_SIZE;
+    // Cheap pre-check on sums; the exact test on the mean is only done once this is exceeded.
+    double sumBound = (double) bound * MEAN_DIVISOR;
+
+    float originalSum = 0;
+    float flippedSum = 0;
+    int originalEnd = EMBEDDING_SIZE;
+    int flippedEnd = EMBEDDING_SIZE;
+    for (int i = 0; i < EMBEDDING_SIZE; i++) {
+      float sampleX = x[offset + i];
+      float sampleY = y[offset + i];
+      float sampleZ = z[offset + i];
+      if (originalEnd == EMBEDDING_SIZE) {
+        originalSum +=
+            abs((sampleX - queryX[i]) * weightX)
+                + abs((sampleY - queryY[i]) * weightY)
+                + abs((sampleZ - queryZ[i]) * weightZ);
+        if (originalSum > sumBound && originalSum / MEAN_DIVISOR > bound) {
+          originalEnd = i + 1;
+        }
+      }
+      if (flippedEnd == EMBEDDING_SIZE) {
+        flippedSum +=
+            abs((sampleX - flippedX[i]) * weightX)
+                + abs((sampleY - flippedY[i]) * weightY)
+                + abs((sampleZ - flippedZ[i]) * weightZ);
+        if (flippedSum > sumBound && flippedSum / MEAN_DIVISOR > bound) {
+          flippedEnd = i + 1;
+        }
+      }
+      if (originalEnd < EMBEDDING_SIZE && flippedEnd < EMBEDDING_SIZE) {
+        break;
+      }
+    }
+
+    meanDistanceTerms += 2 * EMBEDDING_SIZE;
+    meanDistanceSkippedTerms += 2 * EMBEDDING_SIZE - originalEnd - flippedEnd;
+    return min(originalSum, flippedSum) / MEAN_DIVISOR;
+  }
+}
@@ -0,0 +1,265 @@
+/*
+ * Copyright 2020 Google LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.mlkit.vision.demo.java.posedetector.classification;
+
+import static java.lang.Math.max;
+import static java.lang.Math.min;
+
+import java.util.Arrays;
+
+/**
+ * Decides whether a pose moved too little since the last searched one for the votes of {@link
+ * PoseClassifier} to change, so that its search can be skipped.
+ *
+ * <p>After a search the gate keeps the nearest samples by max distance, a few more than the K
+ * candidates, with their max and mean distances, and the votes of the search. No sample's distance
+ * changes by more than the distance between the two queries, so every distance of the next pose is
+ * known to within that shift. The gate then works out which samples are sure to be among the K
+ * candidates and the top-K by mean distance and which could be, and lets the search be skipped only
+ * if every possible outcome gives the same votes. As samples of the same class vote alike, this
+ * holds for much larger moves than keeping the same samples would.
+ *
+ * <p>Not thread-safe; every searcher has its own gate.
+ */
+class MotionGate {
+  // Relative margin added to the shifts, to absorb float rounding in computed distances, which is
+  // orders of magnitude smaller than this.
+  private static final float ROUNDING_MARGIN = 1e-4f;
+
+  private final int maxDistanceTopK;
+  private final int meanDistanceTopK;
+  private final int[] classIds;
+
+  // The nearest samples by max distance, in ascending order, with their classes and distances.
+  // Mean distances are exact where flagged, and lower bounds otherwise.
+  private final int[] neighborClassIds;
+  private final float[] neighborMaxDistances;
+  private final float[] neighborMeanDistances;
+  private final boolean[] neighborMeanExact;
+  private int numNeighbors;
+  // Max distance of the nearest sample that is not a neighbor, or Float.MAX_VALUE if none is.
+  private float excludedMaxDistance;
+  // Number of samples the top-K by mean distance holds, and its votes per class id.
+  private int numVotes;
+  private final int[] votes;
+  private boolean valid;
+
+  // Scratch buffers of canSkip().
+  private final boolean[] surelyCandidate;
+  private final boolean[] possiblyCandidate;
+  private final boolean[] undecided;
+  private final int[] outcomeVotes;
+
+  /**
+   * Creates a gate for a classifier with the given top-K sizes, keeping {@code numNeighbors} of at
+   * least {@code maxDistanceTopK} nearest samples.
+   */
+  MotionGate(
+      int maxDistanceTopK, int meanDistanceTopK, int numNeighbors, int[] classIds, int numClasses) {
+    this.maxDistanceTopK = maxDistanceTopK;
+    this.meanDistanceTopK = meanDistanceTopK;
+    this.classIds = classIds;
+    neighborClassIds = new int[numNeighbors];
+    neighborMaxDistances = new float[numNeighbors];
+    neighborMeanDistances = new float[numNeighbors];
+    neighborMeanExact = new boolean[numNeighbors];
+    votes = new int[numClasses];
+    surelyCandidate = new boolean[numNeighbors];
+    possiblyCandidate = new boolean[numNeighbors];
+    undecided = new boolean[numNeighbors];
+    outcomeVotes = new int[numClasses];
+  }
+
+  /** Forgets the last searched pose, so that the next one is searched. */
+  void clear() {
+    valid = false;
+  }
+
+  /**
+   * Records the outcome of a search and saves its query on the kernel.
+   *
+   * @param maxDistances the nearest samples by max distance, sorted, holding more than the
+   *     candidates if there are more samples
+   * @param candidateMeanDistances the mean distances the kernel returned for the candidates
+   * @param candidateMeanExact whether those were within the bound, i.e. exact
+   * @param meanDistances the top-K of the candidates by mean distance
+   */
+  void update(
+      BoundedMaxHeap maxDistances,
+      float[] candidateMeanDistances,
+      boolean[] candidateMeanExact,
+      BoundedMaxHeap meanDistances,
+      DistanceKernel kernel) {
+    kernel.saveQuery();
+    int numCandidates = min(maxDistances.size(), maxDistanceTopK);
+    numNeighbors = min(maxDistances.size(), neighborMaxDistances.length);
+    excludedMaxDistance =
+        maxDistances.size() > numNeighbors
+            ? maxDistances.getDistance(numNeighbors)
+            : Float.MAX_VALUE;
+    // The samples beyond the candidates only matter if they can overtake one, in which case their
+    // mean distances are compared to the retained ones. Lower bounds are enough for that.
+    float meanBound = meanDistances.worstDistance();
+    for (int i = 0; i < numNeighbors; i++) {
+      int sample = maxDistances.getIndex(i);
+      neighborClassIds[i] = classIds[sample];
+      neighborMaxDistances[i] = maxDistances.getDistance(i);
+      if (i < numCandidates) {
+        neighborMeanDistances[i] = candidateMeanDistances[i];
+        neighborMeanExact[i] = candidateMeanExact[i];
+      } else {
+        neighborMeanDistances[i] = kernel.meanDistance(sample, meanBound);
+        neighborMeanExact[i] = neighborMeanDistances[i] <= meanBound;
+      }
+    }
+
+    Arrays.fill(votes, 0);
+    numVotes = meanDistances.size();
+    for (int i = 0; i < numVotes; i++) {
+      votes[classIds[meanDistances.getIndex(i)]]++;
+    }
+    valid = true;
+  }
+
+  /**
+   * Returns whether the votes are certain to be the same as for the last searched pose, given
+   * upper bounds on how far the max and mean distances of any sample moved since.
+   */
+  boolean canSkip(float maxDistanceShift, float meanDistanceShift) {
+    if (!valid) {
+      return false;
+    }
+    int numCandidates = min(numNeighbors, maxDistanceTopK);
+    if (numCandidates == 0) {
+      return true;
+    }
+    float maxShift =
+        maxDistanceShift
+            + ROUNDING_MARGIN * max(neighborMaxDistances[numNeighbors - 1], maxDistanceShift);
+    float meanShift =
+        meanDistanceShift + ROUNDING_MARGIN * max(maxMeanDistance(), meanDistanceShift);
+
+    // No sample beyond the neighbors may become a candidate: the K nearest have to stay ahead.
+    if (excludedMaxDistance != Float.MAX_VALUE
+        && !(neighborMaxDistances[numCandidates - 1] + 2 * maxShift < excludedMaxDistance)) {
+      return false;
+    }
+
+    // A neighbor is surely a candidate if fewer than K others can reach its distance, and possibly
+    // one unless K others are surely ahead of it.
+    for (int i = 0; i < numNeighbors; i++) {
+      int numReaching = 0;
+      int numAhead = 0;
+      for (int j = 0; j < numNeighbors; j++) {
+        if (j == i) {
+          continue;
+        }
+        if (neighborMaxDistances[j] - maxShift <= neighborMaxDistances[i] + maxShift) {
+          numReaching++;
+        }
+        if (neighborMaxDistances[j] + maxShift < neighborMaxDistances[i] - maxShift) {
+          numAhead++;
+        }
+      }
+      surelyCandidate[i] = numReaching < maxDistanceTopK;
+      possiblyCandidate[i] = numAhead < maxDistanceTopK;
+    }
+
+    // Of the possible candidates, some are sure to be retained by mean distance, some sure not to
+    // be, and the remaining ones fill up the other retained places in an unknown way.
+    Arrays.fill(outcomeVotes, 0);
+    int numRetained = 0;
+    int numUndecided = 0;
+    for (int i = 0; i < numNeighbors; i++) {
+      undecided[i] = false;
+      if (!possiblyCandidate[i]) {
+        continue;
+      }
+      float mean = neighborMeanDistances[i];
+      int numReaching = 0;
+      int numAhead = 0;
+      for (int j = 0; j < numNeighbors; j++) {
+        if (j == i) {
+          continue;
+        }
+        if (possiblyCandidate[j] && neighborMeanDistances[j] - meanShift <= mean + meanShift) {
+          numReaching++;
+        }
+        if (surelyCandidate[j]
+            && neighborMeanExact[j]
+            && neighborMeanDistances[j] + meanShift < mean - meanShift) {
+          numAhead++;
+        }
+      }
+      if (surelyCandidate[i] && neighborMeanExact[i] && numReaching < meanDistanceTopK) {
+        outcomeVotes[neighborClassIds[i]]++;
+        numRetained++;
+      } else if (numAhead < meanDistanceTopK) {
+        undecided[i] = true;
+        numUndecided++;
+      }
+    }
+
+    // The votes are known if the undecided neighbors all fill the open places, or all vote alike.
+    int numOpen = numVotes - numRetained;
+    if (numOpen < 0 || numOpen > numUndecided) {
+      return false;
+    }
+    if (numOpen > 0) {
+      int openClassId = -1;
+      for (int i = 0; i < numNeighbors; i++) {
+        if (!undecided[i]) {
+          continue;
+        }
+        if (numOpen == numUndecided) {
+          outcomeVotes[neighborClassIds[i]]++;
+        } else if (openClassId < 0) {
+          openClassId = neighborClassIds[i];
+        } else if (openClassId != neighborClassIds[i]) {
+          return false;
+        }
+      }
+      if (openClassId >= 0) {
+        outcomeVotes[openClassId] += numOpen;
+      }
+    }
+    return Arrays.equals(outcomeVotes, votes);
+  }
+
+  /**
+   * Returns an upper bound on the max distance of the next pose's nearest sample beyond those the
+   * gate keeps, given an upper bound on how far max distances moved since the last searched pose,
+   * or {@link Float#MAX_VALUE} if there is none. The retained neighbors and that sample all lie
+   * within it, so a search for one more sample than the gate keeps never has to look further.
+   */
+  float maxDistanceBound(float maxDistanceShift) {
+    if (!valid || excludedMaxDistance == Float.MAX_VALUE) {
+      return Float.MAX_VALUE;
+    }
+    return excludedMaxDistance
+        + maxDistanceShift
+        + ROUNDING_MARGIN * max(excludedMaxDistance, maxDistanceShift);
+  }
+
+  private float maxMeanDistance() {
+    float maxMean = 0;
+    for (int i = 0; i < numNeighbors; i++) {
+      maxMean = max(maxMean, neighborMeanDistances[i]);
+    }
+    return maxMean;
+  }
+}
@@ -16,59 +16,187 @@
 
 package com.google.mlkit.vision.demo.java.posedetector.classification;
 
+import static com.google.mlkit.vision.demo.java.posedetector.classification.PoseEmbedding.EMBEDDING_SIZE;
+import static com.google.mlkit.vision.demo.java.posedetector.classification.PoseEmbedding.NUM_LANDMARKS;
+import static com.google.mlkit.vision.demo.java.posedetector.classification.PoseEmbedding.getMirroredEmbedding;
 import static com.google.mlkit.vision.demo.java.posedetector.classification.PoseEmbedding.getPoseEmbedding;
-import static com.google.mlkit.vision.demo.java.posedetector.classification.Utils.maxAbs;
-import static com.google.mlkit.vision.demo.java.posedetector.classification.Utils.multiply;
-import static com.google.mlkit.vision.demo.java.posedetector.classification.Utils.multiplyAll;
-import static com.google.mlkit.vision.demo.java.posedetector.classification.Utils.subtract;
-import static com.google.mlkit.vision.demo.java.posedetector.classification.Utils.sumAbs;
 import static java.lang.Math.max;
 import static java.lang.Math.min;
 
-import android.util.Pair;
+import androidx.annotation.Nullable;
 import com.google.mlkit.vision.common.PointF3D;
 import com.google.mlkit.vision.pose.Pose;
 import com.google.mlkit.vision.pose.PoseLandmark;
-import java.util.ArrayList;
 import java.util.List;
-import java.util.PriorityQueue;
+import java.util.Locale;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
 
 /**
  * Classifies {link Pose} based on given {@link PoseSample}s.
  *
  * <p>Inspired by K-Nearest Neighbors Algorithm with outlier filtering.
  * https://en.wikipedia.org/wiki/K-nearest_neighbors_algorithm
+ *
+ * <p>Samples are held in a {@link PoseSampleStore} and classification runs on scratch buffers
+ * owned by the classifier, so apart from the returned {@link ClassificationResult} nothing is
+ * allocated per call. As a consequence, an instance must not be used from several threads at once.
+ * Recorded sequences are best classified with {@link #classifyBatch}, which can use more threads.
+ *
+ * <p>For large sample sets the max distance search is sharded over the big CPU cores. Every shard
+ * keeps its own top-K and the shards are merged deterministically, so results are identical to
+ * those of a single-threaded search.
+ *
+ * <p>With {@link #setMotionGateEnabled} the search is skipped for poses that moved too little since
+ * the last searched one for the votes to change, see {@link MotionGate}.
  */
 public class PoseClassifier {
   private static final String TAG = "PoseClassifier";
   private static final int MAX_DISTANCE_TOP_K = 30;
   private static final int MEAN_DISTANCE_TOP_K = 10;
   // Note Z has a lower weight as it is generally less accurate than X & Y.
-  private static final PointF3D AXES_WEIGHTS = PointF3D.from(1, 1, 0.2f);
+  static final PointF3D AXES_WEIGHTS = PointF3D.from(1, 1, 0.2f);
+  // Below this many samples a full scan is as fast as searching a PoseSampleIndex.
+  private static final int MIN_SAMPLES_FOR_INDEX = 256;
+  // Below this many samples the overhead of handing work to other threads outweighs the gain.
+  private static final int MIN_SAMPLES_FOR_SHARDING = 4096;
+  private static final int MIN_SAMPLES_PER_SHARD = 1024;
+  // Nearest samples by max distance that the motion gate keeps beyond the K candidates.
+  private static final int MOTION_GATE_EXTRA_NEIGHBORS = 10;
+
+  /** Number of floats per frame in the packed landmarks taken by {@link #classifyBatch}. */
+  public static final int BATCH_FRAME_SIZE = NUM_LANDMARKS * 3;
+
+  // Shared by all classifiers; its threads are daemons, so it never needs to be shut down.
+  @Nullable private static ExecutorService shardExecutor;
 
-  private final List<PoseSample> poseSamples;
+  private final int numSamples;
+  private final int[] classIds;
+  private final List<String> classNames;
+  // Template for the kernels of searchers and shards, over the samples in the chosen precision.
+  private final DistanceKernel kernel;
+  // The samples are split into contiguous shards for the max distance search. Within classify(),
+  // shard 0 runs on the calling thread and the others on the shard executor, each keeping its own
+  // top-K.
+  private final Shard[] shards;
+  private final Semaphore shardsDone = new Semaphore(0);
   private final int maxDistanceTopK;
   private final int meanDistanceTopK;
-  private final PointF3D axesWeights;
+  // Nearest samples searched for by max distance: the K candidates and, with the motion gate
+  // enabled, those it keeps beyond them and the next one, which the gate needs the distance of.
+  private int numNeighbors;
+  // Scratch buffers reused across calls to classify().
+  private final Searcher searcher;
+  private boolean motionGateEnabled;
 
   public PoseClassifier(List<PoseSample> poseSamples) {
     this(poseSamples, MAX_DISTANCE_TOP_K, MEAN_DISTANCE_TOP_K, AXES_WEIGHTS);
   }
 
+  public PoseClassifier(PoseSampleStore sampleStore) {
+    this(sampleStore, MAX_DISTANCE_TOP_K, MEAN_DISTANCE_TOP_K, AXES_WEIGHTS);
+  }
+
   public PoseClassifier(List<PoseSample> poseSamples, int maxDistanceTopK,
       int meanDistanceTopK, PointF3D axesWeights) {
-    this.poseSamples = poseSamples;
+    this(new PoseSampleStore(poseSamples), maxDistanceTopK, meanDistanceTopK, axesWeights);
+  }
+
+  public PoseClassifier(PoseSampleStore sampleStore, int maxDistanceTopK,
+      int meanDistanceTopK, PointF3D axesWeights) {
+    this(sampleStore, maxDistanceTopK, meanDistanceTopK, axesWeights, MIN_SAMPLES_FOR_SHARDING);
+  }
+
+  /** Creates a classifier that searches the sample embeddings in the given precision. */
+  public PoseClassifier(PoseSampleStore sampleStore, EmbeddingPrecision precision) {
+    this(
+        sampleStore,
+        MAX_DISTANCE_TOP_K,
+        MEAN_DISTANCE_TOP_K,
+        AXES_WEIGHTS,
+        MIN_SAMPLES_FOR_SHARDING,
+        precision);
+  }
+
+  public PoseClassifier(PoseSampleStore sampleStore, int maxDistanceTopK,
+      int meanDistanceTopK, PointF3D axesWeights, int minSamplesForSharding) {
+    this(
+        sampleStore,
+        maxDistanceTopK,
+        meanDistanceTopK,
+        axesWeights,
+        minSamplesForSharding,
+        EmbeddingPrecision.FLOAT32);
+  }
+
+  /**
+   * Creates a classifier that splits the max distance search across the big CPU cores once there
+   * are at least {@code minSamplesForSharding} samples. Results do not depend on the number of
+   * shards.
+   *
+   * <p>With a quantized {@code precision} only a {@link QuantizedPoseSampleStore} is kept, and the
+   * float store may be dropped by the caller. Results then approximate the float ones.
+   */
+  public PoseClassifier(
+      PoseSampleStore sampleStore,
+      int maxDistanceTopK,
+      int meanDistanceTopK,
+      PointF3D axesWeights,
+      int minSamplesForSharding,
+      EmbeddingPrecision precision) {
     this.maxDistanceTopK = maxDistanceTopK;
     this.meanDistanceTopK = meanDistanceTopK;
-    this.axesWeights = axesWeights;
+    numNeighbors = maxDistanceTopK;
+    numSamples = sampleStore.size();
+    classIds = new int[numSamples];
+    for (int i = 0; i < numSamples; i++) {
+      classIds[i] = sampleStore.getClassId(i);
+    }
+    classNames = sampleStore.getClassNames();
+    kernel =
+        precision == EmbeddingPrecision.FLOAT32
+            ? new FloatDistanceKernel(sampleStore, axesWeights)
+            : new QuantizedDistanceKernel(
+                new QuantizedPoseSampleStore(sampleStore, precision, axesWeights));
+
+    int numShards = 1;
+    if (numSamples >= minSamplesForSharding) {
+      numShards = max(1, min(CpuInfo.getNumBigCores(), numSamples / MIN_SAMPLES_PER_SHARD));
+    }
+    shards = new Shard[numShards];
+    for (int i = 0; i < numShards; i++) {
+      shards[i] =
+          new Shard(
+              (int) ((long) numSamples * i / numShards),
+              (int) ((long) numSamples * (i + 1) / numShards));
+    }
+    searcher = new Searcher();
   }
 
-  private static List<PointF3D> extractPoseLandmarks(Pose pose) {
-    List<PointF3D> landmarks = new ArrayList<>();
-    for (PoseLandmark poseLandmark : pose.getAllPoseLandmarks()) {
-      landmarks.add(poseLandmark.getPosition3D());
+  // Shares everything but the scratch buffers, counters and shard top-Ks with the given classifier.
+  private PoseClassifier(PoseClassifier classifier) {
+    maxDistanceTopK = classifier.maxDistanceTopK;
+    meanDistanceTopK = classifier.meanDistanceTopK;
+    numNeighbors = maxDistanceTopK;
+    numSamples = classifier.numSamples;
+    classIds = classifier.classIds;
+    classNames = classifier.classNames;
+    kernel = classifier.kernel;
+    shards = new Shard[classifier.shards.length];
+    for (int i = 0; i < shards.length; i++) {
+      shards[i] = new Shard(classifier.shards[i]);
     }
-    return landmarks;
+    searcher = new Searcher();
+  }
+
+  /**
+   * Returns a classifier over the same samples, with the same parameters, that can be used from
+   * another thread. Sample embeddings and indexes are shared rather than rebuilt, so this is cheap.
+   */
+  public PoseClassifier newInstance() {
+    return new PoseClassifier(this);
   }
 
   /**
@@ -81,90 +209,556 @@ public class PoseClassifier {
     return min(maxDistanceTopK, meanDistanceTopK);
   }
 
+  /** Returns how much work early abandoning saved since creation or the last reset. */
+  public EarlyAbandonStats getEarlyAbandonStats() {
+    long maxDistanceTerms = searcher.kernel.maxDistanceTerms;
+    long maxDistanceSkippedTerms = searcher.kernel.maxDistanceSkippedTerms;
+    for (Shard shard : shards) {
+      maxDistanceTerms += shard.kernel.maxDistanceTerms;
+      maxDistanceSkippedTerms += shard.kernel.maxDistanceSkippedTerms;
+    }
+    return new EarlyAbandonStats(
+        maxDistanceTerms,
+        maxDistanceSkippedTerms,
+        searcher.kernel.meanDistanceTerms,
+        searcher.kernel.meanDistanceSkippedTerms);
+  }
+
+  /**
+   * Enables or disables skipping the search for poses that moved too little since the last searched
+   * pose for its result to change. Results are identical either way, but while the user holds still
+   * most searches are skipped. Disabled by default. Must not be called during classification.
+   */
+  public void setMotionGateEnabled(boolean enabled) {
+    motionGateEnabled = enabled;
+    numNeighbors = enabled ? maxDistanceTopK + MOTION_GATE_EXTRA_NEIGHBORS + 1 : maxDistanceTopK;
+    searcher.resizeNeighbors();
+    for (Shard shard : shards) {
+      shard.topK = new BoundedMaxHeap(numNeighbors);
+    }
+  }
+
+  /** Returns how many poses the motion gate checked and skipped since creation or a reset. */
+  public MotionGateStats getMotionGateStats() {
+    return new MotionGateStats(searcher.numGatedPoses, searcher.numSkippedPoses);
+  }
+
+  public void resetMotionGateStats() {
+    searcher.numGatedPoses = 0;
+    searcher.numSkippedPoses = 0;
+  }
+
+  public void resetEarlyAbandonStats() {
+    for (Shard shard : shards) {
+      shard.kernel.resetCounters();
+    }
+    searcher.kernel.resetCounters();
+  }
+
   public ClassificationResult classify(Pose pose) {
-    return classify(extractPoseLandmarks(pose));
+    List<PoseLandmark> poseLandmarks = pose.getAllPoseLandmarks();
+    // Return early if no landmarks detected.
+    if (poseLandmarks.isEmpty()) {
+      searcher.forgetPreviousPose();
+      return new ClassificationResult(classNames);
+    }
+    for (int i = 0; i < NUM_LANDMARKS; i++) {
+      PointF3D position = poseLandmarks.get(i).getPosition3D();
+      searcher.landmarkX[i] = position.getX();
+      searcher.landmarkY[i] = position.getY();
+      searcher.landmarkZ[i] = position.getZ();
+    }
+    return classifyLandmarks();
   }
 
   public ClassificationResult classify(List<PointF3D> landmarks) {
-    ClassificationResult result = new ClassificationResult();
     // Return early if no landmarks detected.
     if (landmarks.isEmpty()) {
+      searcher.forgetPreviousPose();
+      return new ClassificationResult(classNames);
+    }
+    for (int i = 0; i < NUM_LANDMARKS; i++) {
+      PointF3D position = landmarks.get(i);
+      searcher.landmarkX[i] = position.getX();
+      searcher.landmarkY[i] = position.getY();
+      searcher.landmarkZ[i] = position.getZ();
+    }
+    return classifyLandmarks();
+  }
+
+  public ClassificationResult classify(PoseFrame frame) {
+    // Return early if no landmarks detected.
+    if (!frame.hasPose()) {
+      searcher.forgetPreviousPose();
+      return new ClassificationResult(classNames);
+    }
+    float[] landmarks = frame.getLandmarks();
+    for (int i = 0; i < NUM_LANDMARKS; i++) {
+      searcher.landmarkX[i] = landmarks[i * 3];
+      searcher.landmarkY[i] = landmarks[i * 3 + 1];
+      searcher.landmarkZ[i] = landmarks[i * 3 + 2];
+    }
+    return classifyLandmarks();
+  }
+
+  // Classifies the pose currently held in the searcher's landmark buffers.
+  private ClassificationResult classifyLandmarks() {
+    searcher.search(shards.length > 1);
+    ClassificationResult result = new ClassificationResult(classNames);
+    for (int i = 0; i < searcher.meanDistances.size(); i++) {
+      result.incrementClassConfidence(classIds[searcher.meanDistances.getIndex(i)]);
+    }
+    return result;
+  }
+
+  /**
+   * Classifies a sequence of poses on the calling thread. See {@link #classifyBatch(float[],
+   * Executor, int)}.
+   */
+  public BatchClassificationResult classifyBatch(float[] landmarks) {
+    return classifyBatch(landmarks, null, 1);
+  }
+
+  /**
+   * Classifies a sequence of poses, giving every frame the result {@link #classify} would.
+   *
+   * <p>{@code landmarks} holds {@link #BATCH_FRAME_SIZE} floats per frame, the X, Y and Z of each
+   * landmark in turn, so coordinate {@code axis} of landmark {@code i} in frame {@code f} is at
+   * {@code (f * NUM_LANDMARKS + i) * 3 + axis}. A frame whose first coordinate is NaN has no pose.
+   *
+   * <p>The frames are split into {@code numWorkers} contiguous runs. The first is classified on the
+   * calling thread and the others on {@code executor}, each with its own scratch buffers. Within a
+   * run, the nearest samples of a frame are used to bound the search for the next one, which pays
+   * off as consecutive frames of a recording tend to be alike. Must not be called concurrently with
+   * other methods of this classifier.
+   */
+  public BatchClassificationResult classifyBatch(
+      float[] landmarks, @Nullable Executor executor, int numWorkers) {
+    if (landmarks.length % BATCH_FRAME_SIZE != 0) {
+      throw new IllegalArgumentException(
+          "Landmarks length " + landmarks.length + " is not a multiple of " + BATCH_FRAME_SIZE);
+    }
+    int numFrames = landmarks.length / BATCH_FRAME_SIZE;
+    BatchClassificationResult result = new BatchClassificationResult(classNames, numFrames);
+    if (executor == null || numWorkers <= 1 || numFrames < 2) {
+      classifyFrames(searcher, landmarks, 0, numFrames, result);
       return result;
     }
 
-    // We do flipping on X-axis so we are horizontal (mirror) invariant.
-    List<PointF3D> flippedLandmarks = new ArrayList<>(landmarks);
-    multiplyAll(flippedLandmarks, PointF3D.from(-1, 1, 1));
+    numWorkers = min(numWorkers, numFrames);
+    BatchRun[] runs = new BatchRun[numWorkers];
+    Semaphore runsDone = new Semaphore(0);
+    for (int i = 1; i < numWorkers; i++) {
+      runs[i] =
+          new BatchRun(
+              landmarks,
+              (int) ((long) numFrames * i / numWorkers),
+              (int) ((long) numFrames * (i + 1) / numWorkers),
+              result,
+              runsDone);
+      executor.execute(runs[i]);
+    }
+    classifyFrames(searcher, landmarks, 0, numFrames / numWorkers, result);
+    runsDone.acquireUninterruptibly(numWorkers - 1);
 
-    List<PointF3D> embedding = getPoseEmbedding(landmarks);
-    List<PointF3D> flippedEmbedding = getPoseEmbedding(flippedLandmarks);
+    for (int i = 1; i < numWorkers; i++) {
+      if (runs[i].failure != null) {
+        throw new IllegalStateException("Batch classification failed", runs[i].failure);
+      }
+      searcher.kernel.addCounters(runs[i].searcher.kernel);
+      searcher.numGatedPoses += runs[i].searcher.numGatedPoses;
+      searcher.numSkippedPoses += runs[i].searcher.numSkippedPoses;
+    }
+    return result;
+  }
 
+  private void classifyFrames(
+      Searcher frameSearcher,
+      float[] landmarks,
+      int startFrame,
+      int endFrame,
+      BatchClassificationResult result) {
+    for (int frame = startFrame; frame < endFrame; frame++) {
+      int offset = frame * BATCH_FRAME_SIZE;
+      if (Float.isNaN(landmarks[offset])) {
+        frameSearcher.forgetPreviousPose();
+        continue;
+      }
+      for (int i = 0; i < NUM_LANDMARKS; i++) {
+        frameSearcher.landmarkX[i] = landmarks[offset + i * 3];
+        frameSearcher.landmarkY[i] = landmarks[offset + i * 3 + 1];
+        frameSearcher.landmarkZ[i] = landmarks[offset + i * 3 + 2];
+      }
+      frameSearcher.search(false);
+      result.setHasPose(frame);
+      BoundedMaxHeap meanDistances = frameSearcher.meanDistances;
+      for (int i = 0; i < meanDistances.size(); i++) {
+        result.incrementClassConfidence(frame, classIds[meanDistances.getIndex(i)]);
+      }
+    }
+  }
+
+  private static synchronized ExecutorService getShardExecutor(int numThreads) {
+    if (shardExecutor == null) {
+      shardExecutor =
+          Executors.newFixedThreadPool(
+              max(numThreads, CpuInfo.getNumBigCores() - 1),
+              runnable -> {
+                Thread thread = new Thread(runnable, TAG + "Shard");
+                thread.setDaemon(true);
+                return thread;
+              });
+    }
+    return shardExecutor;
+  }
+
+  /** Scratch buffers and top-K heaps to classify one pose at a time on one thread. */
+  private class Searcher {
+    private final float[] landmarkX = new float[NUM_LANDMARKS];
+    private final float[] landmarkY = new float[NUM_LANDMARKS];
+    private final float[] landmarkZ = new float[NUM_LANDMARKS];
+    private final float[] embeddingX = new float[EMBEDDING_SIZE];
+    private final float[] embeddingY = new float[EMBEDDING_SIZE];
+    private final float[] embeddingZ = new float[EMBEDDING_SIZE];
+    private final float[] flippedEmbeddingX = new float[EMBEDDING_SIZE];
+    private final float[] flippedEmbeddingY = new float[EMBEDDING_SIZE];
+    private final float[] flippedEmbeddingZ = new float[EMBEDDING_SIZE];
+    private BoundedMaxHeap maxDistances;
+    private final BoundedMaxHeap meanDistances = new BoundedMaxHeap(meanDistanceTopK);
+    private final DistanceKernel kernel = PoseClassifier.this.kernel.newInstance();
+    // The nearest samples of the previous pose, which are likely close to the next one too. Only
+    // kept with the motion gate disabled, as the gate bounds their distances by itself.
+    private int[] previousNeighbors;
+    private int numPreviousNeighbors;
+    // Upper bound on the distance of the farthest neighbor of the current pose, shared with the
+    // shards.
+    private float maxDistanceBound;
+    // Mean distances of the candidates as returned by the kernel, and whether they were exact.
+    private final float[] candidateMeanDistances = new float[maxDistanceTopK];
+    private final boolean[] candidateMeanExact = new boolean[maxDistanceTopK];
+    // Only set while the motion gate is enabled.
+    @Nullable private MotionGate motionGate;
+    private long numGatedPoses;
+    private long numSkippedPoses;
+
+    Searcher() {
+      resizeNeighbors();
+    }
+
+    // Sizes the buffers for the current number of neighbors, forgetting the previous pose.
+    void resizeNeighbors() {
+      maxDistances = new BoundedMaxHeap(numNeighbors);
+      previousNeighbors = new int[numNeighbors];
+      numPreviousNeighbors = 0;
+      motionGate =
+          motionGateEnabled
+              ? new MotionGate(
+                  maxDistanceTopK, meanDistanceTopK, numNeighbors - 1, classIds, classNames.size())
+              : null;
+    }
+
+    // Called for frames without a pose, after which the next pose is unrelated to the last one.
+    void forgetPreviousPose() {
+      numPreviousNeighbors = 0;
+      if (motionGate != null) {
+        motionGate.clear();
+      }
+    }
+
+    /**
+     * Embeds the pose held in the landmark buffers and fills meanDistances with its nearest
+     * samples. The max distance search runs on the shard executor if {@code parallel} is set.
+     */
+    void search(boolean parallel) {
+      getPoseEmbedding(landmarkX, landmarkY, landmarkZ, embeddingX, embeddingY, embeddingZ);
+      // We do flipping on X-axis so we are horizontal (mirror) invariant. The flipped embedding
+      // follows from the original one, without normalizing the flipped landmarks again.
+      getMirroredEmbedding(
+          embeddingX,
+          embeddingY,
+          embeddingZ,
+          flippedEmbeddingX,
+          flippedEmbeddingY,
+          flippedEmbeddingZ);
+      kernel.setQuery(
+          embeddingX,
+          embeddingY,
+          embeddingZ,
+          flippedEmbeddingX,
+          flippedEmbeddingY,
+          flippedEmbeddingZ);
+
+      float maxDistanceShift = Float.MAX_VALUE;
+      if (motionGateEnabled) {
+        numGatedPoses++;
+        maxDistanceShift = kernel.savedQueryMaxDistance();
+        if (motionGate.canSkip(maxDistanceShift, kernel.savedQueryMeanDistance())) {
+          // meanDistances still holds the nearest samples of the last searched pose, which vote
+          // the same way as those of this pose.
+          numSkippedPoses++;
+          return;
+        }
+      }
 
-    // Classification is done in two stages:
-    //  * First we pick top-K samples by MAX distance. It allows to remove samples that are almost
-    //    the same as given pose, but maybe has few joints bent in the other direction.
-    //  * Then we pick top-K samples by MEAN distance. After outliers are removed, we pick samples
-    //    that are closest by average.
+      // Classification is done in two stages:
+      //  * First we pick top-K samples by MAX distance. It allows to remove samples that are almost
+      //    the same as given pose, but maybe has few joints bent in the other direction.
+      //  * Then we pick top-K samples by MEAN distance. After outliers are removed, we pick samples
+      //    that are closest by average.
 
-    // Keeps max distance on top so we can pop it when top_k size is reached.
-    PriorityQueue<Pair<PoseSample, Float>> maxDistances = new PriorityQueue<>(
-        maxDistanceTopK, (o1, o2) -> -Float.compare(o1.second, o2.second));
-    // Retrieve top K poseSamples by least distance to remove outliers.
-    for (PoseSample poseSample : poseSamples) {
-      List<PointF3D> sampleEmbedding = poseSample.getEmbedding();
+      // Retrieve top K poseSamples by least distance to remove outliers.
+      maxDistances.clear();
+      maxDistanceBound =
+          motionGateEnabled
+              ? motionGate.maxDistanceBound(maxDistanceShift)
+              : previousNeighborsBound();
+      maxDistances.setBound(maxDistanceBound);
+      if (parallel) {
+        searchShards();
+      } else {
+        for (Shard shard : shards) {
+          shard.search(maxDistances, kernel);
+        }
+      }
+      if (!motionGateEnabled) {
+        numPreviousNeighbors = maxDistances.size();
+        for (int i = 0; i < numPreviousNeighbors; i++) {
+          previousNeighbors[i] = maxDistances.getIndex(i);
+        }
+      }
 
-      float originalMax = 0;
-      float flippedMax = 0;
-      for (int i = 0; i < embedding.size(); i++) {
-        originalMax =
-            max(
-                originalMax,
-                maxAbs(multiply(subtract(embedding.get(i), sampleEmbedding.get(i)), axesWeights)));
-        flippedMax =
-            max(
-                flippedMax,
-                maxAbs(
-                    multiply(
-                        subtract(flippedEmbedding.get(i), sampleEmbedding.get(i)), axesWeights)));
+      // Retrive top K poseSamples by least mean distance to remove outliers. Candidates are visited
+      // nearest first, which lets the kernel abandon the remaining ones early.
+      maxDistances.sort();
+      int numCandidates = min(maxDistances.size(), maxDistanceTopK);
+      meanDistances.clear();
+      for (int i = 0; i < numCandidates; i++) {
+        int sample = maxDistances.getIndex(i);
+        float bound = meanDistances.worstDistance();
+        float distance = kernel.meanDistance(sample, bound);
+        candidateMeanDistances[i] = distance;
+        candidateMeanExact[i] = distance <= bound;
+        meanDistances.offer(sample, distance);
       }
-      // Set the max distance as min of original and flipped max distance.
-      maxDistances.add(new Pair<>(poseSample, min(originalMax, flippedMax)));
-      // We only want to retain top n so pop the highest distance.
-      if (maxDistances.size() > maxDistanceTopK) {
-        maxDistances.poll();
+      if (motionGateEnabled) {
+        motionGate.update(
+            maxDistances, candidateMeanDistances, candidateMeanExact, meanDistances, kernel);
       }
     }
 
-    // Keeps higher mean distances on top so we can pop it when top_k size is reached.
-    PriorityQueue<Pair<PoseSample, Float>> meanDistances = new PriorityQueue<>(
-        meanDistanceTopK, (o1, o2) -> -Float.compare(o1.second, o2.second));
-    // Retrive top K poseSamples by least mean distance to remove outliers.
-    for (Pair<PoseSample, Float> sampleDistances : maxDistances) {
-      PoseSample poseSample = sampleDistances.first;
-      List<PointF3D> sampleEmbedding = poseSample.getEmbedding();
+    /**
+     * Returns the largest distance of the current pose to the previous pose's N nearest samples,
+     * where N is the number of neighbors searched for. These are N samples within that distance, so
+     * it bounds the N-th smallest distance over all samples, or is {@link Float#MAX_VALUE} if there
+     * were fewer than N.
+     */
+    private float previousNeighborsBound() {
+      if (numPreviousNeighbors < numNeighbors) {
+        return Float.MAX_VALUE;
+      }
+      float bound = 0;
+      for (int i = 0; i < numPreviousNeighbors; i++) {
+        bound = max(bound, kernel.maxDistance(previousNeighbors[i], Float.MAX_VALUE));
+      }
+      return bound;
+    }
 
-      float originalSum = 0;
-      float flippedSum = 0;
-      for (int i = 0; i < embedding.size(); i++) {
-        originalSum += sumAbs(multiply(
-            subtract(embedding.get(i), sampleEmbedding.get(i)), axesWeights));
-        flippedSum += sumAbs(
-            multiply(subtract(flippedEmbedding.get(i), sampleEmbedding.get(i)), axesWeights));
+    // Fills maxDistances with the top K samples by max distance, merged over all shards.
+    private void searchShards() {
+      ExecutorService executor = getShardExecutor(shards.length - 1);
+      for (int i = 1; i < shards.length; i++) {
+        executor.execute(shards[i]);
       }
-      // Set the mean distance as min of original and flipped mean distances.
-      float meanDistance = min(originalSum, flippedSum) / (embedding.size() * 2);
-      meanDistances.add(new Pair<>(poseSample, meanDistance));
-      // We only want to retain top k so pop the highest mean distance.
-      if (meanDistances.size() > meanDistanceTopK) {
-        meanDistances.poll();
+      shards[0].search(maxDistances, kernel);
+      shardsDone.acquireUninterruptibly(shards.length - 1);
+
+      // Shards are merged in a fixed order, and as top-K entries are ordered by distance and then
+      // by sample index the result is the same as for a single scan over all samples.
+      for (int i = 1; i < shards.length; i++) {
+        BoundedMaxHeap topK = shards[i].topK;
+        for (int j = 0; j < topK.size(); j++) {
+          maxDistances.offer(topK.getIndex(j), topK.getDistance(j));
+        }
       }
     }
+  }
+
+  /**
+   * A contiguous range of samples searched as a unit. When run on the shard executor it searches
+   * for the pose of the classifier's own searcher.
+   */
+  private class Shard implements Runnable {
+    private final int start;
+    private final int end;
+    @Nullable private final PoseSampleIndex index;
+    private BoundedMaxHeap topK;
+    private final DistanceKernel kernel;
+
+    Shard(int start, int end) {
+      this.start = start;
+      this.end = end;
+      index =
+          end - start >= MIN_SAMPLES_FOR_INDEX
+              ? new PoseSampleIndex(PoseClassifier.this.kernel.newInstance(), start, end)
+              : null;
+      topK = new BoundedMaxHeap(numNeighbors);
+      kernel = PoseClassifier.this.kernel.newInstance();
+    }
 
-    for (Pair<PoseSample, Float> sampleDistances : meanDistances) {
-      String className = sampleDistances.first.getClassName();
-      result.incrementClassConfidence(className);
+    // Covers the same samples as the given shard, sharing its immutable index.
+    Shard(Shard shard) {
+      start = shard.start;
+      end = shard.end;
+      index = shard.index;
+      topK = new BoundedMaxHeap(numNeighbors);
+      kernel = PoseClassifier.this.kernel.newInstance();
     }
 
-    return result;
+    @Override
+    public void run() {
+      try {
+        topK.clear();
+        topK.setBound(searcher.maxDistanceBound);
+        kernel.setQuery(
+            searcher.embeddingX,
+            searcher.embeddingY,
+            searcher.embeddingZ,
+            searcher.flippedEmbeddingX,
+            searcher.flippedEmbeddingY,
+            searcher.flippedEmbeddingZ);
+        search(topK, kernel);
+      } finally {
+        shardsDone.release();
+      }
+    }
+
+    // Offers the shard's samples to out, for the query set on the kernel.
+    void search(BoundedMaxHeap out, DistanceKernel kernel) {
+      if (index != null) {
+        index.search(out, kernel);
+        return;
+      }
+      for (int sample = start; sample < end; sample++) {
+        out.offer(sample, kernel.maxDistance(sample, out.worstDistance()));
+      }
+    }
+  }
+
+  /** A run of frames of a batch, classified on a worker with its own searcher. */
+  private class BatchRun implements Runnable {
+    private final float[] landmarks;
+    private final int startFrame;
+    private final int endFrame;
+    private final BatchClassificationResult result;
+    private final Semaphore done;
+    private final Searcher searcher = new Searcher();
+    @Nullable private RuntimeException failure;
+
+    BatchRun(
+        float[] landmarks,
+        int startFrame,
+        int endFrame,
+        BatchClassificationResult result,
+        Semaphore done) {
+      this.landmarks = landmarks;
+      this.startFrame = startFrame;
+      this.endFrame = endFrame;
+      this.result = result;
+      this.done = done;
+    }
+
+    @Override
+    public void run() {
+      try {
+        classifyFrames(searcher, landmarks, startFrame, endFrame, result);
+      } catch (RuntimeException e) {
+        failure = e;
+      } finally {
+        done.release();
+      }
+    }
+  }
+
+  /** Counts of poses checked by the motion gate, and of those whose search it skipped. */
+  public static class MotionGateStats {
+    private final long numPoses;
+    private final long numSkippedPoses;
+
+    MotionGateStats(long numPoses, long numSkippedPoses) {
+      this.numPoses = numPoses;
+      this.numSkippedPoses = numSkippedPoses;
+    }
+
+    public long getNumPoses() {
+      return numPoses;
+    }
+
+    public long getNumSkippedPoses() {
+      return numSkippedPoses;
+    }
+
+    /** Returns the share of poses whose search was skipped, or 0 if there were none. */
+    public float getSkipRate() {
+      return numPoses == 0 ? 0 : (float) numSkippedPoses / numPoses;
+    }
+
+    @Override
+    public String toString() {
+      return String.format(
+          Locale.US,
+          "motion gate: %d/%d poses skipped (%.1f%%)",
+          numSkippedPoses,
+          numPoses,
+          100f * getSkipRate());
+    }
+  }
+
+  /**
+   * Counts of distance terms, one per sample, orientation and embedding entry, that the max and
+   * mean distance passes would compute without early abandoning, and how many of them were skipped.
+   */
+  public static class EarlyAbandonStats {
+    private final long maxDistanceTerms;
+    private final long maxDistanceSkippedTerms;
+    private final long meanDistanceTerms;
+    private final long meanDistanceSkippedTerms;
+
+    EarlyAbandonStats(
+        long maxDistanceTerms,
+        long maxDistanceSkippedTerms,
+        long meanDistanceTerms,
+        long meanDistanceSkippedTerms) {
+      this.maxDistanceTerms = maxDistanceTerms;
+      this.maxDistanceSkippedTerms = maxDistanceSkippedTerms;
+      this.meanDistanceTerms = meanDistanceTerms;
+      this.meanDistanceSkippedTerms = meanDistanceSkippedTerms;
+    }
+
+    public long getMaxDistanceTerms() {
+      return maxDistanceTerms;
+    }
+
+    public long getMaxDistanceSkippedTerms() {
+      return maxDistanceSkippedTerms;
+    }
+
+    public long getMeanDistanceTerms() {
+      return meanDistanceTerms;
+    }
+
+    public long getMeanDistanceSkippedTerms() {
+      return meanDistanceSkippedTerms;
+    }
+
+    @Override
+    public String toString() {
+      return String.format(
+          Locale.US,
+          "max distance: %d/%d terms skipped, mean distance: %d/%d terms skipped",
+          maxDistanceSkippedTerms,
+          maxDistanceTerms,
+          meanDistanceSkippedTerms,
+          meanDistanceTerms);
+    }
   }
 }
@@ -0,0 +1,209 @@
+/*
+ * Copyright 2020 Google LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.mlkit.vision.demo.java.posedetector.classification;
+
+import android.content.Context;
+import android.util.Log;
+import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
+import com.google.mlkit.vision.demo.AssetUtils;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Process-wide cache of {@link PoseClassifier}s, keyed by pose samples asset and embedding
+ * precision.
+ *
+ * <p>{@link #acquire} starts loading a classifier in the background, or reuses the one already
+ * loaded or loading, and returns a {@link Reference} to it. A classifier stays cached while any
+ * reference to it is unreleased, so that detectors recreated on camera or setting changes do not
+ * parse the samples again. Acquire a reference as soon as the classifier is known to be needed and
+ * hand it on, instead of loading on the first frame.
+ */
+public final class PoseClassifierCache {
+  private static final String TAG = "PoseClassifierCache";
+  private static final String CSV_EXTENSION = ".csv";
+  // Extension of the precompiled form of a samples csv file, see {@link PoseSampleBundleCompiler}.
+  // It must be stored uncompressed in the APK so that it can be memory-mapped.
+  private static final String BUNDLE_EXTENSION = ".bin";
+
+  private static final Map<String, Entry> entries = new HashMap<>();
+  // Its thread is a daemon, so it never needs to be shut down.
+  @Nullable private static ExecutorService loadExecutor;
+
+  private PoseClassifierCache() {}
+
+  /**
+   * Returns a reference to the classifier over the samples in the given csv asset, searched in the
+   * given precision, and starts loading it unless it is cached already. If a bundle of the same
+   * name with a {@code .bin} extension exists, the samples are memory-mapped from it instead.
+   */
+  public static synchronized Reference acquire(
+      Context context, String samplesFile, EmbeddingPrecision precision) {
+    String key = samplesFile + "@" + precision;
+    Entry entry = entries.get(key);
+    if (entry == null) {
+      // Only the application context is kept, as loading may outlive the caller.
+      Context appContext = context.getApplicationContext();
+      entry =
+          new Entry(
+              key, getLoadExecutor().submit(() -> load(appContext, samplesFile, precision)));
+      entries.put(key, entry);
+    }
+    entry.refCount++;
+    return new Reference(entry);
+  }
+
+  private static synchronized void release(Entry entry) {
+    if (--entry.refCount == 0) {
+      entries.remove(entry.key);
+    }
+  }
+
+  private static synchronized Reference retain(Entry entry) {
+    entry.refCount++;
+    return new Reference(entry);
+  }
+
+  private static synchronized ExecutorService getLoadExecutor() {
+    if (loadExecutor == null) {
+      loadExecutor =
+          Executors.newSingleThreadExecutor(
+              runnable -> {
+                Thread thread = new Thread(runnable, TAG);
+                thread.setDaemon(true);
+                return thread;
+              });
+    }
+    return loadExecutor;
+  }
+
+  /** Loads a classifier without caching it. */
+  @WorkerThread
+  static PoseClassifier load(Context context, String samplesFile, EmbeddingPrecision precision) {
+    PoseSampleStore sampleStore;
+    try {
+      sampleStore = loadPoseSampleBundle(context, getBundleFile(samplesFile));
+    } catch (IOException e) {
+      Log.w(TAG, "Could not load pose sample bundle, falling back to csv.\n" + e);
+      sampleStore = new PoseSampleStore(loadPoseSamplesCsv(context, samplesFile));
+    }
+    return new PoseClassifier(sampleStore, precision);
+  }
+
+  private static String getBundleFile(String samplesFile) {
+    String baseName =
+        samplesFile.endsWith(CSV_EXTENSION)
+            ? samplesFile.substring(0, samplesFile.length() - CSV_EXTENSION.length())
+            : samplesFile;
+    return baseName + BUNDLE_EXTENSION;
+  }
+
+  private static PoseSampleStore loadPoseSampleBundle(Context context, String bundleFile)
+      throws IOException {
+    return PoseSampleBundle.read(AssetUtils.mapAsset(context, bundleFile));
+  }
+
+  private static List<PoseSample> loadPoseSamplesCsv(Context context, String samplesFile) {
+    List<PoseSample> poseSamples = new ArrayList<>();
+    try {
+      BufferedReader reader = new BufferedReader(
+          new InputStreamReader(context.getAssets().open(samplesFile)));
+      String csvLine = reader.readLine();
+      while (csvLine != null) {
+        // If line is not a valid {@link PoseSample}, we'll get null and skip adding to the list.
+        PoseSample poseSample = PoseSample.getPoseSample(csvLine, ",");
+        if (poseSample != null) {
+          poseSamples.add(poseSample);
+        }
+        csvLine = reader.readLine();
+      }
+    } catch (IOException e) {
+      Log.e(TAG, "Error when loading pose samples.\n" + e);
+    }
+    return poseSamples;
+  }
+
+  private static class Entry {
+    private final String key;
+    private final Future<PoseClassifier> classifier;
+    // Guarded by the PoseClassifierCache class.
+    private int refCount;
+
+    Entry(String key, Future<PoseClassifier> classifier) {
+      this.key = key;
+      this.classifier = classifier;
+    }
+  }
+
+  /**
+   * A counted reference to a cached classifier. Every reference has to be released once, after
+   * which it must not be used.
+   */
+  public static final class Reference {
+    private final Entry entry;
+    private boolean released;
+
+    private Reference(Entry entry) {
+      this.entry = entry;
+    }
+
+    /** Returns whether loading has finished, so that {@link #newPoseClassifier} will not block. */
+    public boolean isLoaded() {
+      return entry.classifier.isDone();
+    }
+
+    /**
+     * Returns a classifier of its own for the calling thread, waiting for loading to finish if
+     * needed. It shares the loaded samples, so this is cheap once {@link #isLoaded}.
+     *
+     * @throws IllegalStateException if loading failed
+     */
+    public PoseClassifier newPoseClassifier() {
+      try {
+        return entry.classifier.get().newInstance();
+      } catch (ExecutionException e) {
+        throw new IllegalStateException("Could not load pose classifier " + entry.key, e);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IllegalStateException("Interrupted while loading " + entry.key, e);
+      }
+    }
+
+    /** Returns another reference to the same classifier, to be released separately. */
+    public Reference retain() {
+      return PoseClassifierCache.retain(entry);
+    }
+
+    /** Releases this reference. Releasing it again has no effect. */
+    public synchronized void release() {
+      if (!released) {
+        released = true;
+        PoseClassifierCache.release(entry);
+      }
+    }
+  }
+}
@@ -17,25 +17,26 @@
 package com.google.mlkit.vision.demo.java.posedetector.classification;
 
 import android.content.Context;
-import android.media.AudioManager;
-import android.media.ToneGenerator;
 import android.os.Looper;
-import android.util.Log;
+import android.os.SystemClock;
+import androidx.annotation.Nullable;
 import androidx.annotation.WorkerThread;
 import com.google.common.base.Preconditions;
 import com.google.mlkit.vision.pose.Pose;
-import java.io.BufferedReader;
-import java.io.IOException;
-import java.io.InputStreamReader;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
 
 /**
- * Accepts a stream of {@link Pose} for classification and Rep counting.
+ * Accepts a stream of {@link Pose}, or of recorded {@link PoseFrame}s, for classification and Rep
+ * counting.
  */
 public class PoseClassifierProcessor {
   private static final String TAG = "PoseClassifierProcessor";
+  // Precompiled into pose/fitness_pose_samples.bin, see {@link PoseClassifierCache}.
   private static final String POSE_SAMPLES_FILE = "pose/fitness_pose_samples.csv";
 
   // Specify classes for which we want rep counting.
@@ -48,47 +49,104 @@ public class PoseClassifierProcessor {
   };
 
   private final boolean isStreamMode;
+  // Only set in stream mode, if reps are to be beeped on.
+  @Nullable private final AudioCuePlayer repCuePlayer;
+  private final PoseClassifier poseClassifier;
 
   private EMASmoothing emaSmoothing;
-  private List<RepetitionCounter> repCounters;
-  private PoseClassifier poseClassifier;
+  private RepetitionCounter repCounter;
   private String lastRepResult;
 
+  /**
+   * Starts loading, or reuses, the shared classifier that the rep counting of this processor is set
+   * up for. See {@link PoseClassifierCache}.
+   */
+  public static PoseClassifierCache.Reference acquirePoseClassifier(Context context) {
+    return PoseClassifierCache.acquire(context, POSE_SAMPLES_FILE, EmbeddingPrecision.FLOAT32);
+  }
+
   @WorkerThread
   public PoseClassifierProcessor(Context context, boolean isStreamMode) {
-    Preconditions.checkState(Looper.myLooper() != Looper.getMainLooper());
+    this(loadPoseClassifier(context), isStreamMode);
+  }
+
+  /**
+   * Creates a processor that classifies with the given classifier, e.g. one from {@link
+   * #acquirePoseClassifier}. The classifier must not be used by anything else meanwhile.
+   */
+  public PoseClassifierProcessor(PoseClassifier poseClassifier, boolean isStreamMode) {
+    this(poseClassifier, isStreamMode, /* playRepSound= */ true);
+  }
+
+  /**
+   * Creates a processor that beeps on every counted rep only if {@code playRepSound} is set, so
+   * that it can run where there is no audio, e.g. in {@link PoseReplay}.
+   */
+  public PoseClassifierProcessor(
+      PoseClassifier poseClassifier, boolean isStreamMode, boolean playRepSound) {
+    this.poseClassifier = poseClassifier;
     this.isStreamMode = isStreamMode;
+    this.repCuePlayer = isStreamMode && playRepSound ? new AudioCuePlayer() : null;
     if (isStreamMode) {
+      // Consecutive frames are mostly alike, and skipped searches still return the same result, so
+      // smoothing and rep counting see every frame as before. PoseReplayTest checks that a recorded
+      // session counts the same reps and top classes either way.
+      poseClassifier.setMotionGateEnabled(true);
       emaSmoothing = new EMASmoothing();
-      repCounters = new ArrayList<>();
+      repCounter = new RepetitionCounter(Arrays.asList(POSE_CLASSES));
       lastRepResult = "";
     }
-    loadPoseSamples(context);
   }
 
-  private void loadPoseSamples(Context context) {
-    List<PoseSample> poseSamples = new ArrayList<>();
-    try {
-      BufferedReader reader = new BufferedReader(
-          new InputStreamReader(context.getAssets().open(POSE_SAMPLES_FILE)));
-      String csvLine = reader.readLine();
-      while (csvLine != null) {
-        // If line is not a valid {@link PoseSample}, we'll get null and skip adding to the list.
-        PoseSample poseSample = PoseSample.getPoseSample(csvLine, ",");
-        if (poseSample != null) {
-          poseSamples.add(poseSample);
-        }
-        csvLine = reader.readLine();
-      }
-    } catch (IOException e) {
-      Log.e(TAG, "Error when loading pose samples.\n" + e);
-    }
-    poseClassifier = new PoseClassifier(poseSamples);
+  /** Returns the reps counted so far per class, in stream mode. */
+  public Map<String, Integer> getRepCounts() {
+    Map<String, Integer> repCounts = new LinkedHashMap<>();
     if (isStreamMode) {
-      for (String className : POSE_CLASSES) {
-        repCounters.add(new RepetitionCounter(className));
+      for (String className : repCounter.getClassNames()) {
+        repCounts.put(className, repCounter.getNumRepeats(className));
       }
     }
+    return repCounts;
+  }
+
+  /** Returns the rep counter with the timing of the reps, in stream mode, or null otherwise. */
+  @Nullable
+  public RepetitionCounter getRepetitionCounter() {
+    return repCounter;
+  }
+
+  /**
+   * Sets whether the search is skipped for frames that barely moved, which is on in stream mode.
+   * Must not be called during classification.
+   */
+  public void setMotionGateEnabled(boolean enabled) {
+    poseClassifier.setMotionGateEnabled(enabled);
+  }
+
+  /** Returns how often the search was skipped for frames that barely moved, in stream mode. */
+  public PoseClassifier.MotionGateStats getMotionGateStats() {
+    return poseClassifier.getMotionGateStats();
+  }
+
+  /**
+   * Returns the latency from counting a rep to its beep being heard, or null if reps are not beeped
+   * on.
+   */
+  @Nullable
+  public AudioCuePlayer.LatencyStats getRepCueLatencyStats() {
+    return repCuePlayer == null ? null : repCuePlayer.getLatencyStats();
+  }
+
+  /** Releases the audio resources for beeping on reps. No more reps are beeped on afterwards. */
+  public void release() {
+    if (repCuePlayer != null) {
+      repCuePlayer.release();
+    }
+  }
+
+  private static PoseClassifier loadPoseClassifier(Context context) {
+    Preconditions.checkState(Looper.myLooper() != Looper.getMainLooper());
+    return PoseClassifierCache.load(context, POSE_SAMPLES_FILE, EmbeddingPrecision.FLOAT32);
   }
 
   /**
@@ -101,44 +159,73 @@ public class PoseClassifierProcessor {
    */
   @WorkerThread
   public List<String> getPoseResult(Pose pose) {
+    return getPoseResult(pose, SystemClock.elapsedRealtime());
+  }
+
+  /**
+   * Same as {@link #getPoseResult(Pose)}, for a pose detected at the given time, in milliseconds of
+   * a monotonic clock. Poses have to be passed in the order of their timestamps.
+   */
+  @WorkerThread
+  public List<String> getPoseResult(Pose pose, long timestampMs) {
     Preconditions.checkState(Looper.myLooper() != Looper.getMainLooper());
+    return getPoseResult(
+        poseClassifier.classify(pose), !pose.getAllPoseLandmarks().isEmpty(), timestampMs);
+  }
+
+  /**
+   * Same as {@link #getPoseResult(Pose)}, for a pose detected at the frame's timestamp. Frames have
+   * to be passed in the order of their timestamps.
+   */
+  @WorkerThread
+  public List<String> getPoseResult(PoseFrame frame) {
+    return getPoseResult(poseClassifier.classify(frame), frame.hasPose(), frame.getTimestampMs());
+  }
+
+  private List<String> getPoseResult(
+      ClassificationResult classification, boolean hasPose, long timestampMs) {
     List<String> result = new ArrayList<>();
-    ClassificationResult classification = poseClassifier.classify(pose);
 
     // Update {@link RepetitionCounter}s if {@code isStreamMode}.
     if (isStreamMode) {
       // Feed pose to smoothing even if no pose found.
-      classification = emaSmoothing.getSmoothedResult(classification);
+      classification = emaSmoothing.getSmoothedResult(classification, timestampMs);
 
       // Return early without updating repCounter if no pose found.
-      if (pose.getAllPoseLandmarks().isEmpty()) {
+      if (!hasPose) {
         result.add(lastRepResult);
         return result;
       }
 
-      for (RepetitionCounter repCounter : repCounters) {
-        int repsBefore = repCounter.getNumRepeats();
-        int repsAfter = repCounter.addClassificationResult(classification);
-        if (repsAfter > repsBefore) {
-          // Play a fun beep when rep counter updates.
-          ToneGenerator tg = new ToneGenerator(AudioManager.STREAM_NOTIFICATION, 100);
-          tg.startTone(ToneGenerator.TONE_PROP_BEEP);
-          lastRepResult = String.format(
-              Locale.US, "%s : %d reps", repCounter.getClassName(), repsAfter);
-          break;
+      List<RepetitionCounter.Repetition> reps =
+          repCounter.addClassificationResult(classification, timestampMs);
+      if (!reps.isEmpty()) {
+        if (repCuePlayer != null) {
+          // Play a fun beep when rep counter updates. This only hands it to the audio thread.
+          repCuePlayer.trigger();
+        }
+        // Several classes can complete a rep on the same frame.
+        StringBuilder repResult = new StringBuilder();
+        for (RepetitionCounter.Repetition rep : reps) {
+          if (repResult.length() > 0) {
+            repResult.append(", ");
+          }
+          repResult.append(
+              String.format(Locale.US, "%s : %d reps", rep.getClassName(), rep.getNumber()));
         }
+        lastRepResult = repResult.toString();
       }
       result.add(lastRepResult);
     }
 
     // Add maxConfidence class of current frame to result if pose is found.
-    if (!pose.getAllPoseLandmarks().isEmpty()) {
-      String maxConfidenceClass = classification.getMaxConfidenceClass();
+    int maxConfidenceClassId = classification.getMaxConfidenceClassId();
+    if (hasPose && maxConfidenceClassId >= 0) {
       String maxConfidenceClassResult = String.format(
           Locale.US,
           "%s : %.2f confidence",
-          maxConfidenceClass,
-          classification.getClassConfidence(maxConfidenceClass)
+          classification.getClassName(maxConfidenceClassId),
+          classification.getClassConfidence(maxConfidenceClassId)
               / poseClassifier.confidenceRange());
       result.add(maxConfidenceClassResult);
     }
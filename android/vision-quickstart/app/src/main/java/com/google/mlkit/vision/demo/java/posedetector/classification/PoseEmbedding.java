@@ -16,12 +16,6 @@
 
 package com.google.mlkit.vision.demo.java.posedetector.classification;
 
-import static com.google.mlkit.vision.demo.java.posedetector.classification.Utils.average;
-import static com.google.mlkit.vision.demo.java.posedetector.classification.Utils.l2Norm2D;
-import static com.google.mlkit.vision.demo.java.posedetector.classification.Utils.multiplyAll;
-import static com.google.mlkit.vision.demo.java.posedetector.classification.Utils.subtract;
-import static com.google.mlkit.vision.demo.java.posedetector.classification.Utils.subtractAll;
-
 import com.google.mlkit.vision.common.PointF3D;
 import com.google.mlkit.vision.pose.PoseLandmark;
 import java.util.ArrayList;
@@ -34,43 +28,143 @@ public class PoseEmbedding {
   // Multiplier to apply to the torso to get minimal body size. Picked this by experimentation.
   private static final float TORSO_MULTIPLIER = 2.5f;
 
+  public static final int NUM_LANDMARKS = 33;
+  // Number of pairwise distances in the embedding, see {@link #EMBEDDING_PAIRS}.
+  public static final int EMBEDDING_SIZE = 23;
+
+  // We use several pairwise 3D distances to form pose embedding. These were selected
+  // based on experimentation for best results with our default pose classes as captued in the
+  // pose samples csv. Feel free to play with this and add or remove for your use-cases.
+  //
+  // Each pair {from, to} yields the vector (to - from). The first entry of the embedding is not
+  // listed here: it is the vector from the hips center to the shoulders center.
+  private static final int[][] EMBEDDING_PAIRS = {
+    // We group our distances by number of joints between the pairs.
+    // One joint.
+    {PoseLandmark.LEFT_SHOULDER, PoseLandmark.LEFT_ELBOW},
+    {PoseLandmark.RIGHT_SHOULDER, PoseLandmark.RIGHT_ELBOW},
+    {PoseLandmark.LEFT_ELBOW, PoseLandmark.LEFT_WRIST},
+    {PoseLandmark.RIGHT_ELBOW, PoseLandmark.RIGHT_WRIST},
+    {PoseLandmark.LEFT_HIP, PoseLandmark.LEFT_KNEE},
+    {PoseLandmark.RIGHT_HIP, PoseLandmark.RIGHT_KNEE},
+    {PoseLandmark.LEFT_KNEE, PoseLandmark.LEFT_ANKLE},
+    {PoseLandmark.RIGHT_KNEE, PoseLandmark.RIGHT_ANKLE},
+    // Two joints.
+    {PoseLandmark.LEFT_SHOULDER, PoseLandmark.LEFT_WRIST},
+    {PoseLandmark.RIGHT_SHOULDER, PoseLandmark.RIGHT_WRIST},
+    {PoseLandmark.LEFT_HIP, PoseLandmark.LEFT_ANKLE},
+    {PoseLandmark.RIGHT_HIP, PoseLandmark.RIGHT_ANKLE},
+    // Four joints.
+    {PoseLandmark.LEFT_HIP, PoseLandmark.LEFT_WRIST},
+    {PoseLandmark.RIGHT_HIP, PoseLandmark.RIGHT_WRIST},
+    // Five joints.
+    {PoseLandmark.LEFT_SHOULDER, PoseLandmark.LEFT_ANKLE},
+    {PoseLandmark.RIGHT_SHOULDER, PoseLandmark.RIGHT_ANKLE},
+    {PoseLandmark.LEFT_HIP, PoseLandmark.LEFT_WRIST},
+    {PoseLandmark.RIGHT_HIP, PoseLandmark.RIGHT_WRIST},
+    // Cross body.
+    {PoseLandmark.LEFT_ELBOW, PoseLandmark.RIGHT_ELBOW},
+    {PoseLandmark.LEFT_KNEE, PoseLandmark.RIGHT_KNEE},
+    {PoseLandmark.LEFT_WRIST, PoseLandmark.RIGHT_WRIST},
+    {PoseLandmark.LEFT_ANKLE, PoseLandmark.RIGHT_ANKLE},
+  };
+
   public static List<PointF3D> getPoseEmbedding(List<PointF3D> landmarks) {
-    List<PointF3D> normalizedLandmarks = normalize(landmarks);
-    return getEmbedding(normalizedLandmarks);
+    float[] x = new float[landmarks.size()];
+    float[] y = new float[landmarks.size()];
+    float[] z = new float[landmarks.size()];
+    for (int i = 0; i < landmarks.size(); i++) {
+      PointF3D landmark = landmarks.get(i);
+      x[i] = landmark.getX();
+      y[i] = landmark.getY();
+      z[i] = landmark.getZ();
+    }
+    float[] embeddingX = new float[EMBEDDING_SIZE];
+    float[] embeddingY = new float[EMBEDDING_SIZE];
+    float[] embeddingZ = new float[EMBEDDING_SIZE];
+    getPoseEmbedding(x, y, z, embeddingX, embeddingY, embeddingZ);
+
+    List<PointF3D> embedding = new ArrayList<>(EMBEDDING_SIZE);
+    for (int i = 0; i < EMBEDDING_SIZE; i++) {
+      embedding.add(PointF3D.from(embeddingX[i], embeddingY[i], embeddingZ[i]));
+    }
+    return embedding;
+  }
+
+  /**
+   * Allocation-free variant of {@link #getPoseEmbedding(List)} working on primitive coordinates.
+   *
+   * <p>Landmark coordinates are normalized in place, so {@code x}, {@code y} and {@code z} hold
+   * the normalized landmarks when this method returns. The embedding is written to the first
+   * {@link #EMBEDDING_SIZE} entries of the output arrays.
+   */
+  public static void getPoseEmbedding(
+      float[] x, float[] y, float[] z, float[] embeddingX, float[] embeddingY, float[] embeddingZ) {
+    normalize(x, y, z);
+    getEmbedding(x, y, z, embeddingX, embeddingY, embeddingZ);
+  }
+
+  /**
+   * Writes the embedding of the pose mirrored on the X axis, as {@link #getPoseEmbedding} would
+   * compute it from landmarks with X multiplied by -1, given the embedding of the original pose.
+   *
+   * <p>Landmarks are not swapped left to right by mirroring, so every entry keeps its place. The
+   * hips center moves along with the landmarks and the 2D pose size is unchanged, which leaves the
+   * embedding itself mirrored: only X changes sign. This holds exactly in float arithmetic, as
+   * negation commutes with every rounding step involved.
+   */
+  public static void getMirroredEmbedding(
+      float[] embeddingX,
+      float[] embeddingY,
+      float[] embeddingZ,
+      float[] mirroredX,
+      float[] mirroredY,
+      float[] mirroredZ) {
+    for (int i = 0; i < EMBEDDING_SIZE; i++) {
+      mirroredX[i] = embeddingX[i] * -1;
+      mirroredY[i] = embeddingY[i];
+      mirroredZ[i] = embeddingZ[i];
+    }
   }
 
-  private static List<PointF3D> normalize(List<PointF3D> landmarks) {
-    List<PointF3D> normalizedLandmarks = new ArrayList<>(landmarks);
+  private static void normalize(float[] x, float[] y, float[] z) {
     // Normalize translation.
-    PointF3D center = average(
-        landmarks.get(PoseLandmark.LEFT_HIP), landmarks.get(PoseLandmark.RIGHT_HIP));
-    subtractAll(center, normalizedLandmarks);
+    float centerX = average(x[PoseLandmark.LEFT_HIP], x[PoseLandmark.RIGHT_HIP]);
+    float centerY = average(y[PoseLandmark.LEFT_HIP], y[PoseLandmark.RIGHT_HIP]);
+    float centerZ = average(z[PoseLandmark.LEFT_HIP], z[PoseLandmark.RIGHT_HIP]);
+    for (int i = 0; i < x.length; i++) {
+      x[i] = x[i] - centerX;
+      y[i] = y[i] - centerY;
+      z[i] = z[i] - centerZ;
+    }
 
     // Normalize scale.
-    multiplyAll(normalizedLandmarks, 1 / getPoseSize(normalizedLandmarks));
-    // Multiplication by 100 is not required, but makes it easier to debug.
-    multiplyAll(normalizedLandmarks, 100);
-    return normalizedLandmarks;
+    float scale = 1 / getPoseSize(x, y);
+    for (int i = 0; i < x.length; i++) {
+      // Multiplication by 100 is not required, but makes it easier to debug.
+      x[i] = x[i] * scale * 100;
+      y[i] = y[i] * scale * 100;
+      z[i] = z[i] * scale * 100;
+    }
   }
 
   // Translation normalization should've been done prior to calling this method.
-  private static float getPoseSize(List<PointF3D> landmarks) {
+  private static float getPoseSize(float[] x, float[] y) {
     // Note: This approach uses only 2D landmarks to compute pose size as using Z wasn't helpful
     // in our experimentation but you're welcome to tweak.
-    PointF3D hipsCenter = average(
-        landmarks.get(PoseLandmark.LEFT_HIP), landmarks.get(PoseLandmark.RIGHT_HIP));
+    float hipsCenterX = average(x[PoseLandmark.LEFT_HIP], x[PoseLandmark.RIGHT_HIP]);
+    float hipsCenterY = average(y[PoseLandmark.LEFT_HIP], y[PoseLandmark.RIGHT_HIP]);
 
-    PointF3D shouldersCenter = average(
-        landmarks.get(PoseLandmark.LEFT_SHOULDER),
-        landmarks.get(PoseLandmark.RIGHT_SHOULDER));
+    float shouldersCenterX = average(x[PoseLandmark.LEFT_SHOULDER], x[PoseLandmark.RIGHT_SHOULDER]);
+    float shouldersCenterY = average(y[PoseLandmark.LEFT_SHOULDER], y[PoseLandmark.RIGHT_SHOULDER]);
 
-    float torsoSize = l2Norm2D(subtract(hipsCenter, shouldersCenter));
+    float torsoSize = l2Norm2D(shouldersCenterX - hipsCenterX, shouldersCenterY - hipsCenterY);
 
     float maxDistance = torsoSize * TORSO_MULTIPLIER;
     // torsoSize * TORSO_MULTIPLIER is the floor we want based on experimentation but actual size
     // can be bigger for a given pose depending on extension of limbs etc so we calculate that.
-    for (PointF3D landmark : landmarks) {
-      float distance = l2Norm2D(subtract(hipsCenter, landmark));
+    for (int i = 0; i < x.length; i++) {
+      float distance = l2Norm2D(x[i] - hipsCenterX, y[i] - hipsCenterY);
       if (distance > maxDistance) {
         maxDistance = distance;
       }
@@ -78,64 +172,33 @@ public class PoseEmbedding {
     return maxDistance;
   }
 
-  private static List<PointF3D> getEmbedding(List<PointF3D> lm) {
-    List<PointF3D> embedding = new ArrayList<>();
-
-    // We use several pairwise 3D distances to form pose embedding. These were selected
-    // based on experimentation for best results with our default pose classes as captued in the
-    // pose samples csv. Feel free to play with this and add or remove for your use-cases.
-
-    // We group our distances by number of joints between the pairs.
-    // One joint.
-    embedding.add(subtract(
-        average(lm.get(PoseLandmark.LEFT_HIP), lm.get(PoseLandmark.RIGHT_HIP)),
-        average(lm.get(PoseLandmark.LEFT_SHOULDER), lm.get(PoseLandmark.RIGHT_SHOULDER))
-    ));
-
-    embedding.add(subtract(
-        lm.get(PoseLandmark.LEFT_SHOULDER), lm.get(PoseLandmark.LEFT_ELBOW)));
-    embedding.add(subtract(
-        lm.get(PoseLandmark.RIGHT_SHOULDER), lm.get(PoseLandmark.RIGHT_ELBOW)));
-
-    embedding.add(subtract(lm.get(PoseLandmark.LEFT_ELBOW), lm.get(PoseLandmark.LEFT_WRIST)));
-    embedding.add(subtract(lm.get(PoseLandmark.RIGHT_ELBOW), lm.get(PoseLandmark.RIGHT_WRIST)));
-
-    embedding.add(subtract(lm.get(PoseLandmark.LEFT_HIP), lm.get(PoseLandmark.LEFT_KNEE)));
-    embedding.add(subtract(lm.get(PoseLandmark.RIGHT_HIP), lm.get(PoseLandmark.RIGHT_KNEE)));
-
-    embedding.add(subtract(lm.get(PoseLandmark.LEFT_KNEE), lm.get(PoseLandmark.LEFT_ANKLE)));
-    embedding.add(subtract(lm.get(PoseLandmark.RIGHT_KNEE), lm.get(PoseLandmark.RIGHT_ANKLE)));
-
-    // Two joints.
-    embedding.add(subtract(
-        lm.get(PoseLandmark.LEFT_SHOULDER), lm.get(PoseLandmark.LEFT_WRIST)));
-    embedding.add(subtract(
-        lm.get(PoseLandmark.RIGHT_SHOULDER), lm.get(PoseLandmark.RIGHT_WRIST)));
-
-    embedding.add(subtract(lm.get(PoseLandmark.LEFT_HIP), lm.get(PoseLandmark.LEFT_ANKLE)));
-    embedding.add(subtract(lm.get(PoseLandmark.RIGHT_HIP), lm.get(PoseLandmark.RIGHT_ANKLE)));
-
-    // Four joints.
-    embedding.add(subtract(lm.get(PoseLandmark.LEFT_HIP), lm.get(PoseLandmark.LEFT_WRIST)));
-    embedding.add(subtract(lm.get(PoseLandmark.RIGHT_HIP), lm.get(PoseLandmark.RIGHT_WRIST)));
-
-    // Five joints.
-    embedding.add(subtract(
-        lm.get(PoseLandmark.LEFT_SHOULDER), lm.get(PoseLandmark.LEFT_ANKLE)));
-    embedding.add(subtract(
-        lm.get(PoseLandmark.RIGHT_SHOULDER), lm.get(PoseLandmark.RIGHT_ANKLE)));
-
-    embedding.add(subtract(lm.get(PoseLandmark.LEFT_HIP), lm.get(PoseLandmark.LEFT_WRIST)));
-    embedding.add(subtract(lm.get(PoseLandmark.RIGHT_HIP), lm.get(PoseLandmark.RIGHT_WRIST)));
-
-    // Cross body.
-    embedding.add(subtract(lm.get(PoseLandmark.LEFT_ELBOW), lm.get(PoseLandmark.RIGHT_ELBOW)));
-    embedding.add(subtract(lm.get(PoseLandmark.LEFT_KNEE), lm.get(PoseLandmark.RIGHT_KNEE)));
+  private static void getEmbedding(
+      float[] x, float[] y, float[] z, float[] embeddingX, float[] embeddingY, float[] embeddingZ) {
+    embeddingX[0] =
+        average(x[PoseLandmark.LEFT_SHOULDER], x[PoseLandmark.RIGHT_SHOULDER])
+            - average(x[PoseLandmark.LEFT_HIP], x[PoseLandmark.RIGHT_HIP]);
+    embeddingY[0] =
+        average(y[PoseLandmark.LEFT_SHOULDER], y[PoseLandmark.RIGHT_SHOULDER])
+            - average(y[PoseLandmark.LEFT_HIP], y[PoseLandmark.RIGHT_HIP]);
+    embeddingZ[0] =
+        average(z[PoseLandmark.LEFT_SHOULDER], z[PoseLandmark.RIGHT_SHOULDER])
+            - average(z[PoseLandmark.LEFT_HIP], z[PoseLandmark.RIGHT_HIP]);
+
+    for (int i = 0; i < EMBEDDING_PAIRS.length; i++) {
+      int from = EMBEDDING_PAIRS[i][0];
+      int to = EMBEDDING_PAIRS[i][1];
+      embeddingX[i + 1] = x[to] - x[from];
+      embeddingY[i + 1] = y[to] - y[from];
+      embeddingZ[i + 1] = z[to] - z[from];
+    }
+  }
 
-    embedding.add(subtract(lm.get(PoseLandmark.LEFT_WRIST), lm.get(PoseLandmark.RIGHT_WRIST)));
-    embedding.add(subtract(lm.get(PoseLandmark.LEFT_ANKLE), lm.get(PoseLandmark.RIGHT_ANKLE)));
+  private static float average(float a, float b) {
+    return (a + b) * 0.5f;
+  }
 
-    return embedding;
+  private static float l2Norm2D(float x, float y) {
+    return (float) Math.hypot(x, y);
   }
 
   private PoseEmbedding() {}
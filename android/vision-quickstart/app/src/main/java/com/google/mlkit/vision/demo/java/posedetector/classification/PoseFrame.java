@@ -0,0 +1,149 @@
+/*
+ * Copyright 2020 Google LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.mlkit.vision.demo.java.posedetector.classification;
+
+import static com.google.mlkit.vision.demo.java.posedetector.classification.PoseEmbedding.NUM_LANDMARKS;
+
+import com.google.mlkit.vision.common.PointF3D;
+import com.google.mlkit.vision.pose.Pose;
+import com.google.mlkit.vision.pose.PoseLandmark;
+import java.util.List;
+
+/**
+ * The landmarks of one detected pose, or the absence of one, with the time it was detected.
+ *
+ * <p>Unlike {@link Pose} it can be created from plain arrays, so recorded sessions can be fed to
+ * {@link PoseClassifierProcessor} on a desktop JVM, see {@link PoseReplay}. Landmarks are packed
+ * as in {@link PoseClassifier#classifyBatch(float[])}: the X, Y and Z of each landmark in turn.
+ * Frames keep references to the given arrays, which must not change afterwards.
+ *
+ * <p>Frames are immutable, except those from {@link #newReusable}, which are refilled with every
+ * pose of a stream so that recording a live stream does not allocate per frame.
+ */
+public final class PoseFrame {
+  private static final float[] NO_VALUES = new float[0];
+
+  private long timestampMs;
+  private final float[] landmarks;
+  private final float[] inFrameLikelihoods;
+  private boolean hasPose;
+  private final boolean reusable;
+
+  /**
+   * Creates a frame with a pose.
+   *
+   * @param timestampMs time of detection, in milliseconds of a monotonic clock
+   * @param landmarks {@link PoseClassifier#BATCH_FRAME_SIZE} packed landmark coordinates
+   * @param inFrameLikelihoods one likelihood per landmark
+   */
+  public PoseFrame(long timestampMs, float[] landmarks, float[] inFrameLikelihoods) {
+    this(timestampMs, landmarks, inFrameLikelihoods, /* hasPose= */ true, /* reusable= */ false);
+    if (landmarks.length != NUM_LANDMARKS * 3 || inFrameLikelihoods.length != NUM_LANDMARKS) {
+      throw new IllegalArgumentException("Pose frames need " + NUM_LANDMARKS + " landmarks");
+    }
+  }
+
+  private PoseFrame(
+      long timestampMs,
+      float[] landmarks,
+      float[] inFrameLikelihoods,
+      boolean hasPose,
+      boolean reusable) {
+    this.timestampMs = timestampMs;
+    this.landmarks = landmarks;
+    this.inFrameLikelihoods = inFrameLikelihoods;
+    this.hasPose = hasPose;
+    this.reusable = reusable;
+  }
+
+  /** Returns a frame in which no pose was detected. */
+  public static PoseFrame withoutPose(long timestampMs) {
+    return new PoseFrame(
+        timestampMs, NO_VALUES, NO_VALUES, /* hasPose= */ false, /* reusable= */ false);
+  }
+
+  /** Copies the landmarks of a detected pose, which may have none. */
+  public static PoseFrame fromPose(Pose pose, long timestampMs) {
+    List<PoseLandmark> poseLandmarks = pose.getAllPoseLandmarks();
+    if (poseLandmarks.isEmpty()) {
+      return withoutPose(timestampMs);
+    }
+    float[] landmarks = new float[NUM_LANDMARKS * 3];
+    float[] inFrameLikelihoods = new float[NUM_LANDMARKS];
+    copyLandmarks(poseLandmarks, landmarks, inFrameLikelihoods);
+    return new PoseFrame(timestampMs, landmarks, inFrameLikelihoods);
+  }
+
+  /**
+   * Returns a frame without a pose that {@link #setPose} can refill. It must only be read by code
+   * that does not hold on to it, such as {@link PoseRecording.Writer}.
+   */
+  public static PoseFrame newReusable() {
+    return new PoseFrame(
+        0,
+        new float[NUM_LANDMARKS * 3],
+        new float[NUM_LANDMARKS],
+        /* hasPose= */ false,
+        /* reusable= */ true);
+  }
+
+  /**
+   * Replaces the contents of a frame from {@link #newReusable} with a copy of the landmarks of a
+   * detected pose, which may have none.
+   */
+  public void setPose(Pose pose, long timestampMs) {
+    if (!reusable) {
+      throw new IllegalStateException("Only reusable pose frames can be refilled");
+    }
+    this.timestampMs = timestampMs;
+    List<PoseLandmark> poseLandmarks = pose.getAllPoseLandmarks();
+    hasPose = !poseLandmarks.isEmpty();
+    if (hasPose) {
+      copyLandmarks(poseLandmarks, landmarks, inFrameLikelihoods);
+    }
+  }
+
+  private static void copyLandmarks(
+      List<PoseLandmark> poseLandmarks, float[] landmarks, float[] inFrameLikelihoods) {
+    for (int i = 0; i < NUM_LANDMARKS; i++) {
+      PoseLandmark landmark = poseLandmarks.get(i);
+      PointF3D position = landmark.getPosition3D();
+      landmarks[i * 3] = position.getX();
+      landmarks[i * 3 + 1] = position.getY();
+      landmarks[i * 3 + 2] = position.getZ();
+      inFrameLikelihoods[i] = landmark.getInFrameLikelihood();
+    }
+  }
+
+  public long getTimestampMs() {
+    return timestampMs;
+  }
+
+  public boolean hasPose() {
+    return hasPose;
+  }
+
+  /** Returns the packed landmark coordinates, or an empty array if there is no pose. */
+  public float[] getLandmarks() {
+    return hasPose ? landmarks : NO_VALUES;
+  }
+
+  /** Returns the in-frame likelihood of each landmark, or an empty array if there is no pose. */
+  public float[] getInFrameLikelihoods() {
+    return hasPose ? inFrameLikelihoods : NO_VALUES;
+  }
+}
@@ -0,0 +1,162 @@
+/*
+ * Copyright 2020 Google LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.mlkit.vision.demo.java.posedetector.classification;
+
+import static com.google.mlkit.vision.demo.java.posedetector.classification.PoseEmbedding.NUM_LANDMARKS;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads and writes recorded sequences of {@link PoseFrame}s, see {@link PoseReplay}.
+ *
+ * <p>Frames are appended as they are detected, so a recording has no frame count and may be cut
+ * short. Layout, all little endian:
+ *
+ * <pre>
+ *   Header (12 bytes): int magic ("PLR1"), int version, int numLandmarks
+ *   Until the end, per frame:
+ *     long timestampMs, int landmarkCount (numLandmarks, or 0 without a pose)
+ *     landmarkCount x (float x, float y, float z, float inFrameLikelihood)
+ * </pre>
+ *
+ * <p>Coordinates are stored as detected, so that replaying a recording classifies exactly the
+ * same way as the live session did.
+ */
+public class PoseRecording {
+  private static final int MAGIC = 0x31524c50; // "PLR1" when read as little endian bytes.
+  private static final int VERSION = 1;
+  private static final int HEADER_SIZE = 12;
+  private static final int FRAME_HEADER_SIZE = 12;
+  private static final int LANDMARK_SIZE = 16;
+
+  private PoseRecording() {}
+
+  /**
+   * Reads all frames of a recording. A frame cut short at the end, as left by a session that was
+   * killed, is dropped.
+   *
+   * @throws IOException if the recording is malformed or of another version.
+   */
+  public static List<PoseFrame> read(InputStream in) throws IOException {
+    ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+    if (readFully(in, header.array()) < HEADER_SIZE || header.getInt() != MAGIC) {
+      throw new IOException("Not a pose recording");
+    }
+    int version = header.getInt();
+    if (version != VERSION) {
+      throw new IOException("Unsupported pose recording version " + version);
+    }
+    int numLandmarks = header.getInt();
+    if (numLandmarks != NUM_LANDMARKS) {
+      throw new IOException("Pose recording has " + numLandmarks + " landmarks");
+    }
+
+    List<PoseFrame> frames = new ArrayList<>();
+    ByteBuffer frameHeader = ByteBuffer.allocate(FRAME_HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+    ByteBuffer landmarkData =
+        ByteBuffer.allocate(NUM_LANDMARKS * LANDMARK_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+    while (readFully(in, frameHeader.array()) == FRAME_HEADER_SIZE) {
+      frameHeader.clear();
+      long timestampMs = frameHeader.getLong();
+      int landmarkCount = frameHeader.getInt();
+      if (landmarkCount == 0) {
+        frames.add(PoseFrame.withoutPose(timestampMs));
+        continue;
+      }
+      if (landmarkCount != NUM_LANDMARKS) {
+        throw new IOException("Malformed pose recording frame " + frames.size());
+      }
+      if (readFully(in, landmarkData.array()) < landmarkData.capacity()) {
+        break;
+      }
+      landmarkData.clear();
+      float[] landmarks = new float[NUM_LANDMARKS * 3];
+      float[] inFrameLikelihoods = new float[NUM_LANDMARKS];
+      for (int i = 0; i < NUM_LANDMARKS; i++) {
+        landmarks[i * 3] = landmarkData.getFloat();
+        landmarks[i * 3 + 1] = landmarkData.getFloat();
+        landmarks[i * 3 + 2] = landmarkData.getFloat();
+        inFrameLikelihoods[i] = landmarkData.getFloat();
+      }
+      frames.add(new PoseFrame(timestampMs, landmarks, inFrameLikelihoods));
+    }
+    return frames;
+  }
+
+  // Reads until the buffer is full or the stream ends, returning the number of bytes read.
+  private static int readFully(InputStream in, byte[] buffer) throws IOException {
+    int length = 0;
+    while (length < buffer.length) {
+      int read = in.read(buffer, length, buffer.length - length);
+      if (read < 0) {
+        break;
+      }
+      length += read;
+    }
+    return length;
+  }
+
+  /** Appends frames to a recording. Not thread-safe. */
+  public static class Writer implements Closeable {
+    private final OutputStream out;
+    private final ByteBuffer frameData =
+        ByteBuffer.allocate(FRAME_HEADER_SIZE + NUM_LANDMARKS * LANDMARK_SIZE)
+            .order(ByteOrder.LITTLE_ENDIAN);
+
+    /** Starts a recording on the given stream, which is closed along with the writer. */
+    public Writer(OutputStream out) throws IOException {
+      this.out = new BufferedOutputStream(out);
+      ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+      header.putInt(MAGIC);
+      header.putInt(VERSION);
+      header.putInt(NUM_LANDMARKS);
+      this.out.write(header.array());
+    }
+
+    public void write(PoseFrame frame) throws IOException {
+      frameData.clear();
+      frameData.putLong(frame.getTimestampMs());
+      if (!frame.hasPose()) {
+        frameData.putInt(0);
+      } else {
+        float[] landmarks = frame.getLandmarks();
+        float[] inFrameLikelihoods = frame.getInFrameLikelihoods();
+        frameData.putInt(NUM_LANDMARKS);
+        for (int i = 0; i < NUM_LANDMARKS; i++) {
+          frameData.putFloat(landmarks[i * 3]);
+          frameData.putFloat(landmarks[i * 3 + 1]);
+          frameData.putFloat(landmarks[i * 3 + 2]);
+          frameData.putFloat(inFrameLikelihoods[i]);
+        }
+      }
+      out.write(frameData.array(), 0, frameData.position());
+    }
+
+    @Override
+    public void close() throws IOException {
+      out.close();
+    }
+  }
+}
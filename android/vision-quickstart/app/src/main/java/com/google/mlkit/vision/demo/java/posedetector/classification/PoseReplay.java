@@ -0,0 +1,241 @@
+/*
+ * Copyright 2020 Google LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.mlkit.vision.demo.java.posedetector.classification;
+
+import java.io.BufferedInputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Offline tool that feeds a {@link PoseRecording} through {@link PoseClassifierProcessor}, as the
+ * live preview does, and reports the reps counted and the time taken per frame.
+ *
+ * <p>Smoothing runs on the recorded timestamps, so a replay counts exactly the reps the recorded
+ * session did with the same samples, however fast it runs. By default frames are fed as fast as
+ * possible, over several rounds after a warm-up one, and every round has to count the same reps.
+ * With {@code --realtime} they are fed at the pace they were recorded at, once. Each {@code
+ * --expect} names the reps a class has to reach, and the tool exits with status 2 if any differs,
+ * so recordings double as regression tests. Run it on a desktop JVM with the compiled app classes
+ * and their dependencies on the class path:
+ *
+ * <pre>
+ *   java -cp app/build/intermediates/javac/debug/classes:&lt;dependencies&gt; \
+ *       com.google.mlkit.vision.demo.java.posedetector.classification.PoseReplay \
+ *       [--realtime] [--rounds N] [--precision FLOAT32|INT16|INT8] [--expect class=reps]... \
+ *       app/src/main/assets/pose/fitness_pose_samples.csv session.plr
+ * </pre>
+ */
+public class PoseReplay {
+  private static final int DEFAULT_NUM_ROUNDS = 5;
+  private static final int EXIT_USAGE = 1;
+  private static final int EXIT_MISMATCH = 2;
+  private static final String USAGE =
+      "Usage: PoseReplay [--realtime] [--rounds N] [--precision FLOAT32|INT16|INT8]"
+          + " [--expect class=reps]... <samples.csv|samples.bin> <recording.plr>";
+
+  private PoseReplay() {}
+
+  public static void main(String[] args) throws IOException, InterruptedException {
+    boolean realTime = false;
+    int numRounds = DEFAULT_NUM_ROUNDS;
+    EmbeddingPrecision precision = EmbeddingPrecision.FLOAT32;
+    Map<String, Integer> expectedRepCounts = new LinkedHashMap<>();
+    int arg = 0;
+    try {
+      for (; arg < args.length && args[arg].startsWith("--"); arg++) {
+        switch (args[arg]) {
+          case "--realtime":
+            realTime = true;
+            break;
+          case "--rounds":
+            numRounds = Integer.parseInt(args[++arg]);
+            break;
+          case "--precision":
+            precision = EmbeddingPrecision.valueOf(args[++arg]);
+            break;
+          case "--expect":
+            String[] expectation = args[++arg].split("=", 2);
+            expectedRepCounts.put(expectation[0], Integer.parseInt(expectation[1]));
+            break;
+          default:
+            throw new IllegalArgumentException(args[arg]);
+        }
+      }
+    } catch (RuntimeException e) {
+      // Unknown options, missing values and malformed numbers alike.
+      arg = -1;
+    }
+    if (arg < 0 || args.length - arg != 2 || numRounds < 1) {
+      System.err.println(USAGE);
+      System.exit(EXIT_USAGE);
+    }
+
+    PoseClassifier poseClassifier = new PoseClassifier(loadSamples(args[arg]), precision);
+    List<PoseFrame> frames;
+    try (InputStream in = new BufferedInputStream(new FileInputStream(args[arg + 1]))) {
+      frames = PoseRecording.read(in);
+    }
+    if (frames.isEmpty()) {
+      System.err.println("Recording " + args[arg + 1] + " has no frames");
+      System.exit(EXIT_USAGE);
+    }
+    printRecording(frames);
+
+    Map<String, Integer> repCounts;
+    long[] frameNanos = new long[frames.size()];
+    if (realTime) {
+      repCounts = replay(frames, poseClassifier.newInstance(), true, frameNanos);
+    } else {
+      // The first round warms up the JIT and is not timed.
+      repCounts = replay(frames, poseClassifier.newInstance(), false, frameNanos);
+      long[] roundNanos = new long[frames.size()];
+      for (int round = 0; round < numRounds; round++) {
+        Map<String, Integer> roundRepCounts =
+            replay(frames, poseClassifier.newInstance(), false, roundNanos);
+        if (!roundRepCounts.equals(repCounts)) {
+          System.out.println(
+              "Round " + round + " counted " + roundRepCounts + " instead of " + repCounts);
+          System.exit(EXIT_MISMATCH);
+        }
+        for (int i = 0; i < frames.size(); i++) {
+          frameNanos[i] = round == 0 ? roundNanos[i] : Math.min(frameNanos[i], roundNanos[i]);
+        }
+      }
+    }
+    printTimes(frameNanos, realTime ? 1 : numRounds);
+
+    for (Map.Entry<String, Integer> repCount : repCounts.entrySet()) {
+      System.out.println(repCount.getKey() + " : " + repCount.getValue() + " reps");
+    }
+    boolean matched = true;
+    for (Map.Entry<String, Integer> expected : expectedRepCounts.entrySet()) {
+      if (!expected.getValue().equals(repCounts.get(expected.getKey()))) {
+        System.out.println("Expected " + expected.getKey() + " : " + expected.getValue() + " reps");
+        matched = false;
+      }
+    }
+    if (!matched) {
+      System.exit(EXIT_MISMATCH);
+    }
+  }
+
+  /**
+   * Feeds the frames to a new stream mode processor on the given classifier, at maximum speed, and
+   * returns the reps it counted per class.
+   */
+  public static Map<String, Integer> countReps(List<PoseFrame> frames, PoseClassifier classifier) {
+    try {
+      return replay(frames, classifier, false, new long[frames.size()]);
+    } catch (InterruptedException e) {
+      // Only waiting for real time can be interrupted.
+      throw new AssertionError(e);
+    }
+  }
+
+  /**
+   * Feeds the frames to a new stream mode processor, if {@code realTime} at the pace they were
+   * recorded at, and records the nanoseconds each took in {@code frameNanos}.
+   */
+  private static Map<String, Integer> replay(
+      List<PoseFrame> frames, PoseClassifier classifier, boolean realTime, long[] frameNanos)
+      throws InterruptedException {
+    PoseClassifierProcessor processor =
+        new PoseClassifierProcessor(
+            classifier, /* isStreamMode= */ true, /* playRepSound= */ false);
+    long startNanos = System.nanoTime();
+    long firstTimestampMs = frames.get(0).getTimestampMs();
+    for (int i = 0; i < frames.size(); i++) {
+      PoseFrame frame = frames.get(i);
+      if (realTime) {
+        long dueNanos = startNanos + (frame.getTimestampMs() - firstTimestampMs) * 1_000_000;
+        long waitNanos = dueNanos - System.nanoTime();
+        if (waitNanos > 0) {
+          Thread.sleep(waitNanos / 1_000_000, (int) (waitNanos % 1_000_000));
+        }
+      }
+      long frameStartNanos = System.nanoTime();
+      processor.getPoseResult(frame);
+      frameNanos[i] = System.nanoTime() - frameStartNanos;
+    }
+    return processor.getRepCounts();
+  }
+
+  private static PoseSampleStore loadSamples(String samplesFile) throws IOException {
+    if (samplesFile.endsWith(".bin")) {
+      try (FileInputStream in = new FileInputStream(samplesFile)) {
+        FileChannel channel = in.getChannel();
+        return PoseSampleBundle.read(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+      }
+    }
+    try (Reader csv =
+        new InputStreamReader(new FileInputStream(samplesFile), Charset.forName("UTF-8"))) {
+      return PoseSampleBundleCompiler.compile(csv);
+    }
+  }
+
+  private static void printRecording(List<PoseFrame> frames) {
+    int numPoses = 0;
+    for (PoseFrame frame : frames) {
+      if (frame.hasPose()) {
+        numPoses++;
+      }
+    }
+    long durationMs =
+        frames.get(frames.size() - 1).getTimestampMs() - frames.get(0).getTimestampMs();
+    System.out.println(
+        String.format(
+            Locale.US,
+            "%d frames, %d with a pose, over %.1f s (%.1f fps)",
+            frames.size(),
+            numPoses,
+            durationMs / 1e3,
+            durationMs > 0 ? (frames.size() - 1) * 1e3 / durationMs : 0));
+  }
+
+  private static void printTimes(long[] frameNanos, int numRounds) {
+    long totalNanos = 0;
+    for (long nanos : frameNanos) {
+      totalNanos += nanos;
+    }
+    long[] sortedNanos = frameNanos.clone();
+    Arrays.sort(sortedNanos);
+    System.out.println(
+        String.format(
+            Locale.US,
+            "Per frame%s: mean %.1f us, p50 %.1f us, p99 %.1f us, max %.1f us (%.0f frames/s)",
+            numRounds > 1 ? ", best of " + numRounds + " rounds" : "",
+            totalNanos / 1e3 / frameNanos.length,
+            getPercentile(sortedNanos, 50) / 1e3,
+            getPercentile(sortedNanos, 99) / 1e3,
+            sortedNanos[sortedNanos.length - 1] / 1e3,
+            frameNanos.length * 1e9 / Math.max(1, totalNanos)));
+  }
+
+  private static long getPercentile(long[] sortedValues, int percentile) {
+    return sortedValues[(sortedValues.length - 1) * percentile / 100];
+  }
+}
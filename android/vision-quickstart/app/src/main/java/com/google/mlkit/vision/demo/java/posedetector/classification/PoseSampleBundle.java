@@ -0,0 +1,172 @@
+/*
+ * Copyright 2020 Google LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.mlkit.vision.demo.java.posedetector.classification;
+
+import static com.google.mlkit.vision.demo.java.posedetector.classification.PoseEmbedding.EMBEDDING_SIZE;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Reads and writes precompiled pose sample bundles, see {@link PoseSampleBundleCompiler}.
+ *
+ * <p>A bundle holds normalized embeddings ready to be used by {@link PoseSampleStore}, so loading
+ * it requires neither csv parsing nor embedding computation. Layout, all little endian:
+ *
+ * <pre>
+ *   Header (24 bytes):
+ *     int magic ("PSB1"), int version, int numSamples, int embeddingSize, int numClasses,
+ *     int checksum (CRC32 of everything following the header)
+ *   Class dictionary: numClasses x (short byteLength, UTF-8 bytes), zero padded to 4 bytes
+ *   int[numSamples] class ids
+ *   float[numSamples * embeddingSize] X components, then Y components, then Z components
+ * </pre>
+ */
+public class PoseSampleBundle {
+  private static final int MAGIC = 0x31425350; // "PSB1" when read as little endian bytes.
+  private static final int VERSION = 1;
+  private static final int HEADER_SIZE = 24;
+  private static final int CHECKSUM_CHUNK_SIZE = 8192;
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+  private PoseSampleBundle() {}
+
+  /**
+   * Reads a bundle, typically memory-mapped, into a {@link PoseSampleStore}.
+   *
+   * <p>Embeddings are bulk-copied into the store's arrays; no per-sample objects are created.
+   *
+   * @throws IOException if the bundle is malformed, of another version or fails its checksum.
+   */
+  public static PoseSampleStore read(ByteBuffer buffer) throws IOException {
+    buffer = buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+    if (buffer.remaining() < HEADER_SIZE || buffer.getInt() != MAGIC) {
+      throw new IOException("Not a pose sample bundle");
+    }
+    int version = buffer.getInt();
+    if (version != VERSION) {
+      throw new IOException("Unsupported pose sample bundle version " + version);
+    }
+    int numSamples = buffer.getInt();
+    int embeddingSize = buffer.getInt();
+    int numClasses = buffer.getInt();
+    int checksum = buffer.getInt();
+    if (embeddingSize != EMBEDDING_SIZE) {
+      throw new IOException("Pose sample bundle has embedding size " + embeddingSize);
+    }
+    if (checksum != computeChecksum(buffer.slice())) {
+      throw new IOException("Pose sample bundle checksum mismatch");
+    }
+
+    try {
+      List<String> classNames = new ArrayList<>(numClasses);
+      int dictionaryStart = buffer.position();
+      for (int i = 0; i < numClasses; i++) {
+        byte[] name = new byte[buffer.getShort()];
+        buffer.get(name);
+        classNames.add(new String(name, UTF_8));
+      }
+      buffer.position(dictionaryStart + align(buffer.position() - dictionaryStart));
+
+      int[] classIds = new int[numSamples];
+      buffer.asIntBuffer().get(classIds);
+      buffer.position(buffer.position() + numSamples * 4);
+      for (int classId : classIds) {
+        if (classId < 0 || classId >= numClasses) {
+          throw new IOException("Invalid class id " + classId + " in pose sample bundle");
+        }
+      }
+
+      float[][] components = new float[3][numSamples * embeddingSize];
+      for (float[] component : components) {
+        buffer.asFloatBuffer().get(component);
+        buffer.position(buffer.position() + component.length * 4);
+      }
+      return new PoseSampleStore(
+          components[0], components[1], components[2], classIds, classNames);
+    } catch (RuntimeException e) {
+      // Buffer underflows and negative sizes from a truncated or corrupted payload.
+      throw new IOException("Malformed pose sample bundle", e);
+    }
+  }
+
+  /** Writes the given samples as a bundle. */
+  public static void write(PoseSampleStore sampleStore, OutputStream out) throws IOException {
+    int numSamples = sampleStore.size();
+    int numClasses = sampleStore.getNumClasses();
+
+    int dictionarySize = 0;
+    byte[][] classNames = new byte[numClasses][];
+    for (int i = 0; i < numClasses; i++) {
+      classNames[i] = sampleStore.getClassName(i).getBytes(UTF_8);
+      dictionarySize += 2 + classNames[i].length;
+    }
+    ByteBuffer payload =
+        ByteBuffer.allocate(align(dictionarySize) + numSamples * (4 + 3 * EMBEDDING_SIZE * 4))
+            .order(ByteOrder.LITTLE_ENDIAN);
+    for (byte[] className : classNames) {
+      payload.putShort((short) className.length);
+      payload.put(className);
+    }
+    payload.position(align(dictionarySize));
+    for (int s = 0; s < numSamples; s++) {
+      payload.putInt(sampleStore.getClassId(s));
+    }
+    for (float value : sampleStore.getX()) {
+      payload.putFloat(value);
+    }
+    for (float value : sampleStore.getY()) {
+      payload.putFloat(value);
+    }
+    for (float value : sampleStore.getZ()) {
+      payload.putFloat(value);
+    }
+    payload.flip();
+
+    ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+    header.putInt(MAGIC);
+    header.putInt(VERSION);
+    header.putInt(numSamples);
+    header.putInt(EMBEDDING_SIZE);
+    header.putInt(numClasses);
+    header.putInt(computeChecksum(payload.duplicate()));
+    out.write(header.array());
+    out.write(payload.array(), 0, payload.limit());
+  }
+
+  private static int align(int size) {
+    return (size + 3) & ~3;
+  }
+
+  // CRC32.update(ByteBuffer) needs API level 26, so copy through a small chunk instead.
+  private static int computeChecksum(ByteBuffer buffer) {
+    CRC32 crc = new CRC32();
+    byte[] chunk = new byte[CHECKSUM_CHUNK_SIZE];
+    while (buffer.hasRemaining()) {
+      int length = Math.min(chunk.length, buffer.remaining());
+      buffer.get(chunk, 0, length);
+      crc.update(chunk, 0, length);
+    }
+    return (int) crc.getValue();
+  }
+}
@@ -0,0 +1,142 @@
+/*
+ * Copyright 2020 Google LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.mlkit.vision.demo.java.posedetector.classification;
+
+import static com.google.mlkit.vision.demo.java.posedetector.classification.PoseEmbedding.EMBEDDING_SIZE;
+import static com.google.mlkit.vision.demo.java.posedetector.classification.PoseEmbedding.NUM_LANDMARKS;
+
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Offline tool that compiles a pose samples csv file into a {@link PoseSampleBundle}.
+ *
+ * <p>The csv format is the one read by {@link PoseSample#getPoseSample}. Rows that it would reject
+ * are skipped here as well. The tool only depends on the JDK, so it can be run on a desktop JVM
+ * with the compiled app classes on the class path:
+ *
+ * <pre>
+ *   java -cp app/build/intermediates/javac/debug/classes \
+ *       com.google.mlkit.vision.demo.java.posedetector.classification.PoseSampleBundleCompiler \
+ *       app/src/main/assets/pose/fitness_pose_samples.csv \
+ *       app/src/main/assets/pose/fitness_pose_samples.bin
+ * </pre>
+ */
+public class PoseSampleBundleCompiler {
+  private static final int NUM_DIMS = 3;
+
+  private PoseSampleBundleCompiler() {}
+
+  public static void main(String[] args) throws IOException {
+    if (args.length != 2) {
+      System.err.println("Usage: PoseSampleBundleCompiler <samples.csv> <samples.bin>");
+      System.exit(1);
+    }
+    PoseSampleStore sampleStore;
+    try (Reader csv =
+        new InputStreamReader(new FileInputStream(args[0]), Charset.forName("UTF-8"))) {
+      sampleStore = compile(csv);
+    }
+    try (OutputStream out = new FileOutputStream(args[1])) {
+      PoseSampleBundle.write(sampleStore, out);
+    }
+    System.out.println(
+        "Compiled "
+            + sampleStore.size()
+            + " samples in "
+            + sampleStore.getNumClasses()
+            + " classes to "
+            + args[1]);
+  }
+
+  /** Parses pose samples from csv and computes their embeddings. */
+  public static PoseSampleStore compile(Reader csv) throws IOException {
+    BufferedReader reader = new BufferedReader(csv);
+    List<String> classNames = new ArrayList<>();
+    Map<String, Integer> classIdsByName = new HashMap<>();
+    int[] classIds = new int[64];
+    float[] x = new float[64 * EMBEDDING_SIZE];
+    float[] y = new float[64 * EMBEDDING_SIZE];
+    float[] z = new float[64 * EMBEDDING_SIZE];
+    float[] landmarkX = new float[NUM_LANDMARKS];
+    float[] landmarkY = new float[NUM_LANDMARKS];
+    float[] landmarkZ = new float[NUM_LANDMARKS];
+    float[] embeddingX = new float[EMBEDDING_SIZE];
+    float[] embeddingY = new float[EMBEDDING_SIZE];
+    float[] embeddingZ = new float[EMBEDDING_SIZE];
+
+    int numSamples = 0;
+    int lineNumber = 0;
+    for (String csvLine = reader.readLine(); csvLine != null; csvLine = reader.readLine()) {
+      lineNumber++;
+      // Format is expected to be Name,Class,X1,Y1,Z1,X2,Y2,Z2...
+      String[] tokens = csvLine.split(",", -1);
+      if (tokens.length != NUM_LANDMARKS * NUM_DIMS + 2) {
+        System.err.println("Skipping line " + lineNumber + ": invalid number of tokens");
+        continue;
+      }
+      try {
+        for (int i = 0; i < NUM_LANDMARKS; i++) {
+          landmarkX[i] = Float.parseFloat(tokens[2 + i * NUM_DIMS]);
+          landmarkY[i] = Float.parseFloat(tokens[3 + i * NUM_DIMS]);
+          landmarkZ[i] = Float.parseFloat(tokens[4 + i * NUM_DIMS]);
+        }
+      } catch (NumberFormatException e) {
+        System.err.println("Skipping line " + lineNumber + ": invalid landmark position");
+        continue;
+      }
+
+      if (numSamples == classIds.length) {
+        classIds = Arrays.copyOf(classIds, numSamples * 2);
+        x = Arrays.copyOf(x, numSamples * 2 * EMBEDDING_SIZE);
+        y = Arrays.copyOf(y, numSamples * 2 * EMBEDDING_SIZE);
+        z = Arrays.copyOf(z, numSamples * 2 * EMBEDDING_SIZE);
+      }
+      Integer classId = classIdsByName.get(tokens[1]);
+      if (classId == null) {
+        classId = classNames.size();
+        classIdsByName.put(tokens[1], classId);
+        classNames.add(tokens[1]);
+      }
+      classIds[numSamples] = classId;
+      PoseEmbedding.getPoseEmbedding(
+          landmarkX, landmarkY, landmarkZ, embeddingX, embeddingY, embeddingZ);
+      System.arraycopy(embeddingX, 0, x, numSamples * EMBEDDING_SIZE, EMBEDDING_SIZE);
+      System.arraycopy(embeddingY, 0, y, numSamples * EMBEDDING_SIZE, EMBEDDING_SIZE);
+      System.arraycopy(embeddingZ, 0, z, numSamples * EMBEDDING_SIZE, EMBEDDING_SIZE);
+      numSamples++;
+    }
+
+    return new PoseSampleStore(
+        Arrays.copyOf(x, numSamples * EMBEDDING_SIZE),
+        Arrays.copyOf(y, numSamples * EMBEDDING_SIZE),
+        Arrays.copyOf(z, numSamples * EMBEDDING_SIZE),
+        Arrays.copyOf(classIds, numSamples),
+        classNames);
+  }
+}
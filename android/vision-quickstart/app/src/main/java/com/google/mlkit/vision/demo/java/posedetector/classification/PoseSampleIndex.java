@@ -0,0 +1,206 @@
+/*
+ * Copyright 2020 Google LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.mlkit.vision.demo.java.posedetector.classification;
+
+import static java.lang.Math.max;
+import static java.lang.Math.min;
+
+import com.google.mlkit.vision.common.PointF3D;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Vantage-point tree over the samples of a {@link PoseSampleStore}, using the weighted max
+ * (Chebyshev) distance that {@link PoseClassifier} ranks samples by. Quantized samples are indexed
+ * the same way, under the distance of their {@link DistanceKernel}.
+ *
+ * <p>A query is a pair of embeddings, the pose and its mirrored version, and the distance of a
+ * sample is the min of its distances to both. {@link #search} returns exactly the samples a full
+ * scan would: subtrees are only skipped when the triangle inequality proves, with a margin for
+ * float rounding, that none of their samples can beat the current top-K.
+ *
+ * <p>The tree is immutable once built. Searching does not allocate.
+ * https://en.wikipedia.org/wiki/Vantage-point_tree
+ */
+public class PoseSampleIndex {
+  private static final int LEAF_SIZE = 8;
+  // Relative margin applied to pruning bounds to absorb float rounding in computed distances,
+  // which is orders of magnitude smaller than this.
+  private static final float ROUNDING_MARGIN = 1e-5f;
+  // Fixed seed so that the tree, and hence the evaluation order, is reproducible.
+  private static final long VANTAGE_SEED = 42;
+
+  // Only used while building; searches bring their own kernel holding the query.
+  private final DistanceKernel buildKernel;
+  private final int firstSample;
+
+  // Samples, reordered so that each leaf owns a contiguous range.
+  private final int[] order;
+  // Per node: vantage sample (-1 for leaves), or the range [start, end) of order for leaves.
+  private final int[] nodeVantage;
+  private final int[] nodeStart;
+  private final int[] nodeEnd;
+  // Per internal node: children and the range of distances to the vantage found in each child.
+  private final int[] nodeInside;
+  private final int[] nodeOutside;
+  private final float[] insideMin;
+  private final float[] insideMax;
+  private final float[] outsideMin;
+  private final float[] outsideMax;
+  private int numNodes;
+
+  public PoseSampleIndex(PoseSampleStore sampleStore, PointF3D axesWeights) {
+    this(sampleStore, axesWeights, 0, sampleStore.size());
+  }
+
+  /** Creates an index over the samples in {@code [start, end)} of the store only. */
+  public PoseSampleIndex(PoseSampleStore sampleStore, PointF3D axesWeights, int start, int end) {
+    this(new FloatDistanceKernel(sampleStore, axesWeights), start, end);
+  }
+
+  /** Creates an index over the samples in {@code [start, end)} under the kernel's distance. */
+  PoseSampleIndex(DistanceKernel kernel, int start, int end) {
+    this.buildKernel = kernel;
+    this.firstSample = start;
+    int numSamples = end - start;
+    order = new int[numSamples];
+    for (int i = 0; i < numSamples; i++) {
+      order[i] = start + i;
+    }
+    // Every node either consumes a vantage sample or is a non-empty leaf.
+    int maxNodes = numSamples + 1;
+    nodeVantage = new int[maxNodes];
+    nodeStart = new int[maxNodes];
+    nodeEnd = new int[maxNodes];
+    nodeInside = new int[maxNodes];
+    nodeOutside = new int[maxNodes];
+    insideMin = new float[maxNodes];
+    insideMax = new float[maxNodes];
+    outsideMin = new float[maxNodes];
+    outsideMax = new float[maxNodes];
+    build(0, numSamples, new float[numSamples], new Random(VANTAGE_SEED));
+  }
+
+  private int build(int start, int end, float[] distances, Random random) {
+    int node = numNodes++;
+    if (end - start <= LEAF_SIZE) {
+      nodeVantage[node] = -1;
+      nodeStart[node] = start;
+      nodeEnd[node] = end;
+      return node;
+    }
+
+    swap(start, start + random.nextInt(end - start));
+    int vantage = order[start];
+    nodeVantage[node] = vantage;
+
+    // Sort the remaining samples by distance to the vantage and split them at the median.
+    long[] keyed = new long[end - start - 1];
+    for (int i = start + 1; i < end; i++) {
+      float distance = buildKernel.sampleMaxDistance(vantage, order[i]);
+      distances[order[i] - firstSample] = distance;
+      // Distances are non-negative, so their bit patterns sort in the same order.
+      keyed[i - start - 1] = ((long) Float.floatToIntBits(distance) << 32) | order[i];
+    }
+    Arrays.sort(keyed);
+    for (int i = 0; i < keyed.length; i++) {
+      order[start + 1 + i] = (int) keyed[i];
+    }
+    int middle = start + 1 + keyed.length / 2;
+
+    insideMin[node] = distances[order[start + 1] - firstSample];
+    insideMax[node] = distances[order[middle - 1] - firstSample];
+    outsideMin[node] = distances[order[middle] - firstSample];
+    outsideMax[node] = distances[order[end - 1] - firstSample];
+    nodeInside[node] = build(start + 1, middle, distances, random);
+    nodeOutside[node] = build(middle, end, distances, random);
+    return node;
+  }
+
+  private void swap(int i, int j) {
+    int tmp = order[i];
+    order[i] = order[j];
+    order[j] = tmp;
+  }
+
+  /**
+   * Offers to {@code topK} every sample that can be among its K nearest to the kernel's query, as
+   * a full scan over the store would. Samples are offered with the min of their original and
+   * flipped distances. Leaf samples are evaluated with the bounded kernel, vantage points always in
+   * full as their exact distances are needed for pruning. The kernel has to be over the same
+   * samples and distance as the one the index was built with.
+   */
+  void search(BoundedMaxHeap topK, DistanceKernel kernel) {
+    if (numNodes > 0) {
+      search(0, topK, kernel);
+    }
+  }
+
+  private void search(int node, BoundedMaxHeap topK, DistanceKernel kernel) {
+    int vantage = nodeVantage[node];
+    if (vantage < 0) {
+      for (int i = nodeStart[node]; i < nodeEnd[node]; i++) {
+        int sample = order[i];
+        topK.offer(sample, kernel.maxDistance(sample, topK.worstDistance()));
+      }
+      return;
+    }
+
+    float original = kernel.queryMaxDistance(vantage, false);
+    float flipped = kernel.queryMaxDistance(vantage, true);
+    topK.offer(vantage, min(original, flipped));
+
+    float insideBound =
+        min(
+            lowerBound(original, insideMin[node], insideMax[node]),
+            lowerBound(flipped, insideMin[node], insideMax[node]));
+    float outsideBound =
+        min(
+            lowerBound(original, outsideMin[node], outsideMax[node]),
+            lowerBound(flipped, outsideMin[node], outsideMax[node]));
+    // Visit the more promising child first so the top-K tightens before the other is checked.
+    int first = nodeInside[node];
+    int second = nodeOutside[node];
+    float secondBound = outsideBound;
+    if (outsideBound < insideBound) {
+      first = nodeOutside[node];
+      second = nodeInside[node];
+      secondBound = insideBound;
+    }
+    if (!canPrune(min(insideBound, outsideBound), topK)) {
+      search(first, topK, kernel);
+    }
+    if (!canPrune(secondBound, topK)) {
+      search(second, topK, kernel);
+    }
+  }
+
+  /**
+   * Returns a lower bound on the distance from the query to any sample whose distance to the
+   * vantage is in {@code [min, max]}, given the query's distance to the vantage. The bound is
+   * lowered by the rounding margin, so it may be negative.
+   */
+  private static float lowerBound(float queryDistance, float min, float max) {
+    float bound = max(queryDistance - max, min - queryDistance);
+    return bound - ROUNDING_MARGIN * (queryDistance + max);
+  }
+
+  private static boolean canPrune(float bound, BoundedMaxHeap topK) {
+    // Samples at exactly the worst distance may still win on index, so only prune strictly above.
+    return bound > topK.worstDistance();
+  }
+}
@@ -0,0 +1,428 @@
+/*
+ * Copyright 2020 Google LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.mlkit.vision.demo.java.posedetector.classification;
+
+import static com.google.mlkit.vision.demo.java.posedetector.classification.PoseEmbedding.EMBEDDING_SIZE;
+import static com.google.mlkit.vision.demo.java.posedetector.classification.PoseEmbedding.NUM_LANDMARKS;
+
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.StringReader;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Offline tool that shrinks a pose samples csv file to a subset of prototypes that
+ * {@link PoseClassifier} votes the same way with.
+ *
+ * <p>The samples of each class are clustered with k-medoids under the weighted max distance the
+ * classifier ranks samples by, and only the medoids are kept. The same fraction of every class is
+ * kept, and the smallest fraction is searched for whose classifier agrees with the full one on at
+ * least the given share of the sample poses. A pose agrees when its top class is the same and every
+ * class confidence is on the same side of the default {@link RepetitionCounter} thresholds, so that
+ * reps are counted the same way. The kept rows are written in their original order, followed by a
+ * report of per-class sizes, agreement, accuracy against the labels and time per pose. Run it on a
+ * desktop JVM with the compiled app classes and their dependencies on the class path:
+ *
+ * <pre>
+ *   java -cp app/build/intermediates/javac/debug/classes:&lt;dependencies&gt; \
+ *       com.google.mlkit.vision.demo.java.posedetector.classification.PoseSampleReducer \
+ *       app/src/main/assets/pose/fitness_pose_samples.csv reduced_pose_samples.csv [0.99]
+ * </pre>
+ */
+public class PoseSampleReducer {
+  private static final float DEFAULT_MIN_AGREEMENT = 0.99f;
+  // Must match the defaults of RepetitionCounter.
+  private static final float ENTER_THRESHOLD = 6f;
+  private static final float EXIT_THRESHOLD = 4f;
+  private static final int MAX_ITERATIONS = 20;
+  private static final int NUM_TIMING_ROUNDS = 20;
+
+  private PoseSampleReducer() {}
+
+  public static void main(String[] args) throws IOException {
+    if (args.length != 2 && args.length != 3) {
+      System.err.println("Usage: PoseSampleReducer <samples.csv> <reduced.csv> [minAgreement]");
+      System.exit(1);
+    }
+    float minAgreement = args.length == 3 ? Float.parseFloat(args[2]) : DEFAULT_MIN_AGREEMENT;
+    List<String> rows = readRows(args[0]);
+    PoseSampleStore sampleStore = compile(rows);
+    if (sampleStore.size() != rows.size()) {
+      throw new IOException("Samples and rows are out of sync");
+    }
+    float[] landmarks = getLandmarks(rows);
+    BatchClassificationResult fullResult =
+        new PoseClassifier(sampleStore).classifyBatch(landmarks);
+
+    // Binary search on the percentage of each class to keep. Agreement is not strictly monotonic
+    // in it, but medoid sets grow almost by inclusion so it is close enough for a search.
+    int[][] classSamples = getClassSamples(sampleStore);
+    int low = 1;
+    int high = 100;
+    while (low < high) {
+      int percent = (low + high) / 2;
+      boolean[] kept = reduce(sampleStore, classSamples, percent);
+      BatchClassificationResult result =
+          new PoseClassifier(getSubsetStore(sampleStore, kept)).classifyBatch(landmarks);
+      if (getAgreement(result, fullResult) >= minAgreement) {
+        high = percent;
+      } else {
+        low = percent + 1;
+      }
+    }
+    boolean[] kept = reduce(sampleStore, classSamples, low);
+    PoseSampleStore reducedStore = getSubsetStore(sampleStore, kept);
+
+    try (Writer writer =
+        new OutputStreamWriter(new FileOutputStream(args[1]), Charset.forName("UTF-8"))) {
+      for (int sample = 0; sample < rows.size(); sample++) {
+        if (kept[sample]) {
+          writer.write(rows.get(sample));
+          writer.write('\n');
+        }
+      }
+    }
+
+    printReport(sampleStore, reducedStore, kept, landmarks, low, minAgreement);
+  }
+
+  private static void printReport(
+      PoseSampleStore sampleStore,
+      PoseSampleStore reducedStore,
+      boolean[] kept,
+      float[] landmarks,
+      int percent,
+      float minAgreement) {
+    System.out.println(
+        String.format(
+            Locale.US,
+            "%d of %d samples kept (%d%% per class) for %.2f%% min agreement",
+            reducedStore.size(),
+            sampleStore.size(),
+            percent,
+            100.0 * minAgreement));
+    System.out.println(String.format(Locale.US, "%-24s %8s %8s", "class", "samples", "kept"));
+    for (int classId = 0; classId < sampleStore.getNumClasses(); classId++) {
+      int numSamples = 0;
+      int numKept = 0;
+      for (int sample = 0; sample < sampleStore.size(); sample++) {
+        if (sampleStore.getClassId(sample) == classId) {
+          numSamples++;
+          numKept += kept[sample] ? 1 : 0;
+        }
+      }
+      System.out.println(
+          String.format(
+              Locale.US,
+              "%-24s %8d %8d",
+              sampleStore.getClassName(classId),
+              numSamples,
+              numKept));
+    }
+
+    // Both classifiers are warmed up before either is timed, so both run on the same JIT state.
+    PoseClassifier fullClassifier = new PoseClassifier(sampleStore);
+    PoseClassifier reducedClassifier = new PoseClassifier(reducedStore);
+    for (int round = 0; round < NUM_TIMING_ROUNDS; round++) {
+      fullClassifier.classifyBatch(landmarks);
+      reducedClassifier.classifyBatch(landmarks);
+    }
+    BatchClassificationResult fullResult = fullClassifier.classifyBatch(landmarks);
+    BatchClassificationResult reducedResult = reducedClassifier.classifyBatch(landmarks);
+
+    System.out.println(
+        String.format(
+            Locale.US,
+            "%-8s %8s %9s %10s %9s",
+            "",
+            "samples",
+            "accuracy",
+            "agreement",
+            "us/pose"));
+    System.out.println(
+        String.format(
+            Locale.US,
+            "%-8s %8d %8.2f%% %9.2f%% %9.1f",
+            "full",
+            sampleStore.size(),
+            100.0 * getAccuracy(fullResult, sampleStore),
+            100.0,
+            timeClassification(fullClassifier, landmarks)));
+    System.out.println(
+        String.format(
+            Locale.US,
+            "%-8s %8d %8.2f%% %9.2f%% %9.1f",
+            "reduced",
+            reducedStore.size(),
+            100.0 * getAccuracy(reducedResult, sampleStore),
+            100.0 * getAgreement(reducedResult, fullResult),
+            timeClassification(reducedClassifier, landmarks)));
+  }
+
+  /**
+   * Returns which samples to keep: the medoids of {@code percent}% of each class's samples,
+   * rounded up, and at least one per class.
+   */
+  private static boolean[] reduce(PoseSampleStore sampleStore, int[][] classSamples, int percent) {
+    boolean[] kept = new boolean[sampleStore.size()];
+    for (int[] samples : classSamples) {
+      int numMedoids = Math.max(1, (samples.length * percent + 99) / 100);
+      for (int medoid : getMedoids(sampleStore, samples, numMedoids)) {
+        kept[samples[medoid]] = true;
+      }
+    }
+    return kept;
+  }
+
+  /**
+   * Returns the positions in {@code samples} of {@code numMedoids} medoids. Deterministic: starts
+   * from the overall medoid and farthest-first picks, then alternates assignment and medoid updates
+   * until they settle. Ties go to the lowest position.
+   */
+  private static int[] getMedoids(PoseSampleStore sampleStore, int[] samples, int numMedoids) {
+    int n = samples.length;
+    float[][] distances = new float[n][n];
+    for (int i = 0; i < n; i++) {
+      for (int j = i + 1; j < n; j++) {
+        distances[i][j] =
+            sampleStore.maxDistance(samples[i], samples[j], PoseClassifier.AXES_WEIGHTS);
+        distances[j][i] = distances[i][j];
+      }
+    }
+
+    int[] medoids = new int[numMedoids];
+    int[] cluster = new int[n];
+    medoids[0] = getMedoid(distances, cluster, 0);
+    float[] nearest = distances[medoids[0]].clone();
+    for (int m = 1; m < numMedoids; m++) {
+      int farthest = 0;
+      for (int i = 1; i < n; i++) {
+        if (nearest[i] > nearest[farthest]) {
+          farthest = i;
+        }
+      }
+      medoids[m] = farthest;
+      for (int i = 0; i < n; i++) {
+        nearest[i] = Math.min(nearest[i], distances[farthest][i]);
+      }
+    }
+
+    for (int iteration = 0; iteration < MAX_ITERATIONS; iteration++) {
+      for (int i = 0; i < n; i++) {
+        int best = 0;
+        for (int m = 1; m < numMedoids; m++) {
+          if (distances[i][medoids[m]] < distances[i][medoids[best]]) {
+            best = m;
+          }
+        }
+        cluster[i] = best;
+      }
+      boolean changed = false;
+      for (int m = 0; m < numMedoids; m++) {
+        int medoid = getMedoid(distances, cluster, m);
+        // A medoid is always assigned to its own cluster, so it is never empty.
+        if (medoid != medoids[m]) {
+          medoids[m] = medoid;
+          changed = true;
+        }
+      }
+      if (!changed) {
+        break;
+      }
+    }
+    return medoids;
+  }
+
+  // Returns the member of the cluster with the smallest sum of distances to the other members.
+  private static int getMedoid(float[][] distances, int[] cluster, int clusterId) {
+    int medoid = -1;
+    double minSum = Double.MAX_VALUE;
+    for (int i = 0; i < cluster.length; i++) {
+      if (cluster[i] != clusterId) {
+        continue;
+      }
+      double sum = 0;
+      for (int j = 0; j < cluster.length; j++) {
+        if (cluster[j] == clusterId) {
+          sum += distances[i][j];
+        }
+      }
+      if (sum < minSum) {
+        medoid = i;
+        minSum = sum;
+      }
+    }
+    return medoid;
+  }
+
+  /**
+   * Returns the share of poses whose top class is the same in both results and whose class
+   * confidences all fall in the same {@link RepetitionCounter} threshold band.
+   */
+  private static float getAgreement(
+      BatchClassificationResult result, BatchClassificationResult fullResult) {
+    int numAgreeing = 0;
+    for (int frame = 0; frame < result.getNumFrames(); frame++) {
+      boolean agrees =
+          result.getMaxConfidenceClassId(frame) == fullResult.getMaxConfidenceClassId(frame);
+      for (int classId = 0; agrees && classId < result.getNumClasses(); classId++) {
+        agrees =
+            getBand(result.getClassConfidence(frame, classId))
+                == getBand(fullResult.getClassConfidence(frame, classId));
+      }
+      numAgreeing += agrees ? 1 : 0;
+    }
+    return (float) numAgreeing / result.getNumFrames();
+  }
+
+  private static int getBand(float confidence) {
+    if (confidence > ENTER_THRESHOLD) {
+      return 2;
+    }
+    return confidence < EXIT_THRESHOLD ? 0 : 1;
+  }
+
+  private static float getAccuracy(BatchClassificationResult result, PoseSampleStore sampleStore) {
+    int numCorrect = 0;
+    for (int frame = 0; frame < result.getNumFrames(); frame++) {
+      // Both stores share the class names, so class ids can be compared directly.
+      if (result.getMaxConfidenceClassId(frame) == sampleStore.getClassId(frame)) {
+        numCorrect++;
+      }
+    }
+    return (float) numCorrect / result.getNumFrames();
+  }
+
+  // Returns the time per pose, in microseconds, to classify all poses.
+  private static double timeClassification(PoseClassifier classifier, float[] landmarks) {
+    long start = System.nanoTime();
+    for (int round = 0; round < NUM_TIMING_ROUNDS; round++) {
+      classifier.classifyBatch(landmarks);
+    }
+    int numPoses = landmarks.length / PoseClassifier.BATCH_FRAME_SIZE;
+    return (System.nanoTime() - start) / 1000.0 / NUM_TIMING_ROUNDS / numPoses;
+  }
+
+  // Reads the valid csv rows, with the same validation as PoseSampleBundleCompiler.
+  private static List<String> readRows(String path) throws IOException {
+    List<String> rows = new ArrayList<>();
+    try (BufferedReader reader =
+        new BufferedReader(
+            new InputStreamReader(new FileInputStream(path), Charset.forName("UTF-8")))) {
+      for (String csvLine = reader.readLine(); csvLine != null; csvLine = reader.readLine()) {
+        String[] tokens = csvLine.split(",", -1);
+        if (tokens.length != NUM_LANDMARKS * 3 + 2) {
+          continue;
+        }
+        try {
+          for (int i = 2; i < tokens.length; i++) {
+            Float.parseFloat(tokens[i]);
+          }
+        } catch (NumberFormatException e) {
+          continue;
+        }
+        rows.add(csvLine);
+      }
+    }
+    return rows;
+  }
+
+  private static PoseSampleStore compile(List<String> rows) throws IOException {
+    StringBuilder csv = new StringBuilder();
+    for (String row : rows) {
+      csv.append(row).append('\n');
+    }
+    return PoseSampleBundleCompiler.compile(new StringReader(csv.toString()));
+  }
+
+  // Returns the landmarks of the rows, packed for PoseClassifier#classifyBatch.
+  private static float[] getLandmarks(List<String> rows) {
+    int frameSize = PoseClassifier.BATCH_FRAME_SIZE;
+    float[] landmarks = new float[rows.size() * frameSize];
+    for (int frame = 0; frame < rows.size(); frame++) {
+      String[] tokens = rows.get(frame).split(",", -1);
+      for (int i = 0; i < frameSize; i++) {
+        landmarks[frame * frameSize + i] = Float.parseFloat(tokens[2 + i]);
+      }
+    }
+    return landmarks;
+  }
+
+  private static int[][] getClassSamples(PoseSampleStore sampleStore) {
+    int[][] classSamples = new int[sampleStore.getNumClasses()][];
+    for (int classId = 0; classId < classSamples.length; classId++) {
+      int[] samples = new int[sampleStore.size()];
+      int numSamples = 0;
+      for (int sample = 0; sample < sampleStore.size(); sample++) {
+        if (sampleStore.getClassId(sample) == classId) {
+          samples[numSamples++] = sample;
+        }
+      }
+      classSamples[classId] = Arrays.copyOf(samples, numSamples);
+    }
+    return classSamples;
+  }
+
+  // Returns the kept samples, as a store with the same class ids.
+  private static PoseSampleStore getSubsetStore(PoseSampleStore sampleStore, boolean[] kept) {
+    int[] classIds = new int[sampleStore.size()];
+    float[] x = new float[sampleStore.size() * EMBEDDING_SIZE];
+    float[] y = new float[sampleStore.size() * EMBEDDING_SIZE];
+    float[] z = new float[sampleStore.size() * EMBEDDING_SIZE];
+    int numSamples = 0;
+    for (int sample = 0; sample < sampleStore.size(); sample++) {
+      if (!kept[sample]) {
+        continue;
+      }
+      classIds[numSamples] = sampleStore.getClassId(sample);
+      System.arraycopy(
+          sampleStore.getX(),
+          sample * EMBEDDING_SIZE,
+          x,
+          numSamples * EMBEDDING_SIZE,
+          EMBEDDING_SIZE);
+      System.arraycopy(
+          sampleStore.getY(),
+          sample * EMBEDDING_SIZE,
+          y,
+          numSamples * EMBEDDING_SIZE,
+          EMBEDDING_SIZE);
+      System.arraycopy(
+          sampleStore.getZ(),
+          sample * EMBEDDING_SIZE,
+          z,
+          numSamples * EMBEDDING_SIZE,
+          EMBEDDING_SIZE);
+      numSamples++;
+    }
+    return new PoseSampleStore(
+        Arrays.copyOf(x, numSamples * EMBEDDING_SIZE),
+        Arrays.copyOf(y, numSamples * EMBEDDING_SIZE),
+        Arrays.copyOf(z, numSamples * EMBEDDING_SIZE),
+        Arrays.copyOf(classIds, numSamples),
+        sampleStore.getClassNames());
+  }
+}
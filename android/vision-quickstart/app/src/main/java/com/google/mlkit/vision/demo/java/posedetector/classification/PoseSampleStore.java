@@ -0,0 +1,186 @@
+/*
+ * Copyright 2020 Google LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.mlkit.vision.demo.java.posedetector.classification;
+
+import static com.google.mlkit.vision.demo.java.posedetector.classification.PoseEmbedding.EMBEDDING_SIZE;
+import static java.lang.Math.abs;
+import static java.lang.Math.max;
+
+import com.google.mlkit.vision.common.PointF3D;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Packed storage of {@link PoseSample} embeddings for allocation-free classification.
+ *
+ * <p>Embeddings are kept as a structure of arrays: the X, Y and Z components of every sample live
+ * in three flat {@code float[]}s, where the embedding of sample {@code s} occupies indices
+ * {@code [s * EMBEDDING_SIZE, (s + 1) * EMBEDDING_SIZE)}. Class names are interned to int ids in
+ * order of first appearance.
+ *
+ * <p>The distance kernels compare a stored embedding against a query embedding given in the same
+ * X/Y/Z layout, with each axis scaled by {@code axesWeights}.
+ */
+public class PoseSampleStore {
+  private final int numSamples;
+  private final float[] x;
+  private final float[] y;
+  private final float[] z;
+  private final int[] classIds;
+  private final List<String> classNames;
+
+  public PoseSampleStore(List<PoseSample> poseSamples) {
+    numSamples = poseSamples.size();
+    x = new float[numSamples * EMBEDDING_SIZE];
+    y = new float[numSamples * EMBEDDING_SIZE];
+    z = new float[numSamples * EMBEDDING_SIZE];
+    classIds = new int[numSamples];
+    List<String> classNames = new ArrayList<>();
+    Map<String, Integer> classIdsByName = new HashMap<>();
+    for (int s = 0; s < numSamples; s++) {
+      PoseSample poseSample = poseSamples.get(s);
+      Integer classId = classIdsByName.get(poseSample.getClassName());
+      if (classId == null) {
+        classId = classNames.size();
+        classIdsByName.put(poseSample.getClassName(), classId);
+        classNames.add(poseSample.getClassName());
+      }
+      classIds[s] = classId;
+
+      List<PointF3D> embedding = poseSample.getEmbedding();
+      int offset = s * EMBEDDING_SIZE;
+      for (int i = 0; i < EMBEDDING_SIZE; i++) {
+        PointF3D point = embedding.get(i);
+        x[offset + i] = point.getX();
+        y[offset + i] = point.getY();
+        z[offset + i] = point.getZ();
+      }
+    }
+    this.classNames = Collections.unmodifiableList(classNames);
+  }
+
+  /**
+   * Creates a store directly from packed embeddings, laid out as described in the class
+   * documentation. The arrays are used as is, without copying.
+   */
+  public PoseSampleStore(float[] x, float[] y, float[] z, int[] classIds, List<String> classNames) {
+    this.numSamples = classIds.length;
+    this.x = x;
+    this.y = y;
+    this.z = z;
+    this.classIds = classIds;
+    this.classNames = Collections.unmodifiableList(new ArrayList<>(classNames));
+  }
+
+  public int size() {
+    return numSamples;
+  }
+
+  public int getNumClasses() {
+    return classNames.size();
+  }
+
+  /** Returns the class names, indexed by class id, as an unmodifiable list. */
+  public List<String> getClassNames() {
+    return classNames;
+  }
+
+  public String getClassName(int classId) {
+    return classNames.get(classId);
+  }
+
+  public int getClassId(int sample) {
+    return classIds[sample];
+  }
+
+  /** Returns the X components of all embeddings, see the class documentation for the layout. */
+  public float[] getX() {
+    return x;
+  }
+
+  /** Returns the Y components of all embeddings, see the class documentation for the layout. */
+  public float[] getY() {
+    return y;
+  }
+
+  /** Returns the Z components of all embeddings, see the class documentation for the layout. */
+  public float[] getZ() {
+    return z;
+  }
+
+  /** Returns the weighted max (Chebyshev) distance between a sample and the query embedding. */
+  public float maxDistance(
+      int sample, float[] queryX, float[] queryY, float[] queryZ, PointF3D axesWeights) {
+    float weightX = axesWeights.getX();
+    float weightY = axesWeights.getY();
+    float weightZ = axesWeights.getZ();
+    int offset = sample * EMBEDDING_SIZE;
+    float maxDistance = 0;
+    for (int i = 0; i < EMBEDDING_SIZE; i++) {
+      maxDistance =
+          max(
+              maxDistance,
+              max(
+                  max(
+                      abs((x[offset + i] - queryX[i]) * weightX),
+                      abs((y[offset + i] - queryY[i]) * weightY)),
+                  abs((z[offset + i] - queryZ[i]) * weightZ)));
+    }
+    return maxDistance;
+  }
+
+  /** Returns the weighted max (Chebyshev) distance between two samples. */
+  public float maxDistance(int sample, int otherSample, PointF3D axesWeights) {
+    float weightX = axesWeights.getX();
+    float weightY = axesWeights.getY();
+    float weightZ = axesWeights.getZ();
+    int offset = sample * EMBEDDING_SIZE;
+    int otherOffset = otherSample * EMBEDDING_SIZE;
+    float maxDistance = 0;
+    for (int i = 0; i < EMBEDDING_SIZE; i++) {
+      maxDistance =
+          max(
+              maxDistance,
+              max(
+                  max(
+                      abs((x[offset + i] - x[otherOffset + i]) * weightX),
+                      abs((y[offset + i] - y[otherOffset + i]) * weightY)),
+                  abs((z[offset + i] - z[otherOffset + i]) * weightZ)));
+    }
+    return maxDistance;
+  }
+
+  /** Returns the weighted sum of absolute differences between a sample and the query embedding. */
+  public float sumDistance(
+      int sample, float[] queryX, float[] queryY, float[] queryZ, PointF3D axesWeights) {
+    float weightX = axesWeights.getX();
+    float weightY = axesWeights.getY();
+    float weightZ = axesWeights.getZ();
+    int offset = sample * EMBEDDING_SIZE;
+    float sum = 0;
+    for (int i = 0; i < EMBEDDING_SIZE; i++) {
+      sum +=
+          abs((x[offset + i] - queryX[i]) * weightX)
+              + abs((y[offset + i] - queryY[i]) * weightY)
+              + abs((z[offset + i] - queryZ[i]) * weightZ);
+    }
+    return sum;
+  }
+}
@@ -0,0 +1,372 @@
+/*
+ * Copyright 2020 Google LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.mlkit.vision.demo.java.posedetector.classification;
+
+import static com.google.mlkit.vision.demo.java.posedetector.classification.PoseEmbedding.EMBEDDING_SIZE;
+import static java.lang.Math.abs;
+import static java.lang.Math.max;
+import static java.lang.Math.min;
+
+/**
+ * Distance kernels over the integer embeddings of a {@link QuantizedPoseSampleStore}.
+ *
+ * <p>The query is quantized with the scales of the store. As a level stands for the same weighted
+ * distance on all axes, the weighted max and sum distances are the max and sum of absolute level
+ * differences times the unit of the store. Both are accumulated as ints and checked against an
+ * integer limit derived from the bound, so the inner loops are integer only.
+ */
+class QuantizedDistanceKernel extends DistanceKernel {
+  private static final int MEAN_DIVISOR = EMBEDDING_SIZE * 2;
+  // Query levels are clamped to this, so that sums of level differences cannot overflow and stay
+  // exact as floats.
+  private static final int MAX_QUERY_LEVEL = 1 << 16;
+  // Larger than any sum of level differences, used as the limit of unbounded searches.
+  private static final int NO_LIMIT = 1 << 24;
+
+  private final QuantizedPoseSampleStore sampleStore;
+  private final float unit;
+  private final float meanUnit;
+
+  private final int[] queryX = new int[EMBEDDING_SIZE];
+  private final int[] queryY = new int[EMBEDDING_SIZE];
+  private final int[] queryZ = new int[EMBEDDING_SIZE];
+  private final int[] flippedX = new int[EMBEDDING_SIZE];
+  private final int[] flippedY = new int[EMBEDDING_SIZE];
+  private final int[] flippedZ = new int[EMBEDDING_SIZE];
+  // Query saved by saveQuery(): original X, Y, Z levels, then the flipped ones.
+  private final int[][] savedQuery = new int[6][EMBEDDING_SIZE];
+
+  QuantizedDistanceKernel(QuantizedPoseSampleStore sampleStore) {
+    this.sampleStore = sampleStore;
+    unit = sampleStore.getUnit();
+    meanUnit = unit / MEAN_DIVISOR;
+  }
+
+  @Override
+  DistanceKernel newInstance() {
+    return new QuantizedDistanceKernel(sampleStore);
+  }
+
+  @Override
+  void setQuery(
+      float[] queryX,
+      float[] queryY,
+      float[] queryZ,
+      float[] flippedX,
+      float[] flippedY,
+      float[] flippedZ) {
+    quantize(queryX, sampleStore.getScaleX(), this.queryX);
+    quantize(queryY, sampleStore.getScaleY(), this.queryY);
+    quantize(queryZ, sampleStore.getScaleZ(), this.queryZ);
+    quantize(flippedX, sampleStore.getScaleX(), this.flippedX);
+    quantize(flippedY, sampleStore.getScaleY(), this.flippedY);
+    quantize(flippedZ, sampleStore.getScaleZ(), this.flippedZ);
+  }
+
+  private static void quantize(float[] values, float scale, int[] levels) {
+    for (int i = 0; i < EMBEDDING_SIZE; i++) {
+      levels[i] = max(-MAX_QUERY_LEVEL, min(MAX_QUERY_LEVEL, Math.round(values[i] / scale)));
+    }
+  }
+
+  @Override
+  void saveQuery() {
+    int[][] query = {queryX, queryY, queryZ, flippedX, flippedY, flippedZ};
+    for (int axis = 0; axis < query.length; axis++) {
+      System.arraycopy(query[axis], 0, savedQuery[axis], 0, EMBEDDING_SIZE);
+    }
+  }
+
+  // The distance between two queries is exact in levels, so it bounds the change of the level
+  // distance of any sample exactly; the query rounding is part of it.
+  @Override
+  float savedQueryMaxDistance() {
+    int maxLevels = 0;
+    for (int i = 0; i < EMBEDDING_SIZE; i++) {
+      maxLevels =
+          max(
+              maxLevels,
+              max(
+                  max(
+                      max(abs(queryX[i] - savedQuery[0][i]), abs(queryY[i] - savedQuery[1][i])),
+                      abs(queryZ[i] - savedQuery[2][i])),
+                  max(
+                      max(
+                          abs(flippedX[i] - savedQuery[3][i]),
+                          abs(flippedY[i] - savedQuery[4][i])),
+                      abs(flippedZ[i] - savedQuery[5][i]))));
+    }
+    return maxLevels * unit;
+  }
+
+  @Override
+  float savedQueryMeanDistance() {
+    int originalSum = 0;
+    int flippedSum = 0;
+    for (int i = 0; i < EMBEDDING_SIZE; i++) {
+      originalSum +=
+          abs(queryX[i] - savedQuery[0][i])
+              + abs(queryY[i] - savedQuery[1][i])
+              + abs(queryZ[i] - savedQuery[2][i]);
+      flippedSum +=
+          abs(flippedX[i] - savedQuery[3][i])
+              + abs(flippedY[i] - savedQuery[4][i])
+              + abs(flippedZ[i] - savedQuery[5][i]);
+    }
+    return max(originalSum, flippedSum) * meanUnit;
+  }
+
+  @Override
+  float queryMaxDistance(int sample, boolean flipped) {
+    int[] levelsX = flipped ? flippedX : queryX;
+    int[] levelsY = flipped ? flippedY : queryY;
+    int[] levelsZ = flipped ? flippedZ : queryZ;
+    int offset = sample * EMBEDDING_SIZE;
+    int maxLevels = 0;
+    for (int i = 0; i < EMBEDDING_SIZE; i++) {
+      maxLevels =
+          max(
+              maxLevels,
+              max(
+                  max(
+                      abs(sampleStore.getLevelX(offset + i) - levelsX[i]),
+                      abs(sampleStore.getLevelY(offset + i) - levelsY[i])),
+                  abs(sampleStore.getLevelZ(offset + i) - levelsZ[i])));
+    }
+    return maxLevels * unit;
+  }
+
+  @Override
+  float sampleMaxDistance(int sample, int otherSample) {
+    int offset = sample * EMBEDDING_SIZE;
+    int otherOffset = otherSample * EMBEDDING_SIZE;
+    int maxLevels = 0;
+    for (int i = 0; i < EMBEDDING_SIZE; i++) {
+      int differenceX = sampleStore.getLevelX(offset + i) - sampleStore.getLevelX(otherOffset + i);
+      int differenceY = sampleStore.getLevelY(offset + i) - sampleStore.getLevelY(otherOffset + i);
+      int differenceZ = sampleStore.getLevelZ(offset + i) - sampleStore.getLevelZ(otherOffset + i);
+      maxLevels = max(maxLevels, max(max(abs(differenceX), abs(differenceY)), abs(differenceZ)));
+    }
+    return maxLevels * unit;
+  }
+
+  @Override
+  float maxDistance(int sample, float bound) {
+    int limit = getLimit(bound, unit);
+    byte[] bytesX = sampleStore.getBytesX();
+    int maxLevels =
+        bytesX != null
+            ? maxLevels(sample, limit, bytesX, sampleStore.getBytesY(), sampleStore.getBytesZ())
+            : maxLevels(
+                sample,
+                limit,
+                sampleStore.getShortsX(),
+                sampleStore.getShortsY(),
+                sampleStore.getShortsZ());
+    return maxLevels * unit;
+  }
+
+  // Returns the min over both orientations of the max level difference, or one above limit.
+  private int maxLevels(int sample, int limit, byte[] x, byte[] y, byte[] z) {
+    int offset = sample * EMBEDDING_SIZE;
+    int originalMax = 0;
+    int flippedMax = 0;
+    int originalEnd = EMBEDDING_SIZE;
+    int flippedEnd = EMBEDDING_SIZE;
+    for (int i = 0; i < EMBEDDING_SIZE; i++) {
+      int sampleX = x[offset + i];
+      int sampleY = y[offset + i];
+      int sampleZ = z[offset + i];
+      if (originalEnd == EMBEDDING_SIZE) {
+        originalMax =
+            max(
+                originalMax,
+                max(
+                    max(abs(sampleX - queryX[i]), abs(sampleY - queryY[i])),
+                    abs(sampleZ - queryZ[i])));
+        if (originalMax > limit) {
+          originalEnd = i + 1;
+        }
+      }
+      if (flippedEnd == EMBEDDING_SIZE) {
+        flippedMax =
+            max(
+                flippedMax,
+                max(
+                    max(abs(sampleX - flippedX[i]), abs(sampleY - flippedY[i])),
+                    abs(sampleZ - flippedZ[i])));
+        if (flippedMax > limit) {
+          flippedEnd = i + 1;
+        }
+      }
+      if (originalEnd < EMBEDDING_SIZE && flippedEnd < EMBEDDING_SIZE) {
+        break;
+      }
+    }
+
+    maxDistanceTerms += 2 * EMBEDDING_SIZE;
+    maxDistanceSkippedTerms += 2 * EMBEDDING_SIZE - originalEnd - flippedEnd;
+    return min(originalMax, flippedMax);
+  }
+
+  // Same as above for 16 bit levels.
+  private int maxLevels(int sample, int limit, short[] x, short[] y, short[] z) {
+    int offset = sample * EMBEDDING_SIZE;
+    int originalMax = 0;
+    int flippedMax = 0;
+    int originalEnd = EMBEDDING_SIZE;
+    int flippedEnd = EMBEDDING_SIZE;
+    for (int i = 0; i < EMBEDDING_SIZE; i++) {
+      int sampleX = x[offset + i];
+      int sampleY = y[offset + i];
+      int sampleZ = z[offset + i];
+      if (originalEnd == EMBEDDING_SIZE) {
+        originalMax =
+            max(
+                originalMax,
+                max(
+                    max(abs(sampleX - queryX[i]), abs(sampleY - queryY[i])),
+                    abs(sampleZ - queryZ[i])));
+        if (originalMax > limit) {
+          originalEnd = i + 1;
+        }
+      }
+      if (flippedEnd == EMBEDDING_SIZE) {
+        flippedMax =
+            max(
+                flippedMax,
+                max(
+                    max(abs(sampleX - flippedX[i]), abs(sampleY - flippedY[i])),
+                    abs(sampleZ - flippedZ[i])));
+        if (flippedMax > limit) {
+          flippedEnd = i + 1;
+        }
+      }
+      if (originalEnd < EMBEDDING_SIZE && flippedEnd < EMBEDDING_SIZE) {
+        break;
+      }
+    }
+
+    maxDistanceTerms += 2 * EMBEDDING_SIZE;
+    maxDistanceSkippedTerms += 2 * EMBEDDING_SIZE - originalEnd - flippedEnd;
+    return min(originalMax, flippedMax);
+  }
+
+  @Override
+  float meanDistance(int sample, float bound) {
+    int limit = getLimit(bound, meanUnit);
+    byte[] bytesX = sampleStore.getBytesX();
+    int sumLevels =
+        bytesX != null
+            ? sumLevels(sample, limit, bytesX, sampleStore.getBytesY(), sampleStore.getBytesZ())
+            : sumLevels(
+                sample,
+                limit,
+                sampleStore.getShortsX(),
+                sampleStore.getShortsY(),
+                sampleStore.getShortsZ());
+    return sumLevels * meanUnit;
+  }
+
+  // Returns the min over both orientations of the summed level differences, or one above limit.
+  private int sumLevels(int sample, int limit, byte[] x, byte[] y, byte[] z) {
+    int offset = sample * EMBEDDING_SIZE;
+    int originalSum = 0;
+    int flippedSum = 0;
+    int originalEnd = EMBEDDING_SIZE;
+    int flippedEnd = EMBEDDING_SIZE;
+    for (int i = 0; i < EMBEDDING_SIZE; i++) {
+      int sampleX = x[offset + i];
+      int sampleY = y[offset + i];
+      int sampleZ = z[offset + i];
+      if (originalEnd == EMBEDDING_SIZE) {
+        originalSum +=
+            abs(sampleX - queryX[i]) + abs(sampleY - queryY[i]) + abs(sampleZ - queryZ[i]);
+        if (originalSum > limit) {
+          originalEnd = i + 1;
+        }
+      }
+      if (flippedEnd == EMBEDDING_SIZE) {
+        flippedSum +=
+            abs(sampleX - flippedX[i]) + abs(sampleY - flippedY[i]) + abs(sampleZ - flippedZ[i]);
+        if (flippedSum > limit) {
+          flippedEnd = i + 1;
+        }
+      }
+      if (originalEnd < EMBEDDING_SIZE && flippedEnd < EMBEDDING_SIZE) {
+        break;
+      }
+    }
+
+    meanDistanceTerms += 2 * EMBEDDING_SIZE;
+    meanDistanceSkippedTerms += 2 * EMBEDDING_SIZE - originalEnd - flippedEnd;
+    return min(originalSum, flippedSum);
+  }
+
+  // Same as above for 16 bit levels.
+  private int sumLevels(int sample, int limit, short[] x, short[] y, short[] z) {
+    int offset = sample * EMBEDDING_SIZE;
+    int originalSum = 0;
+    int flippedSum = 0;
+    int originalEnd = EMBEDDING_SIZE;
+    int flippedEnd = EMBEDDING_SIZE;
+    for (int i = 0; i < EMBEDDING_SIZE; i++) {
+      int sampleX = x[offset + i];
+      int sampleY = y[offset + i];
+      int sampleZ = z[offset + i];
+      if (originalEnd == EMBEDDING_SIZE) {
+        originalSum +=
+            abs(sampleX - queryX[i]) + abs(sampleY - queryY[i]) + abs(sampleZ - queryZ[i]);
+        if (originalSum > limit) {
+          originalEnd = i + 1;
+        }
+      }
+      if (flippedEnd == EMBEDDING_SIZE) {
+        flippedSum +=
+            abs(sampleX - flippedX[i]) + abs(sampleY - flippedY[i]) + abs(sampleZ - flippedZ[i]);
+        if (flippedSum > limit) {
+          flippedEnd = i + 1;
+        }
+      }
+      if (originalEnd < EMBEDDING_SIZE && flippedEnd < EMBEDDING_SIZE) {
+        break;
+      }
+    }
+
+    meanDistanceTerms += 2 * EMBEDDING_SIZE;
+    meanDistanceSkippedTerms += 2 * EMBEDDING_SIZE - originalEnd - flippedEnd;
+    return min(originalSum, flippedSum);
+  }
+
+  /**
+   * Returns the largest number of levels whose distance, in the given unit, is within the bound.
+   * Distances grow monotonically with the number of levels, so any more levels exceed the bound.
+   */
+  private static int getLimit(float bound, float unit) {
+    if (!(bound < NO_LIMIT * unit)) {
+      return NO_LIMIT;
+    }
+    int limit = max(0, (int) (bound / unit));
+    while (limit > 0 && limit * unit > bound) {
+      limit--;
+    }
+    while ((limit + 1) * unit <= bound) {
+      limit++;
+    }
+    return limit;
+  }
+}
@@ -0,0 +1,214 @@
+/*
+ * Copyright 2020 Google LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.mlkit.vision.demo.java.posedetector.classification;
+
+import static java.lang.Math.abs;
+import static java.lang.Math.max;
+import static java.lang.Math.min;
+
+import androidx.annotation.Nullable;
+import com.google.mlkit.vision.common.PointF3D;
+import java.util.Arrays;
+
+/**
+ * Embeddings of a {@link PoseSampleStore} quantized to 8 or 16 bit integers.
+ *
+ * <p>Each axis has its own scale, which is inversely proportional to its weight: one level stands
+ * for the same weighted distance, the unit, on every axis. This spends the levels where they matter
+ * for weighted distances, and lets distance kernels sum and compare level differences of different
+ * axes directly. The unit is chosen so that the largest weighted absolute value over all samples
+ * maps to the largest level of the precision, ignoring rare outliers for {@link
+ * EmbeddingPrecision#INT8}. A value {@code v} is stored as {@code round(v /
+ * scale)} in the same layout as in the float store, which makes the embeddings 4 or 2 times
+ * smaller. Class ids and names are not kept here.
+ */
+public class QuantizedPoseSampleStore {
+  // With only 127 levels, a few outliers, mostly in Z, would make levels too coarse for all other
+  // values. So for INT8 the range only covers all but the largest 0.1% of values, which are
+  // clamped to the largest level.
+  private static final float INT8_RANGE_QUANTILE = 0.999f;
+
+  private final EmbeddingPrecision precision;
+  private final int numSamples;
+  private final float unit;
+  private final float scaleX;
+  private final float scaleY;
+  private final float scaleZ;
+  // Only the arrays matching the precision are set.
+  @Nullable private final byte[] bytesX;
+  @Nullable private final byte[] bytesY;
+  @Nullable private final byte[] bytesZ;
+  @Nullable private final short[] shortsX;
+  @Nullable private final short[] shortsY;
+  @Nullable private final short[] shortsZ;
+
+  /** Quantizes the embeddings for distances with the given axes weights, which must be positive. */
+  public QuantizedPoseSampleStore(
+      PoseSampleStore sampleStore, EmbeddingPrecision precision, PointF3D axesWeights) {
+    if (precision.getMaxLevel() == 0) {
+      throw new IllegalArgumentException("Not a quantized precision: " + precision);
+    }
+    if (!(axesWeights.getX() > 0 && axesWeights.getY() > 0 && axesWeights.getZ() > 0)) {
+      throw new IllegalArgumentException("Axes weights must be positive");
+    }
+    this.precision = precision;
+    numSamples = sampleStore.size();
+    float range =
+        getRange(
+            sampleStore,
+            axesWeights,
+            precision == EmbeddingPrecision.INT8 ? INT8_RANGE_QUANTILE : 1);
+    unit = range > 0 ? range / precision.getMaxLevel() : 1;
+    scaleX = unit / axesWeights.getX();
+    scaleY = unit / axesWeights.getY();
+    scaleZ = unit / axesWeights.getZ();
+    int[] levelsX = quantize(sampleStore.getX(), scaleX);
+    int[] levelsY = quantize(sampleStore.getY(), scaleY);
+    int[] levelsZ = quantize(sampleStore.getZ(), scaleZ);
+    if (precision == EmbeddingPrecision.INT8) {
+      bytesX = toBytes(levelsX);
+      bytesY = toBytes(levelsY);
+      bytesZ = toBytes(levelsZ);
+      shortsX = null;
+      shortsY = null;
+      shortsZ = null;
+    } else {
+      bytesX = null;
+      bytesY = null;
+      bytesZ = null;
+      shortsX = toShorts(levelsX);
+      shortsY = toShorts(levelsY);
+      shortsZ = toShorts(levelsZ);
+    }
+  }
+
+  // Returns the given quantile of the weighted absolute values of all samples.
+  private static float getRange(PoseSampleStore sampleStore, PointF3D axesWeights, float quantile) {
+    float[] x = sampleStore.getX();
+    float[] y = sampleStore.getY();
+    float[] z = sampleStore.getZ();
+    float[] weighted = new float[x.length * 3];
+    for (int i = 0; i < x.length; i++) {
+      weighted[3 * i] = abs(x[i] * axesWeights.getX());
+      weighted[3 * i + 1] = abs(y[i] * axesWeights.getY());
+      weighted[3 * i + 2] = abs(z[i] * axesWeights.getZ());
+    }
+    if (weighted.length == 0) {
+      return 0;
+    }
+    Arrays.sort(weighted);
+    return weighted[(int) Math.ceil(quantile * (weighted.length - 1))];
+  }
+
+  private int[] quantize(float[] values, float scale) {
+    int maxLevel = precision.getMaxLevel();
+    int[] levels = new int[values.length];
+    for (int i = 0; i < values.length; i++) {
+      levels[i] = max(-maxLevel, min(maxLevel, Math.round(values[i] / scale)));
+    }
+    return levels;
+  }
+
+  private static byte[] toBytes(int[] levels) {
+    byte[] bytes = new byte[levels.length];
+    for (int i = 0; i < levels.length; i++) {
+      bytes[i] = (byte) levels[i];
+    }
+    return bytes;
+  }
+
+  private static short[] toShorts(int[] levels) {
+    short[] shorts = new short[levels.length];
+    for (int i = 0; i < levels.length; i++) {
+      shorts[i] = (short) levels[i];
+    }
+    return shorts;
+  }
+
+  public int size() {
+    return numSamples;
+  }
+
+  public EmbeddingPrecision getPrecision() {
+    return precision;
+  }
+
+  /** Returns the weighted distance of one level, which is the same on all axes. */
+  public float getUnit() {
+    return unit;
+  }
+
+  /** Returns the value of one level on the X axis. */
+  public float getScaleX() {
+    return scaleX;
+  }
+
+  /** Returns the value of one level on the Y axis. */
+  public float getScaleY() {
+    return scaleY;
+  }
+
+  /** Returns the value of one level on the Z axis. */
+  public float getScaleZ() {
+    return scaleZ;
+  }
+
+  /** Returns the X levels for {@link EmbeddingPrecision#INT8}, or null. */
+  @Nullable
+  byte[] getBytesX() {
+    return bytesX;
+  }
+
+  @Nullable
+  byte[] getBytesY() {
+    return bytesY;
+  }
+
+  @Nullable
+  byte[] getBytesZ() {
+    return bytesZ;
+  }
+
+  /** Returns the X levels for {@link EmbeddingPrecision#INT16}, or null. */
+  @Nullable
+  short[] getShortsX() {
+    return shortsX;
+  }
+
+  @Nullable
+  short[] getShortsY() {
+    return shortsY;
+  }
+
+  @Nullable
+  short[] getShortsZ() {
+    return shortsZ;
+  }
+
+  /** Returns the X level at an index of the embeddings layout, whatever the precision. */
+  int getLevelX(int index) {
+    return bytesX != null ? bytesX[index] : shortsX[index];
+  }
+
+  int getLevelY(int index) {
+    return bytesY != null ? bytesY[index] : shortsY[index];
+  }
+
+  int getLevelZ(int index) {
+    return bytesZ != null ? bytesZ[index] : shortsZ[index];
+  }
+}
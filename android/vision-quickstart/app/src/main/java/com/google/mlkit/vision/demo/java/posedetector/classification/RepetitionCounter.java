@@ -16,61 +16,326 @@
 
 package com.google.mlkit.vision.demo.java.posedetector.classification;
 
+import androidx.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
 /**
- * Counts reps for the give class.
+ * Counts reps for a set of classes, in one pass over each smoothed {@link ClassificationResult}.
+ *
+ * <p>Every class is the bottom position of an exercise, e.g. "squats_down". A rep is entered when
+ * the class confidence rises above the enter threshold and completed when it falls below the exit
+ * threshold again. The crossings in between are timed as well: the confidence rising past the exit
+ * threshold starts the eccentric phase, passing the enter threshold starts the hold at the bottom,
+ * and falling back below the enter threshold starts the concentric phase. Every class that
+ * completes a rep on a frame is counted, so simultaneous completions are not lost.
+ *
+ * <p>Classes are matched to the results' class ids once and cached, and only classes that are in a
+ * rep are visited apart from the classes of the result, so the cost of a frame does not depend on
+ * how many classes are counted. Not thread-safe.
  */
 public class RepetitionCounter {
   // These thresholds can be tuned in conjunction with the Top K values in {@link PoseClassifier}.
   // The default Top K value is 10 so the range here is [0-10].
   private static final float DEFAULT_ENTER_THRESHOLD = 6f;
   private static final float DEFAULT_EXIT_THRESHOLD = 4f;
+  // Number of latest reps per class that the cadence is measured over.
+  private static final int CADENCE_WINDOW = 5;
+
+  // Phases of a class, by the latest crossing of its thresholds.
+  private static final int IDLE = 0;
+  private static final int ECCENTRIC = 1;
+  private static final int HOLD = 2;
+  private static final int CONCENTRIC = 3;
 
-  private final String className;
+  private final List<String> classNames;
+  private final Map<String, Integer> classIndices = new HashMap<>();
   private final float enterThreshold;
   private final float exitThreshold;
 
-  private int numRepeats;
-  private boolean poseEntered;
+  // Per counted class, indexed by its position in classNames.
+  private final int[] numRepeats;
+  private final int[] phases;
+  private final long[] eccentricStartMs;
+  private final long[] holdStartMs;
+  private final long[] concentricStartMs;
+  private final Repetition[] lastRepetitions;
+  // Ring buffers of the completion times of the latest reps.
+  private final long[][] completionMs;
+  // Frame that the class was last seen in, to find classes that dropped out of the results.
+  private final long[] lastSeenFrames;
+
+  // Classes that are not idle, and the position of each class in that list.
+  private final int[] activeClasses;
+  private final int[] activePositions;
+  private int numActive;
+
+  // Class ids of the latest results, with their names and counted class index, or -1.
+  private String[] resultClassNames = new String[0];
+  private int[] resultClassIndices = new int[0];
+
+  private long frameNumber;
+  private final List<Repetition> completed = new ArrayList<>();
 
-  public RepetitionCounter(String className) {
-    this(className, DEFAULT_ENTER_THRESHOLD, DEFAULT_EXIT_THRESHOLD);
+  public RepetitionCounter(List<String> classNames) {
+    this(classNames, DEFAULT_ENTER_THRESHOLD, DEFAULT_EXIT_THRESHOLD);
   }
 
-  public RepetitionCounter(String className, float enterThreshold, float exitThreshold) {
-    this.className = className;
+  public RepetitionCounter(List<String> classNames, float enterThreshold, float exitThreshold) {
+    this.classNames = Collections.unmodifiableList(new ArrayList<>(classNames));
+    for (int i = 0; i < classNames.size(); i++) {
+      if (classIndices.put(classNames.get(i), i) != null) {
+        throw new IllegalArgumentException("Duplicate class " + classNames.get(i));
+      }
+    }
     this.enterThreshold = enterThreshold;
     this.exitThreshold = exitThreshold;
-    numRepeats = 0;
-    poseEntered = false;
+    int numClasses = classNames.size();
+    numRepeats = new int[numClasses];
+    phases = new int[numClasses];
+    eccentricStartMs = new long[numClasses];
+    holdStartMs = new long[numClasses];
+    concentricStartMs = new long[numClasses];
+    lastRepetitions = new Repetition[numClasses];
+    completionMs = new long[numClasses][CADENCE_WINDOW];
+    lastSeenFrames = new long[numClasses];
+    activeClasses = new int[numClasses];
+    activePositions = new int[numClasses];
   }
 
   /**
-   * Adds a new Pose classification result and updates reps for given class.
+   * Adds the smoothed result of a frame, in the order of the frame timestamps, and updates the
+   * reps of all classes.
    *
-   * @param classificationResult {link ClassificationResult} of class to confidence values.
-   * @return number of reps.
+   * @param classificationResult {@link ClassificationResult} of class to confidence values. Classes
+   *     missing from it have a confidence of 0.
+   * @param timestampMs time of the frame, in milliseconds of a monotonic clock
+   * @return the reps completed on this frame, usually none.
    */
-  public int addClassificationResult(ClassificationResult classificationResult) {
-    float poseConfidence = classificationResult.getClassConfidence(className);
+  public List<Repetition> addClassificationResult(
+      ClassificationResult classificationResult, long timestampMs) {
+    frameNumber++;
+    completed.clear();
+    int numResultClasses = classificationResult.getNumClasses();
+    if (resultClassNames.length < numResultClasses) {
+      resultClassNames = new String[numResultClasses];
+      resultClassIndices = new int[numResultClasses];
+    }
+    for (int classId = 0; classId < numResultClasses; classId++) {
+      if (!classificationResult.hasClass(classId)) {
+        continue;
+      }
+      int index = getClassIndex(classificationResult, classId);
+      if (index >= 0) {
+        lastSeenFrames[index] = frameNumber;
+        update(index, classificationResult.getClassConfidence(classId), timestampMs);
+      }
+    }
+    // Backwards, as updates may move the last active class into the place of the current one.
+    for (int i = numActive - 1; i >= 0; i--) {
+      int index = activeClasses[i];
+      if (lastSeenFrames[index] != frameNumber) {
+        update(index, 0, timestampMs);
+      }
+    }
+    return completed.isEmpty()
+        ? Collections.<Repetition>emptyList()
+        : Collections.unmodifiableList(new ArrayList<>(completed));
+  }
 
-    if (!poseEntered) {
-      poseEntered = poseConfidence > enterThreshold;
-      return numRepeats;
+  // Returns the index of the counted class with the given id in the result, or -1.
+  private int getClassIndex(ClassificationResult classificationResult, int classId) {
+    // Results of one producer share their class names, so the cached name is usually the same
+    // instance.
+    String className = classificationResult.getClassName(classId);
+    if (className != resultClassNames[classId]) {
+      Integer index = classIndices.get(className);
+      resultClassNames[classId] = className;
+      resultClassIndices[classId] = index == null ? -1 : index;
     }
+    return resultClassIndices[classId];
+  }
 
-    if (poseConfidence < exitThreshold) {
-      numRepeats++;
-      poseEntered = false;
+  private void update(int index, float confidence, long timestampMs) {
+    switch (phases[index]) {
+      case IDLE:
+        if (confidence > enterThreshold) {
+          eccentricStartMs[index] = timestampMs;
+          holdStartMs[index] = timestampMs;
+          setActive(index, HOLD);
+        } else if (confidence >= exitThreshold) {
+          eccentricStartMs[index] = timestampMs;
+          setActive(index, ECCENTRIC);
+        }
+        break;
+      case ECCENTRIC:
+        if (confidence > enterThreshold) {
+          holdStartMs[index] = timestampMs;
+          phases[index] = HOLD;
+        } else if (confidence < exitThreshold) {
+          setIdle(index);
+        }
+        break;
+      case HOLD:
+        if (confidence < exitThreshold) {
+          concentricStartMs[index] = timestampMs;
+          complete(index, timestampMs);
+        } else if (confidence <= enterThreshold) {
+          concentricStartMs[index] = timestampMs;
+          phases[index] = CONCENTRIC;
+        }
+        break;
+      case CONCENTRIC:
+        if (confidence > enterThreshold) {
+          phases[index] = HOLD;
+        } else if (confidence < exitThreshold) {
+          complete(index, timestampMs);
+        }
+        break;
+      default:
+        throw new IllegalStateException();
     }
+  }
+
+  private void complete(int index, long timestampMs) {
+    int repeat = ++numRepeats[index];
+    completionMs[index][(repeat - 1) % CADENCE_WINDOW] = timestampMs;
+    Repetition repetition =
+        new Repetition(
+            classNames.get(index),
+            repeat,
+            eccentricStartMs[index],
+            holdStartMs[index],
+            concentricStartMs[index],
+            timestampMs);
+    lastRepetitions[index] = repetition;
+    completed.add(repetition);
+    setIdle(index);
+  }
+
+  private void setActive(int index, int phase) {
+    phases[index] = phase;
+    activePositions[index] = numActive;
+    activeClasses[numActive++] = index;
+  }
+
+  private void setIdle(int index) {
+    phases[index] = IDLE;
+    int last = activeClasses[--numActive];
+    activeClasses[activePositions[index]] = last;
+    activePositions[last] = activePositions[index];
+  }
+
+  public List<String> getClassNames() {
+    return classNames;
+  }
 
-    return numRepeats;
+  /** Returns the reps counted for the class, or 0 if it is not counted. */
+  public int getNumRepeats(String className) {
+    Integer index = classIndices.get(className);
+    return index == null ? 0 : numRepeats[index];
   }
 
-  public String getClassName() {
-    return className;
+  /** Returns the latest rep of the class, or null if it has none. */
+  @Nullable
+  public Repetition getLastRepetition(String className) {
+    Integer index = classIndices.get(className);
+    return index == null ? null : lastRepetitions[index];
   }
 
-  public int getNumRepeats() {
-    return numRepeats;
+  /**
+   * Returns the reps per minute of the class over its latest reps, or 0 until it has completed two.
+   */
+  public float getCadence(String className) {
+    Integer index = classIndices.get(className);
+    if (index == null || numRepeats[index] < 2) {
+      return 0;
+    }
+    int repeat = numRepeats[index];
+    int numIntervals = Math.min(repeat, CADENCE_WINDOW) - 1;
+    long lastMs = completionMs[index][(repeat - 1) % CADENCE_WINDOW];
+    long firstMs = completionMs[index][(repeat - 1 - numIntervals) % CADENCE_WINDOW];
+    return lastMs > firstMs ? numIntervals * 60_000f / (lastMs - firstMs) : 0;
+  }
+
+  /**
+   * Timing of one completed rep. Phases that were skipped between two frames, such as a
+   * confidence jumping past both thresholds at once, take no time.
+   */
+  public static class Repetition {
+    private final String className;
+    private final int number;
+    private final long startMs;
+    private final long holdStartMs;
+    private final long concentricStartMs;
+    private final long endMs;
+
+    Repetition(
+        String className,
+        int number,
+        long startMs,
+        long holdStartMs,
+        long concentricStartMs,
+        long endMs) {
+      this.className = className;
+      this.number = number;
+      this.startMs = startMs;
+      this.holdStartMs = holdStartMs;
+      this.concentricStartMs = concentricStartMs;
+      this.endMs = endMs;
+    }
+
+    public String getClassName() {
+      return className;
+    }
+
+    /** Returns the number of reps of the class so far, including this one. */
+    public int getNumber() {
+      return number;
+    }
+
+    public long getStartMs() {
+      return startMs;
+    }
+
+    public long getEndMs() {
+      return endMs;
+    }
+
+    public long getDurationMs() {
+      return endMs - startMs;
+    }
+
+    /** Returns the time taken to get into the position of the class. */
+    public long getEccentricMs() {
+      return holdStartMs - startMs;
+    }
+
+    /** Returns the time spent in the position of the class. */
+    public long getHoldMs() {
+      return concentricStartMs - holdStartMs;
+    }
+
+    /** Returns the time taken to get out of the position of the class. */
+    public long getConcentricMs() {
+      return endMs - concentricStartMs;
+    }
+
+    @Override
+    public String toString() {
+      return String.format(
+          Locale.US,
+          "%s #%d: %d ms (eccentric %d ms, hold %d ms, concentric %d ms)",
+          className,
+          number,
+          getDurationMs(),
+          getEccentricMs(),
+          getHoldMs(),
+          getConcentricMs());
+    }
   }
 }
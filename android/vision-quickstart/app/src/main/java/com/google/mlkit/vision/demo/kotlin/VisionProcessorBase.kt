@@ -39,10 +39,13 @@ import com.google.android.odml.image.MlImage
 import com.google.mlkit.common.MlKitException
 import com.google.mlkit.vision.common.InputImage
 import com.google.mlkit.vision.demo.BitmapUtils
+import com.google.mlkit.vision.demo.BuildConfig
 import com.google.mlkit.vision.demo.CameraImageGraphic
+import com.google.mlkit.vision.demo.FrameBufferPool
 import com.google.mlkit.vision.demo.FrameMetadata
 import com.google.mlkit.vision.demo.GraphicOverlay
 import com.google.mlkit.vision.demo.InferenceInfoGraphic
+import com.google.mlkit.vision.demo.PreviewBitmapConverter
 import com.google.mlkit.vision.demo.ScopedExecutor
 import com.google.mlkit.vision.demo.VisionImageProcessor
 import com.google.mlkit.vision.demo.preference.PreferenceUtils
@@ -70,6 +73,10 @@ abstract class VisionProcessorBase<T>(context: Context) : VisionImageProcessor {
     context.getSystemService(Context.ACTIVITY_SERVICE) as ActivityManager
   private val fpsTimer = Timer()
   private val executor = ScopedExecutor(TaskExecutors.MAIN_THREAD)
+  // Converts frames to preview bitmaps, one frame at a time.
+  private val bitmapConverter = PreviewBitmapConverter()
+  // Buffers CameraX frames are packed into for conversion, held until the frame is closed.
+  private val nv21BufferPool = FrameBufferPool(BuildConfig.DEBUG)
 
   // Whether this processor is already shut down
   private var isShutdown = false
@@ -168,7 +175,7 @@ abstract class VisionProcessorBase<T>(context: Context) : VisionImageProcessor {
     // drawing), skip the unnecessary bitmap creation that used for the manual preview drawing.
     val bitmap =
       if (PreferenceUtils.isCameraLiveViewportEnabled(graphicOverlay.context)) null
-      else BitmapUtils.getBitmap(data, frameMetadata)
+      else BitmapUtils.getBitmap(data, frameMetadata, bitmapConverter)
 
     if (isMlImageEnabled(graphicOverlay.context)) {
       val mlImage =
@@ -212,10 +219,10 @@ abstract class VisionProcessorBase<T>(context: Context) : VisionImageProcessor {
     if (isShutdown) {
       return
     }
-    var bitmap: Bitmap? = null
-    if (!PreferenceUtils.isCameraLiveViewportEnabled(graphicOverlay.context)) {
-      bitmap = BitmapUtils.getBitmap(image)
-    }
+    val nv21Buffer =
+      if (PreferenceUtils.isCameraLiveViewportEnabled(graphicOverlay.context)) null
+      else nv21BufferPool.acquire(BitmapUtils.getNv21Size(image))
+    val bitmap = nv21Buffer?.let { BitmapUtils.getBitmap(image, it, bitmapConverter) }
 
     if (isMlImageEnabled(graphicOverlay.context)) {
       val mlImage =
@@ -232,7 +239,7 @@ abstract class VisionProcessorBase<T>(context: Context) : VisionImageProcessor {
         // may stall.
         // Currently MlImage doesn't support ImageProxy directly, so we still need to call
         // ImageProxy.close() here.
-        .addOnCompleteListener { image.close() }
+        .addOnCompleteListener { closeFrame(image, nv21Buffer) }
 
       return
     }
@@ -247,7 +254,12 @@ abstract class VisionProcessorBase<T>(context: Context) : VisionImageProcessor {
       // When the image is from CameraX analysis use case, must call image.close() on received
       // images when finished using them. Otherwise, new images may not be received or the camera
       // may stall.
-      .addOnCompleteListener { image.close() }
+      .addOnCompleteListener { closeFrame(image, nv21Buffer) }
+  }
+
+  private fun closeFrame(image: ImageProxy, nv21Buffer: ByteArray?) {
+    image.close()
+    nv21Buffer?.let { nv21BufferPool.release(it) }
   }
 
   // -----------------Common processing logic-------------------------------------------------------
@@ -336,6 +348,11 @@ abstract class VisionProcessorBase<T>(context: Context) : VisionImageProcessor {
             activityManager.getMemoryInfo(mi)
             val availableMegs: Long = mi.availMem / 0x100000L
             Log.d(TAG, "Memory available in system: $availableMegs MB")
+            Log.d(
+              TAG,
+              "NV21 buffer pool: hits=${nv21BufferPool.hitCount}, " +
+                "misses=${nv21BufferPool.missCount}, leaks=${nv21BufferPool.leakCount}"
+            )
           }
           graphicOverlay.clear()
           if (originalCameraImage != null) {
@@ -22,6 +22,7 @@ import com.google.android.gms.tasks.Task
 import com.google.android.odml.image.MlImage
 import com.google.mlkit.vision.common.InputImage
 import com.google.mlkit.vision.demo.GraphicOverlay
+import com.google.mlkit.vision.demo.java.posedetector.classification.PoseClassifierCache
 import com.google.mlkit.vision.demo.java.posedetector.classification.PoseClassifierProcessor
 import com.google.mlkit.vision.demo.kotlin.VisionProcessorBase
 import com.google.mlkit.vision.pose.Pose
@@ -45,8 +46,12 @@ class PoseDetectorProcessor(
 
   private val detector: PoseDetector
   private val classificationExecutor: Executor
+  // Shared classifier, only set when running classification.
+  private val poseClassifierReference: PoseClassifierCache.Reference?
 
   private var poseClassifierProcessor: PoseClassifierProcessor? = null
+  // Set once the shared classifier failed to load, after which frames are not classified.
+  private var poseClassifierFailed = false
 
   /** Internal class to hold Pose and classification results. */
   class PoseWithClassification(val pose: Pose, val classificationResult: List<String>)
@@ -54,11 +59,18 @@ class PoseDetectorProcessor(
   init {
     detector = PoseDetection.getClient(options)
     classificationExecutor = Executors.newSingleThreadExecutor()
+    poseClassifierReference =
+      if (runClassification) PoseClassifierProcessor.acquirePoseClassifier(context) else null
   }
 
   override fun stop() {
     super.stop()
     detector.close()
+    classificationExecutor.execute {
+      poseClassifierProcessor?.release()
+      // Only released after the frames queued before, which may still need the classifier.
+      poseClassifierReference?.release()
+    }
   }
 
   override fun detectInImage(image: InputImage): Task<PoseWithClassification> {
@@ -69,10 +81,7 @@ class PoseDetectorProcessor(
         { task ->
           val pose = task.getResult()
           var classificationResult: List<String> = ArrayList()
-          if (runClassification) {
-            if (poseClassifierProcessor == null) {
-              poseClassifierProcessor = PoseClassifierProcessor(context, isStreamMode)
-            }
+          if (runClassification && isPoseClassifierReady()) {
             classificationResult = poseClassifierProcessor!!.getPoseResult(pose)
           }
           PoseWithClassification(pose, classificationResult)
@@ -88,10 +97,7 @@ class PoseDetectorProcessor(
         { task ->
           val pose = task.getResult()
           var classificationResult: List<String> = ArrayList()
-          if (runClassification) {
-            if (poseClassifierProcessor == null) {
-              poseClassifierProcessor = PoseClassifierProcessor(context, isStreamMode)
-            }
+          if (runClassification && isPoseClassifierReady()) {
             classificationResult = poseClassifierProcessor!!.getPoseResult(pose)
           }
           PoseWithClassification(pose, classificationResult)
@@ -99,6 +105,21 @@ class PoseDetectorProcessor(
       )
   }
 
+  // Creates the classifier processor once the shared classifier has loaded, without waiting for it.
+  private fun isPoseClassifierReady(): Boolean {
+    val reference = poseClassifierReference!!
+    if (poseClassifierProcessor == null && !poseClassifierFailed && reference.isLoaded) {
+      try {
+        poseClassifierProcessor =
+          PoseClassifierProcessor(reference.newPoseClassifier(), isStreamMode)
+      } catch (e: IllegalStateException) {
+        Log.e(TAG, "Could not load pose classifier, poses will not be classified", e)
+        poseClassifierFailed = true
+      }
+    }
+    return poseClassifierProcessor != null
+  }
+
   override fun onSuccess(
     poseWithClassification: PoseWithClassification,
     graphicOverlay: GraphicOverlay
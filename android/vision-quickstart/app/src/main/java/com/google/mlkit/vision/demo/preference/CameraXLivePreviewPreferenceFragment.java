@@ -47,6 +47,9 @@ public class CameraXLivePreviewPreferenceFragment extends LivePreviewPreferenceF
         findPreference(getString(R.string.pref_key_rear_camera_preview_size)));
     cameraPreference.removePreference(
         findPreference(getString(R.string.pref_key_front_camera_preview_size)));
+    // CameraX frames are processed one at a time.
+    cameraPreference.removePreference(
+        findPreference(getString(R.string.pref_key_camera_frames_in_flight)));
     setUpCameraXTargetAnalysisSizePreference(
         R.string.pref_key_camerax_rear_camera_target_resolution, CameraSelector.LENS_FACING_BACK);
     setUpCameraXTargetAnalysisSizePreference(
@@ -335,6 +335,12 @@ public class PreferenceUtils {
     return sharedPreferences.getBoolean(prefKey, false);
   }
 
+  public static boolean shouldPoseDetectionRecordLandmarks(Context context) {
+    SharedPreferences sharedPreferences = PreferenceManager.getDefaultSharedPreferences(context);
+    String prefKey = context.getString(R.string.pref_key_pose_detector_record_landmarks);
+    return sharedPreferences.getBoolean(prefKey, false);
+  }
+
   public static boolean shouldSegmentationEnableRawSizeMask(Context context) {
     SharedPreferences sharedPreferences = PreferenceManager.getDefaultSharedPreferences(context);
     String prefKey = context.getString(R.string.pref_key_segmentation_raw_size_mask);
@@ -359,5 +365,10 @@ public class PreferenceUtils {
     return sharedPreferences.getBoolean(prefKey, false);
   }
 
+  /** Returns how many live preview frames may be detected at once, 1 unless pipelined. */
+  public static int getMaxFramesInFlight(Context context) {
+    return getModeTypePreferenceValue(context, R.string.pref_key_camera_frames_in_flight, 1);
+  }
+
   private PreferenceUtils() {}
 }
@@ -0,0 +1,80 @@
+/*
+ * Copyright 2020 Google LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.mlkit.vision.demo;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertThrows;
+
+import org.junit.Test;
+
+/** Checks the recycling and release checks of {@link FrameBufferPool}. */
+public class FrameBufferPoolTest {
+
+  @Test
+  public void acquire_recyclesReleasedBuffersOfSameSize() {
+    FrameBufferPool pool = new FrameBufferPool(/* detectLeaks= */ true);
+    byte[] buffer = pool.acquire(100);
+    pool.release(buffer);
+
+    assertNotSame(buffer, pool.acquire(200));
+    assertSame(buffer, pool.acquire(100));
+    assertEquals(1, pool.getHitCount());
+    assertEquals(2, pool.getMissCount());
+  }
+
+  @Test
+  public void release_keepsAtMostMaxFreeBuffersPerSize() {
+    FrameBufferPool pool =
+        new FrameBufferPool(/* maxFreeBuffersPerSize= */ 2, /* detectLeaks= */ false);
+    byte[][] buffers = new byte[3][];
+    for (int i = 0; i < buffers.length; i++) {
+      buffers[i] = pool.acquire(100);
+    }
+    for (byte[] buffer : buffers) {
+      pool.release(buffer);
+    }
+    pool.release(pool.acquire(50));
+
+    for (int i = 0; i < buffers.length; i++) {
+      pool.acquire(100);
+    }
+    pool.acquire(50);
+    // All first acquisitions missed, and so did the one for the buffer that was over the cap.
+    assertEquals(5, pool.getMissCount());
+    assertEquals(3, pool.getHitCount());
+  }
+
+  @Test
+  public void release_twice_throws() {
+    FrameBufferPool pool = new FrameBufferPool(/* detectLeaks= */ true);
+    byte[] buffer = pool.acquire(100);
+    pool.release(buffer);
+
+    assertThrows(IllegalStateException.class, () -> pool.release(buffer));
+  }
+
+  @Test
+  public void release_ofForeignBuffer_throws() {
+    FrameBufferPool pool = new FrameBufferPool(/* detectLeaks= */ true);
+    byte[] buffer = new FrameBufferPool(/* detectLeaks= */ true).acquire(100);
+
+    assertThrows(IllegalStateException.class, () -> pool.release(buffer));
+    assertThrows(IllegalStateException.class, () -> pool.release(new byte[100]));
+  }
+}
@@ -0,0 +1,238 @@
+/*
+ * Copyright 2020 Google LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.mlkit.vision.demo;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+import org.junit.Test;
+
+/**
+ * Checks {@link YuvUtils} against straightforward conversions. The preview used to be converted
+ * with YuvImage, BitmapFactory and a Matrix, which do not run in local tests, so colors are checked
+ * against the BT.601 formulas in floating point and rotations against the coordinates a Matrix
+ * would map pixels to.
+ */
+public class YuvUtilsTest {
+  // Per channel, for the fixed point coefficients and truncation of the fast conversion.
+  private static final int COLOR_TOLERANCE = 2;
+  // Bytes of padding at the end of each row, but the last, of padded planes.
+  private static final int ROW_PADDING = 5;
+
+  private final Random random = new Random(42);
+
+  @Test
+  public void nv21ToArgb_matchesFloatReference_forAllRotationsAndMirroring() {
+    int[][] sizes = {{2, 2}, {6, 4}, {8, 6}, {16, 10}};
+    for (int[] size : sizes) {
+      int width = size[0];
+      int height = size[1];
+      byte[] nv21 = new byte[YuvUtils.getNv21Size(width, height)];
+      random.nextBytes(nv21);
+      for (int rotationDegrees = 0; rotationDegrees < 360; rotationDegrees += 90) {
+        for (boolean flipX : new boolean[] {false, true}) {
+          int[] argb = new int[width * height];
+          YuvUtils.nv21ToArgb(nv21, width, height, rotationDegrees, flipX, argb);
+          assertMatchesReference(nv21, width, height, rotationDegrees, flipX, argb);
+        }
+      }
+    }
+  }
+
+  @Test
+  public void nv21ToArgb_clampsExtremeColors() {
+    int width = 4;
+    int height = 2;
+    byte[] nv21 = new byte[YuvUtils.getNv21Size(width, height)];
+    // Luma alternating below and above its range, with the strongest chroma.
+    byte[] values = {0, (byte) 255};
+    for (int i = 0; i < nv21.length; i++) {
+      nv21[i] = values[i % 2];
+    }
+    int[] argb = new int[width * height];
+    YuvUtils.nv21ToArgb(nv21, width, height, /* rotationDegrees= */ 0, /* flipX= */ false, argb);
+    assertMatchesReference(nv21, width, height, 0, false, argb);
+  }
+
+  @Test
+  public void unpackPlane_i420WithPaddedRows() {
+    int width = 8;
+    int height = 6;
+    byte[] y = randomBytes(width * height);
+    byte[] u = randomBytes(width * height / 4);
+    byte[] v = randomBytes(width * height / 4);
+
+    byte[] out = new byte[YuvUtils.getNv21Size(width, height)];
+    YuvUtils.unpackPlane(
+        pad(y, width, height), width + ROW_PADDING, 1, width, height, out, 0, 1);
+    YuvUtils.unpackPlane(
+        pad(u, width / 2, height / 2),
+        width / 2 + ROW_PADDING,
+        1,
+        width,
+        height,
+        out,
+        width * height + 1,
+        2);
+    YuvUtils.unpackPlane(
+        pad(v, width / 2, height / 2),
+        width / 2 + ROW_PADDING,
+        1,
+        width,
+        height,
+        out,
+        width * height,
+        2);
+
+    assertArrayEquals(toNv21(y, u, v), out);
+  }
+
+  @Test
+  public void unpackPlane_interleavedWithPixelStride2AndPaddedRows_matchesPerByte() {
+    int width = 8;
+    int height = 6;
+    byte[] y = randomBytes(width * height);
+    byte[] u = randomBytes(width * height / 4);
+    byte[] v = randomBytes(width * height / 4);
+    // NV12 as many cameras deliver it: U and V interleaved in one buffer, U first.
+    byte[] uv = new byte[width * height / 2];
+    for (int i = 0; i < u.length; i++) {
+      uv[2 * i] = u[i];
+      uv[2 * i + 1] = v[i];
+    }
+    ByteBuffer paddedUv = pad(uv, width, height / 2);
+    ByteBuffer uPlane = slice(paddedUv, 0, paddedUv.limit() - 1);
+    ByteBuffer vPlane = slice(paddedUv, 1, paddedUv.limit() - 1);
+    int rowStride = width + ROW_PADDING;
+
+    byte[] out = new byte[YuvUtils.getNv21Size(width, height)];
+    YuvUtils.unpackPlane(pad(y, width, height), rowStride, 1, width, height, out, 0, 1);
+    YuvUtils.unpackPlane(uPlane, rowStride, 2, width, height, out, width * height + 1, 2);
+    YuvUtils.unpackPlane(vPlane, rowStride, 2, width, height, out, width * height, 2);
+    assertArrayEquals(toNv21(y, u, v), out);
+
+    byte[] perByteOut = new byte[out.length];
+    YuvUtils.unpackPlanePerByte(
+        pad(y, width, height), rowStride, 1, width, height, perByteOut, 0, 1);
+    YuvUtils.unpackPlanePerByte(
+        uPlane, rowStride, 2, width, height, perByteOut, width * height + 1, 2);
+    YuvUtils.unpackPlanePerByte(vPlane, rowStride, 2, width, height, perByteOut, width * height, 2);
+    assertArrayEquals(out, perByteOut);
+  }
+
+  private static void assertMatchesReference(
+      byte[] nv21, int width, int height, int rotationDegrees, boolean flipX, int[] argb) {
+    boolean isRotated = rotationDegrees == 90 || rotationDegrees == 270;
+    int outWidth = isRotated ? height : width;
+    for (int y = 0; y < height; y++) {
+      for (int x = 0; x < width; x++) {
+        // Where a Matrix rotating clockwise about the origin, then mirroring, maps the pixel.
+        int outX;
+        int outY;
+        switch (rotationDegrees) {
+          case 90:
+            outX = height - 1 - y;
+            outY = x;
+            break;
+          case 180:
+            outX = width - 1 - x;
+            outY = height - 1 - y;
+            break;
+          case 270:
+            outX = y;
+            outY = width - 1 - x;
+            break;
+          default:
+            outX = x;
+            outY = y;
+        }
+        if (flipX) {
+          outX = outWidth - 1 - outX;
+        }
+        int pixel = argb[outY * outWidth + outX];
+        int[] expected = toRgb(nv21, width, height, x, y);
+        String where =
+            String.format(
+                "%dx%d rotated %d flipped %b at (%d, %d)",
+                width, height, rotationDegrees, flipX, x, y);
+        assertEquals(where, 0xff, pixel >>> 24);
+        assertColorClose(where, expected[0], (pixel >> 16) & 0xff);
+        assertColorClose(where, expected[1], (pixel >> 8) & 0xff);
+        assertColorClose(where, expected[2], pixel & 0xff);
+      }
+    }
+  }
+
+  private static void assertColorClose(String where, int expected, int actual) {
+    assertTrue(
+        where + ": expected " + expected + " but was " + actual,
+        Math.abs(expected - actual) <= COLOR_TOLERANCE);
+  }
+
+  // BT.601 limited range YUV to RGB of one pixel, in floating point. Luma below the range is black.
+  private static int[] toRgb(byte[] nv21, int width, int height, int x, int y) {
+    int vuIndex = width * height + (y / 2) * width + (x / 2) * 2;
+    float luma = 1.164f * Math.max(0, (nv21[y * width + x] & 0xff) - 16);
+    float v = (nv21[vuIndex] & 0xff) - 128;
+    float u = (nv21[vuIndex + 1] & 0xff) - 128;
+    return new int[] {
+      clamp(luma + 1.596f * v), clamp(luma - 0.813f * v - 0.391f * u), clamp(luma + 2.018f * u)
+    };
+  }
+
+  private static int clamp(float color) {
+    return Math.round(Math.max(0, Math.min(255, color)));
+  }
+
+  private byte[] randomBytes(int size) {
+    byte[] bytes = new byte[size];
+    random.nextBytes(bytes);
+    return bytes;
+  }
+
+  // Copies rows of packed pixels into a buffer with ROW_PADDING bytes after all rows but the last.
+  private ByteBuffer pad(byte[] rows, int rowLength, int numRows) {
+    int rowStride = rowLength + ROW_PADDING;
+    byte[] padded = new byte[rowStride * (numRows - 1) + rowLength];
+    // Padding that leaks into the output would show up as a mismatch.
+    random.nextBytes(padded);
+    for (int row = 0; row < numRows; row++) {
+      System.arraycopy(rows, row * rowLength, padded, row * rowStride, rowLength);
+    }
+    return ByteBuffer.wrap(padded);
+  }
+
+  private static ByteBuffer slice(ByteBuffer buffer, int offset, int length) {
+    ByteBuffer duplicate = buffer.duplicate();
+    duplicate.position(offset);
+    duplicate.limit(offset + length);
+    return duplicate.slice();
+  }
+
+  private static byte[] toNv21(byte[] y, byte[] u, byte[] v) {
+    byte[] nv21 = new byte[y.length + u.length + v.length];
+    System.arraycopy(y, 0, nv21, 0, y.length);
+    for (int i = 0; i < u.length; i++) {
+      nv21[y.length + 2 * i] = v[i];
+      nv21[y.length + 2 * i + 1] = u[i];
+    }
+    return nv21;
+  }
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright 2020 Google LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.mlkit.vision.demo.java.posedetector.choreography;
+
+import static com.google.mlkit.vision.demo.java.posedetector.classification.PoseEmbedding.NUM_LANDMARKS;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+import org.junit.Test;
+
+/**
+ * Round-trips choreographies from {@link ChoreographyCompiler} through {@link ChoreographyBundle},
+ * and checks that damaged bundles are rejected.
+ */
+public class ChoreographyBundleTest {
+  private static final int NUM_STAGES = 2;
+  private static final int STAGE_DURATION_MS = 1000;
+  // Offset of the version in the header.
+  private static final int VERSION_OFFSET = 4;
+
+  @Test
+  public void roundTrip_keepsBeatsAndEmbeddings() throws IOException {
+    Choreography compiled = compile(/* timed= */ false);
+    Choreography read = ChoreographyBundle.read(ByteBuffer.wrap(write(compiled)));
+    assertSameChoreography(compiled, read);
+    assertEquals(500, read.getBeatStartMs(1));
+  }
+
+  @Test
+  public void roundTrip_ofTimedBeats_keepsBeatsAndEmbeddings() throws IOException {
+    Choreography compiled = compile(/* timed= */ true);
+    Choreography read = ChoreographyBundle.read(ByteBuffer.wrap(write(compiled)));
+    assertSameChoreography(compiled, read);
+    assertEquals(1250, read.getBeatStartMs(3));
+  }
+
+  @Test
+  public void read_rejectsTruncatedBundle() throws IOException {
+    byte[] bundle = write(compile(/* timed= */ false));
+    for (int length : new int[] {0, 10, 28, bundle.length / 2, bundle.length - 1}) {
+      ByteBuffer truncated = ByteBuffer.wrap(Arrays.copyOf(bundle, length));
+      assertThrows(IOException.class, () -> ChoreographyBundle.read(truncated));
+    }
+  }
+
+  @Test
+  public void read_rejectsOtherVersion() throws IOException {
+    byte[] bundle = write(compile(/* timed= */ false));
+    bundle[VERSION_OFFSET]++;
+
+    IOException e =
+        assertThrows(IOException.class, () -> ChoreographyBundle.read(ByteBuffer.wrap(bundle)));
+    assertTrue(e.getMessage(), e.getMessage().contains("version 2"));
+  }
+
+  @Test
+  public void read_rejectsCorruptedPayload() throws IOException {
+    byte[] bundle = write(compile(/* timed= */ false));
+    bundle[bundle.length - 1] ^= 1;
+
+    IOException e =
+        assertThrows(IOException.class, () -> ChoreographyBundle.read(ByteBuffer.wrap(bundle)));
+    assertTrue(e.getMessage(), e.getMessage().contains("checksum"));
+  }
+
+  // Compiles 4 beats of random poses in 2 classes, over 2 stages.
+  private static Choreography compile(boolean timed) throws IOException {
+    Random random = new Random(7);
+    int[] beatMs = {0, 500, 0, 250};
+    StringBuilder csv = new StringBuilder("# Small test choreography\n");
+    for (int beat = 0; beat < beatMs.length; beat++) {
+      if (timed) {
+        csv.append(beat / 2).append(',').append(beatMs[beat]).append(',');
+      }
+      csv.append("pose").append(beat).append(beat % 2 == 0 ? ",squats_down" : ",squats_up");
+      for (int i = 0; i < NUM_LANDMARKS * 3; i++) {
+        csv.append(',').append(random.nextFloat() * 500);
+      }
+      csv.append('\n');
+    }
+    return ChoreographyCompiler.compile(
+        new StringReader(csv.toString()), NUM_STAGES, STAGE_DURATION_MS);
+  }
+
+  private static byte[] write(Choreography choreography) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    ChoreographyBundle.write(choreography, out);
+    return out.toByteArray();
+  }
+
+  private static void assertSameChoreography(Choreography expected, Choreography actual) {
+    assertEquals(expected.getNumStages(), actual.getNumStages());
+    for (int stage = 0; stage < expected.getNumStages(); stage++) {
+      assertEquals(expected.getStageStartMs(stage), actual.getStageStartMs(stage));
+      assertEquals(expected.getStageDurationMs(stage), actual.getStageDurationMs(stage));
+      assertEquals(expected.getStageFirstBeat(stage), actual.getStageFirstBeat(stage));
+    }
+    assertEquals(expected.getNumBeats(), actual.getNumBeats());
+    for (int beat = 0; beat < expected.getNumBeats(); beat++) {
+      assertEquals(expected.getBeatStartMs(beat), actual.getBeatStartMs(beat));
+      assertEquals(expected.getBeatClassName(beat), actual.getBeatClassName(beat));
+    }
+    assertEquals(expected.getClassNames(), actual.getClassNames());
+    // Floats are stored as is, so the embeddings come back bit for bit.
+    assertArrayEquals(expected.getTargetX(), actual.getTargetX(), 0);
+    assertArrayEquals(expected.getTargetY(), actual.getTargetY(), 0);
+    assertArrayEquals(expected.getTargetZ(), actual.getTargetZ(), 0);
+  }
+}
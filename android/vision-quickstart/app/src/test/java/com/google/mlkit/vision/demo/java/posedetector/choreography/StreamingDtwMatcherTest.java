@@ -0,0 +1,84 @@
+/*
+ * Copyright 2020 Google LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.mlkit.vision.demo.java.posedetector.choreography;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.google.mlkit.vision.demo.java.posedetector.classification.PoseFrame;
+import com.google.mlkit.vision.demo.java.posedetector.classification.PoseRecording;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+
+/** Checks that {@link StreamingDtwMatcher} recovers how far a performance is off the reference. */
+public class StreamingDtwMatcherTest {
+  private static final String RECORDING = "/pose/pushups_squats.plr";
+  private static final long FRAME_INTERVAL_MS = 33;
+  private static final int BAND_RADIUS = 10;
+
+  @Test
+  public void copyAhead_recoversOffset() throws IOException {
+    assertRecoversOffset(/* offset= */ 6);
+  }
+
+  @Test
+  public void copyBehind_recoversOffset() throws IOException {
+    assertRecoversOffset(/* offset= */ -4);
+  }
+
+  // Plays the reference poses early by the offset in frames, or late if it is negative, holding
+  // the first pose until the reference starts.
+  private static void assertRecoversOffset(int offset) throws IOException {
+    List<PoseFrame> reference = readPoses();
+    StreamingDtwMatcher matcher = new StreamingDtwMatcher(reference, BAND_RADIUS);
+    matcher.start(0);
+    for (int i = 0; i + offset < reference.size(); i++) {
+      int expectedIndex = Math.max(0, i + offset);
+      PoseFrame pose = reference.get(expectedIndex);
+      assertTrue(
+          matcher.addFrame(
+              new PoseFrame(
+                  i * FRAME_INTERVAL_MS, pose.getLandmarks(), pose.getInFrameLikelihoods())));
+
+      assertEquals("frame " + i, expectedIndex, matcher.getMatchedIndex());
+      assertEquals(expectedIndex * FRAME_INTERVAL_MS, matcher.getMatchedTimeMs());
+      assertEquals(0, matcher.getMeanCost(), 1e-6);
+    }
+  }
+
+  // Returns the poses of the recording, retimed to an even frame rate.
+  private static List<PoseFrame> readPoses() throws IOException {
+    List<PoseFrame> frames;
+    try (InputStream in = StreamingDtwMatcherTest.class.getResourceAsStream(RECORDING)) {
+      frames = PoseRecording.read(in);
+    }
+    List<PoseFrame> poses = new ArrayList<>();
+    for (PoseFrame frame : frames) {
+      if (frame.hasPose()) {
+        poses.add(
+            new PoseFrame(
+                poses.size() * FRAME_INTERVAL_MS,
+                frame.getLandmarks(),
+                frame.getInFrameLikelihoods()));
+      }
+    }
+    return poses;
+  }
+}
@@ -0,0 +1,189 @@
+/*
+ * Copyright 2020 Google LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.mlkit.vision.demo.java.posedetector.classification;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import org.junit.Test;
+
+/** Checks {@link EMASmoothing} against the original window re-summing implementation. */
+public class EMASmoothingTest {
+  private static final List<String> CLASS_NAMES =
+      Arrays.asList("pushups_down", "pushups_up", "squats_down", "squats_up");
+
+  @Test
+  public void constantInput_matchesOriginal() {
+    EMASmoothing smoothing = new EMASmoothing();
+    OriginalEMASmoothing original = new OriginalEMASmoothing();
+    for (int frame = 0; frame < 20; frame++) {
+      ClassificationResult result = new ClassificationResult(CLASS_NAMES);
+      result.putClassConfidence("pushups_down", 6);
+      long timestampMs = frame * 33L;
+      assertSameResult(
+          original.getSmoothedResult(toMap(result), timestampMs),
+          smoothing.getSmoothedResult(result, timestampMs));
+    }
+  }
+
+  @Test
+  public void randomInput_matchesOriginalWithinTolerance() {
+    Random random = new Random(42);
+    EMASmoothing smoothing = new EMASmoothing();
+    OriginalEMASmoothing original = new OriginalEMASmoothing();
+    long timestampMs = 0;
+    for (int frame = 0; frame < 10_000; frame++) {
+      // Mostly 30 fps, with the occasional gap that resets the window.
+      timestampMs += random.nextInt(50) == 0 ? 500 : 33;
+      ClassificationResult result = new ClassificationResult(CLASS_NAMES);
+      // Votes of the top 10 samples, now and then smoothed-like fractions, with classes missing.
+      for (int vote = 0; vote < 10; vote++) {
+        result.incrementClassConfidence(random.nextInt(CLASS_NAMES.size()));
+      }
+      if (random.nextBoolean()) {
+        int classId = random.nextInt(CLASS_NAMES.size());
+        result.putClassConfidence(classId, random.nextFloat() * 10);
+      }
+      // Classes seen for the first time midway through the stream.
+      if (frame > 5_000 && random.nextInt(10) == 0) {
+        result.putClassConfidence("lunges_" + random.nextInt(3), random.nextInt(11));
+      }
+      assertSameResult(
+          original.getSmoothedResult(toMap(result), timestampMs),
+          smoothing.getSmoothedResult(result, timestampMs));
+    }
+  }
+
+  @Test
+  public void longStreamWithoutReset_doesNotDrift() {
+    Random random = new Random(3);
+    EMASmoothing smoothing = new EMASmoothing();
+    OriginalEMASmoothing original = new OriginalEMASmoothing();
+    for (int frame = 0; frame < 100_000; frame++) {
+      ClassificationResult result = new ClassificationResult(CLASS_NAMES);
+      for (int classId = 0; classId < CLASS_NAMES.size(); classId++) {
+        if (random.nextInt(4) != 0) {
+          result.putClassConfidence(classId, random.nextFloat() * 10);
+        }
+      }
+      long timestampMs = frame * 33L;
+      assertSameResult(
+          original.getSmoothedResult(toMap(result), timestampMs),
+          smoothing.getSmoothedResult(result, timestampMs));
+    }
+  }
+
+  @Test
+  public void randomInput_countsSameRepsAsOriginal() {
+    Random random = new Random(7);
+    EMASmoothing smoothing = new EMASmoothing();
+    OriginalEMASmoothing original = new OriginalEMASmoothing();
+    RepetitionCounter counter = new RepetitionCounter(Arrays.asList("pushups_down"));
+    RepetitionCounter originalCounter = new RepetitionCounter(Arrays.asList("pushups_down"));
+    int votes = 0;
+    for (int frame = 0; frame < 20_000; frame++) {
+      // A random walk of the votes for the class, hovering around the thresholds.
+      votes = Math.max(0, Math.min(10, votes + random.nextInt(3) - 1));
+      ClassificationResult result = new ClassificationResult(CLASS_NAMES);
+      result.putClassConfidence("pushups_down", votes);
+      result.putClassConfidence("pushups_up", 10 - votes);
+      long timestampMs = frame * 33L;
+      Map<String, Float> originalSmoothed = original.getSmoothedResult(toMap(result), timestampMs);
+      ClassificationResult originalResult = new ClassificationResult();
+      for (Map.Entry<String, Float> entry : originalSmoothed.entrySet()) {
+        originalResult.putClassConfidence(entry.getKey(), entry.getValue());
+      }
+      counter.addClassificationResult(
+          smoothing.getSmoothedResult(result, timestampMs), timestampMs);
+      originalCounter.addClassificationResult(originalResult, timestampMs);
+    }
+    assertEquals(
+        originalCounter.getNumRepeats("pushups_down"), counter.getNumRepeats("pushups_down"));
+  }
+
+  private static void assertSameResult(
+      Map<String, Float> expected, ClassificationResult actual) {
+    assertEquals(expected.keySet(), actual.getAllClasses());
+    for (Map.Entry<String, Float> entry : expected.entrySet()) {
+      assertEquals(
+          entry.getKey(),
+          entry.getValue(),
+          actual.getClassConfidence(entry.getKey()),
+          EMASmoothing.TOLERANCE);
+    }
+  }
+
+  private static Map<String, Float> toMap(ClassificationResult result) {
+    Map<String, Float> confidences = new HashMap<>();
+    for (String className : result.getAllClasses()) {
+      confidences.put(className, result.getClassConfidence(className));
+    }
+    return confidences;
+  }
+
+  /** The original implementation, on class to confidence maps and with explicit timestamps. */
+  private static class OriginalEMASmoothing {
+    private static final int WINDOW_SIZE = 10;
+    private static final float ALPHA = 0.2f;
+    private static final long RESET_THRESHOLD_MS = 100;
+
+    private final Deque<Map<String, Float>> window = new ArrayDeque<>(WINDOW_SIZE);
+    private long lastInputMs;
+
+    Map<String, Float> getSmoothedResult(Map<String, Float> classificationResult, long nowMs) {
+      if (nowMs - lastInputMs > RESET_THRESHOLD_MS) {
+        window.clear();
+      }
+      lastInputMs = nowMs;
+
+      if (window.size() == WINDOW_SIZE) {
+        window.pollLast();
+      }
+      window.addFirst(classificationResult);
+
+      Set<String> allClasses = new HashSet<>();
+      for (Map<String, Float> result : window) {
+        allClasses.addAll(result.keySet());
+      }
+
+      Map<String, Float> smoothedResult = new HashMap<>();
+      for (String className : allClasses) {
+        float factor = 1;
+        float topSum = 0;
+        float bottomSum = 0;
+        for (Map<String, Float> result : window) {
+          float value = result.getOrDefault(className, 0f);
+
+          topSum += factor * value;
+          bottomSum += factor;
+
+          factor = (float) (factor * (1.0 - ALPHA));
+        }
+        smoothedResult.put(className, topSum / bottomSum);
+      }
+      return smoothedResult;
+    }
+  }
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright 2020 Google LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.mlkit.vision.demo.java.posedetector.classification;
+
+import static com.google.mlkit.vision.demo.java.posedetector.classification.PoseEmbedding.EMBEDDING_SIZE;
+import static com.google.mlkit.vision.demo.java.posedetector.classification.PoseEmbedding.NUM_LANDMARKS;
+import static org.junit.Assert.assertEquals;
+
+import java.util.Random;
+import org.junit.Test;
+
+/** Tests for {@link PoseEmbedding}. */
+public class PoseEmbeddingTest {
+  // Negating X commutes with every rounding step of the embedding, so mirroring is exact.
+  private static final float EPSILON = 0f;
+
+  @Test
+  public void mirroredEmbedding_matchesEmbeddingOfNegatedLandmarks() {
+    Random random = new Random(42);
+    for (int pose = 0; pose < 1_000; pose++) {
+      // Image-space coordinates, like the detector's, with depth around the hips.
+      float[] x = new float[NUM_LANDMARKS];
+      float[] y = new float[NUM_LANDMARKS];
+      float[] z = new float[NUM_LANDMARKS];
+      float[] negatedX = new float[NUM_LANDMARKS];
+      for (int i = 0; i < NUM_LANDMARKS; i++) {
+        x[i] = random.nextFloat() * 480;
+        y[i] = random.nextFloat() * 640;
+        z[i] = (random.nextFloat() - 0.5f) * 200;
+        negatedX[i] = -x[i];
+      }
+
+      float[] embeddingX = new float[EMBEDDING_SIZE];
+      float[] embeddingY = new float[EMBEDDING_SIZE];
+      float[] embeddingZ = new float[EMBEDDING_SIZE];
+      PoseEmbedding.getPoseEmbedding(
+          negatedX, y.clone(), z.clone(), embeddingX, embeddingY, embeddingZ);
+
+      float[] originalX = new float[EMBEDDING_SIZE];
+      float[] originalY = new float[EMBEDDING_SIZE];
+      float[] originalZ = new float[EMBEDDING_SIZE];
+      PoseEmbedding.getPoseEmbedding(x, y, z, originalX, originalY, originalZ);
+      float[] mirroredX = new float[EMBEDDING_SIZE];
+      float[] mirroredY = new float[EMBEDDING_SIZE];
+      float[] mirroredZ = new float[EMBEDDING_SIZE];
+      PoseEmbedding.getMirroredEmbedding(
+          originalX, originalY, originalZ, mirroredX, mirroredY, mirroredZ);
+
+      for (int i = 0; i < EMBEDDING_SIZE; i++) {
+        String entry = "pose " + pose + ", entry " + i;
+        assertEquals(entry, embeddingX[i], mirroredX[i], EPSILON);
+        assertEquals(entry, embeddingY[i], mirroredY[i], EPSILON);
+        assertEquals(entry, embeddingZ[i], mirroredZ[i], EPSILON);
+      }
+    }
+  }
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright 2020 Google LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.mlkit.vision.demo.java.posedetector.classification;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import androidx.annotation.Nullable;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.Charset;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.junit.Test;
+
+/**
+ * Replays a recorded session through {@link PoseClassifierProcessor} and checks the reps counted,
+ * also with the motion gate of {@link PoseClassifier} off.
+ *
+ * <p>The recording holds 3 push-ups, a few frames without a pose and a pause long enough to reset
+ * smoothing, then 2 squats, at 30 frames per second. It was made from poses of the samples with
+ * some noise added, see {@link PoseRecording} for the format.
+ */
+public class PoseReplayTest {
+  // Unit tests run in the module directory.
+  private static final String SAMPLES_FILE = "src/main/assets/pose/fitness_pose_samples.csv";
+  private static final String RECORDING = "/pose/pushups_squats.plr";
+
+  @Test
+  public void replay_countsRecordedReps() throws IOException {
+    List<PoseFrame> frames = readRecording();
+    assertEquals(143, frames.size());
+
+    PoseClassifierProcessor processor = newProcessor();
+    for (PoseFrame frame : frames) {
+      processor.getPoseResult(frame);
+    }
+
+    Map<String, Integer> expectedRepCounts = new LinkedHashMap<>();
+    expectedRepCounts.put("pushups_down", 3);
+    expectedRepCounts.put("squats_down", 2);
+    assertEquals(expectedRepCounts, processor.getRepCounts());
+  }
+
+  @Test
+  public void replay_motionGate_keepsRepsAndTopClasses() throws IOException {
+    List<PoseFrame> frames = readRecording();
+    PoseClassifierProcessor gated = newProcessor();
+    PoseClassifierProcessor ungated = newProcessor();
+    ungated.setMotionGateEnabled(false);
+
+    for (int i = 0; i < frames.size(); i++) {
+      List<String> gatedResult = gated.getPoseResult(frames.get(i));
+      List<String> ungatedResult = ungated.getPoseResult(frames.get(i));
+      assertEquals("frame " + i, getTopClass(ungatedResult), getTopClass(gatedResult));
+      assertEquals("frame " + i, ungatedResult, gatedResult);
+    }
+    assertEquals(ungated.getRepCounts(), gated.getRepCounts());
+    // Otherwise the gate was not put to the test.
+    assertTrue(gated.getMotionGateStats().getNumSkippedPoses() > 0);
+    assertEquals(0, ungated.getMotionGateStats().getNumPoses());
+  }
+
+  private static List<PoseFrame> readRecording() throws IOException {
+    try (InputStream in = PoseReplayTest.class.getResourceAsStream(RECORDING)) {
+      return PoseRecording.read(in);
+    }
+  }
+
+  private static PoseClassifierProcessor newProcessor() throws IOException {
+    return new PoseClassifierProcessor(
+        new PoseClassifier(loadSamples()), /* isStreamMode= */ true, /* playRepSound= */ false);
+  }
+
+  // Returns the class of the "class : confidence" line of a result, or null if there is none.
+  @Nullable
+  private static String getTopClass(List<String> result) {
+    for (String line : result) {
+      if (line.endsWith(" confidence")) {
+        return line.substring(0, line.indexOf(" : "));
+      }
+    }
+    return null;
+  }
+
+  private static PoseSampleStore loadSamples() throws IOException {
+    try (Reader csv =
+        new InputStreamReader(new FileInputStream(SAMPLES_FILE), Charset.forName("UTF-8"))) {
+      return PoseSampleBundleCompiler.compile(csv);
+    }
+  }
+}
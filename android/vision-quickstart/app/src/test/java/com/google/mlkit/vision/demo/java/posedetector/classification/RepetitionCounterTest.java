@@ -0,0 +1,122 @@
+/*
+ * Copyright 2020 Google LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.mlkit.vision.demo.java.posedetector.classification;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import com.google.mlkit.vision.demo.java.posedetector.classification.RepetitionCounter.Repetition;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Test;
+
+/** Checks the reps and phases counted by {@link RepetitionCounter}, with its default thresholds. */
+public class RepetitionCounterTest {
+  private static final List<String> CLASS_NAMES = Arrays.asList("pushups_down", "squats_down");
+
+  // Between the exit threshold of 4 and the enter threshold of 6.
+  private static final float BETWEEN = 5;
+  private static final float ABOVE = 8;
+  private static final float BELOW = 2;
+
+  private final RepetitionCounter counter = new RepetitionCounter(CLASS_NAMES);
+
+  @Test
+  public void rep_isTimedByPhase() {
+    assertTrue(add(0, "pushups_down", BETWEEN).isEmpty());
+    assertTrue(add(100, "pushups_down", ABOVE).isEmpty());
+    assertTrue(add(300, "pushups_down", BETWEEN).isEmpty());
+    List<Repetition> reps = add(400, "pushups_down", BELOW);
+
+    assertEquals(1, reps.size());
+    Repetition rep = reps.get(0);
+    assertEquals("pushups_down", rep.getClassName());
+    assertEquals(1, rep.getNumber());
+    assertEquals(100, rep.getEccentricMs());
+    assertEquals(200, rep.getHoldMs());
+    assertEquals(100, rep.getConcentricMs());
+    assertEquals(400, rep.getDurationMs());
+    assertEquals(1, counter.getNumRepeats("pushups_down"));
+    assertEquals(0, counter.getNumRepeats("squats_down"));
+  }
+
+  @Test
+  public void simultaneousCompletions_areAllCounted() {
+    add(0, "pushups_down", ABOVE, "squats_down", ABOVE);
+    List<Repetition> reps = add(100, "pushups_down", BELOW, "squats_down", BELOW);
+
+    assertEquals(2, reps.size());
+    assertEquals(1, counter.getNumRepeats("pushups_down"));
+    assertEquals(1, counter.getNumRepeats("squats_down"));
+  }
+
+  @Test
+  public void simultaneousCompletions_ofClassesMissingFromResult_areAllCounted() {
+    add(0, "pushups_down", ABOVE, "squats_down", ABOVE);
+    // Neither class is in the result, so both drop to a confidence of 0.
+    List<Repetition> reps = add(100);
+
+    assertEquals(2, reps.size());
+    assertEquals(1, counter.getNumRepeats("pushups_down"));
+    assertEquals(1, counter.getNumRepeats("squats_down"));
+  }
+
+  @Test
+  public void eccentricAbort_isNotCounted() {
+    add(0, "squats_down", BETWEEN);
+    assertTrue(add(100, "squats_down", BELOW).isEmpty());
+    assertEquals(0, counter.getNumRepeats("squats_down"));
+    assertNull(counter.getLastRepetition("squats_down"));
+
+    // The next rep starts afresh.
+    add(200, "squats_down", BETWEEN);
+    add(300, "squats_down", ABOVE);
+    List<Repetition> reps = add(400, "squats_down", BELOW);
+    assertEquals(1, reps.size());
+    assertEquals(1, reps.get(0).getNumber());
+    assertEquals(200, reps.get(0).getStartMs());
+  }
+
+  @Test
+  public void cadence_isMeasuredOverLatestFiveReps() {
+    long timestampMs = 0;
+    for (int rep = 0; rep < 7; rep++) {
+      // Slow reps first, then one every 2 seconds.
+      timestampMs += rep < 3 ? 10_000 : 2_000;
+      add(timestampMs - 1_000, "pushups_down", ABOVE);
+      add(timestampMs, "pushups_down", BELOW);
+      if (rep == 0) {
+        assertEquals(0, counter.getCadence("pushups_down"), 0);
+      }
+    }
+
+    assertEquals(7, counter.getNumRepeats("pushups_down"));
+    // 4 intervals of 2 seconds between the latest 5 reps.
+    assertEquals(30, counter.getCadence("pushups_down"), 1e-3);
+    assertEquals(0, counter.getCadence("squats_down"), 0);
+  }
+
+  // Adds a result of the given classes and confidences, in pairs.
+  private List<Repetition> add(long timestampMs, Object... classConfidences) {
+    ClassificationResult result = new ClassificationResult(CLASS_NAMES);
+    for (int i = 0; i < classConfidences.length; i += 2) {
+      result.putClassConfidence((String) classConfidences[i], (Float) classConfidences[i + 1]);
+    }
+    return counter.addClassificationResult(result, timestampMs);
+  }
+}
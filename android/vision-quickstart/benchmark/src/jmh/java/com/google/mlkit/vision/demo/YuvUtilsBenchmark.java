@@ -0,0 +1,200 @@
+/*
+ * Copyright 2020 Google LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.mlkit.vision.demo;
+
+import android.media.Image.Plane;
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Benchmarks packing the planes of a YUV_420_888 camera frame into NV21, see {@link YuvUtils}.
+ *
+ * <p>Planes are laid out the ways cameras commonly deliver them: {@code NV21} with interleaved V
+ * and U planes that can be copied in bulk, {@code I420} with separate U and V planes, {@code
+ * I420_PADDED} with separate planes and padded rows, and {@code NV12_PADDED} with interleaved U and
+ * V planes and padded rows. All but {@code NV21} have to be unpacked plane by plane, which {@link
+ * #unpackPlanes} does a row at a time and {@link #unpackPlanesPerByte} a byte at a time.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class YuvUtilsBenchmark {
+  // Bytes of padding at the end of each row in the padded layout.
+  private static final int ROW_PADDING = 64;
+
+  @Param({"640x480", "1280x720"})
+  public String size;
+
+  @Param({"NV21", "I420", "I420_PADDED", "NV12_PADDED"})
+  public String layout;
+
+  private int width;
+  private int height;
+  private Plane[] planes;
+  private byte[] out;
+  private final FrameBufferPool bufferPool = new FrameBufferPool(/* detectLeaks= */ false);
+
+  @Setup
+  public void setUp() {
+    String[] dimensions = size.split("x");
+    width = Integer.parseInt(dimensions[0]);
+    height = Integer.parseInt(dimensions[1]);
+    int imageSize = width * height;
+    out = new byte[imageSize + 2 * (imageSize / 4)];
+    Random random = new Random(42);
+    switch (layout) {
+      case "NV21":
+        {
+          ByteBuffer vu = randomBuffer(imageSize / 2, random);
+          planes =
+              new Plane[] {
+                new BufferPlane(randomBuffer(imageSize, random), width, 1),
+                new BufferPlane(slice(vu, 1, imageSize / 2 - 1), width, 2),
+                new BufferPlane(slice(vu, 0, imageSize / 2 - 1), width, 2)
+              };
+          break;
+        }
+      case "I420":
+        planes =
+            new Plane[] {
+              new BufferPlane(randomBuffer(imageSize, random), width, 1),
+              new BufferPlane(randomBuffer(imageSize / 4, random), width / 2, 1),
+              new BufferPlane(randomBuffer(imageSize / 4, random), width / 2, 1)
+            };
+        break;
+      case "I420_PADDED":
+        {
+          int rowStride = width + ROW_PADDING;
+          int uvRowStride = width / 2 + ROW_PADDING;
+          // The last row of a plane has no padding.
+          int uvSize = uvRowStride * (height / 2 - 1) + width / 2;
+          planes =
+              new Plane[] {
+                new BufferPlane(
+                    randomBuffer(rowStride * (height - 1) + width, random), rowStride, 1),
+                new BufferPlane(randomBuffer(uvSize, random), uvRowStride, 1),
+                new BufferPlane(randomBuffer(uvSize, random), uvRowStride, 1)
+              };
+          break;
+        }
+      case "NV12_PADDED":
+        {
+          int rowStride = width + ROW_PADDING;
+          // The last row of a plane has no padding.
+          int uvSize = rowStride * (height / 2 - 1) + width;
+          ByteBuffer uv = randomBuffer(uvSize, random);
+          planes =
+              new Plane[] {
+                new BufferPlane(
+                    randomBuffer(rowStride * (height - 1) + width, random), rowStride, 1),
+                new BufferPlane(slice(uv, 0, uvSize - 1), rowStride, 2),
+                new BufferPlane(slice(uv, 1, uvSize - 1), rowStride, 2)
+              };
+          break;
+        }
+      default:
+        throw new IllegalArgumentException("Unknown layout " + layout);
+    }
+  }
+
+  @Benchmark
+  public ByteBuffer yuv420ThreePlanesToNV21() {
+    return YuvUtils.yuv420ThreePlanesToNV21(planes, width, height);
+  }
+
+  /** Packs into a pooled buffer, as live previews do, which allocates no frames once warmed up. */
+  @Benchmark
+  public byte[] yuv420ThreePlanesToNV21Pooled() {
+    byte[] buffer = bufferPool.acquire(YuvUtils.getNv21Size(width, height));
+    YuvUtils.yuv420ThreePlanesToNV21(planes, width, height, buffer);
+    bufferPool.release(buffer);
+    return buffer;
+  }
+
+  /** The plane by plane path alone, which {@link #yuv420ThreePlanesToNV21} skips for NV21. */
+  @Benchmark
+  public byte[] unpackPlanes() {
+    int imageSize = width * height;
+    YuvUtils.unpackPlane(planes[0], width, height, out, 0, 1);
+    YuvUtils.unpackPlane(planes[1], width, height, out, imageSize + 1, 2);
+    YuvUtils.unpackPlane(planes[2], width, height, out, imageSize, 2);
+    return out;
+  }
+
+  /** The byte at a time baseline {@link #unpackPlanes} is measured against. */
+  @Benchmark
+  public byte[] unpackPlanesPerByte() {
+    int imageSize = width * height;
+    YuvUtils.unpackPlanePerByte(planes[0], width, height, out, 0, 1);
+    YuvUtils.unpackPlanePerByte(planes[1], width, height, out, imageSize + 1, 2);
+    YuvUtils.unpackPlanePerByte(planes[2], width, height, out, imageSize, 2);
+    return out;
+  }
+
+  private static ByteBuffer randomBuffer(int size, Random random) {
+    byte[] bytes = new byte[size];
+    random.nextBytes(bytes);
+    return ByteBuffer.allocateDirect(size).put(bytes);
+  }
+
+  private static ByteBuffer slice(ByteBuffer buffer, int offset, int length) {
+    ByteBuffer slice = buffer.duplicate();
+    slice.position(offset);
+    slice.limit(offset + length);
+    return slice.slice();
+  }
+
+  /** A plane over a direct buffer, as camera frames are. */
+  private static class BufferPlane extends Plane {
+    private final ByteBuffer buffer;
+    private final int rowStride;
+    private final int pixelStride;
+
+    BufferPlane(ByteBuffer buffer, int rowStride, int pixelStride) {
+      this.buffer = buffer;
+      this.rowStride = rowStride;
+      this.pixelStride = pixelStride;
+    }
+
+    @Override
+    public int getRowStride() {
+      return rowStride;
+    }
+
+    @Override
+    public int getPixelStride() {
+      return pixelStride;
+    }
+
+    @Override
+    public ByteBuffer getBuffer() {
+      // Every call sees the whole plane, as conversions move the position of the buffer.
+      ByteBuffer duplicate = buffer.duplicate();
+      duplicate.clear();
+      return duplicate;
+    }
+  }
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright 2020 Google LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.mlkit.vision.demo.java.posedetector.classification;
+
+import static com.google.mlkit.vision.demo.java.posedetector.classification.PoseEmbedding.NUM_LANDMARKS;
+
+import com.google.mlkit.vision.common.PointF3D;
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/** Pose samples and queries for the benchmarks, derived from the bundled pose samples csv file. */
+final class BenchmarkData {
+  // Set by the jmh task in build.gradle.
+  private static final String SAMPLES_FILE_PROPERTY = "pose.samples";
+  // Standard deviation, in pixels, of the noise added to the landmarks of copies and queries.
+  private static final float JITTER = 2f;
+  // Fixed seed so that every run benchmarks the same data.
+  private static final long SEED = 42;
+
+  private BenchmarkData() {}
+
+  /** Returns the rows of the bundled pose samples csv file that hold a sample. */
+  static List<String> readSampleRows() throws IOException {
+    String samplesFile = System.getProperty(SAMPLES_FILE_PROPERTY);
+    if (samplesFile == null) {
+      throw new IOException("Set -D" + SAMPLES_FILE_PROPERTY + " to the pose samples csv file");
+    }
+    List<String> rows = new ArrayList<>();
+    try (BufferedReader reader =
+        new BufferedReader(
+            new InputStreamReader(new FileInputStream(samplesFile), Charset.forName("UTF-8")))) {
+      for (String row = reader.readLine(); row != null; row = reader.readLine()) {
+        if (row.split(",").length == 2 + NUM_LANDMARKS * 3) {
+          rows.add(row);
+        }
+      }
+    }
+    return rows;
+  }
+
+  /**
+   * Returns the samples of the given rows followed by {@code scale - 1} copies of them with
+   * jittered landmarks, so that larger sample sets keep the structure of the bundled one.
+   */
+  static PoseSampleStore getSampleStore(List<String> rows, int scale) {
+    Random random = new Random(SEED);
+    List<PoseSample> samples = new ArrayList<>(rows.size() * scale);
+    for (int copy = 0; copy < scale; copy++) {
+      for (String row : rows) {
+        String[] tokens = row.split(",");
+        samples.add(
+            new PoseSample(tokens[0], tokens[1], getLandmarks(tokens, copy > 0, random)));
+      }
+    }
+    return new PoseSampleStore(samples);
+  }
+
+  /** Returns {@code count} poses of randomly picked rows, with jittered landmarks. */
+  static List<List<PointF3D>> getPoses(List<String> rows, int count) {
+    Random random = new Random(SEED);
+    List<List<PointF3D>> poses = new ArrayList<>(count);
+    for (int i = 0; i < count; i++) {
+      poses.add(getLandmarks(rows.get(random.nextInt(rows.size())).split(","), true, random));
+    }
+    return poses;
+  }
+
+  private static List<PointF3D> getLandmarks(String[] tokens, boolean jitter, Random random) {
+    float scale = jitter ? JITTER : 0;
+    List<PointF3D> landmarks = new ArrayList<>(NUM_LANDMARKS);
+    // The first two tokens are name and class.
+    for (int i = 2; i < tokens.length; i += 3) {
+      landmarks.add(
+          PointF3D.from(
+              Float.parseFloat(tokens[i]) + scale * (float) random.nextGaussian(),
+              Float.parseFloat(tokens[i + 1]) + scale * (float) random.nextGaussian(),
+              Float.parseFloat(tokens[i + 2]) + scale * (float) random.nextGaussian()));
+    }
+    return landmarks;
+  }
+}
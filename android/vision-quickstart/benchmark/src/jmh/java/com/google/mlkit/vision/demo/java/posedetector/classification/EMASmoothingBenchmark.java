@@ -0,0 +1,65 @@
+/*
+ * Copyright 2020 Google LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.mlkit.vision.demo.java.posedetector.classification;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/** Benchmarks {@link EMASmoothing} on a stream of results at 30 frames per second. */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class EMASmoothingBenchmark {
+  // A power of two, so that cycling through the results is a mask.
+  private static final int NUM_RESULTS = 64;
+  private static final long FRAME_INTERVAL_MS = 33;
+  private static final List<String> CLASS_NAMES =
+      Arrays.asList("pushups_down", "pushups_up", "squats_down", "squats_up");
+
+  private final ClassificationResult[] results = new ClassificationResult[NUM_RESULTS];
+  private EMASmoothing smoothing;
+  private long timestampMs;
+  private int next;
+
+  @Setup
+  public void setUp() {
+    // Like the classifier's results: votes of the top 10 samples, spread over a few classes.
+    Random random = new Random(42);
+    for (int i = 0; i < NUM_RESULTS; i++) {
+      results[i] = new ClassificationResult(CLASS_NAMES);
+      for (int vote = 0; vote < 10; vote++) {
+        results[i].incrementClassConfidence(random.nextInt(CLASS_NAMES.size()));
+      }
+    }
+    smoothing = new EMASmoothing();
+  }
+
+  @Benchmark
+  public ClassificationResult getSmoothedResult() {
+    timestampMs += FRAME_INTERVAL_MS;
+    return smoothing.getSmoothedResult(results[next++ & (NUM_RESULTS - 1)], timestampMs);
+  }
+}
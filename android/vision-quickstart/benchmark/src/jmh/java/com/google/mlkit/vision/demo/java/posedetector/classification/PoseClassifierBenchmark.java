@@ -0,0 +1,66 @@
+/*
+ * Copyright 2020 Google LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.mlkit.vision.demo.java.posedetector.classification;
+
+import com.google.mlkit.vision.common.PointF3D;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Benchmarks {@link PoseClassifier#classify} on sample sets of 1, 10 and 100 times the size of
+ * the bundled one. Consecutive queries are unrelated poses, so neither the previous neighbors nor
+ * the motion gate help, unlike in a live session.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class PoseClassifierBenchmark {
+  // A power of two, so that cycling through the queries is a mask.
+  private static final int NUM_QUERIES = 256;
+
+  @Param({"1", "10", "100"})
+  public int sampleSetScale;
+
+  @Param({"FLOAT32", "INT16", "INT8"})
+  public EmbeddingPrecision precision;
+
+  private PoseClassifier classifier;
+  private List<List<PointF3D>> queries;
+  private int next;
+
+  @Setup
+  public void setUp() throws IOException {
+    List<String> rows = BenchmarkData.readSampleRows();
+    classifier =
+        new PoseClassifier(BenchmarkData.getSampleStore(rows, sampleSetScale), precision);
+    queries = BenchmarkData.getPoses(rows, NUM_QUERIES);
+  }
+
+  @Benchmark
+  public ClassificationResult classify() {
+    return classifier.classify(queries.get(next++ & (NUM_QUERIES - 1)));
+  }
+}
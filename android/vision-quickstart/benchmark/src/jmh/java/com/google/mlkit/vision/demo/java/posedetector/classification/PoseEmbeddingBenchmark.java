@@ -0,0 +1,85 @@
+/*
+ * Copyright 2020 Google LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.mlkit.vision.demo.java.posedetector.classification;
+
+import static com.google.mlkit.vision.demo.java.posedetector.classification.PoseEmbedding.EMBEDDING_SIZE;
+import static com.google.mlkit.vision.demo.java.posedetector.classification.PoseEmbedding.NUM_LANDMARKS;
+
+import com.google.mlkit.vision.common.PointF3D;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/** Benchmarks {@link PoseEmbedding}, on the landmark lists and on primitive arrays. */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class PoseEmbeddingBenchmark {
+  // A power of two, so that cycling through the poses is a mask.
+  private static final int NUM_POSES = 256;
+
+  private List<List<PointF3D>> poses;
+  private float[][] poseX;
+  private float[][] poseY;
+  private float[][] poseZ;
+  private final float[] x = new float[NUM_LANDMARKS];
+  private final float[] y = new float[NUM_LANDMARKS];
+  private final float[] z = new float[NUM_LANDMARKS];
+  private final float[] embeddingX = new float[EMBEDDING_SIZE];
+  private final float[] embeddingY = new float[EMBEDDING_SIZE];
+  private final float[] embeddingZ = new float[EMBEDDING_SIZE];
+  private int next;
+
+  @Setup
+  public void setUp() throws IOException {
+    poses = BenchmarkData.getPoses(BenchmarkData.readSampleRows(), NUM_POSES);
+    poseX = new float[NUM_POSES][NUM_LANDMARKS];
+    poseY = new float[NUM_POSES][NUM_LANDMARKS];
+    poseZ = new float[NUM_POSES][NUM_LANDMARKS];
+    for (int i = 0; i < NUM_POSES; i++) {
+      for (int j = 0; j < NUM_LANDMARKS; j++) {
+        PointF3D landmark = poses.get(i).get(j);
+        poseX[i][j] = landmark.getX();
+        poseY[i][j] = landmark.getY();
+        poseZ[i][j] = landmark.getZ();
+      }
+    }
+  }
+
+  @Benchmark
+  public List<PointF3D> getPoseEmbedding() {
+    return PoseEmbedding.getPoseEmbedding(poses.get(next++ & (NUM_POSES - 1)));
+  }
+
+  @Benchmark
+  public float[] getPoseEmbeddingArrays() {
+    int pose = next++ & (NUM_POSES - 1);
+    // Landmarks are normalized in place, so start from a copy.
+    System.arraycopy(poseX[pose], 0, x, 0, NUM_LANDMARKS);
+    System.arraycopy(poseY[pose], 0, y, 0, NUM_LANDMARKS);
+    System.arraycopy(poseZ[pose], 0, z, 0, NUM_LANDMARKS);
+    PoseEmbedding.getPoseEmbedding(x, y, z, embeddingX, embeddingY, embeddingZ);
+    return embeddingX;
+  }
+}
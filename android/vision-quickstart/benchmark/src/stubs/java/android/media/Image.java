@@ -0,0 +1,33 @@
+/*
+ * Copyright 2020 Google LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.media;
+
+import java.nio.ByteBuffer;
+
+/** Stand-in for the Android class, with only what the benchmarked code uses. */
+public abstract class Image {
+  public abstract Plane[] getPlanes();
+
+  /** Stand-in for the Android class, which benchmarks implement over their own buffers. */
+  public abstract static class Plane {
+    public abstract int getRowStride();
+
+    public abstract int getPixelStride();
+
+    public abstract ByteBuffer getBuffer();
+  }
+}